@@ -0,0 +1,113 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.goal;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.johnstonshome.maven.pkgdep.model.PackageCache;
+import org.johnstonshome.maven.pkgdep.model.Pools;
+import org.johnstonshome.maven.pkgdep.model.Repository;
+import org.johnstonshome.maven.pkgdep.model.StorageMode;
+
+/**
+ * Common configuration for all goals that work against the local package
+ * repository.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public abstract class AbstractRepositoryGoal extends AbstractMojo {
+
+    /**
+     * The storage layout of the local package repository, one of the values
+     * of {@link StorageMode}. A repository that has been opened with
+     * <code>INDEX</code> must always be opened with <code>INDEX</code>.
+     *
+     * @parameter expression="${pkgdep.storage}" default-value="PROPERTIES"
+     */
+    private String  storage;
+
+    /**
+     * The maximum number of packages to cache in memory, zero for no limit on
+     * the count. The cache is shared by every goal using the repository in
+     * this JVM, and keeps the bounds of the first goal to use it.
+     *
+     * @parameter expression="${pkgdep.cacheSize}" default-value="0"
+     */
+    private int     cacheSize;
+
+    /**
+     * The maximum estimated memory, in bytes, to use for cached packages,
+     * zero for no limit on the size. If neither this nor the cache size is
+     * set packages are not cached.
+     *
+     * @parameter expression="${pkgdep.cacheBytes}" default-value="0"
+     */
+    private long    cacheBytes;
+
+    /**
+     * Share the version numbers and artifacts read from the repository
+     * between packages, rather than holding a copy for each package.
+     *
+     * @parameter expression="${pkgdep.intern}" default-value="true"
+     */
+    private boolean intern;
+
+    /**
+     * Create the repository object for this goal, using the configured
+     * storage layout and this goal's log.
+     *
+     * @return a new {@link Repository} instance.
+     * @throws MojoExecutionException
+     *             if the configured storage layout is not recognized.
+     */
+    protected Repository createRepository() throws MojoExecutionException {
+        StorageMode mode = StorageMode.PROPERTIES;
+        if (this.storage != null) {
+            try {
+                mode = StorageMode.valueOf(this.storage.trim().toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new MojoExecutionException(String.format(
+                        "Unknown repository storage mode %s", this.storage),
+                        ex);
+            }
+        }
+        final File root = new File(System.getProperty("user.home"),
+                Repository.REPO_ROOT);
+        final Repository repository;
+        try {
+            repository = new Repository(root, mode);
+        } catch (IllegalStateException ex) {
+            throw new MojoExecutionException(ex.getMessage(), ex);
+        }
+        repository.setLog(getLog());
+        Pools.setEnabled(this.intern);
+        if (this.cacheSize > 0 || this.cacheBytes > 0) {
+            repository.setCache(PackageCache.forRoot(root, this.cacheSize,
+                    this.cacheBytes));
+        }
+        return repository;
+    }
+
+    /**
+     * Log the statistics for the repository's package cache, if it has one,
+     * so that the cache may be sized.
+     *
+     * @param repository
+     *            the repository used by this goal.
+     */
+    protected void logCacheStatistics(final Repository repository) {
+        if (repository.getCache() != null) {
+            getLog().debug(String.format("Package cache: %s",
+                    repository.getCache()));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.goal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+
+/**
+ * A record of everything the {@link ExportGoal} reads to decide which packages
+ * a project exports: the project coordinates and repository, the content of
+ * each manifest, the bundle plugin instructions and the packages available
+ * for wildcard expansion, together with the package versions the repository
+ * lists for the project. If the fingerprint saved by the last export matches
+ * the current one there is nothing new to export, and the repository still
+ * holds what was exported.
+ * <p>
+ * The fingerprint is saved as a plain text file, one line per input, so that
+ * the reason for an export being re-run can be seen by comparing the files.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class ExportFingerprint {
+
+    private static final Charset UTF8        = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private static final String  DIGEST      = "SHA-1";                  //$NON-NLS-1$
+    private static final String  LINE_FORMAT = "%s=%s";                  //$NON-NLS-1$
+    private static final char[]  HEX         = "0123456789abcdef"        //$NON-NLS-1$
+                                                     .toCharArray();
+    private static final int     BUFFER_SIZE = 8192;
+
+    private final List<String>   lines;
+
+    /**
+     * Construct an empty fingerprint.
+     */
+    ExportFingerprint() {
+        this.lines = new ArrayList<String>();
+    }
+
+    /**
+     * Construct a fingerprint holding everything in another, which is not
+     * changed by anything added to this one.
+     *
+     * @param other
+     *            the fingerprint to copy.
+     */
+    ExportFingerprint(final ExportFingerprint other) {
+        this.lines = new ArrayList<String>(other.lines);
+    }
+
+    /**
+     * Add a single named value to the fingerprint.
+     *
+     * @param name
+     *            the name of the value.
+     * @param value
+     *            the value, may be <code>null</code>.
+     */
+    void addValue(final String name, final String value) {
+        this.lines.add(String.format(LINE_FORMAT, name, escape(value)));
+    }
+
+    /**
+     * Add the path and content hash of a file to the fingerprint.
+     *
+     * @param name
+     *            the name of the value.
+     * @param file
+     *            the file to hash.
+     * @throws IOException
+     *             if the file could not be read.
+     */
+    void addFile(final String name, final File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        addValue(name, file.getPath() + ' ' + toHex(digest.digest()));
+    }
+
+    /**
+     * Add where some content came from, and its hash, to the fingerprint.
+     *
+     * @param name
+     *            the name of the value.
+     * @param source
+     *            where the content was read from.
+     * @param content
+     *            the content to hash.
+     */
+    void addContent(final String name, final String source,
+            final byte[] content) {
+        final MessageDigest digest = newDigest();
+        digest.update(content);
+        addValue(name, source + ' ' + toHex(digest.digest()));
+    }
+
+    /**
+     * Add a set of package names, such as those available for wildcard
+     * expansion, to the fingerprint as a count and a hash.
+     *
+     * @param name
+     *            the name of the value.
+     * @param packages
+     *            the package names, in order.
+     */
+    void addPackages(final String name, final Collection<String> packages) {
+        final MessageDigest digest = newDigest();
+        for (final String found : packages) {
+            digest.update(found.getBytes(UTF8));
+            digest.update((byte) '\n');
+        }
+        addValue(name, packages.size() + " " + toHex(digest.digest())); //$NON-NLS-1$
+    }
+
+    /**
+     * Add the package versions a repository lists for an artifact to the
+     * fingerprint as a count and a hash.
+     *
+     * @param name
+     *            the name of the value.
+     * @param exports
+     *            the versions of each package, as found in the repository.
+     */
+    void addExports(final String name,
+            final SortedMap<String, SortedSet<VersionNumber>> exports) {
+        final MessageDigest digest = newDigest();
+        for (final Map.Entry<String, SortedSet<VersionNumber>> entry : exports
+                .entrySet()) {
+            digest.update(entry.getKey().getBytes(UTF8));
+            for (final VersionNumber version : entry.getValue()) {
+                digest.update((byte) ' ');
+                digest.update(version.toString().getBytes(UTF8));
+            }
+            digest.update((byte) '\n');
+        }
+        addValue(name, exports.size() + " " + toHex(digest.digest())); //$NON-NLS-1$
+    }
+
+    /**
+     * Does this fingerprint match the one saved in the given file?
+     *
+     * @param file
+     *            the saved fingerprint.
+     * @return <code>true</code> if the file exists and holds exactly this
+     *         fingerprint.
+     * @throws IOException
+     *             if the file exists but could not be read.
+     */
+    boolean matches(final File file) throws IOException {
+        final List<String> saved = new ArrayList<String>();
+        final BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), UTF8));
+        } catch (FileNotFoundException ex) {
+            return false;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                saved.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return saved.equals(this.lines);
+    }
+
+    /**
+     * Save this fingerprint to the given file, replacing any saved before.
+     *
+     * @param file
+     *            the file to save to.
+     * @throws IOException
+     *             if the file could not be written.
+     */
+    void save(final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(
+                file), UTF8);
+        try {
+            for (final String line : this.lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * Values may contain line breaks, which would otherwise split the line.
+     */
+    private static String escape(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\n", "\\n")
+                .replace("\r", "\\r");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
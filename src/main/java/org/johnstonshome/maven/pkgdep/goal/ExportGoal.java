@@ -10,22 +10,32 @@ package org.johnstonshome.maven.pkgdep.goal;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.maven.model.Resource;
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.johnstonshome.maven.pkgdep.model.Artifact;
 import org.johnstonshome.maven.pkgdep.model.Package;
 import org.johnstonshome.maven.pkgdep.model.Repository;
+import org.johnstonshome.maven.pkgdep.model.RepositoryBatch;
 import org.johnstonshome.maven.pkgdep.model.VersionNumber;
 import org.johnstonshome.maven.pkgdep.parse.ImportExportParser;
+import org.johnstonshome.maven.pkgdep.parse.SourcePackageFinder;
+import org.johnstonshome.maven.pkgdep.parse.ZipManifestReader;
 
 /**
  * This goal scans certain known locations for exported packages from this
  * project.
+ * <p>
+ * The manifest in the packaged artifact is only read once the artifact has
+ * been built from the current build output, so to index a manifest generated
+ * by the bundle plugin the goal must be bound to the <code>package</code>
+ * phase or later; bound to its default phase the artifact left by the last
+ * build is ignored.
  * 
  * @phase initialize
  * @goal export
@@ -33,9 +43,32 @@ import org.johnstonshome.maven.pkgdep.parse.ImportExportParser;
  * @author simonjo (simon@johnstonshome.org)
  * 
  */
-public class ExportGoal extends AbstractMojo {
+public class ExportGoal extends AbstractRepositoryGoal {
 
-    private static final String MANIFEST_FILE = "MANIFEST.MF"; //$NON-NLS-1$
+    private static final String MANIFEST_FILE    = "MANIFEST.MF";        //$NON-NLS-1$
+    private static final String MANIFEST_DIR     = "META-INF";           //$NON-NLS-1$
+    private static final String JAR_EXTENSION    = ".jar";               //$NON-NLS-1$
+    private static final String FINGERPRINT_DIR  = "pkgdep";             //$NON-NLS-1$
+    private static final String FINGERPRINT_FILE = "export.fingerprint"; //$NON-NLS-1$
+
+    /**
+     * Export even if nothing has changed since the last export from this
+     * project, otherwise the export is skipped when its inputs match those
+     * recorded in the build directory by the last export.
+     * 
+     * @parameter expression="${pkgdep.force}" default-value="false"
+     */
+    private boolean             force;
+
+    /**
+     * Also read the manifest in the build output directory, as written by
+     * the bundle plugin when its <code>manifestLocation</code> is set to
+     * <code>META-INF</code> there, as well as the one in the packaged
+     * artifact.
+     * 
+     * @parameter expression="${pkgdep.classesManifest}" default-value="true"
+     */
+    private boolean             classesManifest;
 
     /**
      * {@inheritDoc}
@@ -65,29 +98,119 @@ public class ExportGoal extends AbstractMojo {
          */
         final ImportExportParser parser = new ImportExportParser();
 
+        /*
+         * The packages in all the source roots, walked once for the
+         * fingerprint and all the wildcards in the manifests and
+         * instructions, listing only the directories changed since the
+         * last build.
+         */
+        final SourcePackageFinder sources = ImportExportParser
+                .newSourceFinder(project);
+
         /*
          * Find any static MANIFEST.MF file(s)
          */
-        getLog().info(String.format("Processing %s files...", MANIFEST_FILE));
+        final List<File> manifests = new LinkedList<File>();
         if (project.getBuild().getResources() != null) {
             for (final Object resource : project.getBuild().getResources()) {
                 final File resourceDir = new File(
                         ((Resource) resource).getDirectory());
-                final File[] manifests = resourceDir
+                final File[] found = resourceDir
                         .listFiles(new FilenameFilter() {
                             public boolean accept(final File dir,
                                     final String name) {
                                 return name.equals(MANIFEST_FILE);
                             }
                         });
-                for (final File manifest : manifests) {
-                    getLog().info(manifest.getPath());
-                    packages.addAll(parser
-                            .parseManifestExports(manifest, project.getBuild()
-                                    .getSourceDirectory(), thisBundle));
+                if (found != null) {
+                    manifests.addAll(Arrays.asList(found));
                 }
             }
         }
+        if (this.classesManifest) {
+            final File built = new File(new File(project.getBuild()
+                    .getOutputDirectory(), MANIFEST_DIR), MANIFEST_FILE);
+            if (built.isFile()) {
+                manifests.add(built);
+            }
+        }
+
+        /*
+         * Find the manifest generated into the packaged artifact, read from
+         * the zip central directory without opening the other entries.
+         */
+        File jar = packagedArtifact(project);
+        byte[] jarManifest = null;
+        if (jar != null) {
+            try {
+                jarManifest = ZipManifestReader.readManifest(jar);
+            } catch (IOException ex) {
+                getLog().warn(
+                        String.format("Could not read manifest from %s: %s",
+                                jar, ex.getMessage()));
+            }
+        }
+        final List<String> instructions = parser
+                .getPomExportInstructions(project);
+
+        final Repository repository = createRepository();
+
+        /*
+         * Skip the export if nothing has changed since the last one, and the
+         * repository still lists the packages it exported; they are looked up
+         * in the repository's artifact index, so no package is read.
+         */
+        final File fingerprintFile = new File(new File(project.getBuild()
+                .getDirectory(), FINGERPRINT_DIR), FINGERPRINT_FILE);
+        ExportFingerprint inputs = null;
+        try {
+            inputs = fingerprint(project, repository, manifests,
+                    instructions, sources);
+            getLog().debug(
+                    String.format("Source directories: %d listed, %d cached",
+                            Integer.valueOf(sources.getDirectoriesListed()),
+                            Integer.valueOf(sources.getDirectoriesReused())));
+            final ExportFingerprint fingerprint = new ExportFingerprint(inputs);
+            if (jarManifest != null) {
+                fingerprint.addContent("manifest", jar.getPath(), jarManifest);
+            }
+            fingerprint.addExports("exports", repository
+                    .findPackages(thisBundle));
+            if (!this.force && fingerprint.matches(fingerprintFile)) {
+                getLog().info("Exported packages unchanged, skipping export");
+                return;
+            }
+        } catch (IOException ex) {
+            getLog().warn(
+                    String.format("Could not check export fingerprint: %s",
+                            ex.getMessage()));
+            inputs = null;
+        }
+
+        /*
+         * Something has changed, so a jar left by an earlier build is only
+         * read if nothing in the build output is newer than it.
+         */
+        if (jar != null && !isPackagedByThisBuild(project)
+                && !isCurrent(project, jar)) {
+            jar = null;
+            jarManifest = null;
+        }
+        if (inputs != null && jarManifest != null) {
+            inputs.addContent("manifest", jar.getPath(), jarManifest);
+        }
+
+        getLog().info(String.format("Processing %s files...", MANIFEST_FILE));
+        for (final File manifest : manifests) {
+            getLog().info(manifest.getPath());
+            packages.addAll(parser.parseManifestExports(manifest, sources,
+                    thisBundle));
+        }
+        if (jarManifest != null) {
+            getLog().info(jar.getPath());
+            packages.addAll(parser.parseManifestExports(jarManifest, sources,
+                    thisBundle));
+        }
 
         /*
          * Look for the felix bundle plugin
@@ -95,20 +218,137 @@ public class ExportGoal extends AbstractMojo {
         getLog().info(
                 String.format("Processing %s content...",
                         ImportExportParser.PLUGIN_ARTIFACT));
-        packages.addAll(parser.parsePomExports(project, thisBundle));
+        packages.addAll(parser.parsePomExports(project, sources, thisBundle));
 
-        final Repository repository = new Repository();
+        final RepositoryBatch batch = repository.beginBatch();
 
         for (final Package found : packages) {
             getLog().info(found.getName() + ":" + found.getVersions());
-            final Package local = repository.readPackage(found.getName());
-            if (local != null) {
-                local.merge(found);
-                repository.writePackage(local);
-            } else {
-                repository.writePackage(found);
+            batch.merge(found);
+        }
+        final boolean committed = batch.commit();
+        getLog().info(
+                String.format("Wrote %d packages, %d already up to date",
+                        Long.valueOf(repository.getPackagesWritten()), Long
+                                .valueOf(repository.getPackagesSkipped())));
+        if (committed && inputs != null) {
+            final ExportFingerprint fingerprint = new ExportFingerprint(inputs);
+            fingerprint.addExports("exports", repository
+                    .findPackages(thisBundle));
+            try {
+                fingerprint.save(fingerprintFile);
+            } catch (IOException ex) {
+                getLog().warn(
+                        String.format("Could not save export fingerprint: %s",
+                                ex.getMessage()));
             }
         }
+        logCacheStatistics(repository);
+    }
+
+    /*
+     * The packaged artifact. The one set by the package phase of this build
+     * is always current; when this goal runs before the package phase the
+     * one left by the last build may be of another version or content, and
+     * is ignored if the POM or the output directory itself is newer. Files
+     * changed deeper in the output are only looked for, by isCurrent, once
+     * the export is known to have to run.
+     */
+    private File packagedArtifact(final MavenProject project) {
+        if (isPackagedByThisBuild(project)) {
+            return project.getArtifact().getFile();
+        }
+        if (project.getBuild().getDirectory() == null
+                || project.getBuild().getFinalName() == null) {
+            return null;
+        }
+        final File jar = new File(project.getBuild().getDirectory(), project
+                .getBuild().getFinalName()
+                + JAR_EXTENSION);
+        if (!jar.isFile()) {
+            return null;
+        }
+        final long packaged = jar.lastModified();
+        final File pom = project.getFile();
+        final String output = project.getBuild().getOutputDirectory();
+        if ((pom != null && pom.lastModified() > packaged)
+                || (output != null
+                        && new File(output).lastModified() > packaged)) {
+            ignoring(jar);
+            return null;
+        }
+        return jar;
+    }
+
+    /*
+     * Has the package phase of this build set the project's artifact file?
+     */
+    private static boolean isPackagedByThisBuild(final MavenProject project) {
+        return project.getArtifact() != null
+                && project.getArtifact().getFile() != null
+                && project.getArtifact().getFile().isFile();
     }
 
+    /*
+     * Is a jar left by an earlier build newer than everything in the build
+     * output? This walks the whole output tree.
+     */
+    private boolean isCurrent(final MavenProject project, final File jar) {
+        final String output = project.getBuild().getOutputDirectory();
+        if (output != null
+                && lastModified(new File(output)) > jar.lastModified()) {
+            ignoring(jar);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Explain why a jar left by an earlier build is not read.
+     */
+    private void ignoring(final File jar) {
+        getLog().info(
+                String.format("Ignoring %s, it is older than the build;"
+                        + " bind the export goal to the package phase"
+                        + " to read it", jar));
+    }
+
+    /*
+     * The time the newest file or directory in a tree was modified.
+     */
+    private static long lastModified(final File file) {
+        long modified = file.lastModified();
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                modified = Math.max(modified, lastModified(child));
+            }
+        }
+        return modified;
+    }
+
+    /*
+     * The fingerprint of everything read to find this project's exports.
+     */
+    private static ExportFingerprint fingerprint(final MavenProject project,
+            final Repository repository, final List<File> manifests,
+            final List<String> instructions, final SourcePackageFinder sources)
+            throws IOException {
+        final ExportFingerprint fingerprint = new ExportFingerprint();
+        fingerprint.addValue("project", String.format("%s:%s:%s", project
+                .getGroupId(), project.getArtifactId(), project.getVersion()));
+        fingerprint.addValue("repository", repository.getRepositoryRoot()
+                + ' ' + repository.getStorageMode());
+        for (final File manifest : manifests) {
+            fingerprint.addFile("manifest", manifest);
+        }
+        for (final String instruction : instructions) {
+            fingerprint.addValue("instruction", instruction);
+        }
+        for (final File root : sources.getRoots()) {
+            fingerprint.addValue("sources", root.getPath());
+        }
+        fingerprint.addPackages("packages", sources.getPackages());
+        return fingerprint;
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.goal;
+
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.johnstonshome.maven.pkgdep.model.Artifact;
+import org.johnstonshome.maven.pkgdep.model.Repository;
+import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+
+/**
+ * This goal lists the packages, and package versions, that a single artifact
+ * provides according to the local package repository. The answer comes from
+ * the repository's reverse index, so the repository is not walked.
+ *
+ * @goal find-packages
+ * @requiresProject false
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class FindPackagesGoal extends AbstractRepositoryGoal {
+
+    private static final String PADDING = "    "; //$NON-NLS-1$
+    private static final String COLON   = ":";    //$NON-NLS-1$
+    private static final int    FIELDS  = 3;
+
+    /**
+     * The artifact to find, in the form <code>group:artifact:version</code>.
+     *
+     * @parameter expression="${pkgdep.artifact}"
+     * @required
+     */
+    private String              artifact;
+
+    /**
+     * Rebuild the reverse index from the repository's packages before
+     * searching it.
+     *
+     * @parameter expression="${pkgdep.rebuild}" default-value="false"
+     */
+    private boolean             rebuild;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute() throws MojoExecutionException {
+        final String[] parts = this.artifact == null ? new String[0]
+                : this.artifact.trim().split(COLON);
+        if (parts.length != FIELDS) {
+            throw new MojoExecutionException(String.format(
+                    "Invalid artifact %s, expected group:artifact:version",
+                    this.artifact));
+        }
+        final Artifact target;
+        try {
+            target = new Artifact(parts[0], parts[1], new VersionNumber(
+                    parts[2]));
+        } catch (IllegalArgumentException ex) {
+            throw new MojoExecutionException(String.format(
+                    "Invalid artifact %s, %s", this.artifact, ex.getMessage()),
+                    ex);
+        }
+
+        final Repository repository = createRepository();
+        if (this.rebuild) {
+            repository.rebuildArtifactIndex();
+        }
+        final Map<String, SortedSet<VersionNumber>> packages = repository
+                .findPackages(target);
+        getLog().info(
+                String.format("Packages provided by %s: %d", target, Integer
+                        .valueOf(packages.size())));
+        for (final Map.Entry<String, SortedSet<VersionNumber>> entry : packages
+                .entrySet()) {
+            getLog().info(PADDING + entry.getKey());
+            for (final VersionNumber version : entry.getValue()) {
+                getLog().info(PADDING + PADDING + version.toString());
+            }
+        }
+    }
+}
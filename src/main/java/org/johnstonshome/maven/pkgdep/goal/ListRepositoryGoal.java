@@ -7,7 +7,6 @@
  */
 package org.johnstonshome.maven.pkgdep.goal;
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.johnstonshome.maven.pkgdep.model.Repository;
 import org.johnstonshome.maven.pkgdep.model.RepositoryWalker;
@@ -23,7 +22,7 @@ import org.johnstonshome.maven.pkgdep.model.VersionNumber;
  * @author simonjo (simon@johnstonshome.org)
  * 
  */
-public class ListRepositoryGoal extends AbstractMojo {
+public class ListRepositoryGoal extends AbstractRepositoryGoal {
 
     private static final String PADDING      = "    ";           //$NON-NLS-1$
 
@@ -34,6 +33,33 @@ public class ListRepositoryGoal extends AbstractMojo {
     private static final String REPO_ROOT    = 
         Messages.getString("ListRepositoryGoal.repositoryRoot"); //$NON-NLS-1$
 
+    /**
+     * Whether to list packages in name order, rather than the order in which
+     * they are found in the repository.
+     * 
+     * @parameter expression="${pkgdep.sorted}" default-value="true"
+     */
+    private boolean             sorted;
+
+    /**
+     * Only list packages whose names match this pattern, in which
+     * <code>*</code> matches any sequence of characters; for example
+     * <code>org.acme.*</code> lists every package below <code>org.acme</code>.
+     * Matching packages are found using the repository's name index, and
+     * are always listed in name order.
+     * 
+     * @parameter expression="${pkgdep.filter}"
+     */
+    private String              filter;
+
+    /**
+     * The number of threads used to read packages, when more than one the
+     * packages are always listed in name order.
+     * 
+     * @parameter expression="${pkgdep.parallelism}" default-value="1"
+     */
+    private int                 parallelism;
+
     /*
      * Used to walk and print out the contents of the repository.
      */
@@ -75,9 +101,17 @@ public class ListRepositoryGoal extends AbstractMojo {
         getLog().info(HEADER_TEXT);
         getLog().info(HEADER_UNDER);
 
-        final Repository repository = new Repository();
-        repository.setLog(this.getLog());
+        final Repository repository = createRepository();
 
-        repository.walkRepository(new RepositoryWalkerImpl());
+        if (this.filter != null && this.filter.trim().length() > 0) {
+            repository.walkRepository(new RepositoryWalkerImpl(), this.filter
+                    .trim());
+        } else if (this.parallelism > 1) {
+            repository.walkRepository(new RepositoryWalkerImpl(),
+                    this.parallelism);
+        } else {
+            repository.walkRepository(new RepositoryWalkerImpl(), this.sorted);
+        }
+        logCacheStatistics(repository);
     }
 }
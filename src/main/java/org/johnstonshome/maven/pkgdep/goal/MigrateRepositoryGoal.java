@@ -0,0 +1,41 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.goal;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.johnstonshome.maven.pkgdep.model.Repository;
+
+/**
+ * This goal rewrites every package in the local package repository that is
+ * still stored in an older format in the format of the configured storage
+ * layout, for example run with <code>-Dpkgdep.storage=BINARY</code> to turn
+ * an existing repository of properties files into binary package files in
+ * one pass. Packages are read in either format regardless, so running this
+ * goal is optional.
+ *
+ * @goal migrate
+ * @requiresProject false
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class MigrateRepositoryGoal extends AbstractRepositoryGoal {
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute() throws MojoExecutionException {
+        final Repository repository = createRepository();
+        final int migrated = repository.migrate();
+        getLog().info(
+                String.format("Migrated %d packages to %s storage in %s",
+                        Integer.valueOf(migrated), repository.getStorageMode(),
+                        repository.getRepositoryRoot()));
+    }
+}
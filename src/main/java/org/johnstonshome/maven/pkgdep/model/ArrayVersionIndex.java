@@ -0,0 +1,444 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * A compact {@link VersionIndex} for packages with many versions, such as
+ * those that publish nightly builds. Rather than a tree of version objects
+ * the index holds parallel arrays, sorted by version: the numeric components
+ * of each version packed into two <code>long</code>s, whose signed order is
+ * the order of the components, then the number of components given, the
+ * interned qualifier and the artifacts. Finding a version, or the ends of a
+ * range, is a binary search that compares primitives, and only falls back to
+ * the qualifier when the numbers are equal.
+ * <p>
+ * Version objects are not kept, but made when asked for; as they are equal
+ * to those added this is not visible to callers. Nightly builds are each
+ * provided by a single artifact, so a version with only one artifact holds
+ * the artifact itself rather than a set of one.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class ArrayVersionIndex implements VersionIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /*
+     * The packed numbers of version i at keys[2i] and keys[2i+1], the rest of
+     * the version and its artifacts at index i of the other arrays.
+     */
+    private long[]            keys;
+    private byte[]            fields;
+    private String[]          qualifiers;
+    /*
+     * Either an Artifact or a Set of more than one.
+     */
+    private Object[]          artifacts;
+    private int               size;
+    /*
+     * The highest version, made when first asked for after it changes.
+     */
+    private VersionNumber     latest;
+
+    /**
+     * Construct an empty index.
+     */
+    ArrayVersionIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct an index holding the same versions, and the same artifact
+     * sets, as another index.
+     *
+     * @param source
+     *            the index to copy.
+     */
+    ArrayVersionIndex(final VersionIndex source) {
+        this(Math.max(source.size(), INITIAL_CAPACITY));
+        final Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries = source
+                .entries();
+        while (entries.hasNext()) {
+            final Map.Entry<VersionNumber, Set<Artifact>> entry = entries
+                    .next();
+            final Set<Artifact> artifacts = entry.getValue();
+            set(this.size++, entry.getKey(), artifacts.size() == 1 ? artifacts
+                    .iterator().next() : new HashSet<Artifact>(artifacts));
+        }
+    }
+
+    private ArrayVersionIndex(final int capacity) {
+        this.keys = new long[capacity * 2];
+        this.fields = new byte[capacity];
+        this.qualifiers = new String[capacity];
+        this.artifacts = new Object[capacity];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Artifact> get(final VersionNumber version) {
+        final int index = find(version);
+        return index < 0 ? null : artifactsAt(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public boolean add(final VersionNumber version, final Artifact artifact) {
+        int index = find(version);
+        if (index >= 0) {
+            final Object existing = this.artifacts[index];
+            if (existing instanceof Set) {
+                return ((Set<Artifact>) existing).add(artifact);
+            }
+            if (existing.equals(artifact)) {
+                return false;
+            }
+            final Set<Artifact> artifacts = new HashSet<Artifact>();
+            artifacts.add((Artifact) existing);
+            artifacts.add(artifact);
+            this.artifacts[index] = artifacts;
+            return true;
+        }
+        index = -index - 1;
+        if (this.size == this.fields.length) {
+            grow();
+        }
+        final int moved = this.size - index;
+        System.arraycopy(this.keys, index * 2, this.keys, index * 2 + 2,
+                moved * 2);
+        System.arraycopy(this.fields, index, this.fields, index + 1, moved);
+        System.arraycopy(this.qualifiers, index, this.qualifiers, index + 1,
+                moved);
+        System.arraycopy(this.artifacts, index, this.artifacts, index + 1,
+                moved);
+        set(index, version, artifact);
+        this.size++;
+        if (index == this.size - 1) {
+            this.latest = version;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public VersionNumber latest() {
+        if (this.latest == null && this.size > 0) {
+            this.latest = versionAt(this.size - 1);
+        }
+        return this.latest;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SortedSet<VersionNumber> versions() {
+        return new Versions(null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resolve(final VersionRange range, final Set<Artifact> results) {
+        /*
+         * The versions in a range are contiguous in the natural order, and so
+         * in the exact order, so only the two ends need be searched for.
+         */
+        final int from = firstAbove(range.getFloor(),
+                range.getFloorMinimum() - 1);
+        final int to = range.getCeiling() == null ? this.size : firstAbove(
+                range.getCeiling(), range.getCeilingMaximum());
+        for (int i = from; i < to; i++) {
+            results.addAll(artifactsAt(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries() {
+        return new Iterator<Map.Entry<VersionNumber, Set<Artifact>>>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < ArrayVersionIndex.this.size;
+            }
+
+            public Map.Entry<VersionNumber, Set<Artifact>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int index = this.next++;
+                return new AbstractMap.SimpleImmutableEntry<VersionNumber, Set<Artifact>>(
+                        versionAt(index), artifactsAt(index));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Store a version and its artifacts, an artifact or a set of them, at an
+     * index.
+     */
+    private void set(final int index, final VersionNumber version,
+            final Object artifacts) {
+        this.keys[index * 2] = version.getHigh();
+        this.keys[index * 2 + 1] = version.getLow();
+        this.fields[index] = (byte) version.getFields();
+        this.qualifiers[index] = version.getQualifier();
+        this.artifacts[index] = artifacts;
+    }
+
+    /*
+     * Double the capacity of the arrays.
+     */
+    private void grow() {
+        final int capacity = this.fields.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity * 2);
+        this.fields = Arrays.copyOf(this.fields, capacity);
+        this.qualifiers = Arrays.copyOf(this.qualifiers, capacity);
+        this.artifacts = Arrays.copyOf(this.artifacts, capacity);
+    }
+
+    /*
+     * Make the version at an index.
+     */
+    private VersionNumber versionAt(final int index) {
+        return new VersionNumber(this.keys[index * 2],
+                this.keys[index * 2 + 1], this.fields[index],
+                this.qualifiers[index]);
+    }
+
+    /*
+     * Return the artifacts of the version at an index as a read-only set.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Artifact> artifactsAt(final int index) {
+        final Object artifacts = this.artifacts[index];
+        return artifacts instanceof Set ? Collections
+                .unmodifiableSet((Set<Artifact>) artifacts) : Collections
+                .singleton((Artifact) artifacts);
+    }
+
+    /*
+     * Compare the version at an index to another in the exact order.
+     */
+    private int compareExact(final int index, final VersionNumber version) {
+        return VersionNumber.compareExact(this.keys[index * 2],
+                this.keys[index * 2 + 1], this.fields[index],
+                this.qualifiers[index], version);
+    }
+
+    /*
+     * Return the index of a version, or (-(insertion point) - 1) if it is not
+     * in the index, as Arrays.binarySearch does.
+     */
+    private int find(final VersionNumber version) {
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int result = compareExact(middle, version);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /*
+     * Return the index of the first version that compares, in the natural
+     * order, greater than the maximum to a bound, or the size if there is
+     * none.
+     */
+    private int firstAbove(final VersionNumber bound, final int maximum) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (VersionNumber.compare(this.keys[middle * 2],
+                    this.keys[middle * 2 + 1], this.qualifiers[middle], bound)
+                    > maximum) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Return the index of the first version at or after a version in the
+     * exact order, the size if there is none, or 0 if the version is null.
+     */
+    private int lowerBound(final VersionNumber version) {
+        if (version == null) {
+            return 0;
+        }
+        final int index = find(version);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /*
+     * A read-only view of the versions from a version, inclusive, to another,
+     * exclusive, either of which may be null for no bound. The bounds are
+     * versions rather than indexes so that the view stays correct as versions
+     * are added.
+     */
+    private final class Versions extends AbstractSet<VersionNumber> implements
+            SortedSet<VersionNumber> {
+
+        private final VersionNumber from;
+        private final VersionNumber to;
+
+        Versions(final VersionNumber from, final VersionNumber to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Comparator<? super VersionNumber> comparator() {
+            return VersionNumber.EXACT_ORDER;
+        }
+
+        public SortedSet<VersionNumber> subSet(final VersionNumber from,
+                final VersionNumber to) {
+            if (VersionNumber.EXACT_ORDER.compare(from, to) > 0) {
+                throw new IllegalArgumentException("Invalid range, from > to");
+            }
+            return new Versions(higher(this.from, from), lower(this.to, to));
+        }
+
+        public SortedSet<VersionNumber> headSet(final VersionNumber to) {
+            return new Versions(this.from, lower(this.to, to));
+        }
+
+        public SortedSet<VersionNumber> tailSet(final VersionNumber from) {
+            return new Versions(higher(this.from, from), this.to);
+        }
+
+        public VersionNumber first() {
+            final int start = start();
+            if (start >= end()) {
+                throw new NoSuchElementException();
+            }
+            return versionAt(start);
+        }
+
+        public VersionNumber last() {
+            final int end = end();
+            if (start() >= end) {
+                throw new NoSuchElementException();
+            }
+            return versionAt(end - 1);
+        }
+
+        @Override
+        public int size() {
+            return Math.max(end() - start(), 0);
+        }
+
+        @Override
+        public boolean contains(final Object object) {
+            if (!(object instanceof VersionNumber)) {
+                return false;
+            }
+            final VersionNumber version = (VersionNumber) object;
+            return (this.from == null || VersionNumber.EXACT_ORDER.compare(
+                    version, this.from) >= 0)
+                    && (this.to == null || VersionNumber.EXACT_ORDER.compare(
+                            version, this.to) < 0) && find(version) >= 0;
+        }
+
+        @Override
+        public Iterator<VersionNumber> iterator() {
+            final int end = end();
+            return new Iterator<VersionNumber>() {
+                private int next = start();
+
+                public boolean hasNext() {
+                    return this.next < end;
+                }
+
+                public VersionNumber next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return versionAt(this.next++);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private int start() {
+            return lowerBound(this.from);
+        }
+
+        private int end() {
+            return this.to == null ? ArrayVersionIndex.this.size
+                    : lowerBound(this.to);
+        }
+    }
+
+    /*
+     * The greater of two lower bounds, where null is no bound.
+     */
+    private static VersionNumber higher(final VersionNumber left,
+            final VersionNumber right) {
+        if (left == null) {
+            return right;
+        }
+        return VersionNumber.EXACT_ORDER.compare(left, right) >= 0 ? left
+                : right;
+    }
+
+    /*
+     * The lesser of two upper bounds, where null is no bound.
+     */
+    private static VersionNumber lower(final VersionNumber left,
+            final VersionNumber right) {
+        if (left == null) {
+            return right;
+        }
+        return VersionNumber.EXACT_ORDER.compare(left, right) <= 0 ? left
+                : right;
+    }
+}
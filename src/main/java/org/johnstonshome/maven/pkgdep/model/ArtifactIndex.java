@@ -0,0 +1,369 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A persistent reverse index from each artifact to the packages, and package
+ * versions, it provides, so that the packages of one artifact can be found
+ * without reading every package in the repository.
+ * <p>
+ * The index is a set of UTF-8 text files in the repository root, kept by an
+ * {@link IndexLog}; each holds a header line naming the index generation
+ * followed by one line per change:
+ *
+ * <pre>
+ * #pkgdep-artifacts generation
+ * + group:artifact:version TAB package TAB package-version
+ * - group:artifact:version TAB package TAB package-version
+ * </pre>
+ *
+ * Every write to the repository appends the difference between the old and
+ * new state of the packages written to the logs for those packages, while
+ * the package locks and the log locks are held, so writers of unrelated
+ * packages do not wait for each other. Applying a change is idempotent, so
+ * the index may safely be built from the packages while writers are active.
+ * Readers replay only the lines appended since they last looked; rebuilding
+ * the index gives it a new generation, which tells readers to start again.
+ * <p>
+ * Once the lines that no longer add to the index, those removing an entry
+ * and those the removals cancel, outnumber the entries themselves the writer
+ * that appended last compacts the index: it is replaced, under the store lock
+ * and every log lock, with one line per entry and a new generation. A reader
+ * in a new process therefore replays at most about twice as many lines as
+ * there are entries, however many writes the repository has seen.
+ * <p>
+ * Should a writer be interrupted between writing its packages and updating
+ * the index the index may lag the packages until it is rebuilt.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class ArtifactIndex {
+
+    static final String          INDEX_FILE  = ".artifacts";          //$NON-NLS-1$
+
+    /**
+     * The number of lines below which the index is never compacted.
+     */
+    static final int             COMPACTION_LINES = 256;
+
+    private static final String  HEADER      = "#pkgdep-artifacts ";  //$NON-NLS-1$
+    private static final char    ADD         = '+';
+    private static final char    REMOVE      = '-';
+    private static final char    SEPARATOR   = '\t';
+    private static final char    COLON       = ':';
+    private static final char    NEW_LINE    = '\n';
+
+    /*
+     * Replays the lines of the index into this.
+     */
+    private final class Replayer implements IndexLog.Replay {
+
+        public void reset() {
+            ArtifactIndex.this.entries =
+                new HashMap<Artifact, SortedMap<String, SortedSet<VersionNumber>>>();
+            ArtifactIndex.this.lines = 0;
+            ArtifactIndex.this.live = 0;
+        }
+
+        public void apply(final String line) throws IOException {
+            ArtifactIndex.this.lines++;
+            ArtifactIndex.this.apply(line);
+        }
+    }
+
+    private final IndexLog        log;
+    private final RepositoryLocks locks;
+    private final Replayer        replayer = new Replayer();
+
+    /*
+     * The replayed index and the number of lines read into it; guarded by
+     * this.
+     */
+    private Map<Artifact, SortedMap<String, SortedSet<VersionNumber>>> entries =
+        null;
+    private int                   lines      = 0;
+    private int                   live       = 0;
+
+    /**
+     * Construct an index in the given repository root, the files themselves
+     * are not read until first queried.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param locks
+     *            the locks for the repository.
+     */
+    ArtifactIndex(final File root, final RepositoryLocks locks) {
+        this.log = new IndexLog(root, INDEX_FILE, HEADER, locks);
+        this.locks = locks;
+    }
+
+    /**
+     * Record the change to a set of packages, the caller must hold the
+     * package locks for all of them. If the index does not yet exist it is
+     * first built from the store.
+     *
+     * @param before
+     *            the state of each package before the change, by name, a
+     *            package that did not exist is absent.
+     * @param after
+     *            the state of each package after the change.
+     * @param store
+     *            the store, to build the index from if it does not exist.
+     * @throws IOException
+     *             if the index could not be written.
+     */
+    void update(final Map<String, Package> before,
+            final Collection<Package> after, final PackageStore store)
+            throws IOException {
+        if (!this.log.exists()) {
+            // the store already holds the change, so the built index will.
+            build(store);
+            return;
+        }
+        final Map<String, String> changes = new HashMap<String, String>();
+        for (final Package thePackage : after) {
+            final Package old = before.get(thePackage.getName());
+            final StringBuilder lines = new StringBuilder();
+            diff(old, thePackage, REMOVE, lines);
+            diff(thePackage, old, ADD, lines);
+            if (lines.length() > 0) {
+                changes.put(thePackage.getName(), lines.toString());
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        this.log.append(changes);
+        if (needsCompaction()) {
+            compact();
+        }
+    }
+
+    /**
+     * Return the packages, and package versions, provided by an artifact.
+     *
+     * @param artifact
+     *            the artifact to find.
+     * @param store
+     *            the store, to build the index from if it does not exist.
+     * @return a map from package name to the versions of that package the
+     *         artifact provides, empty if the artifact provides none.
+     * @throws IOException
+     *             if the index could not be read.
+     */
+    SortedMap<String, SortedSet<VersionNumber>> find(final Artifact artifact,
+            final PackageStore store) throws IOException {
+        if (!this.log.exists()) {
+            build(store);
+        }
+        synchronized (this) {
+            this.log.read(this.replayer);
+            final SortedMap<String, SortedSet<VersionNumber>> found =
+                this.entries.get(artifact);
+            final SortedMap<String, SortedSet<VersionNumber>> copy =
+                new TreeMap<String, SortedSet<VersionNumber>>();
+            if (found != null) {
+                for (final String name : found.keySet()) {
+                    copy.put(name, Collections.unmodifiableSortedSet(
+                            new TreeSet<VersionNumber>(found.get(name))));
+                }
+            }
+            return Collections.unmodifiableSortedMap(copy);
+        }
+    }
+
+    /**
+     * Replace the index with one built from every package in the store, with
+     * a new generation. The caller must hold the store lock and every log
+     * lock.
+     *
+     * @param store
+     *            the store to read packages from.
+     * @throws IOException
+     *             if the store could not be read or the index written.
+     */
+    void rebuild(final PackageStore store) throws IOException {
+        this.log.replace(new IndexLog.Content() {
+            public void write(final Writer writer) throws IOException {
+                final StringBuilder lines = new StringBuilder();
+                final PackageNameIterator names = store
+                        .iteratePackageNames(false);
+                try {
+                    while (names.hasNext()) {
+                        final Package thePackage = store.readPackage(names
+                                .next());
+                        if (thePackage != null) {
+                            diff(thePackage, null, ADD, lines);
+                            writer.write(lines.toString());
+                            lines.setLength(0);
+                        }
+                    }
+                } finally {
+                    names.close();
+                }
+            }
+        });
+    }
+
+    /*
+     * Build the index from the store unless another writer has done so.
+     */
+    private void build(final PackageStore store) throws IOException {
+        final RepositoryLocks.Held held = this.locks.lockIndexes();
+        try {
+            if (!this.log.exists()) {
+                rebuild(store);
+            }
+        } finally {
+            held.release();
+        }
+    }
+
+    /*
+     * Have the lines that no longer add to the index come to outnumber the
+     * entries?
+     */
+    private synchronized boolean needsCompaction() throws IOException {
+        this.log.read(this.replayer);
+        return this.lines > COMPACTION_LINES
+                && this.lines - this.live > this.live;
+    }
+
+    /*
+     * Replace the index with one line for each entry of the replayed index,
+     * with a new generation, unless another writer has already done so.
+     */
+    private void compact() throws IOException {
+        final RepositoryLocks.Held held = this.locks.lockIndexes();
+        try {
+            synchronized (this) {
+                if (!needsCompaction()) {
+                    return;
+                }
+                final StringBuilder content = new StringBuilder();
+                for (final Artifact artifact : this.entries.keySet()) {
+                    final SortedMap<String, SortedSet<VersionNumber>> packages =
+                        this.entries.get(artifact);
+                    for (final String name : packages.keySet()) {
+                        for (final VersionNumber version : packages.get(name)) {
+                            line(ADD, artifact, name, version, content);
+                        }
+                    }
+                }
+                this.log.replace(new IndexLog.Content() {
+                    public void write(final Writer writer) throws IOException {
+                        writer.write(content.toString());
+                    }
+                });
+            }
+        } finally {
+            held.release();
+        }
+    }
+
+    /*
+     * Apply a single change line to the replayed index.
+     */
+    private void apply(final String line) throws IOException {
+        final int first = line.indexOf(SEPARATOR);
+        final int second = line.indexOf(SEPARATOR, first + 1);
+        if (line.length() < 2 || first < 0 || second < 0) {
+            throw new IOException(String.format(
+                    "Invalid artifact index entry: %s", line));
+        }
+        final String coordinate = line.substring(2, first);
+        final int group = coordinate.indexOf(COLON);
+        final int version = coordinate.lastIndexOf(COLON);
+        if (group < 0 || version <= group) {
+            throw new IOException(String.format(
+                    "Invalid artifact index entry: %s", line));
+        }
+        final Artifact artifact = Pools.artifact(coordinate.substring(0,
+                group), coordinate.substring(group + 1, version),
+                new VersionNumber(coordinate, version + 1, coordinate.length()
+                        - version - 1));
+        final String name = line.substring(first + 1, second);
+        final VersionNumber packageVersion = Pools.version(new VersionNumber(
+                line, second + 1, line.length() - second - 1));
+
+        SortedMap<String, SortedSet<VersionNumber>> packages = this.entries
+                .get(artifact);
+        if (line.charAt(0) == ADD) {
+            if (packages == null) {
+                packages = new TreeMap<String, SortedSet<VersionNumber>>();
+                this.entries.put(artifact, packages);
+            }
+            SortedSet<VersionNumber> versions = packages.get(name);
+            if (versions == null) {
+                versions = new TreeSet<VersionNumber>();
+                packages.put(name, versions);
+            }
+            if (versions.add(packageVersion)) {
+                this.live++;
+            }
+        } else if (packages != null) {
+            final SortedSet<VersionNumber> versions = packages.get(name);
+            if (versions != null && versions.remove(packageVersion)) {
+                this.live--;
+                if (versions.isEmpty()) {
+                    packages.remove(name);
+                    if (packages.isEmpty()) {
+                        this.entries.remove(artifact);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Write a change line, with the given operation, for every artifact of
+     * every version of the package that the other package does not have.
+     */
+    private static void diff(final Package thePackage, final Package other,
+            final char op, final StringBuilder lines) {
+        if (thePackage == null) {
+            return;
+        }
+        for (final VersionNumber version : thePackage.getVersions()) {
+            final Set<Artifact> existing = other == null ? null : other
+                    .resolve(version);
+            for (final Artifact artifact : thePackage.resolve(version)) {
+                if (existing == null || !existing.contains(artifact)) {
+                    line(op, artifact, thePackage.getName(), version, lines);
+                }
+            }
+        }
+    }
+
+    /*
+     * Write a single change line.
+     */
+    private static void line(final char op, final Artifact artifact,
+            final String name, final VersionNumber version,
+            final StringBuilder lines) {
+        lines.append(op).append(' ').append(artifact.toString()).append(
+                SEPARATOR).append(name).append(SEPARATOR).append(
+                version.toString()).append(NEW_LINE);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Streams the names of the package files in a repository root directory, in
+ * directory order, straight from a {@link DirectoryStream}. Entries are
+ * filtered on their name alone, anything whose name begins with a dot is
+ * reserved for the repository's own use and everything else is a package
+ * file, so no entry is ever stat'ed.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class DirectoryNameIterator implements PackageNameIterator {
+
+    private static final DirectoryStream.Filter<Path> PACKAGES =
+        new DirectoryStream.Filter<Path>() {
+            public boolean accept(final Path entry) {
+                return !entry.getFileName().toString().startsWith(
+                        FilePackageStore.INTERNAL_PREFIX);
+            }
+        };
+
+    private final DirectoryStream<Path> stream;
+    private final Iterator<Path>        entries;
+
+    /**
+     * Open the repository root directory for iteration.
+     *
+     * @param root
+     *            the repository root directory.
+     * @throws IOException
+     *             if the directory could not be opened.
+     */
+    DirectoryNameIterator(final File root) throws IOException {
+        this.stream = Files.newDirectoryStream(root.toPath(), PACKAGES);
+        this.entries = this.stream.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        return this.entries.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String next() {
+        return this.entries.next().getFileName().toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The original repository layout, each package is stored as a file, named for
+ * the package, in the repository root directory. Package files are written
+ * either as Java properties files or, for {@link StorageMode#BINARY}, in the
+ * encoding of {@link PackageCodec}; either format is read whatever the mode,
+ * so a repository may be switched between them at any time. Files whose
+ * names begin with a dot are reserved for the repository's own use and are
+ * never reported as packages, every other entry in the root is taken to be a
+ * package file without being stat'ed.
+ * <p>
+ * Each package file is written to a temporary file and then renamed into
+ * place, so readers never see a partly written package. A batch of packages
+ * is first written, in one pass, to a journal file which is synced once and
+ * renamed into place; that rename is the point at which the batch commits.
+ * The package files are then published from the journal, each synced before
+ * it is renamed, the root directory is synced and only then is the journal
+ * removed. A journal left behind by a crash is published again when the store
+ * is recovered, under the package locks so that a journal still being
+ * published by a live writer is left alone. The journal holds a hash of each
+ * package file as it was before the batch, and a package file that no longer
+ * matches, whether published from the journal before the crash or written
+ * later by another writer, is not replaced. Temporary files left behind by a
+ * crash are removed by recovery once they are too old to belong to a live
+ * writer.
+ * <p>
+ * A batch is atomic only with respect to crashes. Readers take no locks, so
+ * a reader listing or reading packages while a batch is being published may
+ * see some of its packages written and others not yet.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class FilePackageStore implements PackageStore {
+
+    static final String         INTERNAL_PREFIX = ".";                        //$NON-NLS-1$
+    static final String         JOURNAL_PREFIX  = ".journal-";                //$NON-NLS-1$
+
+    private static final String TEMP_SUFFIX     = ".tmp";                     //$NON-NLS-1$
+    private static final String TEMP_PATTERN    = "\\..*[0-9]+\\.tmp";        //$NON-NLS-1$
+    private static final String FILE_COMMENT    = "Internal file, do not edit"; //$NON-NLS-1$
+    private static final int    MIGRATION_BATCH = 256;
+    private static final String DIGEST          = "SHA-1";                    //$NON-NLS-1$
+    private static final int    HASH_SIZE       = 20;
+    /*
+     * How old a temporary file must be before recovery assumes its writer
+     * has gone and removes it.
+     */
+    static final long           ORPHAN_AGE      = 60L * 60L * 1000L;
+
+    private final File            root;
+    private final RepositoryLocks locks;
+    private final boolean         binary;
+
+    /**
+     * Construct a store over the given repository root directory, writing
+     * properties files.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param locks
+     *            the locks for the repository.
+     */
+    FilePackageStore(final File root, final RepositoryLocks locks) {
+        this(root, locks, false);
+    }
+
+    /**
+     * Construct a store over the given repository root directory.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param locks
+     *            the locks for the repository.
+     * @param binary
+     *            whether to write packages in the binary encoding rather
+     *            than as properties files.
+     */
+    FilePackageStore(final File root, final RepositoryLocks locks,
+            final boolean binary) {
+        this.root = root;
+        this.locks = locks;
+        this.binary = binary;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<String> getPackageNames() throws IOException {
+        final Set<String> names = new HashSet<String>();
+        final PackageNameIterator iterator = iteratePackageNames(false);
+        try {
+            while (iterator.hasNext()) {
+                names.add(iterator.next());
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        } finally {
+            iterator.close();
+        }
+        return names;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Names are streamed from the directory, when sorted they are merged
+     * from sorted chunks so that memory use stays bounded.
+     */
+    public PackageNameIterator iteratePackageNames(final boolean sorted)
+            throws IOException {
+        final PackageNameIterator names = new DirectoryNameIterator(this.root);
+        if (sorted) {
+            return new SortedNameIterator(names,
+                    SortedNameIterator.DEFAULT_CHUNK_SIZE);
+        }
+        return names;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Package readPackage(final String name) throws IOException {
+        final File packageFile = new File(this.root, name);
+        if (!packageFile.isFile()) {
+            return null;
+        }
+        final byte[] content;
+        try {
+            content = Files.readAllBytes(packageFile.toPath());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        if (PackageCodec.isEncoded(content)) {
+            return PackageCodec.decode(name, content);
+        }
+        return PackagePropertiesReader.read(name, content);
+    }
+
+    /**
+     * Return <code>true</code> if a package file is already in the format
+     * this store writes.
+     *
+     * @param name
+     *            the name of the package.
+     * @return whether the package need not be rewritten to be in this
+     *         store's format.
+     * @throws IOException
+     *             if the package file could not be read.
+     */
+    boolean isCurrentFormat(final String name) throws IOException {
+        final InputStream in;
+        try {
+            in = new FileInputStream(new File(this.root, name));
+        } catch (FileNotFoundException ex) {
+            return true;
+        }
+        try {
+            final byte[] head = new byte[PackageCodec.MAGIC_LENGTH];
+            int read = 0;
+            while (read < head.length) {
+                final int count = in.read(head, read, head.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return PackageCodec.isEncoded(head) == this.binary;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PackageCache.Stamp stamp(final String name) {
+        final File packageFile = new File(this.root, name);
+        return new PackageCache.Stamp(packageFile.lastModified(), packageFile
+                .length());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writePackage(final Package thePackage) throws IOException {
+        publish(thePackage.getName(), toBytes(thePackage), false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writePackages(final Collection<Package> thePackages)
+            throws IOException {
+        if (thePackages.size() == 1) {
+            writePackage(thePackages.iterator().next());
+            return;
+        }
+        final Map<String, byte[]> contents =
+            new LinkedHashMap<String, byte[]>();
+        for (final Package thePackage : thePackages) {
+            contents.put(thePackage.getName(), toBytes(thePackage));
+        }
+
+        /*
+         * The caller holds the locks of every package, so the files hashed
+         * are those the batch replaces.
+         */
+        final File temp = File.createTempFile(JOURNAL_PREFIX, TEMP_SUFFIX,
+                this.root);
+        final FileOutputStream file = new FileOutputStream(temp);
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(file));
+            out.writeInt(contents.size());
+            for (final Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(hash(entry.getKey()));
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        final String tempName = temp.getName();
+        final File journal = new File(this.root, tempName.substring(0,
+                tempName.length() - TEMP_SUFFIX.length()));
+        Files.move(temp.toPath(), journal.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+
+        publishAll(contents, journal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void compact() {
+        // nothing to do, each package file is always complete.
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Packages are rewritten in batches, each as a single journalled unit
+     * under the locks of its packages.
+     */
+    public int migrate() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        final PackageNameIterator iterator = iteratePackageNames(false);
+        try {
+            while (iterator.hasNext()) {
+                final String name = iterator.next();
+                if (!isCurrentFormat(name)) {
+                    names.add(name);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        } finally {
+            iterator.close();
+        }
+        int migrated = 0;
+        for (int start = 0; start < names.size(); start += MIGRATION_BATCH) {
+            final List<String> batch = names.subList(start, Math.min(
+                    start + MIGRATION_BATCH, names.size()));
+            final RepositoryLocks.Held held = this.locks.lockPackages(batch);
+            try {
+                final List<Package> packages = new ArrayList<Package>();
+                for (final String name : batch) {
+                    final Package thePackage = readPackage(name);
+                    if (thePackage != null) {
+                        packages.add(thePackage);
+                    }
+                }
+                if (!packages.isEmpty()) {
+                    writePackages(packages);
+                    migrated += packages.size();
+                }
+            } finally {
+                held.release();
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Publish any journals left behind by interrupted batches, and remove
+     * orphaned temporary files.
+     */
+    public void recover() throws IOException {
+        final File[] journals = this.root.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(JOURNAL_PREFIX)
+                        && !name.endsWith(TEMP_SUFFIX);
+            }
+        });
+        if (journals == null) {
+            return;
+        }
+        for (final File journal : journals) {
+            final Journal content = readJournal(journal);
+            if (content == null) {
+                continue;
+            }
+            final Map<String, byte[]> contents = content.contents;
+            final RepositoryLocks.Held held = this.locks.lockPackages(contents
+                    .keySet());
+            try {
+                /*
+                 * The writer may have been alive and finished while we waited.
+                 */
+                if (journal.isFile()) {
+                    final Iterator<String> names = contents.keySet()
+                            .iterator();
+                    while (names.hasNext()) {
+                        final String name = names.next();
+                        if (!Arrays.equals(hash(name), content.hashes
+                                .get(name))) {
+                            names.remove();
+                        }
+                    }
+                    publishAll(contents, journal);
+                }
+            } finally {
+                held.release();
+            }
+        }
+        removeOrphans();
+    }
+
+    /*
+     * Remove the temporary files of journals and package files whose writers
+     * died before renaming them into place; a file is only removed once it
+     * is old enough that no live writer can still be writing it.
+     */
+    private void removeOrphans() {
+        final long before = System.currentTimeMillis() - ORPHAN_AGE;
+        final File[] orphans = this.root.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.matches(TEMP_PATTERN);
+            }
+        });
+        if (orphans == null) {
+            return;
+        }
+        for (final File orphan : orphans) {
+            final long modified = orphan.lastModified();
+            if (modified != 0 && modified < before) {
+                orphan.delete();
+            }
+        }
+    }
+
+    /*
+     * Read the content of a journal, and the hash of each package file it
+     * replaces, returns null if it has already gone.
+     */
+    private static Journal readJournal(final File journal)
+            throws IOException {
+        final Map<String, byte[]> contents =
+            new LinkedHashMap<String, byte[]>();
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(journal)));
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+        final Map<String, byte[]> hashes = new HashMap<String, byte[]>();
+        try {
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+                final byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                hashes.put(name, hash);
+                contents.put(name, content);
+            }
+        } finally {
+            in.close();
+        }
+        return new Journal(hashes, contents);
+    }
+
+    /*
+     * The hash of a package file's content, that of no content if there is
+     * no file.
+     */
+    private byte[] hash(final String name) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        try {
+            digest.update(Files.readAllBytes(new File(this.root, name)
+                    .toPath()));
+        } catch (NoSuchFileException ex) {
+            // hashed as empty
+        }
+        return digest.digest();
+    }
+
+    /*
+     * Publish each package file from a committed journal durably, then
+     * remove it; were the journal to go first a crash could lose files it
+     * still describes.
+     */
+    private void publishAll(final Map<String, byte[]> contents,
+            final File journal) throws IOException {
+        for (final Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            publish(entry.getKey(), entry.getValue(), true);
+        }
+        syncRoot();
+        if (!journal.delete() && journal.exists()) {
+            throw new IOException(String.format(
+                    "Could not remove repository journal %s",
+                    journal.getPath()));
+        }
+    }
+
+    /*
+     * Write the content of a package file to a temporary file, synced if
+     * asked, and rename it into place.
+     */
+    private void publish(final String name, final byte[] content,
+            final boolean sync) throws IOException {
+        final File temp = File.createTempFile(INTERNAL_PREFIX + name,
+                TEMP_SUFFIX, this.root);
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content);
+            if (sync) {
+                out.getFD().sync();
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), new File(this.root, name).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Sync the root directory, so that the renames made into it are durable.
+     * A directory cannot be opened on every platform, Windows among them,
+     * where the renames are made durable by the file system itself.
+     */
+    private void syncRoot() {
+        try {
+            final FileChannel directory = FileChannel.open(this.root
+                    .toPath(), StandardOpenOption.READ);
+            try {
+                directory.force(true);
+            } finally {
+                directory.close();
+            }
+        } catch (IOException ex) {
+            // not supported on this platform
+        }
+    }
+
+    /*
+     * The content of a package file, in the binary encoding or exactly as it
+     * has always been written.
+     */
+    private byte[] toBytes(final Package thePackage) throws IOException {
+        if (this.binary) {
+            return PackageCodec.encode(thePackage);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes);
+        thePackage.toProperties().store(writer, FILE_COMMENT);
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    /*
+     * The content of a journal read back for recovery.
+     */
+    private static final class Journal {
+        private final Map<String, byte[]> hashes;
+        private final Map<String, byte[]> contents;
+
+        Journal(final Map<String, byte[]> hashes,
+                final Map<String, byte[]> contents) {
+            this.hashes = hashes;
+            this.contents = contents;
+        }
+    }
+}
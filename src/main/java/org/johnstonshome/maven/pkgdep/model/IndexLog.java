@@ -0,0 +1,381 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The files of a line based index shared by all packages in a repository,
+ * which writers of different packages may append to in parallel.
+ * <p>
+ * The index is a base file, a header line naming the index generation
+ * followed by the lines written when the index was last replaced, and one log
+ * file for each of the repository's log locks. Each log starts with the
+ * header of the generation it extends and holds the lines appended, since the
+ * index was replaced, for the packages that share its log lock. Lines are
+ * only appended to a log while the package locks and the log lock are held,
+ * so the lines for any one package are always in the order they were written,
+ * while writers of packages in different logs never wait for each other.
+ * <p>
+ * Replacing the index, to build or compact it, writes and syncs a new base
+ * file with a new generation, moves it into place and then deletes the logs,
+ * all while holding the store lock and every log lock. A log left behind with
+ * an earlier header by an interrupted replacement holds nothing the new base
+ * file does not, so readers ignore it and the next writer starts it again. A
+ * line left incomplete by an interrupted writer is ignored, and overwritten by
+ * the next writer.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class IndexLog {
+
+    /**
+     * Receives the lines read from the index.
+     */
+    interface Replay {
+
+        /**
+         * The index has been replaced, discard everything read so far.
+         */
+        void reset();
+
+        /**
+         * Apply a line read from the index.
+         *
+         * @param line
+         *            the line, without its line end.
+         * @throws IOException
+         *             if the line is not valid.
+         */
+        void apply(String line) throws IOException;
+    }
+
+    /**
+     * Writes the lines of a replacement index.
+     */
+    interface Content {
+
+        /**
+         * Write every line of the index, each ending in a new line.
+         *
+         * @param writer
+         *            the writer for the new base file.
+         * @throws IOException
+         *             if the lines could not be read or written.
+         */
+        void write(Writer writer) throws IOException;
+    }
+
+    private static final String   TEMP_SUFFIX = ".tmp";              //$NON-NLS-1$
+    private static final String   LOG_SUFFIX  = "-%d";               //$NON-NLS-1$
+    private static final char     NEW_LINE    = '\n';
+    private static final Charset  UTF8        = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final File            root;
+    private final File            baseFile;
+    private final File[]          logFiles    = new File[RepositoryLocks.LOGS];
+    private final String          header;
+    private final RepositoryLocks locks;
+
+    /*
+     * The header of the generation read and how much of each file has been
+     * read, a log not yet started in this generation has read nothing;
+     * guarded by the monitor of the index that owns this.
+     */
+    private String                generation  = null;
+    private long                  consumed    = 0;
+    private final long[]          logConsumed = new long[RepositoryLocks.LOGS];
+
+    /**
+     * Construct the files for an index in the given repository root.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param name
+     *            the name of the base file, the logs add a suffix.
+     * @param header
+     *            the start of the header line of every file of the index.
+     * @param locks
+     *            the locks for the repository.
+     */
+    IndexLog(final File root, final String name, final String header,
+            final RepositoryLocks locks) {
+        this.root = root;
+        this.baseFile = new File(root, name);
+        for (int i = 0; i < this.logFiles.length; i++) {
+            this.logFiles[i] = new File(root, name
+                    + String.format(LOG_SUFFIX, Integer.valueOf(i)));
+        }
+        this.header = header;
+        this.locks = locks;
+    }
+
+    /**
+     * Does the index exist, it does not until first replaced.
+     *
+     * @return true if the base file exists.
+     */
+    boolean exists() {
+        return this.baseFile.isFile();
+    }
+
+    /**
+     * Append lines for a set of packages, each to the log for its package,
+     * the caller must hold the package locks for all of them. Nothing is
+     * appended if the index does not exist; it will include these packages
+     * when it is built.
+     *
+     * @param lines
+     *            the complete lines to append for each package, by name.
+     * @throws IOException
+     *             if a log could not be written.
+     */
+    void append(final Map<String, String> lines) throws IOException {
+        final Map<Integer, StringBuilder> logs =
+            new TreeMap<Integer, StringBuilder>();
+        for (final Map.Entry<String, String> entry : lines.entrySet()) {
+            if (entry.getValue().length() > 0) {
+                final Integer log = Integer.valueOf(RepositoryLocks.log(entry
+                        .getKey()));
+                StringBuilder content = logs.get(log);
+                if (content == null) {
+                    content = new StringBuilder();
+                    logs.put(log, content);
+                }
+                content.append(entry.getValue());
+            }
+        }
+        if (logs.isEmpty()) {
+            return;
+        }
+        final RepositoryLocks.Held held = this.locks.lockLogs(logs.keySet());
+        try {
+            final String current = readHeader(this.baseFile);
+            if (current == null) {
+                return;
+            }
+            for (final Map.Entry<Integer, StringBuilder> entry : logs
+                    .entrySet()) {
+                append(this.logFiles[entry.getKey().intValue()], current,
+                        entry.getValue().toString().getBytes(UTF8));
+            }
+        } finally {
+            held.release();
+        }
+    }
+
+    /**
+     * Replace the index with the given lines under a new generation. The
+     * caller must hold the store lock and every log lock.
+     *
+     * @param content
+     *            writes the lines of the new index.
+     * @throws IOException
+     *             if the lines could not be read or written.
+     */
+    void replace(final Content content) throws IOException {
+        final File temp = new File(this.root, this.baseFile.getName()
+                + TEMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            final Writer writer = new OutputStreamWriter(out, UTF8);
+            writer.write(this.header + UUID.randomUUID().toString()
+                    + NEW_LINE);
+            content.write(writer);
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), this.baseFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (final File log : this.logFiles) {
+            Files.deleteIfExists(log.toPath());
+        }
+    }
+
+    /**
+     * Pass the lines written since the last read to a replay, or, if the
+     * index has been replaced since, reset it and pass every line. The
+     * caller must hold the monitor of the index that owns this.
+     *
+     * @param replay
+     *            receives the lines.
+     * @throws IOException
+     *             if the index does not exist or could not be read.
+     */
+    void read(final Replay replay) throws IOException {
+        String current = readBase(replay);
+        for (;;) {
+            for (int i = 0; i < this.logFiles.length; i++) {
+                readLog(i, replay);
+            }
+            // the logs are only complete if the index was not replaced
+            // while they were being read.
+            final String after = readBase(replay);
+            if (after.equals(current)) {
+                return;
+            }
+            current = after;
+        }
+    }
+
+    /*
+     * Read any lines of the base file not yet read, resetting the replay if
+     * the generation has changed, and return the generation.
+     */
+    private String readBase(final Replay replay) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(this.baseFile,
+                "r"); //$NON-NLS-1$
+        try {
+            final String current = file.readLine();
+            if (current == null || !current.startsWith(this.header)) {
+                throw new IOException(String.format(
+                        "Not an index file: %s", this.baseFile.getPath()));
+            }
+            if (!current.equals(this.generation)
+                    || file.length() < this.consumed) {
+                replay.reset();
+                this.generation = current;
+                this.consumed = file.getFilePointer();
+                for (int i = 0; i < this.logConsumed.length; i++) {
+                    this.logConsumed[i] = 0;
+                }
+            }
+            this.consumed += readLines(file, this.consumed, replay);
+            return current;
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Read any lines of a log not yet read, provided it extends the
+     * generation being read.
+     */
+    private void readLog(final int log, final Replay replay)
+            throws IOException {
+        final File logFile = this.logFiles[log];
+        final long length = logFile.length();
+        if (length == this.logConsumed[log]) {
+            return;
+        }
+        final RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(logFile, "r"); //$NON-NLS-1$
+        } catch (FileNotFoundException ex) {
+            return;
+        }
+        try {
+            if (this.logConsumed[log] == 0
+                    || file.length() < this.logConsumed[log]) {
+                final String current = file.readLine();
+                if (!this.generation.equals(current)) {
+                    this.logConsumed[log] = 0;
+                    return;
+                }
+                this.logConsumed[log] = file.getFilePointer();
+            }
+            this.logConsumed[log] += readLines(file, this.logConsumed[log],
+                    replay);
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Pass the complete lines of a file after an offset to a replay, and
+     * return the number of bytes they took.
+     */
+    private static long readLines(final RandomAccessFile file,
+            final long offset, final Replay replay) throws IOException {
+        final long length = file.length();
+        if (length <= offset) {
+            return 0;
+        }
+        final byte[] tail = new byte[(int) (length - offset)];
+        file.seek(offset);
+        file.readFully(tail);
+        int start = 0;
+        for (int i = 0; i < tail.length; i++) {
+            if (tail[i] == NEW_LINE) {
+                replay.apply(new String(tail, start, i - start, UTF8));
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    /*
+     * Append complete lines to a log, starting it again if it does not extend
+     * the current generation and otherwise dropping any incomplete line left
+     * at its end by an interrupted writer.
+     */
+    private static void append(final File logFile, final String current,
+            final byte[] lines) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(logFile, "rw"); //$NON-NLS-1$
+        try {
+            long end;
+            if (current.equals(file.readLine())) {
+                final long start = file.getFilePointer();
+                end = file.length();
+                while (end > start) {
+                    file.seek(end - 1);
+                    if (file.read() == NEW_LINE) {
+                        break;
+                    }
+                    end--;
+                }
+                file.setLength(end);
+            } else {
+                final byte[] bytes = (current + NEW_LINE).getBytes(UTF8);
+                file.setLength(0);
+                file.seek(0);
+                file.write(bytes);
+                end = bytes.length;
+            }
+            file.seek(end);
+            file.write(lines);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Read the header line of a file, or null if it does not exist.
+     */
+    private static String readHeader(final File file) throws IOException {
+        final RandomAccessFile in;
+        try {
+            in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+        try {
+            return in.readLine();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,813 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A log-structured store that keeps the whole repository in a single binary
+ * index file, read through a memory-mapped buffer, plus an append-only log of
+ * changes made since the index was last compacted.
+ * <p>
+ * Each index is written once, to a new generation file named
+ * <code>.index-</code> followed by a unique suffix, and made current by
+ * atomically replacing the small <code>.index</code> file that names it. A
+ * mapped index is therefore never replaced or written to, which some
+ * platforms, Windows among them, do not allow; superseded generations are
+ * deleted once they are no longer current, or left for a later compaction to
+ * delete should a reader still have them mapped. A <code>.index</code> file
+ * holding an index itself, as written by earlier versions, is still read.
+ * <p>
+ * The index has the following layout, all integers are big-endian and all
+ * strings are an unsigned short length followed by that many bytes of UTF-8:
+ *
+ * <pre>
+ * index:    magic format record* table trailer
+ * record:   count (version count artifact*)*
+ * artifact: groupId artifactId version
+ * table:    (name offset length)*
+ * trailer:  table-offset table-count
+ * </pre>
+ *
+ * On load the table is read into a hash map so that reading a package is a
+ * single lookup followed by decoding its record straight out of the mapped
+ * buffer, no per-package file is ever opened. If the index does not yet exist
+ * it is built from any per-package properties files already in the repository
+ * root, so switching an existing repository to this mode is transparent.
+ * <p>
+ * Writing packages does not touch the index, instead the difference between
+ * each package and its current state is appended to the log as a single
+ * checksummed, synced, frame of delta entries:
+ *
+ * <pre>
+ * log:   frame*
+ * frame: length crc32 entry*
+ * entry: CLEAR package | ADD package version groupId artifactId version
+ * </pre>
+ *
+ * Readers replay the log over the index, a frame that is incomplete or fails
+ * its checksum ends the replay and is discarded by the next writer. Writers,
+ * and compaction, hold the repository's store lock while they append so that
+ * processes sharing the repository never interleave their frames. Replay is
+ * idempotent, so once the log grows past the compaction threshold the replayed
+ * state is simply written out as a new index and the log truncated.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class IndexPackageStore implements PackageStore {
+
+    static final String          INDEX_FILE                   = ".index";               //$NON-NLS-1$
+    static final String          LOG_FILE                     = ".index.log";           //$NON-NLS-1$
+    static final String          GENERATION_PREFIX            = ".index-";              //$NON-NLS-1$
+
+    static final long            DEFAULT_COMPACTION_THRESHOLD = 1024 * 1024;
+
+    private static final String  TEMP_SUFFIX                  = ".tmp";                 //$NON-NLS-1$
+    private static final Charset UTF8                         = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final int     MAGIC                        = 0x504B4749;             // "PKGI"
+    private static final int     FORMAT                       = 1;
+    private static final int     TRAILER_SIZE                 = 8;
+    private static final int     FRAME_HEADER_SIZE            = 8;
+    private static final int     LOAD_ATTEMPTS                = 3;
+    private static final int     POINTER_SIZE                 = 256;
+
+    private static final byte    OP_CLEAR                     = 0;
+    private static final byte    OP_ADD                       = 1;
+
+    /*
+     * A record location within the index file.
+     */
+    private static final class Slot {
+        private final int offset;
+        private final int length;
+
+        Slot(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /*
+     * A loaded index and the log replayed over it. Mappings are never changed
+     * once published, so readers need no locking; the packages held in the
+     * overlay are likewise never modified, readers are handed copies.
+     */
+    private static final class Mapping {
+        private final ByteBuffer           buffer;
+        private final Map<String, Slot>    table;
+        private final Map<String, Package> overlay;
+        private final Map<String, Long>    logged;
+        private final String               generation;
+        private final long                 modified;
+        private final long                 length;
+        private final long                 logLength;
+        private Set<String>                names = null;
+
+        Mapping(final ByteBuffer buffer, final Map<String, Slot> table,
+                final Map<String, Package> overlay,
+                final Map<String, Long> logged, final String generation,
+                final long modified, final long length, final long logLength) {
+            this.buffer = buffer;
+            this.table = table;
+            this.overlay = overlay;
+            this.logged = logged;
+            this.generation = generation;
+            this.modified = modified;
+            this.length = length;
+            this.logLength = logLength;
+        }
+
+        /*
+         * The names of all packages in the index or the log, only calculated
+         * when asked for as writers create many short-lived mappings.
+         */
+        synchronized Set<String> names() {
+            if (this.names == null) {
+                if (this.overlay.isEmpty()) {
+                    this.names = Collections.unmodifiableSet(this.table
+                            .keySet());
+                } else {
+                    final Set<String> all = new HashSet<String>(
+                            this.table.keySet());
+                    all.addAll(this.overlay.keySet());
+                    this.names = Collections.unmodifiableSet(all);
+                }
+            }
+            return this.names;
+        }
+    }
+
+    private final File            root;
+    private final File            indexFile;
+    private final File            logFile;
+    private final long            compactionThreshold;
+    private final RepositoryLocks locks;
+    private volatile Mapping      mapping = null;
+
+    /**
+     * Construct a store over the given repository root directory, the index
+     * itself is not opened until first used.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param compactionThreshold
+     *            the size, in bytes, the log may reach before it is compacted
+     *            into the index.
+     * @param locks
+     *            the locks for the repository.
+     */
+    IndexPackageStore(final File root, final long compactionThreshold,
+            final RepositoryLocks locks) {
+        this.root = root;
+        this.indexFile = new File(root, INDEX_FILE);
+        this.logFile = new File(root, LOG_FILE);
+        this.compactionThreshold = compactionThreshold;
+        this.locks = locks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<String> getPackageNames() throws IOException {
+        return current(true).names();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The names are all held in memory already, so nothing is streamed.
+     */
+    public PackageNameIterator iteratePackageNames(final boolean sorted)
+            throws IOException {
+        final Set<String> names = current(true).names();
+        return new NameCollectionIterator(sorted ? new TreeSet<String>(names)
+                : names);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The log is always checked for new frames first, callers merging into
+     * the result under the package locks must see every earlier update.
+     */
+    public Package readPackage(final String name) throws IOException {
+        return read(current(true), name, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All packages share the index and log, so the stamp is the index
+     * generation with the position of the package's record in the index and
+     * of the end of the last frame in the log that changed it. Writes to
+     * other packages leave it alone; compaction, which starts a new
+     * generation, changes it.
+     */
+    public PackageCache.Stamp stamp(final String name) throws IOException {
+        final Mapping current = current(true);
+        final Slot slot = current.table.get(name);
+        final Long logged = current.logged.get(name);
+        return new PackageCache.Stamp(current.generation != null
+                ? current.generation : String.valueOf(current.modified),
+                slot == null ? -1 : slot.offset, logged == null ? -1 : logged
+                        .longValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writePackage(final Package thePackage) throws IOException {
+        writePackages(Collections.singleton(thePackage));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the changes are appended to the log as a single frame, so the
+     * checksum makes the whole batch visible to readers or none of it. The
+     * caller holds the package locks, so the frame is built from the state of
+     * its packages before the store lock is taken; the store lock, which every
+     * writer must take in turn, is only held to append the frame.
+     */
+    public void writePackages(final Collection<Package> thePackages)
+            throws IOException {
+        final Mapping before = current(true);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final Package thePackage : thePackages) {
+            entries(read(before, thePackage.getName(), false), thePackage,
+                    out);
+        }
+        out.flush();
+        if (bytes.size() == 0) {
+            return;
+        }
+        final byte[] frame = frame(bytes.toByteArray());
+        final RepositoryLocks.Held held = this.locks.lockStore();
+        try {
+            append(current(true), frame);
+        } finally {
+            held.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Build the index if it does not yet exist.
+     */
+    public void recover() throws IOException {
+        current(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void compact() throws IOException {
+        final RepositoryLocks.Held held = this.locks.lockStore();
+        try {
+            final Mapping current = current(true);
+            if (current.logLength > 0) {
+                rewrite(current.overlay, current);
+                final RandomAccessFile log = new RandomAccessFile(
+                        this.logFile, "rw"); //$NON-NLS-1$
+                try {
+                    log.setLength(0);
+                } finally {
+                    log.close();
+                }
+                this.mapping = replay(load());
+            }
+        } finally {
+            held.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Package files are imported when the index is first built, there is
+     * nothing older to rewrite.
+     */
+    public int migrate() {
+        return 0;
+    }
+
+    /*
+     * Return the current state of the package, either from the overlay or
+     * decoded from its index record; when the caller may modify the result
+     * overlay packages are copied.
+     */
+    private static Package read(final Mapping current, final String name,
+            final boolean copy) {
+        final Package logged = current.overlay.get(name);
+        if (logged != null) {
+            return copy ? copyOf(logged) : logged;
+        }
+        final Slot slot = current.table.get(name);
+        if (slot == null) {
+            return null;
+        }
+        final ByteBuffer record = current.buffer.duplicate();
+        record.position(slot.offset);
+        return decode(name, record);
+    }
+
+    /*
+     * Return the loaded index, loading (or building) it if necessary. When
+     * asked to check, the index is also reloaded if another writer has
+     * replaced it and any new log frames are replayed.
+     */
+    private Mapping current(final boolean check) throws IOException {
+        Mapping current = this.mapping;
+        if (current == null
+                || (check && (isStale(current)
+                        || current.logLength != this.logFile.length()))) {
+            if (!this.indexFile.isFile()) {
+                final RepositoryLocks.Held held = this.locks.lockStore();
+                try {
+                    if (!this.indexFile.isFile()) {
+                        importFiles();
+                    }
+                } finally {
+                    held.release();
+                }
+            }
+            synchronized (this) {
+                current = this.mapping;
+                if (current == null || isStale(current)
+                        || current.logLength > this.logFile.length()) {
+                    current = load();
+                }
+                current = replay(current);
+                this.mapping = current;
+            }
+        }
+        return current;
+    }
+
+    /*
+     * Has the index file been replaced since the mapping was made? Every
+     * index file naming a generation has the same length, and two may be
+     * written within the resolution of its time, so the name it holds is
+     * compared as well.
+     */
+    private boolean isStale(final Mapping current) throws IOException {
+        if (current.modified != this.indexFile.lastModified()
+                || current.length != this.indexFile.length()) {
+            return true;
+        }
+        if (current.generation == null) {
+            return false;
+        }
+        try {
+            return !current.generation.equals(readGeneration());
+        } catch (FileNotFoundException ex) {
+            return true;
+        }
+    }
+
+    /*
+     * Build the initial index from any per-package properties files already
+     * present in the repository root.
+     */
+    private void importFiles() throws IOException {
+        final FilePackageStore files = new FilePackageStore(this.root,
+                this.locks);
+        final Map<String, Package> packages = new HashMap<String, Package>();
+        for (final String name : files.getPackageNames()) {
+            packages.put(name, files.readPackage(name));
+        }
+        rewrite(packages, null);
+        this.mapping = null;
+    }
+
+    /*
+     * Map the current index generation and read its offset table, nothing is
+     * replayed. Should a writer replace the generation between its name
+     * being read and it being opened the name is read again.
+     */
+    private Mapping load() throws IOException {
+        for (int attempt = 1;; attempt++) {
+            final long modified = this.indexFile.lastModified();
+            final long length = this.indexFile.length();
+            try {
+                final String generation = readGeneration();
+                return load(generation == null ? this.indexFile : new File(
+                        this.root, generation), generation, modified, length);
+            } catch (FileNotFoundException ex) {
+                if (attempt == LOAD_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /*
+     * Return the name of the current index generation, as held by the index
+     * file, or null if the index file itself holds an index; only the start
+     * of the file is read.
+     */
+    private String readGeneration() throws IOException {
+        final byte[] content = new byte[POINTER_SIZE];
+        int read = 0;
+        final InputStream in = new FileInputStream(this.indexFile);
+        try {
+            int count;
+            while (read < content.length
+                    && (count = in.read(content, read, content.length
+                            - read)) > 0) {
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        if (read >= 4 && ByteBuffer.wrap(content).getInt(0) == MAGIC) {
+            return null;
+        }
+        final String name = new String(content, 0, read, UTF8).trim();
+        if (!name.startsWith(GENERATION_PREFIX)
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            throw new IOException(String.format(
+                    "Not a package index file: %s", this.indexFile.getPath()));
+        }
+        return name;
+    }
+
+    /*
+     * Map an index generation, recording the state of the index file that
+     * named it so that a later replacement is seen.
+     */
+    private Mapping load(final File file, final String generation,
+            final long modified, final long length) throws IOException {
+        final MappedByteBuffer buffer;
+        final RandomAccessFile index = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            final FileChannel channel = index.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            index.close();
+        }
+        if (buffer.limit() < 2 * 4 + TRAILER_SIZE
+                || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException(String.format(
+                    "Not a package index file: %s", file.getPath()));
+        }
+        final int tableOffset = buffer.getInt(buffer.limit() - TRAILER_SIZE);
+        final int count = buffer.getInt(buffer.limit() - TRAILER_SIZE + 4);
+        final Map<String, Slot> table = new HashMap<String, Slot>(
+                count * 4 / 3 + 1);
+        final ByteBuffer reader = buffer.duplicate();
+        reader.position(tableOffset);
+        for (int i = 0; i < count; i++) {
+            final String name = readString(reader);
+            table.put(name, new Slot(reader.getInt(), reader.getInt()));
+        }
+        return new Mapping(buffer, table,
+                Collections.<String, Package> emptyMap(), Collections
+                        .<String, Long> emptyMap(), generation, modified,
+                length, 0);
+    }
+
+    /*
+     * Replay any complete log frames written since the mapping was made,
+     * returning a new mapping if anything was read.
+     */
+    private Mapping replay(final Mapping current) throws IOException {
+        if (!this.logFile.isFile()
+                || this.logFile.length() <= current.logLength) {
+            return current;
+        }
+        final byte[] tail;
+        final RandomAccessFile log = new RandomAccessFile(this.logFile, "r"); //$NON-NLS-1$
+        try {
+            tail = new byte[(int) (log.length() - current.logLength)];
+            log.seek(current.logLength);
+            log.readFully(tail);
+        } finally {
+            log.close();
+        }
+
+        final Map<String, Package> overlay = new HashMap<String, Package>(
+                current.overlay);
+        final Map<String, Long> logged = new HashMap<String, Long>(
+                current.logged);
+        final Set<String> copied = new HashSet<String>();
+        final ByteBuffer frames = ByteBuffer.wrap(tail);
+        final CRC32 crc = new CRC32();
+        int consumed = 0;
+        while (frames.remaining() >= FRAME_HEADER_SIZE) {
+            final int length = frames.getInt();
+            final int checksum = frames.getInt();
+            if (length < 0 || frames.remaining() < length) {
+                break;
+            }
+            crc.reset();
+            crc.update(tail, frames.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            final int end = frames.position() + length;
+            while (frames.position() < end) {
+                final byte op = frames.get();
+                final String name = readString(frames);
+                Package thePackage;
+                if (op == OP_CLEAR) {
+                    thePackage = new Package(name);
+                    copied.add(name);
+                } else if (copied.add(name)) {
+                    thePackage = read(current, name, true);
+                    if (thePackage == null) {
+                        thePackage = new Package(name);
+                    }
+                } else {
+                    thePackage = overlay.get(name);
+                }
+                overlay.put(name, thePackage);
+                logged.put(name, Long.valueOf(current.logLength + end));
+                if (op == OP_ADD) {
+                    final VersionNumber version = Pools.version(
+                            new VersionNumber(readString(frames)));
+                    thePackage.addArtifact(version,
+                            Pools.artifact(readString(frames),
+                                    readString(frames), new VersionNumber(
+                                            readString(frames))));
+                }
+            }
+            consumed = end;
+        }
+        if (consumed == 0) {
+            return current;
+        }
+        return new Mapping(current.buffer, current.table, overlay, logged,
+                current.generation, current.modified, current.length,
+                current.logLength + consumed);
+    }
+
+    /*
+     * Append a frame to the log, dropping any torn frame left at its end by
+     * an interrupted writer, and sync it. The frame is then replayed and the
+     * log compacted if it has grown past the threshold.
+     */
+    private void append(final Mapping current, final byte[] frame)
+            throws IOException {
+        final RandomAccessFile log = new RandomAccessFile(this.logFile, "rw"); //$NON-NLS-1$
+        try {
+            if (log.length() != current.logLength) {
+                log.setLength(current.logLength);
+            }
+            log.seek(current.logLength);
+            log.write(frame);
+            log.getFD().sync();
+        } finally {
+            log.close();
+        }
+        this.mapping = replay(current);
+        if (this.mapping.logLength > this.compactionThreshold) {
+            compact();
+        }
+    }
+
+    /*
+     * Write the log entries needed to turn the old state of a package into
+     * the new one; if the new state drops anything the package is cleared and
+     * rewritten in full. Nothing is written if nothing has changed.
+     */
+    private static void entries(final Package old, final Package thePackage,
+            final DataOutputStream out) throws IOException {
+        final boolean replace = old == null || !contains(thePackage, old);
+        if (replace) {
+            out.writeByte(OP_CLEAR);
+            writeString(thePackage.getName(), out);
+        }
+        for (final VersionNumber version : thePackage.getVersions()) {
+            final Set<Artifact> existing = replace ? null : old
+                    .resolve(version);
+            for (final Artifact artifact : thePackage.resolve(version)) {
+                if (existing == null || !existing.contains(artifact)) {
+                    out.writeByte(OP_ADD);
+                    writeString(thePackage.getName(), out);
+                    writeString(version.toString(), out);
+                    writeString(artifact.getGroupId(), out);
+                    writeString(artifact.getArtifactId(), out);
+                    writeString(artifact.getVersion().toString(), out);
+                }
+            }
+        }
+    }
+
+    /*
+     * Wrap log entries in a frame with their length and checksum.
+     */
+    private static byte[] frame(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE
+                + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        return frame.array();
+    }
+
+    /*
+     * Does the package contain every artifact of every version of the other?
+     */
+    private static boolean contains(final Package thePackage,
+            final Package other) {
+        for (final VersionNumber version : other.getVersions()) {
+            final Set<Artifact> artifacts = thePackage.resolve(version);
+            if (artifacts == null
+                    || !artifacts.containsAll(other.resolve(version))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Write a new index containing the current content with the changed
+     * packages replaced, unchanged records are copied across as raw bytes.
+     * The new generation is synced and then made current, and the old ones
+     * deleted.
+     */
+    private void rewrite(final Map<String, Package> changed,
+            final Mapping current) throws IOException {
+        final SortedSet<String> names = new TreeSet<String>(changed.keySet());
+        if (current != null) {
+            names.addAll(current.table.keySet());
+        }
+        final Map<String, Slot> table = new HashMap<String, Slot>(
+                names.size() * 4 / 3 + 1);
+
+        final String generation = GENERATION_PREFIX
+                + UUID.randomUUID().toString();
+        final FileOutputStream file = new FileOutputStream(new File(
+                this.root, generation));
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(file));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            for (final String name : names) {
+                final int offset = out.size();
+                final Package thePackage = changed.get(name);
+                if (thePackage != null) {
+                    encode(thePackage, out);
+                } else {
+                    final Slot slot = current.table.get(name);
+                    final byte[] raw = new byte[slot.length];
+                    final ByteBuffer reader = current.buffer.duplicate();
+                    reader.position(slot.offset);
+                    reader.get(raw);
+                    out.write(raw);
+                }
+                table.put(name, new Slot(offset, out.size() - offset));
+            }
+            final int tableOffset = out.size();
+            for (final String name : names) {
+                final Slot slot = table.get(name);
+                writeString(name, out);
+                out.writeInt(slot.offset);
+                out.writeInt(slot.length);
+            }
+            out.writeInt(tableOffset);
+            out.writeInt(names.size());
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+
+        final File temp = new File(this.root, INDEX_FILE + TEMP_SUFFIX);
+        final FileOutputStream pointer = new FileOutputStream(temp);
+        try {
+            pointer.write((generation + '\n').getBytes(UTF8));
+            pointer.getFD().sync();
+        } finally {
+            pointer.close();
+        }
+        Files.move(temp.toPath(), this.indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        deleteGenerations(generation);
+    }
+
+    /*
+     * Delete every index generation but the current one; one still mapped by
+     * a reader may not be deletable, and is left for the next compaction.
+     */
+    private void deleteGenerations(final String current) throws IOException {
+        final DirectoryStream<Path> generations = Files.newDirectoryStream(
+                this.root.toPath(), GENERATION_PREFIX + '*');
+        try {
+            for (final Path generation : generations) {
+                if (!generation.getFileName().toString().equals(current)) {
+                    try {
+                        Files.deleteIfExists(generation);
+                    } catch (IOException ex) {
+                        // still in use, try again next time
+                    }
+                }
+            }
+        } finally {
+            generations.close();
+        }
+    }
+
+    /*
+     * Make a private, modifiable, copy of a package.
+     */
+    private static Package copyOf(final Package thePackage) {
+        final Package copy = new Package(thePackage.getName());
+        copy.merge(thePackage);
+        return copy;
+    }
+
+    /*
+     * Encode a single package record.
+     */
+    private static void encode(final Package thePackage,
+            final DataOutputStream out) throws IOException {
+        final Set<VersionNumber> versions = thePackage.getVersions();
+        out.writeInt(versions.size());
+        for (final VersionNumber version : versions) {
+            final Set<Artifact> artifacts = thePackage.resolve(version);
+            writeString(version.toString(), out);
+            out.writeInt(artifacts.size());
+            for (final Artifact artifact : artifacts) {
+                writeString(artifact.getGroupId(), out);
+                writeString(artifact.getArtifactId(), out);
+                writeString(artifact.getVersion().toString(), out);
+            }
+        }
+    }
+
+    /*
+     * Decode a single package record from the buffer's current position.
+     */
+    private static Package decode(final String name, final ByteBuffer record) {
+        final Package thePackage = new Package(name);
+        final int versions = record.getInt();
+        for (int i = 0; i < versions; i++) {
+            final VersionNumber version = Pools.version(new VersionNumber(
+                    readString(record)));
+            final int artifacts = record.getInt();
+            for (int j = 0; j < artifacts; j++) {
+                thePackage.addArtifact(version,
+                        Pools.artifact(readString(record), readString(record),
+                                new VersionNumber(readString(record))));
+            }
+        }
+        return thePackage;
+    }
+
+    private static void writeString(final String value,
+            final DataOutputStream out) throws IOException {
+        final byte[] bytes = value.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
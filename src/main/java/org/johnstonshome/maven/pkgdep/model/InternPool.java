@@ -0,0 +1,142 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lossy, pool of canonical instances of an immutable type. The
+ * pool is a fixed size table of small buckets indexed by hash code, each
+ * bucket holding the few most recent values that hashed to it; interning a
+ * value returns the pooled instance if the bucket holds one the same as it,
+ * otherwise the value itself, which then displaces the oldest in the bucket.
+ * Values that recur are therefore shared while the pool never grows, and
+ * never needs locking, as a lost race only costs a missed chance to share.
+ * <p>
+ * The hash codes of this model's values are built by folding small numbers
+ * with a multiplier of 31, so neighbouring values often have neighbouring, or
+ * even equal, hash codes. Codes are therefore mixed before use, and a pool
+ * may compute a better mixed code of its own.
+ *
+ * @param <T>
+ *            the type of value pooled.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+class InternPool<T> {
+
+    /*
+     * The number of slots in each bucket.
+     */
+    private static final int              WAYS = 4;
+
+    private final AtomicReferenceArray<T> slots;
+    private final int                     mask;
+
+    /**
+     * Construct an empty pool.
+     *
+     * @param capacity
+     *            the number of slots, rounded up to a power of two, and
+     *            to at least one bucket.
+     */
+    InternPool(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid capacity, must be greater than zero");
+        }
+        int size = WAYS;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<T>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Return the pooled instance the same as value, if there is one,
+     * otherwise pool and return value.
+     *
+     * @param value
+     *            the value to intern, may be <code>null</code>.
+     * @return the canonical instance.
+     */
+    T intern(final T value) {
+        if (value == null) {
+            return null;
+        }
+        final int first = spread(hash(value)) & this.mask & ~(WAYS - 1);
+        for (int slot = first; slot < first + WAYS; slot++) {
+            final T pooled = this.slots.get(slot);
+            if (pooled == null) {
+                break;
+            }
+            if (pooled == value || same(pooled, value)) {
+                return pooled;
+            }
+        }
+        /*
+         * Not found, so shift the bucket down, dropping its oldest value.
+         */
+        for (int slot = first + WAYS - 1; slot > first; slot--) {
+            this.slots.lazySet(slot, this.slots.get(slot - 1));
+        }
+        this.slots.lazySet(first, value);
+        return value;
+    }
+
+    /**
+     * Empty the pool.
+     */
+    void clear() {
+        for (int i = 0; i < this.slots.length(); i++) {
+            this.slots.set(i, null);
+        }
+    }
+
+    /*
+     * Mix all the bits of a hash code into the low bits used to pick a slot,
+     * the finalizer of the MurmurHash3 algorithm.
+     */
+    static int spread(final int hash) {
+        int mixed = hash ^ (hash >>> 16);
+        mixed *= 0x85EBCA6B;
+        mixed ^= mixed >>> 13;
+        mixed *= 0xC2B2AE35;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    /**
+     * Return the hash code used to place a value in the pool, by default its
+     * own hash code.
+     *
+     * @param value
+     *            the value being interned.
+     * @return the hash code for the value.
+     */
+    int hash(final T value) {
+        return value.hashCode();
+    }
+
+    /**
+     * Return <code>true</code> if the pooled value may be used in place of
+     * the given one. By default this is equality, types whose equal values
+     * may still differ visibly override it.
+     *
+     * @param pooled
+     *            the pooled value.
+     * @param value
+     *            the value being interned.
+     * @return whether pooled may replace value.
+     */
+    boolean same(final T pooled, final T value) {
+        return pooled.equals(value);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Iterates over package names already held in memory, there is nothing to
+ * close.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class NameCollectionIterator implements PackageNameIterator {
+
+    private final Iterator<String> names;
+
+    /**
+     * Construct an iterator over the given names, in the collection's order.
+     *
+     * @param names
+     *            the package names.
+     */
+    NameCollectionIterator(final Collection<String> names) {
+        this.names = names.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        return this.names.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String next() {
+        return this.names.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        // nothing held open.
+    }
+}
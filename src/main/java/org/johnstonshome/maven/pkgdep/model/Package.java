@@ -8,43 +8,63 @@
  */
 package org.johnstonshome.maven.pkgdep.model;
 
-import java.util.HashMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * This class models a Java package in the repository, each package has 0..n
  * identified versions and each version then has 0..n artifacts identified that
  * provide that package/version. The key methods here are those that
  * <i>resolve</i> a package a version(s) to zero or more implementing artifacts.
+ * <p>
+ * Versions are held in version order, so the latest version is known without
+ * a search and resolving a range of versions visits only the versions within
+ * it. A package starts with its versions in a sorted map, and moves them to
+ * a compact index of sorted primitive arrays once it has more than
+ * {@link #COMPACT_THRESHOLD} versions, as packages that publish nightly
+ * builds can; which index is in use is not visible through this class.
  * 
  * @author simonjo (simon@johnstonshome.org)
  * 
  */
 public class Package {
 
-    private static final String                     COLON     = ":"; //$NON-NLS-1$
-    private static final String                     COMMA     = ","; //$NON-NLS-1$
+    /**
+     * The number of versions above which a package holds its versions in the
+     * compact index.
+     */
+    static final int                          COMPACT_THRESHOLD = 512;
 
-    private static final int                        FIELD_GROUP    = 0;
-    private static final int                        FIELD_ARTIFACT = 1;
-    private static final int                        FIELD_VERSION  = 2;
-    private static final int                        FIELDS         = 3;
+    private static final String               COMMA             = ","; //$NON-NLS-1$
+    private static final char                 COLON_CHAR        = ':';
+    private static final char                 COMMA_CHAR        = ',';
 
     /*
      * The fully-qualified name of a Java package.
      */
-    private final String                            name;
+    private final String                      name;
+    /*
+     * The number of versions above which the compact index is used.
+     */
+    private final int                         compactThreshold;
+    /*
+     * The internal index holding implementing artifacts, kept sorted by
+     * version so that versions are listed, and ranges found, without sorting.
+     */
+    private VersionIndex                      index;
     /*
-     * The internal map holding implementing artifacts.
+     * The view returned by getVersions, which follows the index when it is
+     * replaced.
      */
-    private final Map<VersionNumber, Set<Artifact>> artifacts = 
-        new HashMap<VersionNumber, Set<Artifact>>();
+    private final SortedSet<VersionNumber>    versions          =
+        new Versions();
 
     /**
      * Construct an empty package.
@@ -53,11 +73,29 @@ public class Package {
      *            the name of the package in its canonical Java form.
      */
     public Package(final String name) {
+        this(name, COMPACT_THRESHOLD);
+    }
+
+    /**
+     * Construct an empty package that moves to the compact index at a given
+     * number of versions rather than the default, for tests and benchmarks.
+     * 
+     * @param name
+     *            the name of the package in its canonical Java form.
+     * @param compactThreshold
+     *            the number of versions above which to use the compact
+     *            index, 0 to always use it, {@link Integer#MAX_VALUE} never
+     *            to.
+     */
+    Package(final String name, final int compactThreshold) {
         if (name == null) {
             throw new IllegalArgumentException(
                     "Invalid package name, may not be null");
         }
         this.name = name;
+        this.compactThreshold = compactThreshold;
+        this.index = compactThreshold == 0 ? new ArrayVersionIndex()
+                : new TreeVersionIndex();
     }
 
     /**
@@ -80,29 +118,78 @@ public class Package {
                     "Invalid properties, may not be null");
         }
         for (final Object key : properties.keySet()) {
-            final VersionNumber version = new VersionNumber((String) key);
-            if (!artifacts.containsKey(version)) {
-                artifacts.put(version, new HashSet<Artifact>());
-            }
+            final VersionNumber version = Pools.version(new VersionNumber(
+                    (String) key));
             /*
              * Read comma-separated list.
              */
-            final String[] contents = ((String) properties.get(key))
-                    .split(COMMA);
-            for (final String artifact : contents) {
-                final String[] parts = artifact.split(COLON);
-                if (parts.length != FIELDS) {
-                    throw new IllegalArgumentException();
-                }
-                artifacts.get(version).add(
-                        new Artifact(
-                                parts[FIELD_GROUP], 
-                                parts[FIELD_ARTIFACT], 
-                                new VersionNumber(parts[FIELD_VERSION])));
+            final String list = (String) properties.get(key);
+            addArtifacts(version, list, 0, list.length());
+        }
+    }
+
+    /**
+     * Parse a comma-separated list of group:artifact:version identifiers in
+     * place and add them to a version, splitting as String.split would, so
+     * that each version is parsed straight out of the list without first
+     * being copied.
+     * 
+     * @param version
+     *            the version of this package the artifacts provide.
+     * @param list
+     *            the sequence holding the list.
+     * @param offset
+     *            the index of the start of the list.
+     * @param length
+     *            the length of the list.
+     * @throws IllegalArgumentException
+     *             if the list is empty or an entry is not an artifact.
+     */
+    void addArtifacts(final VersionNumber version, final CharSequence list,
+            final int offset, final int length) {
+        if (length == 0) {
+            throw new IllegalArgumentException();
+        }
+        int end = offset + length;
+        while (end > offset && list.charAt(end - 1) == COMMA_CHAR) {
+            end--;
+        }
+        int start = offset;
+        while (start < end) {
+            final int next = find(list, COMMA_CHAR, start, end, end);
+            int last = next;
+            while (last > start && list.charAt(last - 1) == COLON_CHAR) {
+                last--;
+            }
+            final int group = find(list, COLON_CHAR, start, last, -1);
+            final int artifact = group < 0 ? -1 : find(list, COLON_CHAR,
+                    group + 1, last, -1);
+            if (group < 0 || artifact < 0
+                    || find(list, COLON_CHAR, artifact + 1, last, -1) >= 0) {
+                throw new IllegalArgumentException();
             }
+            add(version, Pools.artifact(list.subSequence(start, group)
+                    .toString(), list.subSequence(group + 1, artifact)
+                    .toString(), new VersionNumber(list, artifact + 1, last
+                    - artifact - 1)));
+            start = next + 1;
         }
     }
 
+    /*
+     * Return the index of the first occurrence of a character in list between
+     * from and end, or none if there is none.
+     */
+    private static int find(final CharSequence list, final char wanted,
+            final int from, final int end, final int none) {
+        for (int i = from; i < end; i++) {
+            if (list.charAt(i) == wanted) {
+                return i;
+            }
+        }
+        return none;
+    }
+
     /**
      * Return the fully qualified name of the Java package represented by this
      * model object.
@@ -116,22 +203,29 @@ public class Package {
     /**
      * Return the set of all versions known for this package, note that by
      * returning this as a sorted set you can enumerate the versions in order
-     * from first to last.
+     * from first to last. The set is a read-only view, so reflects versions
+     * added later.
      * 
      * @return a {@link SortedSet} instance holding all versions of this
      *         package.
      */
     public SortedSet<VersionNumber> getVersions() {
-        return new TreeSet<VersionNumber>(this.artifacts.keySet());
+        return this.versions;
     }
 
     /**
      * Return the latest version of this package in the repository.
      * 
      * @return the latest version of this package.
+     * @throws NoSuchElementException
+     *             if the package has no versions.
      */
     public VersionNumber getLatestVersion() {
-        return new TreeSet<VersionNumber>(this.artifacts.keySet()).last();
+        final VersionNumber latest = this.index.latest();
+        if (latest == null) {
+            throw new NoSuchElementException();
+        }
+        return latest;
     }
 
     /**
@@ -140,14 +234,15 @@ public class Package {
      * 
      * @param version
      *            the version to resolve
-     * @return the set of all artifacts implementing the specified version.
+     * @return the read-only set of all artifacts implementing the specified
+     *         version.
      */
     public Set<Artifact> resolve(final VersionNumber version) {
         if (version == null) {
             throw new IllegalArgumentException(
                     "Invalid version, may not be null");
         }
-        return this.artifacts.get(version);
+        return this.index.get(version);
     }
 
     /**
@@ -170,14 +265,7 @@ public class Package {
             throw new IllegalArgumentException(
                     "Invalid start version, may not be null");
         }
-        Set<Artifact> results = new HashSet<Artifact>();
-        for (final VersionNumber version : this.artifacts.keySet()) {
-            final int startComp = version.compareTo(start);
-            if (startComp > 0 || (startInclusive && startComp == 0)) {
-                results.addAll(this.artifacts.get(version));
-            }
-        }
-        return results;
+        return resolve(new VersionRange(start, startInclusive, null, false));
     }
 
     /**
@@ -215,15 +303,25 @@ public class Package {
             throw new IllegalArgumentException(
                     "Invalid end version, may not be null");
         }
-        Set<Artifact> results = new HashSet<Artifact>();
-        for (final VersionNumber version : this.artifacts.keySet()) {
-            final int startComp = version.compareTo(start);
-            final int endComp = version.compareTo(end);
-            if ((startComp > 0 || (startInclusive && startComp == 0))
-                    && (endComp < 0 || (endInclusive && endComp == 0))) {
-                results.addAll(this.artifacts.get(version));
-            }
+        return resolve(new VersionRange(start, startInclusive, end,
+                endInclusive));
+    }
+
+    /**
+     * Resolve all packages that implement this package with a version number
+     * within a range, such as one given by an OSGi Import-Package clause.
+     * 
+     * @param range
+     *            the range of versions to resolve.
+     * @return the set of all artifacts implementing a version in the range.
+     */
+    public Set<Artifact> resolve(final VersionRange range) {
+        if (range == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version range, may not be null");
         }
+        final Set<Artifact> results = new HashSet<Artifact>();
+        this.index.resolve(range, results);
         return results;
     }
 
@@ -234,8 +332,10 @@ public class Package {
      *            the version of the package
      * @param artifact
      *            the implementation artifact.
+     * @return <code>true</code> if the package changed, <code>false</code> if
+     *         the artifact was already known to implement the version.
      */
-    public void addArtifact(final VersionNumber packageVersion,
+    public boolean addArtifact(final VersionNumber packageVersion,
             final Artifact artifact) {
         if (packageVersion == null) {
             throw new IllegalArgumentException(
@@ -245,10 +345,7 @@ public class Package {
             throw new IllegalArgumentException(
                     "Invalid artifact, may not be null");
         }
-        if (!this.artifacts.containsKey(packageVersion)) {
-            this.artifacts.put(packageVersion, new HashSet<Artifact>());
-        }
-        this.artifacts.get(packageVersion).add(artifact);
+        return add(packageVersion, artifact);
     }
 
     /**
@@ -256,8 +353,10 @@ public class Package {
      * 
      * @param other
      *            the package to merge from, into <code>this</code>.
+     * @return <code>true</code> if the package changed, <code>false</code> if
+     *         it already had every version and artifact of the other.
      */
-    public void merge(final Package other) {
+    public boolean merge(final Package other) {
         if (other == null) {
             throw new IllegalArgumentException(
                     "Invalid package, may not be null");
@@ -266,14 +365,129 @@ public class Package {
             throw new IllegalArgumentException(
                     "Invalid package name, must be same");
         }
-        for (final VersionNumber version : other.getVersions()) {
-            if (!this.artifacts.containsKey(version)) {
-                this.artifacts.put(version, new HashSet<Artifact>());
+        boolean changed = false;
+        final Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries = other
+                .entries();
+        while (entries.hasNext()) {
+            final Map.Entry<VersionNumber, Set<Artifact>> entry = entries
+                    .next();
+            for (final Artifact artifact : entry.getValue()) {
+                changed |= add(entry.getKey(), artifact);
             }
-            for (final Artifact artifact : other.resolve(version)) {
-                this.artifacts.get(version).add(artifact);
+        }
+        return changed;
+    }
+
+    /**
+     * Return <code>true</code> if another package has exactly the same
+     * versions, each with the same artifacts, as this one; the names of the
+     * packages are not compared.
+     * 
+     * @param other
+     *            the package to compare with.
+     * @return whether writing either package would write the same content.
+     */
+    boolean hasSameContent(final Package other) {
+        if (this.index.size() != other.index.size()) {
+            return false;
+        }
+        final Iterator<Map.Entry<VersionNumber, Set<Artifact>>> mine =
+            entries();
+        final Iterator<Map.Entry<VersionNumber, Set<Artifact>>> theirs = other
+                .entries();
+        while (mine.hasNext()) {
+            final Map.Entry<VersionNumber, Set<Artifact>> left = mine.next();
+            final Map.Entry<VersionNumber, Set<Artifact>> right = theirs
+                    .next();
+            if (!left.getKey().isIdentical(right.getKey())
+                    || !left.getValue().equals(right.getValue())) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Return an immutable snapshot of the current state of this package,
+     * which may be shared between threads; later changes to this package are
+     * not seen by the snapshot.
+     * 
+     * @return the snapshot.
+     */
+    public PackageSnapshot snapshot() {
+        return PackageSnapshot.of(this);
+    }
+
+    /*
+     * The versions and their artifacts, in order.
+     */
+    Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries() {
+        return this.index.entries();
+    }
+
+    /*
+     * Add an artifact to a version, adding the version if it is new, and
+     * moving to the compact index if there are now too many. Returns whether
+     * anything was added.
+     */
+    private boolean add(final VersionNumber version, final Artifact artifact) {
+        if (!this.index.add(version, artifact)) {
+            return false;
+        }
+        if (this.index.size() > this.compactThreshold
+                && this.index instanceof TreeVersionIndex) {
+            this.index = new ArrayVersionIndex(this.index);
+        }
+        return true;
+    }
+
+    /*
+     * A read-only view of the versions of this package, over whichever index
+     * is current.
+     */
+    private final class Versions extends AbstractSet<VersionNumber> implements
+            SortedSet<VersionNumber> {
+
+        public Comparator<? super VersionNumber> comparator() {
+            return VersionNumber.EXACT_ORDER;
+        }
+
+        public SortedSet<VersionNumber> subSet(final VersionNumber from,
+                final VersionNumber to) {
+            return Package.this.index.versions().subSet(from, to);
+        }
+
+        public SortedSet<VersionNumber> headSet(final VersionNumber to) {
+            return Package.this.index.versions().headSet(to);
+        }
+
+        public SortedSet<VersionNumber> tailSet(final VersionNumber from) {
+            return Package.this.index.versions().tailSet(from);
+        }
+
+        public VersionNumber first() {
+            return Package.this.index.versions().first();
+        }
+
+        public VersionNumber last() {
+            return Package.this.index.versions().last();
+        }
+
+        @Override
+        public int size() {
+            return Package.this.index.size();
+        }
+
+        @Override
+        public boolean contains(final Object object) {
+            return object instanceof VersionNumber
+                    && Package.this.index.get((VersionNumber) object) != null;
+        }
+
+        @Override
+        public Iterator<VersionNumber> iterator() {
+            return Package.this.index.versions().iterator();
+        }
     }
 
     /**
@@ -0,0 +1,339 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, in-memory, cache of packages read from a {@link Repository}, so
+ * that reading the same package repeatedly within one JVM does not parse it
+ * again each time. The cache may be bounded by the number of packages it
+ * holds, by an estimate of the memory they use, or both; once either bound is
+ * exceeded the least recently used packages are evicted.
+ * <p>
+ * Every entry records a stamp of its backing storage when it was read, and is
+ * only used if the stamp is unchanged, so changes made by other repository
+ * objects or other processes are always seen. Hit, miss and eviction counts
+ * are kept to help size the cache. Repository objects for the same root may
+ * share a cache; {@link #forRoot(File, int, long)} returns one cache per root
+ * for the life of the JVM, so that it outlives any one build.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class PackageCache {
+
+    /*
+     * Rough per-object costs, in bytes, used to estimate the memory held.
+     */
+    private static final int PACKAGE_COST  = 96;
+    private static final int VERSION_COST  = 128;
+    private static final int ARTIFACT_COST = 112;
+
+    private static final Map<String, PackageCache> INSTANCES =
+        new HashMap<String, PackageCache>();
+
+    /**
+     * Identifies the state of the storage a package was read from: for a
+     * package file its modification time and size, for storage shared by all
+     * packages the generation of the storage and the positions of the
+     * package's records within it.
+     */
+    static final class Stamp {
+        private final String source;
+        private final long   first;
+        private final long   second;
+
+        Stamp(final long modified, final long length) {
+            this(null, modified, length);
+        }
+
+        Stamp(final String source, final long first, final long second) {
+            this.source = source;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Stamp)) {
+                return false;
+            }
+            final Stamp stamp = (Stamp) other;
+            return (this.source == null ? stamp.source == null : this.source
+                    .equals(stamp.source))
+                    && this.first == stamp.first
+                    && this.second == stamp.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.source == null ? 0 : this.source.hashCode())
+                    ^ (int) (this.first ^ (this.first >>> 32))
+                    ^ (int) (this.second ^ (this.second >>> 32));
+        }
+    }
+
+    /*
+     * A cached package, as an immutable snapshot that is shared by all
+     * readers.
+     */
+    private static final class Entry {
+        private final PackageSnapshot thePackage;
+        private final Stamp           stamp;
+        private final long            bytes;
+
+        Entry(final PackageSnapshot thePackage, final Stamp stamp,
+                final long bytes) {
+            this.thePackage = thePackage;
+            this.stamp = stamp;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int                maxEntries;
+    private final long               maxBytes;
+    private final Map<String, Entry> entries   =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long                     bytes     = 0;
+    private long                     hits      = 0;
+    private long                     misses    = 0;
+    private long                     evictions = 0;
+
+    /**
+     * Construct a new, empty, cache with the given bounds; a bound that is
+     * zero or less is not applied, but at least one bound must be given.
+     *
+     * @param maxEntries
+     *            the maximum number of packages to hold.
+     * @param maxBytes
+     *            the maximum estimated memory, in bytes, to hold.
+     */
+    public PackageCache(final int maxEntries, final long maxBytes) {
+        if (maxEntries <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid cache bounds, at least one must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the cache for the given repository root, every caller in this
+     * JVM asking for the same root receives the same instance. The cache
+     * keeps the bounds it was first created with.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param maxEntries
+     *            the maximum number of packages to hold.
+     * @param maxBytes
+     *            the maximum estimated memory, in bytes, to hold.
+     * @return the cache for that repository.
+     */
+    public static PackageCache forRoot(final File root, final int maxEntries,
+            final long maxBytes) {
+        if (root == null) {
+            throw new IllegalArgumentException(
+                    "Invalid repository root, may not be null");
+        }
+        String key;
+        try {
+            key = root.getCanonicalPath();
+        } catch (IOException ex) {
+            key = root.getAbsolutePath();
+        }
+        synchronized (INSTANCES) {
+            PackageCache cache = INSTANCES.get(key);
+            if (cache == null) {
+                cache = new PackageCache(maxEntries, maxBytes);
+                INSTANCES.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Return the cached package, if present and its storage has not changed
+     * since it was cached; a stale package is removed. The snapshot is
+     * immutable, so it is shared rather than copied.
+     *
+     * @param name
+     *            the package name.
+     * @param stamp
+     *            the current stamp of the package's storage.
+     * @return the cached package, or <code>null</code>.
+     */
+    synchronized PackageSnapshot get(final String name, final Stamp stamp) {
+        final Entry entry = this.entries.get(name);
+        if (entry != null && entry.stamp.equals(stamp)) {
+            this.hits++;
+            return entry.thePackage;
+        }
+        if (entry != null) {
+            remove(name);
+        }
+        this.misses++;
+        return null;
+    }
+
+    /**
+     * Cache a snapshot of a package just read from storage with the given
+     * stamp, evicting the least recently used packages if the cache is then
+     * over either bound.
+     *
+     * @param thePackage
+     *            the package read.
+     * @param stamp
+     *            the stamp of the storage, taken before the package was read.
+     * @return the snapshot cached.
+     */
+    PackageSnapshot put(final Package thePackage, final Stamp stamp) {
+        final PackageSnapshot snapshot = thePackage.snapshot();
+        put(snapshot, stamp);
+        return snapshot;
+    }
+
+    /**
+     * Cache a package snapshot just read from storage with the given stamp,
+     * evicting the least recently used packages if the cache is then over
+     * either bound.
+     *
+     * @param thePackage
+     *            the package read.
+     * @param stamp
+     *            the stamp of the storage, taken before the package was read.
+     */
+    synchronized void put(final PackageSnapshot thePackage, final Stamp stamp) {
+        final Entry entry = new Entry(thePackage, stamp, estimate(thePackage));
+        final Entry old = this.entries.put(thePackage.getName(), entry);
+        if (old != null) {
+            this.bytes -= old.bytes;
+        }
+        this.bytes += entry.bytes;
+
+        final Iterator<Entry> eldest = this.entries.values().iterator();
+        while (eldest.hasNext() && isOverBounds()) {
+            final Entry evicted = eldest.next();
+            if (evicted == entry) {
+                break;
+            }
+            eldest.remove();
+            this.bytes -= evicted.bytes;
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Remove a package from the cache, if present.
+     *
+     * @param name
+     *            the package name.
+     */
+    synchronized void remove(final String name) {
+        final Entry old = this.entries.remove(name);
+        if (old != null) {
+            this.bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Remove all packages from the cache, the counters are left as they are.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Return the number of packages currently cached.
+     *
+     * @return the number of packages.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Return the estimated memory, in bytes, used by the cached packages.
+     *
+     * @return the estimated size in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Return the number of reads answered from the cache.
+     *
+     * @return the hit count.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Return the number of reads that had to go to storage, including those
+     * for packages that were cached but had changed.
+     *
+     * @return the miss count.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Return the number of packages evicted to keep the cache within its
+     * bounds.
+     *
+     * @return the eviction count.
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%d packages (~%d bytes), %d hits, %d misses, %d evictions",
+                Integer.valueOf(this.entries.size()), Long.valueOf(this.bytes),
+                Long.valueOf(this.hits), Long.valueOf(this.misses), Long
+                        .valueOf(this.evictions));
+    }
+
+    /*
+     * Is the cache over either of its bounds?
+     */
+    private boolean isOverBounds() {
+        return (this.maxEntries > 0 && this.entries.size() > this.maxEntries)
+                || (this.maxBytes > 0 && this.bytes > this.maxBytes);
+    }
+
+    /*
+     * A rough estimate of the memory held by a package, based on the number
+     * of versions and artifacts and the length of their strings.
+     */
+    private static long estimate(final PackageSnapshot thePackage) {
+        long estimate = PACKAGE_COST + 2 * thePackage.getName().length();
+        for (int i = 0; i < thePackage.size(); i++) {
+            estimate += VERSION_COST;
+            for (final Artifact artifact : thePackage.artifactsAt(i)) {
+                estimate += ARTIFACT_COST + VERSION_COST + 2
+                        * (artifact.getGroupId().length() + artifact
+                                .getArtifactId().length());
+            }
+        }
+        return estimate;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compact binary encoding of a single {@link Package}, used for package
+ * files by {@link StorageMode#BINARY}. Unsigned integers are written as
+ * variable length quantities, seven bits to a byte, least significant first,
+ * with the top bit of each byte set if another follows; signed integers are
+ * first zig-zag encoded so that small negative numbers stay short. Each
+ * distinct group, artifact and qualifier string is written once, in a table,
+ * and referred to by its position:
+ *
+ * <pre>
+ * file:     magic format count string* count version*
+ * string:   length UTF-8-bytes
+ * version:  number count artifact*
+ * artifact: group-index artifact-index number
+ * number:   head component* qualifier
+ * </pre>
+ *
+ * The magic is the four bytes <code>PKGB</code>, which can never begin a
+ * properties file written by this plugin, so a file in either format is read
+ * correctly whatever the repository's storage mode. The low three bits of the
+ * head of a number give the count of its numeric components, the rest how
+ * many of them are the same as in the previous number of the same kind,
+ * package or artifact version. Only the remaining components are written,
+ * the first as the signed difference from the previous number and the others
+ * in full, so a sorted list of versions costs a byte or two per version. The
+ * qualifier is zero for none, otherwise one more than its string index.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class PackageCodec {
+
+    /**
+     * The number of bytes needed by {@link #isEncoded(byte[])}.
+     */
+    static final int             MAGIC_LENGTH   = 4;
+
+    private static final byte[]  MAGIC          = { 'P', 'K', 'G', 'B' };
+    private static final int     FORMAT         = 1;
+    private static final int     MAX_FIELDS     = 4;
+    private static final int     FIELDS_BITS    = 3;
+    private static final int     FIELDS_MASK    = 0x07;
+    private static final int     VARINT_BITS    = 7;
+    private static final int     VARINT_MASK    = 0x7F;
+    private static final int     VARINT_MORE    = 0x80;
+    private static final int     INITIAL_SIZE   = 256;
+    private static final Charset UTF8           = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private PackageCodec() {
+        // static methods only
+    }
+
+    /**
+     * Return <code>true</code> if the content of a package file is in this
+     * encoding, rather than the original properties format.
+     *
+     * @param content
+     *            the content of the file.
+     * @return whether the content is binary encoded.
+     */
+    static boolean isEncoded(final byte[] content) {
+        if (content.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (content[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode a package.
+     *
+     * @param thePackage
+     *            the package to encode.
+     * @return the encoded package.
+     */
+    static byte[] encode(final Package thePackage) {
+        /*
+         * Number the strings first, so that the table can be written ahead
+         * of the versions that refer to it.
+         */
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        final List<String> strings = new ArrayList<String>();
+        Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries = thePackage
+                .entries();
+        while (entries.hasNext()) {
+            final Map.Entry<VersionNumber, Set<Artifact>> entry = entries
+                    .next();
+            number(entry.getKey().getQualifier(), indexes, strings);
+            for (final Artifact artifact : entry.getValue()) {
+                number(artifact.getGroupId(), indexes, strings);
+                number(artifact.getArtifactId(), indexes, strings);
+                number(artifact.getVersion().getQualifier(), indexes, strings);
+            }
+        }
+
+        final Output out = new Output();
+        out.write(MAGIC);
+        out.writeUnsigned(FORMAT);
+        out.writeUnsigned(strings.size());
+        for (final String string : strings) {
+            final byte[] bytes = string.getBytes(UTF8);
+            out.writeUnsigned(bytes.length);
+            out.write(bytes);
+        }
+        out.writeUnsigned(thePackage.getVersions().size());
+        final int[] previousVersion = new int[MAX_FIELDS];
+        final int[] previousArtifact = new int[MAX_FIELDS];
+        entries = thePackage.entries();
+        while (entries.hasNext()) {
+            final Map.Entry<VersionNumber, Set<Artifact>> entry = entries
+                    .next();
+            writeNumber(entry.getKey(), previousVersion, indexes, out);
+            out.writeUnsigned(entry.getValue().size());
+            for (final Artifact artifact : entry.getValue()) {
+                out.writeUnsigned(indexes.get(artifact.getGroupId())
+                        .intValue());
+                out.writeUnsigned(indexes.get(artifact.getArtifactId())
+                        .intValue());
+                writeNumber(artifact.getVersion(), previousArtifact, indexes,
+                        out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a package.
+     *
+     * @param name
+     *            the name of the package.
+     * @param content
+     *            the encoded package.
+     * @return the package.
+     * @throws IOException
+     *             if the content is not a valid encoding.
+     */
+    static Package decode(final String name, final byte[] content)
+            throws IOException {
+        if (!isEncoded(content)) {
+            throw new IOException(String.format(
+                    "Not a binary package file: %s", name));
+        }
+        final Input in = new Input(name, content, MAGIC.length);
+        final int format = in.readUnsigned();
+        if (format != FORMAT) {
+            throw new IOException(String.format(
+                    "Unsupported binary package format %d: %s", Integer
+                            .valueOf(format), name));
+        }
+        final String[] strings = new String[in.readUnsigned()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+        final Package thePackage = new Package(name);
+        final int[] previousVersion = new int[MAX_FIELDS];
+        final int[] previousArtifact = new int[MAX_FIELDS];
+        final int versions = in.readUnsigned();
+        for (int i = 0; i < versions; i++) {
+            final VersionNumber version = Pools.version(readNumber(in,
+                    previousVersion, strings));
+            final int artifacts = in.readUnsigned();
+            for (int j = 0; j < artifacts; j++) {
+                final String groupId = in.readString(strings);
+                final String artifactId = in.readString(strings);
+                thePackage.addArtifact(version, Pools.artifact(groupId,
+                        artifactId, readNumber(in, previousArtifact, strings)));
+            }
+        }
+        if (!in.isAtEnd()) {
+            throw in.corrupt();
+        }
+        return thePackage;
+    }
+
+    /*
+     * Give a string the next index, if it has not already been given one.
+     */
+    private static void number(final String string,
+            final Map<String, Integer> indexes, final List<String> strings) {
+        if (string != null && !indexes.containsKey(string)) {
+            indexes.put(string, Integer.valueOf(strings.size()));
+            strings.add(string);
+        }
+    }
+
+    /*
+     * Write a version number relative to the previous number of its kind,
+     * and make it the previous number.
+     */
+    private static void writeNumber(final VersionNumber version,
+            final int[] previous, final Map<String, Integer> indexes,
+            final Output out) {
+        final int fields = version.getFields();
+        int shared = 0;
+        while (shared < fields
+                && version.getComponent(shared) == previous[shared]) {
+            shared++;
+        }
+        out.writeUnsigned(fields | shared << FIELDS_BITS);
+        for (int i = shared; i < fields; i++) {
+            final int component = version.getComponent(i);
+            out.writeSigned(i == shared ? (long) component - previous[i]
+                    : component);
+        }
+        for (int i = 0; i < MAX_FIELDS; i++) {
+            previous[i] = version.getComponent(i);
+        }
+        final String qualifier = version.getQualifier();
+        out.writeUnsigned(qualifier == null ? 0 : indexes.get(qualifier)
+                .intValue() + 1);
+    }
+
+    /*
+     * Read a version number written by writeNumber.
+     */
+    private static VersionNumber readNumber(final Input in,
+            final int[] previous, final String[] strings) throws IOException {
+        final int head = in.readUnsigned();
+        final int fields = head & FIELDS_MASK;
+        final int shared = head >>> FIELDS_BITS;
+        if (fields < 1 || fields > MAX_FIELDS || shared > fields) {
+            throw in.corrupt();
+        }
+        for (int i = shared; i < MAX_FIELDS; i++) {
+            if (i >= fields) {
+                previous[i] = 0;
+            } else if (i == shared) {
+                previous[i] = (int) (previous[i] + in.readSigned());
+            } else {
+                previous[i] = (int) in.readSigned();
+            }
+        }
+        final int qualifier = in.readUnsigned();
+        if (qualifier > strings.length) {
+            throw in.corrupt();
+        }
+        return new VersionNumber(fields, previous[0], previous[1],
+                previous[2], previous[3], qualifier == 0 ? null
+                        : strings[qualifier - 1]);
+    }
+
+    /*
+     * A growable byte array with variable length integer writes.
+     */
+    private static final class Output {
+        private byte[] bytes = new byte[INITIAL_SIZE];
+        private int    size  = 0;
+
+        void write(final byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, this.bytes, this.size, data.length);
+            this.size += data.length;
+        }
+
+        void writeUnsigned(final long value) {
+            ensure(10);
+            long remaining = value;
+            while ((remaining & ~VARINT_MASK) != 0) {
+                this.bytes[this.size++] = (byte) (remaining & VARINT_MASK
+                        | VARINT_MORE);
+                remaining >>>= VARINT_BITS;
+            }
+            this.bytes[this.size++] = (byte) remaining;
+        }
+
+        void writeSigned(final long value) {
+            writeUnsigned(value << 1 ^ value >> 63);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.size);
+        }
+
+        private void ensure(final int length) {
+            if (this.size + length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(
+                        this.bytes.length * 2, this.size + length));
+            }
+        }
+    }
+
+    /*
+     * A reader over an encoded package, any read past the end, or of a value
+     * too large, is reported as a corrupt file.
+     */
+    private static final class Input {
+        private final String name;
+        private final byte[] bytes;
+        private int          position;
+
+        Input(final String name, final byte[] bytes, final int position) {
+            this.name = name;
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long readLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+                if (this.position == this.bytes.length) {
+                    throw corrupt();
+                }
+                final int next = this.bytes[this.position++];
+                result |= (long) (next & VARINT_MASK) << shift;
+                if ((next & VARINT_MORE) == 0) {
+                    return result;
+                }
+            }
+            throw corrupt();
+        }
+
+        int readUnsigned() throws IOException {
+            final long value = readLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw corrupt();
+            }
+            return (int) value;
+        }
+
+        long readSigned() throws IOException {
+            final long value = readLong();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            final int length = readUnsigned();
+            if (length > this.bytes.length - this.position) {
+                throw corrupt();
+            }
+            final String string = new String(this.bytes, this.position,
+                    length, UTF8);
+            this.position += length;
+            return string;
+        }
+
+        String readString(final String[] strings) throws IOException {
+            final int index = readUnsigned();
+            if (index >= strings.length) {
+                throw corrupt();
+            }
+            return strings[index];
+        }
+
+        boolean isAtEnd() {
+            return this.position == this.bytes.length;
+        }
+
+        IOException corrupt() {
+            return new IOException(String.format(
+                    "Corrupt binary package file: %s", this.name));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+/**
+ * This class models a single package imported by a bundle, as declared by an
+ * OSGi Import-Package clause: the name of the package, the range of versions
+ * of it that are acceptable and whether the import is optional. The range may
+ * be passed straight to {@link Package#resolve(VersionRange)} to find the
+ * artifacts that satisfy the import.
+ * 
+ * Note that this is an immutable object once constructed, there are no mutators
+ * and all fields are final.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public final class PackageImport {
+
+    /**
+     * The range used when an import does not specify one, all versions.
+     */
+    public static final VersionRange ANY_VERSION =
+        new VersionRange(new VersionNumber(0, 0, 0), true, null, false);
+
+    private final String             name;
+    private final VersionRange       range;
+    private final boolean            optional;
+
+    /**
+     * Construct a new package import.
+     * 
+     * @param name
+     *            the name of the imported package in its canonical Java form.
+     * @param range
+     *            the range of acceptable versions.
+     * @param optional
+     *            whether the bundle can resolve without the package.
+     */
+    public PackageImport(final String name, final VersionRange range,
+            final boolean optional) {
+        if (name == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package name, may not be null");
+        }
+        if (range == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version range, may not be null");
+        }
+        this.name = name;
+        this.range = range;
+        this.optional = optional;
+    }
+
+    /**
+     * Return the name of the imported package.
+     * 
+     * @return the Java package name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Return the range of versions of the package that satisfy the import.
+     * 
+     * @return the version range.
+     */
+    public VersionRange getRange() {
+        return this.range;
+    }
+
+    /**
+     * Return whether the import is optional, that is declared with the
+     * directive <code>resolution:=optional</code>.
+     * 
+     * @return <code>true</code> if the import is optional.
+     */
+    public boolean isOptional() {
+        return this.optional;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int hash = this.name.hashCode();
+        hash = 31 * hash + this.range.hashCode();
+        hash = 31 * hash + (this.optional ? 1 : 0);
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (obj.getClass() != this.getClass())) {
+            return false;
+        }
+        final PackageImport other = (PackageImport) obj;
+        return this.name.equals(other.name) && this.range.equals(other.range)
+                && this.optional == other.optional;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("%s;version=\"%s\"%s", this.name, this.range,
+                this.optional ? ";resolution:=optional" : "");
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent, sorted, index of the names of all packages in a repository,
+ * answering prefix and wildcard queries without listing the repository.
+ * <p>
+ * In memory the index is a sorted array of names. Package names are
+ * hierarchical, so every package below <code>org.acme</code> sorts into one
+ * contiguous run of the array; a query binary searches for the start of the
+ * run for the literal part of its pattern before the first wildcard and scans
+ * only that run, in time proportional to the size of the run.
+ * <p>
+ * The index is saved as a set of UTF-8 text files in the repository root,
+ * kept by an {@link IndexLog}, each a header line naming the index generation
+ * followed by one name per line. When the index is built the names are
+ * written in sorted order; a write that adds new packages appends their names
+ * to the logs for those packages while holding the package locks and the log
+ * locks, and readers merge just the appended names into their array.
+ * Packages are never removed from a repository, so names are never removed
+ * from the index.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class PackageNameIndex {
+
+    static final String           INDEX_FILE  = ".names";            //$NON-NLS-1$
+
+    private static final String   HEADER      = "#pkgdep-names ";    //$NON-NLS-1$
+    private static final String   WILDCARD    = "*";                 //$NON-NLS-1$
+    private static final char     NEW_LINE    = '\n';
+    private static final String[] NO_NAMES    = new String[0];
+
+    /*
+     * Collects the names read from the index, to be merged into this.
+     */
+    private final class Replayer implements IndexLog.Replay {
+
+        public void reset() {
+            PackageNameIndex.this.names = NO_NAMES;
+            PackageNameIndex.this.added.clear();
+        }
+
+        public void apply(final String line) {
+            PackageNameIndex.this.added.add(line);
+        }
+    }
+
+    private final IndexLog        log;
+    private final RepositoryLocks locks;
+    private final Replayer        replayer = new Replayer();
+
+    /*
+     * The sorted names, and those read but not yet merged into them; guarded
+     * by this.
+     */
+    private String[]              names    = NO_NAMES;
+    private final List<String>    added    = new ArrayList<String>();
+
+    /**
+     * Construct an index in the given repository root, the file itself is not
+     * read until first queried.
+     *
+     * @param root
+     *            the repository root directory.
+     * @param locks
+     *            the locks for the repository.
+     */
+    PackageNameIndex(final File root, final RepositoryLocks locks) {
+        this.log = new IndexLog(root, INDEX_FILE, HEADER, locks);
+        this.locks = locks;
+    }
+
+    /**
+     * Record the addition of new packages, the caller must hold the package
+     * locks for all of them. If the index does not yet exist it is first
+     * built from the store.
+     *
+     * @param added
+     *            the names of packages that did not exist before.
+     * @param store
+     *            the store, to build the index from if it does not exist.
+     * @throws IOException
+     *             if the index could not be written.
+     */
+    void update(final Collection<String> added, final PackageStore store)
+            throws IOException {
+        if (!this.log.exists()) {
+            // the store already holds the new packages, so the built index
+            // will.
+            build(store);
+            return;
+        }
+        final Map<String, String> lines = new HashMap<String, String>();
+        for (final String name : added) {
+            lines.put(name, name + NEW_LINE);
+        }
+        this.log.append(lines);
+    }
+
+    /**
+     * Return, in sorted order, the names of all packages matching a pattern.
+     * The pattern is a package name in which <code>*</code> matches any
+     * sequence of characters, including none, so <code>org.acme.*</code>
+     * matches every package below <code>org.acme</code> and a pattern with no
+     * wildcard matches at most one package.
+     *
+     * @param pattern
+     *            the pattern to match.
+     * @param store
+     *            the store, to build the index from if it does not exist.
+     * @return the matching names.
+     * @throws IOException
+     *             if the index could not be read.
+     */
+    List<String> find(final String pattern, final PackageStore store)
+            throws IOException {
+        final String[] current = current(store);
+        final int wildcard = pattern.indexOf(WILDCARD);
+        final String prefix = wildcard < 0 ? pattern : pattern.substring(0,
+                wildcard);
+
+        int index = Arrays.binarySearch(current, prefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        final List<String> found = new ArrayList<String>();
+        if (wildcard < 0) {
+            if (index < current.length && current[index].equals(pattern)) {
+                found.add(pattern);
+            }
+        } else {
+            while (index < current.length
+                    && current[index].startsWith(prefix)) {
+                if (matches(pattern, wildcard, current[index])) {
+                    found.add(current[index]);
+                }
+                index++;
+            }
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Replace the index with one built from every package name in the store,
+     * with a new generation. The caller must hold the store lock and every
+     * log lock.
+     *
+     * @param store
+     *            the store to read names from.
+     * @throws IOException
+     *             if the store could not be read or the index written.
+     */
+    void rebuild(final PackageStore store) throws IOException {
+        this.log.replace(new IndexLog.Content() {
+            public void write(final Writer writer) throws IOException {
+                final PackageNameIterator iterator = store
+                        .iteratePackageNames(true);
+                try {
+                    while (iterator.hasNext()) {
+                        writer.write(iterator.next());
+                        writer.write(NEW_LINE);
+                    }
+                } finally {
+                    iterator.close();
+                }
+            }
+        });
+    }
+
+    /*
+     * Build the index from the store unless another writer has done so.
+     */
+    private void build(final PackageStore store) throws IOException {
+        final RepositoryLocks.Held held = this.locks.lockIndexes();
+        try {
+            if (!this.log.exists()) {
+                rebuild(store);
+            }
+        } finally {
+            held.release();
+        }
+    }
+
+    /*
+     * Return the current sorted names, building the index if it does not
+     * exist and merging in any names appended since the last look.
+     */
+    private String[] current(final PackageStore store) throws IOException {
+        if (!this.log.exists()) {
+            build(store);
+        }
+        synchronized (this) {
+            this.log.read(this.replayer);
+            if (!this.added.isEmpty()) {
+                this.names = merge(this.names, this.added);
+                this.added.clear();
+            }
+            return this.names;
+        }
+    }
+
+    /*
+     * Merge new names into a sorted array, dropping duplicates.
+     */
+    private static String[] merge(final String[] sorted,
+            final List<String> added) {
+        Collections.sort(added);
+        final String[] merged = new String[sorted.length + added.size()];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < sorted.length || j < added.size()) {
+            final String next;
+            if (j == added.size()
+                    || (i < sorted.length && sorted[i]
+                            .compareTo(added.get(j)) <= 0)) {
+                next = sorted[i++];
+            } else {
+                next = added.get(j++);
+            }
+            if (k == 0 || !merged[k - 1].equals(next)) {
+                merged[k++] = next;
+            }
+        }
+        return k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    /*
+     * Match a name, already known to start with the literal prefix of the
+     * pattern up to its first wildcard, against the rest of the pattern.
+     */
+    private static boolean matches(final String pattern, final int wildcard,
+            final String name) {
+        int p = wildcard;
+        int n = wildcard;
+        int star = -1;
+        int mark = 0;
+        while (n < name.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = n;
+            } else if (p < pattern.length()
+                    && pattern.charAt(p) == name.charAt(n)) {
+                p++;
+                n++;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
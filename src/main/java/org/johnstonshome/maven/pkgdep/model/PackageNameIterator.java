@@ -0,0 +1,25 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over the names of the packages in a {@link Repository}, names
+ * are produced as the repository is read rather than all being read up front.
+ * The iterator holds open resources and must be closed once finished with;
+ * an I/O error while iterating is reported as a
+ * {@link java.nio.file.DirectoryIteratorException}. Names may not be removed.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public interface PackageNameIterator extends Iterator<String>, Closeable {
+}
@@ -0,0 +1,412 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Reads a package file in the original properties format straight into a
+ * {@link Package}, without first loading it into a {@link Properties} object
+ * and without splitting its values. Each logical line is read into a buffer
+ * that is reused for the whole file, its key and value are unescaped in place
+ * and the version and artifacts are then parsed straight out of the buffer.
+ * <p>
+ * Lines are read exactly as {@link Properties#load(Reader)} reads them:
+ * comments, blank lines, continuation lines, any of the key separators and
+ * all the escapes are handled the same way, so any file that could be read
+ * before is read to the same package. The one difference is a key that
+ * appears more than once, which a properties file keeps only the last value
+ * of; such a file, which this plugin never writes, is handed to
+ * {@link Properties} to read.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class PackagePropertiesReader {
+
+    private static final int BUFFER_SIZE    = 8192;
+    private static final int LINE_SIZE      = 256;
+    private static final int HEX_DIGITS     = 4;
+    private static final int HEX_RADIX      = 16;
+    private static final int DECIMAL_DIGITS = 10;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int          position;
+    private int          limit;
+    /*
+     * The current logical line, its key and value are unescaped in place.
+     */
+    private char[]       line   = new char[LINE_SIZE];
+    private int          length;
+    private int          keyEnd;
+    private int          valueStart;
+    private int          valueEnd;
+    private final Line   view   = new Line();
+
+    /*
+     * Construct a reader over a stream of characters.
+     */
+    private PackagePropertiesReader(final Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read a package from the content of a properties file, decoded in the
+     * platform's default character set as it has always been written.
+     *
+     * @param name
+     *            the name of the package.
+     * @param content
+     *            the content of the package file.
+     * @return the package read.
+     * @throws IOException
+     *             never, the content is in memory.
+     * @throws IllegalArgumentException
+     *             if a version or artifact in the file is not valid.
+     */
+    static Package read(final String name, final byte[] content)
+            throws IOException {
+        final Package thePackage = read(name, new InputStreamReader(
+                new ByteArrayInputStream(content)));
+        if (thePackage != null) {
+            return thePackage;
+        }
+        final Properties properties = new Properties();
+        properties.load(new InputStreamReader(new ByteArrayInputStream(
+                content)));
+        return new Package(name, properties);
+    }
+
+    /**
+     * Read a package from a stream of characters in the properties format.
+     * The stream is read to its end, but is not closed.
+     *
+     * @param name
+     *            the name of the package.
+     * @param in
+     *            the characters of the package file.
+     * @return the package read, or <code>null</code> if a version appears
+     *         more than once in the file.
+     * @throws IOException
+     *             if the stream could not be read.
+     * @throws IllegalArgumentException
+     *             if a version or artifact in the file is not valid.
+     */
+    static Package read(final String name, final Reader in)
+            throws IOException {
+        return new PackagePropertiesReader(in).readPackage(name);
+    }
+
+    /*
+     * Read each logical line in turn and add its artifacts to the package.
+     */
+    private Package readPackage(final String name) throws IOException {
+        final Package thePackage = new Package(name);
+        final Set<String> keys = new HashSet<String>();
+        while (readLine()) {
+            split();
+            if (!keys.add(new String(this.line, 0, this.keyEnd))) {
+                return null;
+            }
+            final VersionNumber version = Pools.version(new VersionNumber(
+                    this.view, 0, this.keyEnd));
+            thePackage.addArtifacts(version, this.view, this.valueStart,
+                    this.valueEnd - this.valueStart);
+        }
+        return thePackage;
+    }
+
+    /*
+     * Refill the buffer once it has been read, returns false at the end of
+     * the input.
+     */
+    private boolean fill() throws IOException {
+        if (this.position < this.limit) {
+            return true;
+        }
+        this.limit = this.in.read(this.buffer, 0, this.buffer.length);
+        this.position = 0;
+        if (this.limit <= 0) {
+            this.limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Read the next logical line, less leading white space, line terminators
+     * and the backslash of each continuation, into the line buffer. Comment
+     * and blank lines are skipped. Returns false at the end of the input.
+     * Runs of ordinary characters are copied, or skipped in comments, a
+     * buffer at a time, the rest one character at a time.
+     */
+    private boolean readLine() throws IOException {
+        this.length = 0;
+        boolean skipWhiteSpace = true;
+        boolean appendedLineBegin = false;
+        boolean isNewLine = true;
+        boolean isCommentLine = false;
+        boolean precedingBackslash = false;
+        boolean skipLineFeed = false;
+        while (true) {
+            if (!fill()) {
+                if (precedingBackslash) {
+                    this.length--;
+                }
+                return !isCommentLine && this.length > 0;
+            }
+            if (!skipWhiteSpace && !skipLineFeed) {
+                final int start = this.position;
+                final int end = scan(start, isCommentLine);
+                if (end > start && !isCommentLine) {
+                    append(start, end);
+                    precedingBackslash = false;
+                }
+                this.position = end;
+                if (end == this.limit) {
+                    continue;
+                }
+            }
+            final char c = this.buffer[this.position++];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            if (skipWhiteSpace) {
+                if (isWhiteSpace(c)
+                        || (!appendedLineBegin && isLineEnd(c))) {
+                    continue;
+                }
+                skipWhiteSpace = false;
+                appendedLineBegin = false;
+            }
+            if (isNewLine) {
+                isNewLine = false;
+                if (c == '#' || c == '!') {
+                    isCommentLine = true;
+                    continue;
+                }
+            }
+            if (!isLineEnd(c)) {
+                if (!isCommentLine) {
+                    append(c);
+                    precedingBackslash = c == '\\' && !precedingBackslash;
+                }
+                continue;
+            }
+            if (isCommentLine || this.length == 0) {
+                isCommentLine = false;
+                isNewLine = true;
+                skipWhiteSpace = true;
+                continue;
+            }
+            if (!precedingBackslash) {
+                return true;
+            }
+            /*
+             * A continuation, drop the backslash and carry on with the
+             * next line less its leading white space.
+             */
+            this.length--;
+            skipWhiteSpace = true;
+            appendedLineBegin = true;
+            precedingBackslash = false;
+            skipLineFeed = c == '\r';
+        }
+    }
+
+    /*
+     * Return the index of the first character in the buffer from start that
+     * ends a line or, unless in a comment, is a backslash.
+     */
+    private int scan(final int start, final boolean isCommentLine) {
+        final char[] chars = this.buffer;
+        final int end = this.limit;
+        int i = start;
+        while (i < end) {
+            final char c = chars[i];
+            if (c == '\n' || c == '\r' || (c == '\\' && !isCommentLine)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /*
+     * Add a run of characters from the buffer to the end of the current
+     * line.
+     */
+    private void append(final int start, final int end) {
+        final int count = end - start;
+        if (this.length + count > this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.max(this.line.length * 2,
+                    this.length + count));
+        }
+        System.arraycopy(this.buffer, start, this.line, this.length, count);
+        this.length += count;
+    }
+
+    /*
+     * Add a character to the end of the current line.
+     */
+    private void append(final char c) {
+        if (this.length == this.line.length) {
+            this.line = Arrays.copyOf(this.line, this.length * 2);
+        }
+        this.line[this.length++] = c;
+    }
+
+    /*
+     * Split the current line at the first unescaped separator and unescape
+     * the key and value either side of it.
+     */
+    private void split() {
+        final char[] current = this.line;
+        final int end = this.length;
+        int keyLength = 0;
+        int start = end;
+        boolean hasSeparator = false;
+        boolean precedingBackslash = false;
+        while (keyLength < end) {
+            final char c = current[keyLength];
+            if (!precedingBackslash) {
+                if (c == '=' || c == ':') {
+                    start = keyLength + 1;
+                    hasSeparator = true;
+                    break;
+                }
+                if (isWhiteSpace(c)) {
+                    start = keyLength + 1;
+                    break;
+                }
+            }
+            precedingBackslash = c == '\\' && !precedingBackslash;
+            keyLength++;
+        }
+        while (start < end) {
+            final char c = current[start];
+            if (!isWhiteSpace(c)) {
+                if (hasSeparator || (c != '=' && c != ':')) {
+                    break;
+                }
+                hasSeparator = true;
+            }
+            start++;
+        }
+        this.keyEnd = unescape(current, 0, keyLength);
+        this.valueStart = start;
+        this.valueEnd = unescape(current, start, end);
+    }
+
+    /*
+     * Replace each escape in part of a line with the character it stands
+     * for, moving the rest of the part down; returns the new end of the part.
+     */
+    private static int unescape(final char[] chars, final int start,
+            final int end) {
+        int i = start;
+        while (i < end && chars[i] != '\\') {
+            i++;
+        }
+        int to = i;
+        while (i < end) {
+            char c = chars[i++];
+            if (c == '\\' && i < end) {
+                c = chars[i++];
+                if (c == 'u') {
+                    if (i + HEX_DIGITS > end) {
+                        throw new IllegalArgumentException(
+                                "Malformed \\uxxxx encoding.");
+                    }
+                    int code = 0;
+                    for (int digit = 0; digit < HEX_DIGITS; digit++) {
+                        final int nibble = hexDigit(chars[i++]);
+                        if (nibble < 0) {
+                            throw new IllegalArgumentException(
+                                    "Malformed \\uxxxx encoding.");
+                        }
+                        code = (code * HEX_RADIX) + nibble;
+                    }
+                    c = (char) code;
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            chars[to++] = c;
+        }
+        return to;
+    }
+
+    /*
+     * The value of an ASCII hexadecimal digit, or -1.
+     */
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + DECIMAL_DIGITS;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + DECIMAL_DIGITS;
+        }
+        return -1;
+    }
+
+    private static boolean isWhiteSpace(final int c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isLineEnd(final int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    /*
+     * The current line as a sequence, so that versions and artifacts are
+     * parsed from it in place.
+     */
+    private final class Line implements CharSequence {
+
+        public int length() {
+            return PackagePropertiesReader.this.length;
+        }
+
+        public char charAt(final int index) {
+            return PackagePropertiesReader.this.line[index];
+        }
+
+        public CharSequence subSequence(final int start, final int end) {
+            return new String(PackagePropertiesReader.this.line, start, end
+                    - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(PackagePropertiesReader.this.line, 0,
+                    PackagePropertiesReader.this.length);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable snapshot of a {@link Package}, which may be shared between
+ * any number of threads without locking. Rather than changing the snapshot,
+ * {@link #addArtifact(VersionNumber, Artifact)} and
+ * {@link #merge(PackageSnapshot)} return a new snapshot, which shares with
+ * the old one the set of artifacts of every version that did not change; a
+ * writer can therefore build and publish new snapshots while readers carry on
+ * with the one they have.
+ * <p>
+ * The versions are held in a sorted array, with the artifacts of each in a
+ * parallel array of read-only sets.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public final class PackageSnapshot {
+
+    private static final VersionNumber[] NO_VERSIONS = new VersionNumber[0];
+
+    /*
+     * The fully-qualified name of a Java package.
+     */
+    private final String                 name;
+    /*
+     * The versions, in VersionNumber.EXACT_ORDER, and the read-only set of
+     * artifacts for each; neither array is changed once constructed.
+     */
+    private final VersionNumber[]        versions;
+    private final Set<Artifact>[]        artifacts;
+    /*
+     * The sorted set returned by getVersions, made when first asked for.
+     */
+    private volatile SortedSet<VersionNumber> versionSet = null;
+
+    /**
+     * Construct an empty snapshot.
+     * 
+     * @param name
+     *            the name of the package in its canonical Java form.
+     */
+    public PackageSnapshot(final String name) {
+        this(name, NO_VERSIONS, newArtifactSets(0));
+        if (name == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package name, may not be null");
+        }
+    }
+
+    /*
+     * Create an array of artifact sets, as generic arrays cannot be created
+     * directly.
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Artifact>[] newArtifactSets(final int size) {
+        return (Set<Artifact>[]) new Set<?>[size];
+    }
+
+    /*
+     * Construct from arrays that will not be changed after this.
+     */
+    private PackageSnapshot(final String name,
+            final VersionNumber[] versions, final Set<Artifact>[] artifacts) {
+        this.name = name;
+        this.versions = versions;
+        this.artifacts = artifacts;
+    }
+
+    /**
+     * Construct a snapshot of the current state of a package, later changes
+     * to the package are not seen by the snapshot.
+     * 
+     * @param thePackage
+     *            the package to copy.
+     * @return the snapshot.
+     */
+    static PackageSnapshot of(final Package thePackage) {
+        final int size = thePackage.getVersions().size();
+        final VersionNumber[] versions = new VersionNumber[size];
+        final Set<Artifact>[] artifacts = newArtifactSets(size);
+        final Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries =
+            thePackage.entries();
+        for (int i = 0; i < size; i++) {
+            final Map.Entry<VersionNumber, Set<Artifact>> entry = entries
+                    .next();
+            versions[i] = entry.getKey();
+            artifacts[i] = readOnly(entry.getValue());
+        }
+        return new PackageSnapshot(thePackage.getName(), versions, artifacts);
+    }
+
+    /**
+     * Return the fully qualified name of the Java package.
+     * 
+     * @return the Java package name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Return the set of all versions known for this package, in order from
+     * first to last.
+     * 
+     * @return a read-only {@link SortedSet} holding all versions of this
+     *         package.
+     */
+    public SortedSet<VersionNumber> getVersions() {
+        SortedSet<VersionNumber> versionSet = this.versionSet;
+        if (versionSet == null) {
+            final SortedSet<VersionNumber> sorted = new TreeSet<VersionNumber>(
+                    VersionNumber.EXACT_ORDER);
+            sorted.addAll(Arrays.asList(this.versions));
+            versionSet = Collections.unmodifiableSortedSet(sorted);
+            this.versionSet = versionSet;
+        }
+        return versionSet;
+    }
+
+    /**
+     * Return the latest version of this package.
+     * 
+     * @return the latest version of this package.
+     * @throws NoSuchElementException
+     *             if the package has no versions.
+     */
+    public VersionNumber getLatestVersion() {
+        if (this.versions.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return this.versions[this.versions.length - 1];
+    }
+
+    /**
+     * Resolve a version number, that is return the set of all artifacts that
+     * implement this package <b>at exactly this</b> version.
+     * 
+     * @param version
+     *            the version to resolve
+     * @return the read-only set of all artifacts implementing the specified
+     *         version, or <code>null</code> if there are none.
+     */
+    public Set<Artifact> resolve(final VersionNumber version) {
+        if (version == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version, may not be null");
+        }
+        final int index = find(version);
+        return index < 0 ? null : this.artifacts[index];
+    }
+
+    /**
+     * Resolve all artifacts that implement this package with a version
+     * number within a range.
+     * 
+     * @param range
+     *            the range of versions to resolve.
+     * @return the set of all artifacts implementing a version in the range.
+     */
+    public Set<Artifact> resolve(final VersionRange range) {
+        if (range == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version range, may not be null");
+        }
+        final int from = firstAbove(range.getFloor(),
+                range.getFloorMinimum() - 1);
+        final int to = range.getCeiling() == null ? this.versions.length
+                : firstAbove(range.getCeiling(), range.getCeilingMaximum());
+        final Set<Artifact> results = new HashSet<Artifact>();
+        for (int i = from; i < to; i++) {
+            results.addAll(this.artifacts[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Return a snapshot with an artifact added to a version of this package,
+     * this snapshot is unchanged.
+     * 
+     * @param packageVersion
+     *            the version of the package
+     * @param artifact
+     *            the implementation artifact.
+     * @return the new snapshot, or this one if it already has the artifact.
+     */
+    public PackageSnapshot addArtifact(final VersionNumber packageVersion,
+            final Artifact artifact) {
+        if (packageVersion == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package version, may not be null");
+        }
+        if (artifact == null) {
+            throw new IllegalArgumentException(
+                    "Invalid artifact, may not be null");
+        }
+        final int index = find(packageVersion);
+        if (index >= 0) {
+            if (this.artifacts[index].contains(artifact)) {
+                return this;
+            }
+            final Set<Artifact>[] artifacts = this.artifacts.clone();
+            artifacts[index] = union(this.artifacts[index], Collections
+                    .singleton(artifact));
+            return new PackageSnapshot(this.name, this.versions, artifacts);
+        }
+        final int insert = -index - 1;
+        final int size = this.versions.length;
+        final VersionNumber[] versions = new VersionNumber[size + 1];
+        final Set<Artifact>[] artifacts = newArtifactSets(size + 1);
+        System.arraycopy(this.versions, 0, versions, 0, insert);
+        System.arraycopy(this.artifacts, 0, artifacts, 0, insert);
+        versions[insert] = packageVersion;
+        artifacts[insert] = Collections.singleton(artifact);
+        System.arraycopy(this.versions, insert, versions, insert + 1, size
+                - insert);
+        System.arraycopy(this.artifacts, insert, artifacts, insert + 1, size
+                - insert);
+        return new PackageSnapshot(this.name, versions, artifacts);
+    }
+
+    /**
+     * Return a snapshot with the contents of another snapshot, of the same
+     * package, merged into this one; this snapshot is unchanged.
+     * 
+     * @param other
+     *            the snapshot to merge from.
+     * @return the new snapshot, or this one if the other adds nothing.
+     */
+    public PackageSnapshot merge(final PackageSnapshot other) {
+        if (other == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package, may not be null");
+        }
+        if (!this.name.equals(other.name)) {
+            throw new IllegalArgumentException(
+                    "Invalid package name, must be same");
+        }
+        final int size = this.versions.length + other.versions.length;
+        final VersionNumber[] versions = new VersionNumber[size];
+        final Set<Artifact>[] artifacts = newArtifactSets(size);
+        boolean changed = false;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < this.versions.length || j < other.versions.length) {
+            final int order = i == this.versions.length ? 1
+                    : j == other.versions.length ? -1
+                            : VersionNumber.EXACT_ORDER.compare(
+                                    this.versions[i], other.versions[j]);
+            if (order < 0) {
+                versions[k] = this.versions[i];
+                artifacts[k++] = this.artifacts[i++];
+            } else if (order > 0) {
+                versions[k] = other.versions[j];
+                artifacts[k++] = other.artifacts[j++];
+                changed = true;
+            } else {
+                final Set<Artifact> union = union(this.artifacts[i],
+                        other.artifacts[j++]);
+                changed |= union != this.artifacts[i];
+                versions[k] = this.versions[i++];
+                artifacts[k++] = union;
+            }
+        }
+        if (!changed) {
+            return this;
+        }
+        return new PackageSnapshot(this.name, k == size ? versions : Arrays
+                .copyOf(versions, k), k == size ? artifacts : Arrays.copyOf(
+                artifacts, k));
+    }
+
+    /**
+     * Return a new, modifiable, package with the contents of this snapshot.
+     * 
+     * @return the package.
+     */
+    public Package toPackage() {
+        final Package thePackage = new Package(this.name);
+        for (int i = 0; i < this.versions.length; i++) {
+            for (final Artifact artifact : this.artifacts[i]) {
+                thePackage.addArtifact(this.versions[i], artifact);
+            }
+        }
+        return thePackage;
+    }
+
+    /*
+     * The number of versions, and the artifacts of the version at an index,
+     * for walking the snapshot without making a sorted set.
+     */
+    int size() {
+        return this.versions.length;
+    }
+
+    VersionNumber versionAt(final int index) {
+        return this.versions[index];
+    }
+
+    Set<Artifact> artifactsAt(final int index) {
+        return this.artifacts[index];
+    }
+
+    /*
+     * Return the index of a version, or (-(insertion point) - 1) if it is not
+     * in the snapshot.
+     */
+    private int find(final VersionNumber version) {
+        return Arrays.binarySearch(this.versions, version,
+                VersionNumber.EXACT_ORDER);
+    }
+
+    /*
+     * Return the index of the first version that compares, in the natural
+     * order, greater than the maximum to a bound, or the number of versions
+     * if there is none.
+     */
+    private int firstAbove(final VersionNumber bound, final int maximum) {
+        int low = 0;
+        int high = this.versions.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (this.versions[middle].compareTo(bound) > maximum) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Return the union of two read-only sets, one of them if it already holds
+     * the other, so that unchanged sets are shared.
+     */
+    private static Set<Artifact> union(final Set<Artifact> left,
+            final Set<Artifact> right) {
+        if (left.containsAll(right)) {
+            return left;
+        }
+        if (right.containsAll(left)) {
+            return right;
+        }
+        final Set<Artifact> union = new HashSet<Artifact>(left);
+        union.addAll(right);
+        return Collections.unmodifiableSet(union);
+    }
+
+    /*
+     * Return a read-only copy of a set of artifacts.
+     */
+    private static Set<Artifact> readOnly(final Set<Artifact> artifacts) {
+        return artifacts.size() == 1 ? Collections.singleton(artifacts
+                .iterator().next()) : Collections
+                .unmodifiableSet(new HashSet<Artifact>(artifacts));
+    }
+}
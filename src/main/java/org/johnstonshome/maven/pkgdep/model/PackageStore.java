@@ -0,0 +1,124 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The storage behind a {@link Repository}, each implementation provides one of
+ * the layouts described by {@link StorageMode}. The repository takes care of
+ * argument checking and error reporting, a store simply reads and writes.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+interface PackageStore {
+
+    /**
+     * Return the names of all packages held in this store.
+     *
+     * @return a set of package names.
+     * @throws IOException
+     *             if the store could not be read.
+     */
+    Set<String> getPackageNames() throws IOException;
+
+    /**
+     * Return an iterator over the names of all packages held in this store,
+     * producing names as the store is read where it can.
+     *
+     * @param sorted
+     *            whether the names must be produced in sorted order.
+     * @return an iterator that the caller must close.
+     * @throws IOException
+     *             if the store could not be read.
+     */
+    PackageNameIterator iteratePackageNames(final boolean sorted)
+            throws IOException;
+
+    /**
+     * Read a single package from the store.
+     *
+     * @param name
+     *            the name of the package.
+     * @return the package, or <code>null</code> if the store does not hold a
+     *         package of this name.
+     * @throws IOException
+     *             if the store could not be read.
+     */
+    Package readPackage(final String name) throws IOException;
+
+    /**
+     * Return the modification time and size of the storage a package is read
+     * from, any change to the package must change one or the other.
+     *
+     * @param name
+     *            the name of the package.
+     * @return the current stamp of the package's storage.
+     * @throws IOException
+     *             if the store could not be read.
+     */
+    PackageCache.Stamp stamp(final String name) throws IOException;
+
+    /**
+     * Write a package to the store, replacing any existing content for that
+     * package.
+     *
+     * @param thePackage
+     *            the package to write.
+     * @throws IOException
+     *             if the store could not be written.
+     */
+    void writePackage(final Package thePackage) throws IOException;
+
+    /**
+     * Write a set of packages to the store as a single unit, either all of
+     * the packages are written or, should the process fail part way through,
+     * none of them are.
+     *
+     * @param thePackages
+     *            the packages to write.
+     * @throws IOException
+     *             if the store could not be written.
+     */
+    void writePackages(final Collection<Package> thePackages)
+            throws IOException;
+
+    /**
+     * Bring the store into a consistent state, completing or discarding any
+     * changes left behind by an interrupted writer. This is called once,
+     * before any other method and while no locks are held.
+     *
+     * @throws IOException
+     *             if the store could not be recovered.
+     */
+    void recover() throws IOException;
+
+    /**
+     * Fold any pending changes into the store's compact form, stores without
+     * such a form do nothing.
+     *
+     * @throws IOException
+     *             if the store could not be written.
+     */
+    void compact() throws IOException;
+
+    /**
+     * Rewrite, in the format this store writes, every package still held in
+     * an older format; the content of the packages is unchanged. Stores with
+     * only one format do nothing.
+     *
+     * @return the number of packages rewritten.
+     * @throws IOException
+     *             if the store could not be read or written.
+     */
+    int migrate() throws IOException;
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+/**
+ * Shared pools of the values that recur across the packages of a repository:
+ * version numbers, artifacts and their group and artifact IDs. One bundle
+ * typically provides hundreds of packages, and most packages share a handful
+ * of versions, so without pooling loading a large repository builds the same
+ * values again for every package read and keeps every copy.
+ * <p>
+ * The pools are bounded and lossy, see {@link InternPool}, and are used
+ * wherever packages are read: from properties files, from the index store
+ * and by the manifest parser. Pooling may be turned off, in which case every
+ * value is returned as given.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class Pools {
+
+    private static final int VERSION_SLOTS  = 4096;
+    private static final int ARTIFACT_SLOTS = 8192;
+    private static final int ID_SLOTS       = 4096;
+
+    /*
+     * Versions, and so artifacts, that are equal may still print differently
+     * ("1.0" and "1.0.0"), so only identical ones are shared.
+     */
+    private static final InternPool<VersionNumber> VERSIONS     =
+        new InternPool<VersionNumber>(VERSION_SLOTS) {
+            @Override
+            boolean same(final VersionNumber pooled,
+                    final VersionNumber value) {
+                return pooled.isIdentical(value);
+            }
+        };
+    private static final InternPool<Artifact>      ARTIFACTS    =
+        new InternPool<Artifact>(ARTIFACT_SLOTS) {
+            /*
+             * Artifacts of neighbouring names and versions often share a
+             * hash code, so mix the parts rather than fold them.
+             */
+            @Override
+            int hash(final Artifact value) {
+                int hash = InternPool.spread(value.getGroupId().hashCode());
+                hash = InternPool.spread(hash ^ value.getArtifactId()
+                        .hashCode());
+                return hash ^ value.getVersion().hashCode();
+            }
+
+            @Override
+            boolean same(final Artifact pooled, final Artifact value) {
+                return pooled.equals(value)
+                        && pooled.getVersion().isIdentical(value.getVersion());
+            }
+        };
+    private static final InternPool<String>        GROUP_IDS    =
+        new InternPool<String>(ID_SLOTS);
+    private static final InternPool<String>        ARTIFACT_IDS =
+        new InternPool<String>(ID_SLOTS);
+
+    private static volatile boolean                enabled      = true;
+
+    private Pools() {
+        // no instances
+    }
+
+    /**
+     * Return whether values are pooled.
+     *
+     * @return <code>true</code> if values are pooled, the default.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn pooling on or off; turning it off also empties the pools.
+     *
+     * @param enabled
+     *            whether values are to be pooled.
+     */
+    public static void setEnabled(final boolean enabled) {
+        Pools.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Empty all the pools.
+     */
+    public static void clear() {
+        VERSIONS.clear();
+        ARTIFACTS.clear();
+        GROUP_IDS.clear();
+        ARTIFACT_IDS.clear();
+    }
+
+    /**
+     * Return the pooled version number identical to the given one.
+     *
+     * @param version
+     *            the version to intern.
+     * @return the canonical instance.
+     */
+    public static VersionNumber version(final VersionNumber version) {
+        return enabled ? VERSIONS.intern(version) : version;
+    }
+
+    /**
+     * Return the pooled artifact identical to one built from the given
+     * identifiers, whose parts are themselves pooled.
+     *
+     * @param groupId
+     *            the Maven group ID
+     * @param artifactId
+     *            the Maven artifact ID
+     * @param version
+     *            the version of the artifact
+     * @return the canonical instance.
+     */
+    public static Artifact artifact(final String groupId,
+            final String artifactId, final VersionNumber version) {
+        if (!enabled) {
+            return new Artifact(groupId, artifactId, version);
+        }
+        return ARTIFACTS.intern(new Artifact(GROUP_IDS.intern(groupId),
+                ARTIFACT_IDS.intern(artifactId), VERSIONS.intern(version)));
+    }
+}
@@ -9,14 +9,29 @@
 package org.johnstonshome.maven.pkgdep.model;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Properties;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.maven.plugin.logging.Log;
 
@@ -31,8 +46,28 @@ public class Repository implements LogAware {
                                                   ".mvn-osgi%srepository",
                                                   System.getProperty("file.separator"));
 
+    /*
+     * The number of packages read ahead, per thread, by a parallel walk.
+     */
+    private static final int   READ_AHEAD = 4;
+
+    /*
+     * The file in the repository root recording the storage layout it uses.
+     */
+    static final String         MODE_FILE   = ".storage"; //$NON-NLS-1$
+    private static final String TEMP_SUFFIX = ".tmp";     //$NON-NLS-1$
+
     private File               repository = null;
+    private StorageMode        mode       = null;
+    private PackageStore       store      = null;
+    private RepositoryLocks    locks      = null;
+    private volatile boolean   recovered  = false;
+    private PackageCache       cache      = null;
+    private ArtifactIndex      artifacts  = null;
+    private PackageNameIndex   names      = null;
     private Log                log        = null;
+    private final AtomicLong   written    = new AtomicLong();
+    private final AtomicLong   skipped    = new AtomicLong();
 
     /**
      * Construct a new Repository object reading from the default location.
@@ -48,12 +83,62 @@ public class Repository implements LogAware {
      *            location for the repository.
      */
     public Repository(final File root) {
+        this(root, StorageMode.PROPERTIES);
+    }
+
+    /**
+     * Construct a new Repository object reading from the identified location
+     * using the given storage layout.
+     * <p>
+     * The layout is recorded in the repository root. A root holding packages
+     * in the {@link StorageMode#PROPERTIES} or {@link StorageMode#BINARY}
+     * layout, which read each other's files, may be opened with
+     * {@link StorageMode#INDEX} and its packages are imported into the index;
+     * once it holds an index it may only be opened with
+     * {@link StorageMode#INDEX}, as packages written to the index would not be
+     * seen in the other layouts.
+     * 
+     * @param root
+     *            location for the repository.
+     * @param mode
+     *            the storage layout to use for the repository.
+     * @throws IllegalStateException
+     *             if the repository uses a layout that cannot be read with
+     *             the given one.
+     */
+    public Repository(final File root, final StorageMode mode) {
         if (root == null) {
             throw new IllegalArgumentException(
                     "Invalid repository root, may not be null");
         }
+        if (mode == null) {
+            throw new IllegalArgumentException(
+                    "Invalid storage mode, may not be null");
+        }
         this.repository = root;
+        this.mode = mode;
         this.repository.mkdirs();
+        this.locks = RepositoryLocks.forRoot(root);
+        try {
+            checkStorageMode();
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format(
+                    "Could not read the storage mode of repository %s", root),
+                    ex);
+        }
+        this.artifacts = new ArtifactIndex(root, this.locks);
+        this.names = new PackageNameIndex(root, this.locks);
+        switch (mode) {
+        case INDEX:
+            this.store = new IndexPackageStore(root,
+                    IndexPackageStore.DEFAULT_COMPACTION_THRESHOLD, this.locks);
+            break;
+        case BINARY:
+            this.store = new FilePackageStore(root, this.locks, true);
+            break;
+        default:
+            this.store = new FilePackageStore(root, this.locks);
+        }
     }
 
     /**
@@ -65,14 +150,15 @@ public class Repository implements LogAware {
      *         from the repository.
      */
     public Set<String> getPackageNames() {
-        final Set<String> names = new HashSet<String>();
-        final File[] files = this.repository.listFiles();
-        for (final File file : files) {
-            if (file.exists() && file.isFile()) {
-                names.add(file.getName());
-            }
+        try {
+            recover();
+            return this.store.getPackageNames();
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not read repository %s",
+                            getRepositoryRoot()));
         }
-        return names;
+        return Collections.emptySet();
     }
 
     /**
@@ -88,36 +174,69 @@ public class Repository implements LogAware {
             throw new IllegalArgumentException(
                     "Invalid package name, may not be null");
         }
-        final File packageFile = new File(this.repository, name);
-        if (packageFile.exists() && packageFile.isFile()) {
-            Reader fileReader = null;
-            try {
-                final Properties fileProperties = new Properties();
-                fileReader = new FileReader(packageFile);
-                fileProperties.load(fileReader);
-                fileReader.close();
-                return new Package(name, fileProperties);
-            } catch (IOException ex) {
-                getLog().error(
-                        String.format(
-                                "Could not read repository file for package %s",
-                                name));
-            } finally {
-                if (fileReader != null) {
-                    try {
-                        fileReader.close();
-                    } catch (IOException e) {
-                        getLog().error(
-                                String.format(
-                                        "Could not close repository file for package %s",
-                                        name));
-                    }
-                }
+        try {
+            recover();
+            if (this.cache == null) {
+                return this.store.readPackage(name);
             }
+            final PackageSnapshot snapshot = readCached(name);
+            return snapshot == null ? null : snapshot.toPackage();
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format(
+                            "Could not read repository file for package %s",
+                            name));
         }
         return null;
     }
 
+    /**
+     * Read an immutable snapshot of a package from the repository, which may
+     * be shared between threads. If the repository has a cache the cached
+     * snapshot itself is returned, so unlike {@link #readPackage(String)}
+     * nothing is copied.
+     * 
+     * @param name
+     *            the name of the package.
+     * @return a {@link PackageSnapshot} instance.
+     */
+    public PackageSnapshot readSnapshot(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package name, may not be null");
+        }
+        try {
+            recover();
+            if (this.cache == null) {
+                final Package thePackage = this.store.readPackage(name);
+                return thePackage == null ? null : thePackage.snapshot();
+            }
+            return readCached(name);
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format(
+                            "Could not read repository file for package %s",
+                            name));
+        }
+        return null;
+    }
+
+    /*
+     * Read a package through the cache, reading it from the store and
+     * caching it if it is not cached or has changed.
+     */
+    private PackageSnapshot readCached(final String name) throws IOException {
+        final PackageCache.Stamp stamp = this.store.stamp(name);
+        PackageSnapshot snapshot = this.cache.get(name, stamp);
+        if (snapshot == null) {
+            final Package thePackage = this.store.readPackage(name);
+            if (thePackage != null) {
+                snapshot = this.cache.put(thePackage, stamp);
+            }
+        }
+        return snapshot;
+    }
+
     /**
      * Write a package to the repository, this will overwrite any configuration
      * for that package currently in the repository.
@@ -130,32 +249,382 @@ public class Repository implements LogAware {
             throw new IllegalArgumentException(
                     "Invalid package, may not be null");
         }
-        final File packageFile = new File(this.repository, thePackage.getName());
-        Writer fileWriter = null;
+        writePackages(Collections.singleton(thePackage));
+    }
+
+    /**
+     * Write a set of packages to the repository as a single unit, either all
+     * of the packages are written or none are. This will overwrite any
+     * configuration for those packages currently in the repository.
+     * 
+     * @param thePackages
+     *            the packages to write.
+     */
+    public void writePackages(final Collection<Package> thePackages) {
+        if (thePackages == null) {
+            throw new IllegalArgumentException(
+                    "Invalid packages, may not be null");
+        }
+        final Map<String, Package> writes =
+            new LinkedHashMap<String, Package>();
+        for (final Package thePackage : thePackages) {
+            writes.put(thePackage.getName(), thePackage);
+        }
+        commit(Collections.<String, Package> emptyMap(), writes);
+    }
+
+    /**
+     * Merge a package into the repository, the package is merged with the
+     * content already in the repository for the package of the same name.
+     * The read, merge and write are made while holding a lock for the
+     * package, so concurrent updates to the same package, from this or any
+     * other process, are never lost.
+     * 
+     * @param thePackage
+     *            the package to merge.
+     */
+    public void updatePackage(final Package thePackage) {
+        if (thePackage == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package, may not be null");
+        }
+        commit(Collections.singletonMap(thePackage.getName(), thePackage),
+                Collections.<String, Package> emptyMap());
+    }
+
+    /**
+     * Begin a new batch of changes to this repository, the batch stages all
+     * changes in memory until it is committed.
+     * 
+     * @return a new, empty, {@link RepositoryBatch}.
+     */
+    public RepositoryBatch beginBatch() {
+        return new RepositoryBatch(this);
+    }
+
+    /*
+     * Merge and write a set of packages, holding the locks for all of them
+     * across the read, merge and write; returns false if they could not be
+     * written.
+     */
+    boolean commit(final Map<String, Package> merges,
+            final Map<String, Package> writes) {
+        final Set<String> names = new HashSet<String>(merges.keySet());
+        names.addAll(writes.keySet());
+        if (names.isEmpty()) {
+            return true;
+        }
         try {
-            final Properties fileProperties = thePackage.toProperties();
-            fileWriter = new FileWriter(packageFile);
-            fileProperties.store(fileWriter, "Internal file, do not edit");
-            fileWriter.close();
+            recover();
+            final RepositoryLocks.Held held = this.locks.lockPackages(names);
+            try {
+                final List<Package> packages = new ArrayList<Package>(
+                        names.size());
+                final Map<String, Package> before =
+                    new HashMap<String, Package>();
+                final List<String> added = new ArrayList<String>();
+                for (final Package found : merges.values()) {
+                    final Package local = this.store.readPackage(found
+                            .getName());
+                    if (local != null) {
+                        final Package old = new Package(local.getName());
+                        old.merge(local);
+                        if (local.merge(found)) {
+                            before.put(old.getName(), old);
+                            packages.add(local);
+                        }
+                    } else {
+                        added.add(found.getName());
+                        packages.add(found);
+                    }
+                }
+                for (final Package written : writes.values()) {
+                    final Package old = this.store.readPackage(written
+                            .getName());
+                    if (old == null) {
+                        added.add(written.getName());
+                        packages.add(written);
+                    } else if (!old.hasSameContent(written)) {
+                        before.put(old.getName(), old);
+                        packages.add(written);
+                    }
+                }
+                /*
+                 * Packages that would be written just as they are stored
+                 * are left alone.
+                 */
+                this.skipped.addAndGet(names.size() - packages.size());
+                if (!packages.isEmpty()) {
+                    this.store.writePackages(packages);
+                    this.written.addAndGet(packages.size());
+                    this.artifacts.update(before, packages, this.store);
+                    this.names.update(added, this.store);
+                }
+            } finally {
+                if (this.cache != null) {
+                    for (final String name : names) {
+                        this.cache.remove(name);
+                    }
+                }
+                held.release();
+            }
         } catch (IOException ex) {
             getLog().error(
                     String.format(
-                            "Could not write repository file for package %s",
-                            packageFile.getPath()));
-        } finally {
-            if (fileWriter != null) {
+                            "Could not write %d packages to repository %s",
+                            Integer.valueOf(names.size()),
+                            getRepositoryRoot()));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the packages provided by an artifact, using the repository's
+     * reverse index rather than reading every package. The index is built
+     * the first time it is needed and kept up to date by every write.
+     * 
+     * @param artifact
+     *            the artifact to find.
+     * @return a map from the name of each package the artifact provides to
+     *         the versions of that package it provides, empty if it provides
+     *         none.
+     */
+    public SortedMap<String, SortedSet<VersionNumber>> findPackages(
+            final Artifact artifact) {
+        if (artifact == null) {
+            throw new IllegalArgumentException(
+                    "Invalid artifact, may not be null");
+        }
+        try {
+            recover();
+            return this.artifacts.find(artifact, this.store);
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not read artifact index for %s",
+                            getRepositoryRoot()));
+        }
+        return Collections.unmodifiableSortedMap(
+                new TreeMap<String, SortedSet<VersionNumber>>());
+    }
+
+    /**
+     * Rebuild the repository's reverse index from artifacts to packages by
+     * reading every package. This is only needed should the index have been
+     * left behind the packages by an interrupted write.
+     */
+    public void rebuildArtifactIndex() {
+        try {
+            recover();
+            final RepositoryLocks.Held held = this.locks.lockIndexes();
+            try {
+                this.artifacts.rebuild(this.store);
+            } finally {
+                held.release();
+            }
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not rebuild artifact index for %s",
+                            getRepositoryRoot()));
+        }
+    }
+
+    /**
+     * Find the names of all packages matching a pattern, in sorted order,
+     * using the repository's package name index rather than listing the
+     * repository. In the pattern <code>*</code> matches any sequence of
+     * characters, so <code>org.acme.*</code> finds every package below
+     * <code>org.acme</code>. The index is built the first time it is needed
+     * and kept up to date by every write.
+     * 
+     * @param pattern
+     *            the pattern to match.
+     * @return the names of the matching packages.
+     */
+    public List<String> findPackageNames(final String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException(
+                    "Invalid pattern, may not be null");
+        }
+        try {
+            recover();
+            return this.names.find(pattern, this.store);
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not read package name index for %s",
+                            getRepositoryRoot()));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Rebuild the repository's package name index by listing the repository.
+     * This is only needed should packages have been added to the repository
+     * other than through this class.
+     */
+    public void rebuildPackageNameIndex() {
+        try {
+            recover();
+            final RepositoryLocks.Held held = this.locks.lockIndexes();
+            try {
+                this.names.rebuild(this.store);
+            } finally {
+                held.release();
+            }
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format(
+                            "Could not rebuild package name index for %s",
+                            getRepositoryRoot()));
+        }
+    }
+
+    /*
+     * Check the layout recorded in the repository root is compatible with
+     * the one it is opened with, recording the new layout when a repository
+     * is first created or is imported into an index. Roots written before the
+     * layout was recorded use the index if they have one.
+     */
+    private void checkStorageMode() throws IOException {
+        final RepositoryLocks.Held held = this.locks.lockStore();
+        try {
+            final File modeFile = new File(this.repository, MODE_FILE);
+            StorageMode recorded = null;
+            if (modeFile.isFile()) {
+                final String content = new String(Files.readAllBytes(modeFile
+                        .toPath()), "UTF-8").trim(); //$NON-NLS-1$
                 try {
-                    fileWriter.close();
-                } catch (IOException e) {
-                    getLog().error(
-                            String.format(
-                                    "Could not close repository file for package %s",
-                                    thePackage.getName()));
+                    recorded = StorageMode.valueOf(content);
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalStateException(String.format(
+                            "Unknown storage mode %s recorded in repository %s",
+                            content, getRepositoryRoot()), ex);
                 }
+            } else if (new File(this.repository, IndexPackageStore.INDEX_FILE)
+                    .exists()) {
+                recorded = StorageMode.INDEX;
+            }
+            if (recorded == StorageMode.INDEX
+                    && this.mode != StorageMode.INDEX) {
+                throw new IllegalStateException(String.format(
+                        "Repository %s uses storage mode %s and cannot be"
+                                + " opened with storage mode %s",
+                        getRepositoryRoot(), recorded, this.mode));
+            }
+            if (recorded == null || (recorded != StorageMode.INDEX
+                    && this.mode == StorageMode.INDEX)) {
+                final File temp = new File(this.repository, MODE_FILE
+                        + TEMP_SUFFIX);
+                Files.write(temp.toPath(), (this.mode.name() + '\n')
+                        .getBytes("UTF-8")); //$NON-NLS-1$
+                Files.move(temp.toPath(), modeFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
             }
+        } finally {
+            held.release();
         }
     }
 
+    /*
+     * Recover the store, once, before it is first used.
+     */
+    private void recover() throws IOException {
+        if (!this.recovered) {
+            this.store.recover();
+            this.recovered = true;
+        }
+    }
+
+    /**
+     * Return the number of packages written to the repository, by any of
+     * the write, update or batch methods, since it was constructed.
+     * 
+     * @return the number of packages written.
+     */
+    public long getPackagesWritten() {
+        return this.written.get();
+    }
+
+    /**
+     * Return the number of packages that were to be written to the
+     * repository, since it was constructed, but were not because their
+     * content was already stored.
+     * 
+     * @return the number of packages skipped.
+     */
+    public long getPackagesSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Return the cache of packages read by this repository.
+     *
+     * @return the cache, or <code>null</code> if packages are not cached.
+     */
+    public PackageCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Set the cache used to hold packages read by this repository, a cache
+     * may be shared by several repository objects for the same root.
+     *
+     * @param cache
+     *            the cache to use, or <code>null</code> to read every package
+     *            from storage.
+     */
+    public void setCache(final PackageCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Fold any changes logged since the repository was last compacted into
+     * its compact form. Only the {@link StorageMode#INDEX} layout keeps such
+     * a log, and it compacts itself once the log grows past a threshold, so
+     * this is rarely needed.
+     */
+    public void compact() {
+        try {
+            recover();
+            this.store.compact();
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not compact repository %s",
+                            getRepositoryRoot()));
+        }
+    }
+
+    /**
+     * Rewrite every package still stored in an older format in the format of
+     * this repository's storage layout, such as properties files in a
+     * repository now using {@link StorageMode#BINARY}. Packages are read in
+     * either format whether or not this has been done, so it only saves
+     * space, and time when packages are read.
+     * 
+     * @return the number of packages rewritten.
+     */
+    public int migrate() {
+        try {
+            recover();
+            return this.store.migrate();
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not migrate repository %s",
+                            getRepositoryRoot()));
+        }
+        return 0;
+    }
+
+    /**
+     * Return the storage layout used by this repository.
+     * 
+     * @return the storage layout.
+     */
+    public StorageMode getStorageMode() {
+        return this.mode;
+    }
+
     /**
      * Return the path to the current repository root directory.
      * 
@@ -165,38 +634,198 @@ public class Repository implements LogAware {
         return this.repository.getPath();
     }
 
+    /**
+     * Return an iterator over the names of all the packages registered in the
+     * current repository. Unlike {@link #getPackageNames()} the names are
+     * produced as the repository is read, and the iterator must be closed
+     * once finished with.
+     * 
+     * @param sorted
+     *            whether the names should be produced in sorted order, this
+     *            means the whole repository is listed before the first name
+     *            is returned although the memory used remains bounded.
+     * @return an iterator over the package names.
+     */
+    public PackageNameIterator iteratePackageNames(final boolean sorted) {
+        try {
+            recover();
+            return this.store.iteratePackageNames(sorted);
+        } catch (IOException ex) {
+            getLog().error(
+                    String.format("Could not read repository %s",
+                            getRepositoryRoot()));
+        }
+        return new NameCollectionIterator(Collections.<String> emptySet());
+    }
+
     /**
      * Walk through the repository reporting back the contents via the callback
-     * methods on {@link RepositoryWalker}.
+     * methods on {@link RepositoryWalker}, packages are reported in the order
+     * they are found.
      * 
      * @param walker
      *            the walker to receive callbacks.
      */
     public void walkRepository(final RepositoryWalker walker) {
+        walkRepository(walker, false);
+    }
+
+    /**
+     * Walk through the repository reporting back the contents via the callback
+     * methods on {@link RepositoryWalker}. Packages are reported while the
+     * repository is still being listed, unless they are to be reported in
+     * sorted order.
+     * 
+     * @param walker
+     *            the walker to receive callbacks.
+     * @param sorted
+     *            whether packages are reported in name order.
+     */
+    public void walkRepository(final RepositoryWalker walker,
+            final boolean sorted) {
         if (walker == null) {
             throw new IllegalArgumentException(
                     "Invalid walker, may not be null");
         }
         walker.startRepository(getRepositoryRoot());
 
-        final Set<String> packages = getPackageNames();
+        final PackageNameIterator packages = iteratePackageNames(sorted);
+        try {
+            while (packages.hasNext()) {
+                final String packageName = packages.next();
+                final PackageSnapshot thePackage = readSnapshot(packageName);
+                if (thePackage != null) {
+                    walkPackage(thePackage, walker);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            getLog().error(
+                    String.format("Could not read repository %s",
+                            getRepositoryRoot()));
+        } finally {
+            try {
+                packages.close();
+            } catch (IOException ex) {
+                // only being read, nothing is lost.
+            }
+        }
+
+        walker.endRepository();
+    }
+
+    /**
+     * Walk through the packages in the repository whose names match a
+     * pattern, reporting back the contents via the callback methods on
+     * {@link RepositoryWalker} in name order. The pattern is matched using the
+     * package name index, see {@link #findPackageNames(String)}.
+     * 
+     * @param walker
+     *            the walker to receive callbacks.
+     * @param pattern
+     *            the pattern package names must match.
+     */
+    public void walkRepository(final RepositoryWalker walker,
+            final String pattern) {
+        if (walker == null) {
+            throw new IllegalArgumentException(
+                    "Invalid walker, may not be null");
+        }
+        final List<String> packages = findPackageNames(pattern);
+        walker.startRepository(getRepositoryRoot());
         for (final String packageName : packages) {
-            walker.startPackage(packageName);
-            final Package thePackage = readPackage(packageName);
-            for (final VersionNumber version : thePackage.getVersions()) {
-                walker.startPackageVersion(version);
-                for (final Artifact artifact : thePackage.resolve(version)) {
-                    walker.artifact(artifact.getGroupId(),
-                            artifact.getGroupId(), artifact.getVersion());
+            final PackageSnapshot thePackage = readSnapshot(packageName);
+            if (thePackage != null) {
+                walkPackage(thePackage, walker);
+            }
+        }
+        walker.endRepository();
+    }
+
+    /**
+     * Walk through the repository reporting back the contents via the callback
+     * methods on {@link RepositoryWalker}, reading and parsing packages in
+     * parallel. Packages are still reported in name order, and all callbacks
+     * are made on the calling thread, so any walker may be used. Only a
+     * bounded window of packages is read ahead of the one being reported.
+     * 
+     * @param walker
+     *            the walker to receive callbacks.
+     * @param parallelism
+     *            the number of threads used to read packages.
+     */
+    public void walkRepository(final RepositoryWalker walker,
+            final int parallelism) {
+        if (walker == null) {
+            throw new IllegalArgumentException(
+                    "Invalid walker, may not be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid parallelism, must be at least 1");
+        }
+        walker.startRepository(getRepositoryRoot());
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Deque<Future<PackageSnapshot>> window =
+            new ArrayDeque<Future<PackageSnapshot>>();
+        final int windowSize = parallelism * READ_AHEAD;
+        final PackageNameIterator packages = iteratePackageNames(true);
+        try {
+            while (packages.hasNext() || !window.isEmpty()) {
+                while (packages.hasNext() && window.size() < windowSize) {
+                    final String packageName = packages.next();
+                    window.add(pool.submit(new Callable<PackageSnapshot>() {
+                        public PackageSnapshot call() {
+                            return readSnapshot(packageName);
+                        }
+                    }));
                 }
-                walker.endPackageVersion(version);
+                final PackageSnapshot thePackage = window.remove().get();
+                if (thePackage != null) {
+                    walkPackage(thePackage, walker);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            getLog().error(
+                    String.format("Could not read repository %s",
+                            getRepositoryRoot()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw (Error) ex.getCause();
+        } finally {
+            pool.shutdownNow();
+            try {
+                packages.close();
+            } catch (IOException ex) {
+                // only being read, nothing is lost.
             }
-            walker.endPackage(packageName);
         }
 
         walker.endRepository();
     }
 
+    /*
+     * Report a single package, its versions and their artifacts.
+     */
+    private static void walkPackage(final PackageSnapshot thePackage,
+            final RepositoryWalker walker) {
+        walker.startPackage(thePackage.getName());
+        for (int i = 0; i < thePackage.size(); i++) {
+            final VersionNumber version = thePackage.versionAt(i);
+            walker.startPackageVersion(version);
+            for (final Artifact artifact : thePackage.artifactsAt(i)) {
+                walker.artifact(artifact.getGroupId(),
+                        artifact.getArtifactId(), artifact.getVersion());
+            }
+            walker.endPackageVersion(version);
+        }
+        walker.endPackage(thePackage.getName());
+    }
+
     /**
      * {@inheritDoc}
      */
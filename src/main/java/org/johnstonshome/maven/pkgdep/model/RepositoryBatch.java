@@ -0,0 +1,114 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of changes to a {@link Repository} that are staged in memory and then
+ * committed together, either every staged package is written or none are.
+ * Merges are only applied to the repository's content on commit, while the
+ * locks for all the staged packages are held, so concurrent batches never lose
+ * each other's updates. Batches are created by {@link Repository#beginBatch()}
+ * and are not safe for use by more than one thread.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class RepositoryBatch {
+
+    private final Repository           repository;
+    private final Map<String, Package> merges =
+        new LinkedHashMap<String, Package>();
+    private final Map<String, Package> writes =
+        new LinkedHashMap<String, Package>();
+
+    /**
+     * Construct a new, empty, batch against the given repository.
+     *
+     * @param repository
+     *            the repository to commit to.
+     */
+    RepositoryBatch(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Stage the merge of a package into the repository, on commit the package
+     * is merged with the content in the repository for the package of the
+     * same name.
+     *
+     * @param thePackage
+     *            the package to merge.
+     */
+    public void merge(final Package thePackage) {
+        if (thePackage == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package, may not be null");
+        }
+        final String name = thePackage.getName();
+        Package staged = this.writes.get(name);
+        if (staged == null) {
+            staged = this.merges.get(name);
+            if (staged == null) {
+                staged = new Package(name);
+                this.merges.put(name, staged);
+            }
+        }
+        staged.merge(thePackage);
+    }
+
+    /**
+     * Stage the write of a package, this will overwrite any configuration for
+     * that package currently in the repository.
+     *
+     * @param thePackage
+     *            the package to write.
+     */
+    public void writePackage(final Package thePackage) {
+        if (thePackage == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package, may not be null");
+        }
+        this.merges.remove(thePackage.getName());
+        this.writes.put(thePackage.getName(), thePackage);
+    }
+
+    /**
+     * Return the number of packages currently staged in this batch.
+     *
+     * @return the number of staged packages.
+     */
+    public int size() {
+        return this.merges.size() + this.writes.size();
+    }
+
+    /**
+     * Write all staged packages to the repository as a single unit, the batch
+     * is then empty and may be reused.
+     *
+     * @return <code>true</code> if the packages were written, otherwise the
+     *         failure has been logged and none of them were.
+     */
+    public boolean commit() {
+        final boolean committed = this.repository.commit(this.merges,
+                this.writes);
+        rollback();
+        return committed;
+    }
+
+    /**
+     * Discard all staged packages without writing them.
+     */
+    public void rollback() {
+        this.merges.clear();
+        this.writes.clear();
+    }
+}
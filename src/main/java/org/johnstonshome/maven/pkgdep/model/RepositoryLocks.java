@@ -0,0 +1,295 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks that serialize changes to a repository, both between threads and
+ * between processes. Packages are striped across a fixed set of locks by the
+ * hash of their name, so updates to different packages usually proceed in
+ * parallel while updates to the same package are always serialized. A
+ * separate store lock serializes changes to any state shared by all packages.
+ * Appends to the indexes shared by all packages are striped again, more
+ * coarsely, across a set of log locks, so that writers of different packages
+ * do not queue on the store lock just to record their changes.
+ * <p>
+ * Each stripe is a {@link ReentrantLock}, shared by every repository object
+ * for the same root in this JVM, plus an exclusive {@link FileLock} on a file
+ * in the repository's lock directory that is held while the stripe is held.
+ * Stripes are always acquired in ascending order, package stripes then the
+ * store lock then the log locks, so that holding several at once cannot
+ * deadlock.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class RepositoryLocks {
+
+    static final String                               LOCK_DIRECTORY = ".locks"; //$NON-NLS-1$
+    static final int                                  STRIPES        = 64;
+    static final int                                  LOGS           = 8;
+
+    private static final int                          STORE_STRIPE   = STRIPES;
+    private static final int                          FIRST_LOG      = STRIPES + 1;
+    private static final String                       STRIPE_FILE    = "stripe-%d.lock"; //$NON-NLS-1$
+    private static final String                       STORE_FILE     = "store.lock"; //$NON-NLS-1$
+    private static final String                       LOG_FILE       = "log-%d.lock"; //$NON-NLS-1$
+
+    private static final Map<String, RepositoryLocks> INSTANCES      =
+        new HashMap<String, RepositoryLocks>();
+
+    /**
+     * A set of stripes held by the current thread, which must be released by
+     * the same thread.
+     */
+    final class Held {
+        private final int[] stripes;
+
+        Held(final int[] stripes) {
+            this.stripes = stripes;
+        }
+
+        /**
+         * Release all the stripes, in reverse order of acquisition.
+         */
+        void release() {
+            for (int i = this.stripes.length - 1; i >= 0; i--) {
+                RepositoryLocks.this.release(this.stripes[i]);
+            }
+        }
+    }
+
+    private final File               directory;
+    private final ReentrantLock[]    locks     = new ReentrantLock[FIRST_LOG + LOGS];
+    private final RandomAccessFile[] files     = new RandomAccessFile[FIRST_LOG + LOGS];
+    private final FileLock[]         fileLocks = new FileLock[FIRST_LOG + LOGS];
+
+    private RepositoryLocks(final File root) {
+        this.directory = new File(root, LOCK_DIRECTORY);
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Return the locks for the given repository root, every caller in this
+     * JVM asking for the same root receives the same instance.
+     *
+     * @param root
+     *            the repository root directory.
+     * @return the locks for that repository.
+     */
+    static RepositoryLocks forRoot(final File root) {
+        String key;
+        try {
+            key = root.getCanonicalPath();
+        } catch (IOException ex) {
+            key = root.getAbsolutePath();
+        }
+        synchronized (INSTANCES) {
+            RepositoryLocks locks = INSTANCES.get(key);
+            if (locks == null) {
+                locks = new RepositoryLocks(root);
+                INSTANCES.put(key, locks);
+            }
+            return locks;
+        }
+    }
+
+    /**
+     * Return the stripe used for the named package.
+     *
+     * @param name
+     *            the package name.
+     * @return the stripe index.
+     */
+    static int stripe(final String name) {
+        return (name.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    /**
+     * Return the log used for the named package, packages sharing a stripe
+     * always share a log.
+     *
+     * @param name
+     *            the package name.
+     * @return the log index.
+     */
+    static int log(final String name) {
+        return stripe(name) % LOGS;
+    }
+
+    /**
+     * Acquire the stripes for all the named packages, blocking until they are
+     * all held.
+     *
+     * @param names
+     *            the package names.
+     * @return the held stripes, to be released when the update is complete.
+     * @throws IOException
+     *             if a lock file could not be locked.
+     */
+    Held lockPackages(final Collection<String> names) throws IOException {
+        final SortedSet<Integer> stripes = new TreeSet<Integer>();
+        for (final String name : names) {
+            stripes.add(Integer.valueOf(stripe(name)));
+        }
+        return acquire(stripes);
+    }
+
+    /**
+     * Acquire the log locks for the given logs, blocking until they are all
+     * held. The caller should already hold the package stripes for the
+     * packages it is logging.
+     *
+     * @param logs
+     *            the log indexes.
+     * @return the held locks, to be released when the append is complete.
+     * @throws IOException
+     *             if a lock file could not be locked.
+     */
+    Held lockLogs(final Collection<Integer> logs) throws IOException {
+        final SortedSet<Integer> stripes = new TreeSet<Integer>();
+        for (final Integer log : logs) {
+            stripes.add(Integer.valueOf(FIRST_LOG + log.intValue()));
+        }
+        return acquire(stripes);
+    }
+
+    /**
+     * Acquire the store lock, blocking until it is held.
+     *
+     * @return the held lock, to be released when the update is complete.
+     * @throws IOException
+     *             if the lock file could not be locked.
+     */
+    Held lockStore() throws IOException {
+        return acquire(new int[] { STORE_STRIPE });
+    }
+
+    /**
+     * Acquire the store lock and every log lock, blocking until they are all
+     * held, so that the shared indexes may be replaced.
+     *
+     * @return the held locks, to be released when the index is replaced.
+     * @throws IOException
+     *             if a lock file could not be locked.
+     */
+    Held lockIndexes() throws IOException {
+        final int[] stripes = new int[LOGS + 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = STORE_STRIPE + i;
+        }
+        return acquire(stripes);
+    }
+
+    /*
+     * Acquire the given stripes in ascending order.
+     */
+    private Held acquire(final SortedSet<Integer> stripes) throws IOException {
+        final int[] ordered = new int[stripes.size()];
+        int i = 0;
+        for (final Integer stripe : stripes) {
+            ordered[i++] = stripe.intValue();
+        }
+        return acquire(ordered);
+    }
+
+    /*
+     * Acquire the given, ordered, stripes; should any fail those already
+     * acquired are released.
+     */
+    private Held acquire(final int[] stripes) throws IOException {
+        int acquired = 0;
+        try {
+            for (final int stripe : stripes) {
+                acquire(stripe);
+                acquired++;
+            }
+        } finally {
+            if (acquired < stripes.length) {
+                for (int i = acquired - 1; i >= 0; i--) {
+                    release(stripes[i]);
+                }
+            }
+        }
+        return new Held(stripes);
+    }
+
+    /*
+     * Take the JVM lock for a stripe and, if this is the outermost hold, the
+     * file lock as well.
+     */
+    private void acquire(final int stripe) throws IOException {
+        this.locks[stripe].lock();
+        if (this.locks[stripe].getHoldCount() > 1) {
+            return;
+        }
+        RandomAccessFile file = null;
+        try {
+            this.directory.mkdirs();
+            file = new RandomAccessFile(lockFile(stripe), "rw"); //$NON-NLS-1$
+            this.fileLocks[stripe] = file.getChannel().lock();
+            this.files[stripe] = file;
+        } catch (IOException ex) {
+            if (file != null) {
+                file.close();
+            }
+            this.locks[stripe].unlock();
+            throw ex;
+        }
+    }
+
+    /*
+     * The file locked to hold a stripe between processes.
+     */
+    private File lockFile(final int stripe) {
+        if (stripe == STORE_STRIPE) {
+            return new File(this.directory, STORE_FILE);
+        }
+        if (stripe >= FIRST_LOG) {
+            return new File(this.directory, String.format(LOG_FILE, Integer
+                    .valueOf(stripe - FIRST_LOG)));
+        }
+        return new File(this.directory, String.format(STRIPE_FILE,
+                Integer.valueOf(stripe)));
+    }
+
+    /*
+     * Release the JVM lock for a stripe and, if this is the outermost hold,
+     * the file lock as well.
+     */
+    private void release(final int stripe) {
+        try {
+            if (this.locks[stripe].getHoldCount() == 1) {
+                try {
+                    this.fileLocks[stripe].release();
+                    this.files[stripe].close();
+                } catch (IOException ex) {
+                    // the lock is released when the file is closed, or the
+                    // process exits, regardless.
+                }
+                this.fileLocks[stripe] = null;
+                this.files[stripe] = null;
+            }
+        } finally {
+            this.locks[stripe].unlock();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Produces the names from another iterator in sorted order while holding no
+ * more than a fixed number of names in memory. Names are read in chunks of
+ * that size; if they all fit in one chunk it is simply sorted, otherwise each
+ * chunk is sorted and spilled to a temporary file and the files are then
+ * merged as the names are iterated. The temporary files are removed on close.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class SortedNameIterator implements PackageNameIterator {
+
+    static final int            DEFAULT_CHUNK_SIZE = 8192;
+
+    private static final String SPILL_PREFIX       = "pkgdep-names"; //$NON-NLS-1$
+    private static final String SPILL_SUFFIX       = ".tmp";         //$NON-NLS-1$
+
+    /*
+     * One sorted, spilled, chunk being read back during the merge.
+     */
+    private static final class Run implements Comparable<Run> {
+        private final File            file;
+        private final DataInputStream in;
+        private int                   remaining;
+        private String                head;
+
+        Run(final File file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            this.remaining = this.in.readInt();
+        }
+
+        /*
+         * Read the next name into head, returns false once the run is empty.
+         */
+        boolean advance() throws IOException {
+            if (this.remaining == 0) {
+                this.head = null;
+                return false;
+            }
+            this.remaining--;
+            this.head = this.in.readUTF();
+            return true;
+        }
+
+        void close() {
+            try {
+                this.in.close();
+            } catch (IOException ex) {
+                // only being read, nothing is lost.
+            }
+            this.file.delete();
+        }
+
+        public int compareTo(final Run other) {
+            return this.head.compareTo(other.head);
+        }
+    }
+
+    private final List<Run>          runs   = new ArrayList<Run>();
+    private final PriorityQueue<Run> merge  = new PriorityQueue<Run>();
+    private Iterator<String>         sorted = null;
+
+    /**
+     * Read, and close, the source iterator, sorting its names.
+     *
+     * @param source
+     *            the iterator to read names from.
+     * @param chunkSize
+     *            the largest number of names to hold in memory at once.
+     * @throws IOException
+     *             if the source could not be read or a chunk could not be
+     *             spilled.
+     */
+    SortedNameIterator(final PackageNameIterator source, final int chunkSize)
+            throws IOException {
+        boolean complete = false;
+        try {
+            List<String> chunk = readChunk(source, chunkSize);
+            if (!source.hasNext()) {
+                Collections.sort(chunk);
+                this.sorted = chunk.iterator();
+            } else {
+                final List<File> files = new ArrayList<File>();
+                try {
+                    while (!chunk.isEmpty()) {
+                        files.add(spill(chunk));
+                        chunk = readChunk(source, chunkSize);
+                    }
+                } finally {
+                    for (final File file : files) {
+                        this.runs.add(new Run(file));
+                    }
+                }
+                for (final Run run : this.runs) {
+                    if (run.advance()) {
+                        this.merge.add(run);
+                    }
+                }
+            }
+            complete = true;
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        } finally {
+            source.close();
+            if (!complete) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (this.sorted != null) {
+            return this.sorted.hasNext();
+        }
+        return !this.merge.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String next() {
+        if (this.sorted != null) {
+            return this.sorted.next();
+        }
+        final Run run = this.merge.poll();
+        if (run == null) {
+            throw new NoSuchElementException();
+        }
+        final String name = run.head;
+        try {
+            if (run.advance()) {
+                this.merge.add(run);
+            }
+        } catch (IOException ex) {
+            throw new DirectoryIteratorException(ex);
+        }
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        for (final Run run : this.runs) {
+            run.close();
+        }
+        this.runs.clear();
+        this.merge.clear();
+    }
+
+    /*
+     * Read up to chunkSize names from the source.
+     */
+    private static List<String> readChunk(final PackageNameIterator source,
+            final int chunkSize) {
+        final List<String> chunk = new ArrayList<String>(Math.min(chunkSize,
+                DEFAULT_CHUNK_SIZE));
+        while (chunk.size() < chunkSize && source.hasNext()) {
+            chunk.add(source.next());
+        }
+        return chunk;
+    }
+
+    /*
+     * Sort a chunk of names and write it to a new temporary file.
+     */
+    private static File spill(final List<String> chunk) throws IOException {
+        Collections.sort(chunk);
+        final File file = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX);
+        boolean written = false;
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(chunk.size());
+                for (final String name : chunk) {
+                    out.writeUTF(name);
+                }
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+/**
+ * The on-disk layouts a {@link Repository} can use to store its packages.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public enum StorageMode {
+
+    /**
+     * One Java properties file per package, named for the package, in the
+     * repository root directory. This is the original, and default, layout.
+     */
+    PROPERTIES,
+
+    /**
+     * A single binary index file in the repository root holding every
+     * package, read through a memory-mapped buffer with an offset table keyed
+     * by package name. Changes are appended to a log of small delta records
+     * which is replayed over the index when read and compacted into it once
+     * it grows large enough.
+     */
+    INDEX,
+
+    /**
+     * One file per package, named for the package, in the repository root
+     * directory, as for {@link #PROPERTIES} but in a compact binary encoding.
+     * Properties files are still read, and are rewritten in the binary
+     * encoding when next written, or all at once by
+     * {@link Repository#migrate()}.
+     */
+    BINARY
+}
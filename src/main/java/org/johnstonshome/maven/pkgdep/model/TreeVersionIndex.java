@@ -0,0 +1,125 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * A {@link VersionIndex} held in a sorted map, so that the latest version is
+ * known without a search and resolving a range visits only the versions
+ * within it.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class TreeVersionIndex implements VersionIndex {
+
+    private final NavigableMap<VersionNumber, Set<Artifact>> artifacts =
+        new TreeMap<VersionNumber, Set<Artifact>>(VersionNumber.EXACT_ORDER);
+    /*
+     * The highest version, kept as versions are added.
+     */
+    private VersionNumber                                    latest    = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return this.artifacts.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Artifact> get(final VersionNumber version) {
+        final Set<Artifact> artifacts = this.artifacts.get(version);
+        return artifacts == null ? null : Collections
+                .unmodifiableSet(artifacts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean add(final VersionNumber version, final Artifact artifact) {
+        Set<Artifact> artifacts = this.artifacts.get(version);
+        if (artifacts == null) {
+            artifacts = new HashSet<Artifact>();
+            this.artifacts.put(version, artifacts);
+            if (this.latest == null || VersionNumber.EXACT_ORDER.compare(
+                    version, this.latest) > 0) {
+                this.latest = version;
+            }
+        }
+        return artifacts.add(artifact);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public VersionNumber latest() {
+        return this.latest;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SortedSet<VersionNumber> versions() {
+        return Collections.unmodifiableSortedSet(this.artifacts
+                .navigableKeySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resolve(final VersionRange range, final Set<Artifact> results) {
+        /*
+         * Versions that compare the same as a bound but are not equal to it
+         * sort either side of it, so step past all of them, and leave the
+         * range itself to decide on each.
+         */
+        final VersionNumber floor = range.getFloor();
+        VersionNumber below = this.artifacts.lowerKey(floor);
+        while (below != null && below.compareTo(floor) == 0) {
+            below = this.artifacts.lowerKey(below);
+        }
+        NavigableMap<VersionNumber, Set<Artifact>> slice = below == null
+                ? this.artifacts : this.artifacts.tailMap(below, false);
+        final VersionNumber ceiling = range.getCeiling();
+        if (ceiling != null) {
+            VersionNumber above = slice.higherKey(ceiling);
+            while (above != null && above.compareTo(ceiling) == 0) {
+                above = slice.higherKey(above);
+            }
+            if (above != null) {
+                slice = slice.headMap(above, false);
+            }
+        }
+        for (final Map.Entry<VersionNumber, Set<Artifact>> entry : slice
+                .entrySet()) {
+            if (range.includes(entry.getKey())) {
+                results.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries() {
+        return Collections.unmodifiableMap(this.artifacts).entrySet()
+                .iterator();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * The index from version to implementing artifacts held by a
+ * {@link Package}. Versions are kept in {@link VersionNumber#EXACT_ORDER},
+ * which is the natural order of versions with ties between versions that
+ * compare the same but are not equal broken, so that both are kept.
+ * <p>
+ * There are two implementations: {@link TreeVersionIndex}, a sorted map,
+ * suits the great majority of packages with a handful of versions, while
+ * {@link ArrayVersionIndex} holds versions as primitives in sorted arrays
+ * and suits packages with thousands of versions.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+interface VersionIndex {
+
+    /**
+     * Return the number of versions in the index.
+     *
+     * @return the number of versions.
+     */
+    int size();
+
+    /**
+     * Return the artifacts for a version.
+     *
+     * @param version
+     *            the version to find.
+     * @return a read-only view of the artifacts, or <code>null</code> if the
+     *         version is not in the index.
+     */
+    Set<Artifact> get(VersionNumber version);
+
+    /**
+     * Add an artifact to a version, adding the version if it is not in the
+     * index.
+     *
+     * @param version
+     *            the version to add to.
+     * @param artifact
+     *            the artifact to add.
+     * @return <code>true</code> if the index changed, <code>false</code> if
+     *         the version already had the artifact.
+     */
+    boolean add(VersionNumber version, Artifact artifact);
+
+    /**
+     * Return the highest version in the index.
+     *
+     * @return the latest version, or <code>null</code> if the index is
+     *         empty.
+     */
+    VersionNumber latest();
+
+    /**
+     * Return a read-only view of the versions in the index, in order.
+     *
+     * @return the versions.
+     */
+    SortedSet<VersionNumber> versions();
+
+    /**
+     * Add the artifacts of every version within a range to a set.
+     *
+     * @param range
+     *            the range of versions.
+     * @param results
+     *            the set to add the artifacts to.
+     */
+    void resolve(VersionRange range, Set<Artifact> results);
+
+    /**
+     * Return the versions and their artifacts, in order.
+     *
+     * @return an iterator over the index entries, which does not support
+     *         removal.
+     */
+    Iterator<Map.Entry<VersionNumber, Set<Artifact>>> entries();
+}
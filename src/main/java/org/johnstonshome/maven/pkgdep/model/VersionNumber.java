@@ -8,6 +8,8 @@
  */
 package org.johnstonshome.maven.pkgdep.model;
 
+import java.util.Comparator;
+
 /**
  * This class models versions numbers as defined in Maven, that is they take one
  * of the following two forms:
@@ -22,32 +24,71 @@ package org.johnstonshome.maven.pkgdep.model;
  * methods and all fields are final. The class also implements
  * {@link Comparable} so that you can compare version numbers for resolving
  * versions.
+ * <p>
+ * Version numbers are compared and hashed far more often than they are
+ * created, so the four numeric components are packed into two primitive
+ * <code>long</code> values, ordered so that a signed comparison of each
+ * compares two components at once, with a missing component stored as zero.
+ * The qualifier is interned. As a result {@link #compareTo(VersionNumber)},
+ * {@link #equals(Object)} and {@link #hashCode()} never allocate.
  * 
  * @author simonjo (simon@johnstonshome.org)
  * 
  */
 public final class VersionNumber implements Comparable<VersionNumber> {
 
-    private static final int     MIN_FIELDS       = 1;
-    private static final int     MAX_FIELDS       = 4;
-    private static final int     FIELD_MAJOR      = 0;
-    private static final int     FIELD_MINOR      = 1;
-    private static final int     FIELD_INCREMENT  = 2;
-    private static final int     FIELD_BUILD      = 3;
+    private static final int    MIN_FIELDS      = 1;
+    private static final int    MAX_FIELDS      = 4;
+    private static final int    FIELD_MAJOR     = 0;
+    private static final int    FIELD_MINOR     = 1;
+    private static final int    FIELD_INCREMENT = 2;
+    private static final int    FIELD_BUILD     = 3;
 
-    public static final String   DOT  = "."; //$NON-NLS-1$
-    public static final String   DASH = "-"; //$NON-NLS-1$
+    public static final String  DOT  = "."; //$NON-NLS-1$
+    public static final String  DASH = "-"; //$NON-NLS-1$
 
-    private static final Integer ZERO = Integer.valueOf(0);
+    private static final String NO_QUALIFIER = ""; //$NON-NLS-1$
+    private static final char   DOT_CHAR     = '.';
+    private static final char   DASH_CHAR    = '-';
+    private static final char   PLUS_CHAR    = '+';
+    private static final int    RADIX        = 10;
 
-    private static final int     SAME = 0;
+    private static final int    SAME    = 0;
+    private static final int    BEFORE  = -1;
+    private static final int    AFTER   = 1;
 
-    private final Integer        majorNumber;
-    private final Integer        minorNumber;
-    private final Integer        incrementNumber;
-    private final Integer        buildNumber;
-    private final String         qualifier;
-    private final int            hash;
+    private static final int    HALF    = 32;
+    private static final long   LOW_INT = 0xFFFFFFFFL;
+
+    /**
+     * An ordering of version numbers consistent with {@link #equals(Object)},
+     * for sorted collections that must keep versions that compare the same
+     * but are not equal, such as <code>1.0.0</code> and <code>1.0.0.0</code>,
+     * apart. It is the natural ordering, with such ties broken by putting a
+     * version without a build number before one with, and a version with no
+     * qualifier before one with an empty qualifier.
+     */
+    static final Comparator<VersionNumber> EXACT_ORDER =
+        new Comparator<VersionNumber>() {
+            public int compare(final VersionNumber left,
+                    final VersionNumber right) {
+                return compareExact(left.high, left.low, left.fields,
+                        left.qualifier, right);
+            }
+        };
+
+    /*
+     * Major and minor in the high word, increment and build in the low; see
+     * pack(int, int).
+     */
+    private final long          high;
+    private final long          low;
+    /*
+     * The number of numeric components given, 1 to 4.
+     */
+    private final byte          fields;
+    private final String        qualifier;
+    private final int           hash;
 
     /**
      * Parses version strings into the Major.Minor.Increment.[Build|Qualifer]
@@ -62,48 +103,111 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      *             is any Integer value cannot be parsed as a number.
      */
     public VersionNumber(final String versionString) {
-        if (versionString == null) {
+        this(versionString, 0, versionString == null ? 0 : versionString
+                .length());
+    }
+
+    /**
+     * Parses a version string held in part of a larger sequence of characters
+     * into the Major.Minor.Increment.[Build|Qualifer] internal form, without
+     * first copying it out. The version is parsed in a single pass over the
+     * characters, only the qualifier, if any, is copied.
+     * 
+     * @param sequence
+     *            the characters holding the version string.
+     * @param offset
+     *            the index of the first character of the version string.
+     * @param length
+     *            the number of characters in the version string.
+     * 
+     * @throws IllegalArgumentException
+     *             if sequence is <code>null</code>, or offset and length do
+     *             not lie within it.
+     * @throws NumberFormatException
+     *             is any Integer value cannot be parsed as a number.
+     */
+    public VersionNumber(final CharSequence sequence, final int offset,
+            final int length) {
+        if (sequence == null) {
             throw new IllegalArgumentException(
                     "Invalid version string, may not be null");
         }
-        String version = versionString;
-
-        if (versionString.contains(DASH)) {
-            version = versionString.substring(0, versionString.indexOf(DASH));
-            final String qualifier = versionString.substring(versionString
-                    .indexOf(DASH) + 1);
-            if (qualifier == null || qualifier.equals("")
-                    || qualifier.matches(".*[ \\t\\n\\r].*")) {
+        if (offset < 0 || length < 0 || offset + length > sequence.length()) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid version string bounds, offset %d length %d",
+                    Integer.valueOf(offset), Integer.valueOf(length)));
+        }
+        final int limit = offset + length;
+
+        /*
+         * The qualifier is everything after the first dash.
+         */
+        int end = offset;
+        while (end < limit && sequence.charAt(end) != DASH_CHAR) {
+            end++;
+        }
+        if (end < limit) {
+            final String qualifier = sequence.subSequence(end + 1, limit)
+                    .toString();
+            if (qualifier.length() == 0 || containsSpace(qualifier)) {
                 throw new IllegalArgumentException(
                         "Invalid version string, badly formatted qualifier: "
                                 + qualifier);
             }
-            this.qualifier = qualifier;
+            this.qualifier = qualifier.intern();
         } else {
             this.qualifier = null;
         }
 
-        final String[] numbers = version.split("\\.");
-        if (numbers.length < MIN_FIELDS || numbers.length > MAX_FIELDS) {
-            throw new IllegalArgumentException("Invalid version specifier: "
-                    + version);
+        /*
+         * As for String.split, trailing empty components are ignored, unless
+         * there are no characters at all, which is one empty component.
+         */
+        int last = end;
+        while (last > offset && sequence.charAt(last - 1) == DOT_CHAR) {
+            last--;
         }
-        this.majorNumber = Integer.parseInt(numbers[FIELD_MAJOR]);
-        if (numbers.length > FIELD_MINOR) {
-            this.minorNumber = Integer.parseInt(numbers[FIELD_MINOR]);
-        } else {
-            this.minorNumber = null;
+        int count = last == offset && end > offset ? 0 : 1;
+        for (int i = offset; i < last; i++) {
+            if (sequence.charAt(i) == DOT_CHAR) {
+                count++;
+            }
         }
-        if (numbers.length > FIELD_INCREMENT) {
-            this.incrementNumber = Integer.parseInt(numbers[FIELD_INCREMENT]);
-        } else {
-            this.incrementNumber = null;
+        if (count < MIN_FIELDS || count > MAX_FIELDS) {
+            throw new IllegalArgumentException("Invalid version specifier: "
+                    + sequence.subSequence(offset, end));
         }
-        if (numbers.length > FIELD_BUILD) {
-            this.buildNumber = Integer.parseInt(numbers[FIELD_BUILD]);
-        } else {
-            this.buildNumber = null;
+
+        int major = 0;
+        int minor = 0;
+        int increment = 0;
+        int build = 0;
+        int from = offset;
+        for (int field = 0; field < count; field++) {
+            int to = from;
+            while (to < last && sequence.charAt(to) != DOT_CHAR) {
+                to++;
+            }
+            final int value = parseField(sequence, from, to);
+            switch (field) {
+            case FIELD_MAJOR:
+                major = value;
+                break;
+            case FIELD_MINOR:
+                minor = value;
+                break;
+            case FIELD_INCREMENT:
+                increment = value;
+                break;
+            default:
+                build = value;
+                break;
+            }
+            from = to + 1;
         }
+        this.high = pack(major, minor);
+        this.low = pack(increment, build);
+        this.fields = (byte) count;
         this.hash = preHashCode();
     }
     
@@ -117,12 +221,7 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      *             if any component value is <code>null</code>.
      */
     public VersionNumber(final int majorNumber) {
-        this.majorNumber = majorNumber;
-        this.minorNumber = null;
-        this.incrementNumber = null;
-        this.buildNumber = null;
-        this.qualifier = null;
-        this.hash = preHashCode();
+        this(1, majorNumber, 0, 0, 0, null);
     }
 
     /**
@@ -137,12 +236,7 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      *             if any component value is <code>null</code>.
      */
     public VersionNumber(final int majorNumber, final int minorNumber) {
-        this.majorNumber = majorNumber;
-        this.minorNumber = minorNumber;
-        this.incrementNumber = null;
-        this.buildNumber = null;
-        this.qualifier = null;
-        this.hash = preHashCode();
+        this(2, majorNumber, minorNumber, 0, 0, null);
     }
 
     /**
@@ -160,12 +254,7 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      */
     public VersionNumber(final int majorNumber, final int minorNumber,
             final int incrementNumber) {
-        this.majorNumber = majorNumber;
-        this.minorNumber = minorNumber;
-        this.incrementNumber = incrementNumber;
-        this.buildNumber = null;
-        this.qualifier = null;
-        this.hash = preHashCode();
+        this(3, majorNumber, minorNumber, incrementNumber, 0, null);
     }
 
     /**
@@ -185,12 +274,7 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      */
     public VersionNumber(final int majorNumber, final int minorNumber,
             final int incrementNumber, final int buildNumber) {
-        this.majorNumber = majorNumber;
-        this.minorNumber = minorNumber;
-        this.incrementNumber = incrementNumber;
-        this.buildNumber = buildNumber;
-        this.qualifier = null;
-        this.hash = preHashCode();
+        this(4, majorNumber, minorNumber, incrementNumber, buildNumber, null);
     }
 
     /**
@@ -210,18 +294,36 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      */
     public VersionNumber(final int majorNumber, final int minorNumber,
             final int incrementNumber, final String qualifier) {
-        if (qualifier == null) {
-            throw new IllegalArgumentException(
-                    "Build qualifier may not be null");
-        }
-        this.majorNumber = majorNumber;
-        this.minorNumber = minorNumber;
-        this.incrementNumber = incrementNumber;
-        this.buildNumber = null;
+        this(3, majorNumber, minorNumber, incrementNumber, 0,
+                checkQualifier(qualifier));
+    }
+
+    /*
+     * Construct from the packed form, see pack(int, int); the qualifier must
+     * already be interned.
+     */
+    VersionNumber(final long high, final long low, final int fields,
+            final String qualifier) {
+        this.high = high;
+        this.low = low;
+        this.fields = (byte) fields;
         this.qualifier = qualifier;
         this.hash = preHashCode();
     }
 
+    /*
+     * Construct from the given number of components, the unused ones zero.
+     */
+    VersionNumber(final int fields, final int majorNumber,
+            final int minorNumber, final int incrementNumber,
+            final int buildNumber, final String qualifier) {
+        this.high = pack(majorNumber, minorNumber);
+        this.low = pack(incrementNumber, buildNumber);
+        this.fields = (byte) fields;
+        this.qualifier = qualifier == null ? null : qualifier.intern();
+        this.hash = preHashCode();
+    }
+
     /**
      * Create a canonical version number, replace any <code>null</code>
      * components with zero.
@@ -230,22 +332,14 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      */
     public String toCanonicalString() {
         final StringBuilder result = new StringBuilder();
-        result.append(this.majorNumber);
+        result.append(getMajor());
         result.append(DOT);
-        if (this.minorNumber != null) {
-            result.append(this.minorNumber);
-        } else {
-            result.append(ZERO);
-        }
+        result.append(getMinor());
         result.append(DOT);
-        if (this.incrementNumber != null) {
-            result.append(this.incrementNumber);
-        } else {
-            result.append(ZERO);
-        }
-        if (this.buildNumber != null) {
+        result.append(getIncrement());
+        if (this.fields > FIELD_BUILD) {
             result.append(DOT);
-            result.append(this.buildNumber);
+            result.append(getBuild());
         }
         if (this.qualifier != null) {
             result.append(DASH);
@@ -258,27 +352,7 @@ public final class VersionNumber implements Comparable<VersionNumber> {
      * {@inheritDoc}
      */
     public int compareTo(final VersionNumber other) {
-        int result = compareInt(this.majorNumber, other.majorNumber);
-        if (result == SAME) {
-            result = compareInt(this.minorNumber, other.minorNumber);
-            if (result == SAME) {
-                result = compareInt(this.incrementNumber, other.incrementNumber);
-                if (result == SAME) {
-                    result = compareInt(this.buildNumber, other.buildNumber);
-                    if (result == SAME) {
-                        if (this.qualifier == null && other.qualifier == null) {
-                            result = SAME;
-                        } else {
-                            result = ((this.qualifier == null ? ""
-                                    : this.qualifier)
-                                    .compareTo(other.qualifier == null ? ""
-                                            : other.qualifier));
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+        return compare(this.high, this.low, this.qualifier, other);
     }
 
     /**
@@ -300,8 +374,26 @@ public final class VersionNumber implements Comparable<VersionNumber> {
         if ((obj == null) || (obj.getClass() != this.getClass())) {
             return false;
         }
+        /*
+         * Equal when the canonical strings are, so a missing minor or
+         * increment equals zero but a missing build does not. Qualifiers are
+         * interned, so may be compared by reference.
+         */
         final VersionNumber other = (VersionNumber) obj;
-        return this.toCanonicalString().equals(other.toCanonicalString());
+        return this.high == other.high
+                && this.low == other.low
+                && (this.fields > FIELD_BUILD) == (other.fields > FIELD_BUILD)
+                && this.qualifier == other.qualifier;
+    }
+
+    /*
+     * True if the other version is not only equal to this one but would also
+     * print the same, so one may stand in for the other.
+     */
+    boolean isIdentical(final VersionNumber other) {
+        return this.high == other.high && this.low == other.low
+                && this.fields == other.fields
+                && this.qualifier == other.qualifier;
     }
 
     /**
@@ -310,18 +402,18 @@ public final class VersionNumber implements Comparable<VersionNumber> {
     @Override
     public String toString() {
         final StringBuilder result = new StringBuilder();
-        result.append(this.majorNumber);
-        if (this.minorNumber != null) {
+        result.append(getMajor());
+        if (this.fields > FIELD_MINOR) {
             result.append(DOT);
-            result.append(this.minorNumber);
+            result.append(getMinor());
         }
-        if (this.incrementNumber != null) {
+        if (this.fields > FIELD_INCREMENT) {
             result.append(DOT);
-            result.append(this.incrementNumber);
+            result.append(getIncrement());
         }
-        if (this.buildNumber != null) {
+        if (this.fields > FIELD_BUILD) {
             result.append(DOT);
-            result.append(this.buildNumber);
+            result.append(getBuild());
         }
         if (this.qualifier != null) {
             result.append(DASH);
@@ -330,35 +422,178 @@ public final class VersionNumber implements Comparable<VersionNumber> {
         return result.toString();
     }
 
-    /*
-     * Compare two integers, treating null on either side as zero.
-     */
-    private int compareInt(final Integer left, final Integer right) {
-        if (left == null && right == null) {
-            return SAME;
-        }
-        return ((left == null ? ZERO : left).compareTo(right == null ? ZERO
-                : right));
-    }
-
     /*
      * Pre-calculate the hashCode value as these are used in sets and maps that
      * use hashCode a lot.
      */
     public int preHashCode() {
         int hash = 0;
-        hash = 31 * hash
-                + (this.majorNumber == null ? 0 : this.majorNumber.hashCode());
-        hash = 31 * hash
-                + (this.minorNumber == null ? 0 : this.minorNumber.hashCode());
-        hash = 31
-                * hash
-                + (this.incrementNumber == null ? 0 : this.incrementNumber
-                        .hashCode());
-        hash = 31 * hash
-                + (this.buildNumber == null ? 0 : this.buildNumber.hashCode());
+        hash = 31 * hash + getMajor();
+        hash = 31 * hash + getMinor();
+        hash = 31 * hash + getIncrement();
+        hash = 31 * hash + getBuild();
         hash = 31 * hash
                 + (this.qualifier == null ? 0 : this.qualifier.hashCode());
         return hash;
     }
+
+    private int getMajor() {
+        return (int) (this.high >> HALF);
+    }
+
+    private int getMinor() {
+        return (int) this.high ^ Integer.MIN_VALUE;
+    }
+
+    private int getIncrement() {
+        return (int) (this.low >> HALF);
+    }
+
+    private int getBuild() {
+        return (int) this.low ^ Integer.MIN_VALUE;
+    }
+
+    /*
+     * A numeric component by position, major first, zero if not given.
+     */
+    int getComponent(final int index) {
+        switch (index) {
+        case FIELD_MAJOR:
+            return getMajor();
+        case FIELD_MINOR:
+            return getMinor();
+        case FIELD_INCREMENT:
+            return getIncrement();
+        default:
+            return getBuild();
+        }
+    }
+
+    /*
+     * The packed form, for indexes that store versions as primitives.
+     */
+    long getHigh() {
+        return this.high;
+    }
+
+    long getLow() {
+        return this.low;
+    }
+
+    int getFields() {
+        return this.fields;
+    }
+
+    String getQualifier() {
+        return this.qualifier;
+    }
+
+    /*
+     * Compare a version in packed form to another in the natural order.
+     */
+    static int compare(final long high, final long low,
+            final String qualifier, final VersionNumber other) {
+        if (high != other.high) {
+            return high < other.high ? BEFORE : AFTER;
+        }
+        if (low != other.low) {
+            return low < other.low ? BEFORE : AFTER;
+        }
+        if (qualifier == other.qualifier) {
+            return SAME;
+        }
+        return (qualifier == null ? NO_QUALIFIER : qualifier)
+                .compareTo(other.qualifier == null ? NO_QUALIFIER
+                        : other.qualifier);
+    }
+
+    /*
+     * Compare a version in packed form to another in EXACT_ORDER.
+     */
+    static int compareExact(final long high, final long low,
+            final int fields, final String qualifier,
+            final VersionNumber other) {
+        final int result = compare(high, low, qualifier, other);
+        if (result != SAME) {
+            return result;
+        }
+        final boolean build = fields > FIELD_BUILD;
+        if (build != (other.fields > FIELD_BUILD)) {
+            return build ? AFTER : BEFORE;
+        }
+        if (qualifier != other.qualifier) {
+            return qualifier == null ? BEFORE : AFTER;
+        }
+        return SAME;
+    }
+
+    /*
+     * Pack two components into a long whose signed order is the order of the
+     * first component then the second; the sign bit of the second is flipped
+     * so that its signed order survives being stored as unsigned low bits.
+     */
+    private static long pack(final int first, final int second) {
+        return ((long) first << HALF)
+                | ((second ^ Integer.MIN_VALUE) & LOW_INT);
+    }
+
+    /*
+     * Parse one numeric component exactly as Integer.parseInt would, with the
+     * same failures, but without first copying it out of the sequence. A
+     * leading dash never reaches here, it starts the qualifier.
+     */
+    private static int parseField(final CharSequence sequence,
+            final int start, final int end) {
+        int index = start;
+        if (index < end && sequence.charAt(index) == PLUS_CHAR) {
+            index++;
+        }
+        if (index == end) {
+            throw badField(sequence, start, end);
+        }
+        int result = 0;
+        while (index < end) {
+            final int digit = Character.digit(sequence.charAt(index++), RADIX);
+            if (digit < 0 || result > (Integer.MAX_VALUE - digit) / RADIX) {
+                throw badField(sequence, start, end);
+            }
+            result = result * RADIX + digit;
+        }
+        return result;
+    }
+
+    private static NumberFormatException badField(
+            final CharSequence sequence, final int start, final int end) {
+        return new NumberFormatException("For input string: \"" //$NON-NLS-1$
+                + sequence.subSequence(start, end) + "\""); //$NON-NLS-1$
+    }
+
+    /*
+     * True if the qualifier contains a space, tab or line break.
+     */
+    private static boolean containsSpace(final String qualifier) {
+        for (int i = 0; i < qualifier.length(); i++) {
+            switch (qualifier.charAt(i)) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+                return true;
+            default:
+                break;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Reject a null qualifier before it reaches the private constructor.
+     */
+    private static String checkQualifier(final String qualifier) {
+        if (qualifier == null) {
+            throw new IllegalArgumentException(
+                    "Build qualifier may not be null");
+        }
+        return qualifier;
+    }
 }
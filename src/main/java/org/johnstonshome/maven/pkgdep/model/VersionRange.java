@@ -0,0 +1,259 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+/**
+ * This class models a range of version numbers as used by OSGi to qualify the
+ * packages a bundle imports, that is one of the following forms:
+ * 
+ * <pre>
+ * [floor,ceiling]
+ * [floor,ceiling)
+ * (floor,ceiling]
+ * (floor,ceiling)
+ * floor
+ * </pre>
+ * 
+ * Where a square bracket includes the bound in the range and a parenthesis
+ * excludes it, and a single version is the range of all versions at or above
+ * it. As in Maven, the ceiling may be left empty for a range with no upper
+ * bound. The versions themselves are parsed as {@link VersionNumber}s.
+ * <p>
+ * Ranges are parsed once and then tested against many versions, so the
+ * inclusive flags are compiled into the minimum and maximum comparison result
+ * accepted for each bound; testing a version is then two comparisons with no
+ * branching on the kind of range. This model class provides immutable
+ * instances.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public final class VersionRange {
+
+    private static final char   INCLUDE_FLOOR   = '[';
+    private static final char   EXCLUDE_FLOOR   = '(';
+    private static final char   INCLUDE_CEILING = ']';
+    private static final char   EXCLUDE_CEILING = ')';
+    private static final char   SEPARATOR       = ',';
+
+    private final VersionNumber floor;
+    private final boolean       floorInclusive;
+    private final VersionNumber ceiling;
+    private final boolean       ceilingInclusive;
+
+    /*
+     * The compiled bounds: a version is included if comparing it to the
+     * floor gives at least floorMinimum, and comparing it to the ceiling, if
+     * any, gives at most ceilingMaximum.
+     */
+    private final int           floorMinimum;
+    private final int           ceilingMaximum;
+
+    /**
+     * Parse an OSGi version range, any surrounding quotes must already have
+     * been removed.
+     * 
+     * @param rangeString
+     *            the range string to parse.
+     * 
+     * @throws IllegalArgumentException
+     *             if rangeString is <code>null</code> or not a valid range.
+     * @throws NumberFormatException
+     *             is any version within the range cannot be parsed.
+     */
+    public VersionRange(final String rangeString) {
+        if (rangeString == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version range, may not be null");
+        }
+        final String range = rangeString.trim();
+        if (range.length() == 0) {
+            throw new IllegalArgumentException(
+                    "Invalid version range, may not be empty");
+        }
+        final char first = range.charAt(0);
+        if (first != INCLUDE_FLOOR && first != EXCLUDE_FLOOR) {
+            this.floor = new VersionNumber(range);
+            this.floorInclusive = true;
+            this.ceiling = null;
+            this.ceilingInclusive = false;
+        } else {
+            final int last = range.length() - 1;
+            final int separator = range.indexOf(SEPARATOR);
+            final char end = range.charAt(last);
+            if (separator < 0
+                    || (end != INCLUDE_CEILING && end != EXCLUDE_CEILING)) {
+                throw new IllegalArgumentException(
+                        "Invalid version range, badly formatted: "
+                                + rangeString);
+            }
+            this.floor = new VersionNumber(range.substring(1, separator)
+                    .trim());
+            this.floorInclusive = first == INCLUDE_FLOOR;
+            final String ceiling = range.substring(separator + 1, last)
+                    .trim();
+            this.ceiling = ceiling.length() == 0 ? null : new VersionNumber(
+                    ceiling);
+            this.ceilingInclusive = this.ceiling != null
+                    && end == INCLUDE_CEILING;
+        }
+        this.floorMinimum = this.floorInclusive ? 0 : 1;
+        this.ceilingMaximum = this.ceilingInclusive ? 0 : -1;
+    }
+
+    /**
+     * Construct a range from its bounds.
+     * 
+     * @param floor
+     *            the lowest version in the range.
+     * @param floorInclusive
+     *            whether the floor itself is in the range.
+     * @param ceiling
+     *            the highest version in the range, or <code>null</code> if the
+     *            range has no upper bound.
+     * @param ceilingInclusive
+     *            whether the ceiling itself is in the range.
+     * 
+     * @throws IllegalArgumentException
+     *             if floor is <code>null</code>.
+     */
+    public VersionRange(final VersionNumber floor,
+            final boolean floorInclusive, final VersionNumber ceiling,
+            final boolean ceilingInclusive) {
+        if (floor == null) {
+            throw new IllegalArgumentException(
+                    "Invalid floor version, may not be null");
+        }
+        this.floor = floor;
+        this.floorInclusive = floorInclusive;
+        this.ceiling = ceiling;
+        this.ceilingInclusive = ceiling != null && ceilingInclusive;
+        this.floorMinimum = this.floorInclusive ? 0 : 1;
+        this.ceilingMaximum = this.ceilingInclusive ? 0 : -1;
+    }
+
+    /**
+     * Return <code>true</code> if the version lies within this range.
+     * 
+     * @param version
+     *            the version to test.
+     * @return whether the version is in the range.
+     */
+    public boolean includes(final VersionNumber version) {
+        if (version == null) {
+            throw new IllegalArgumentException(
+                    "Invalid version, may not be null");
+        }
+        return version.compareTo(this.floor) >= this.floorMinimum
+                && (this.ceiling == null || version.compareTo(this.ceiling)
+                        <= this.ceilingMaximum);
+    }
+
+    /*
+     * The compiled bounds, for indexes that search versions as primitives.
+     */
+    int getFloorMinimum() {
+        return this.floorMinimum;
+    }
+
+    int getCeilingMaximum() {
+        return this.ceilingMaximum;
+    }
+
+    /**
+     * The lowest version in the range.
+     * 
+     * @return the floor version.
+     */
+    public VersionNumber getFloor() {
+        return this.floor;
+    }
+
+    /**
+     * Whether the floor version is itself in the range.
+     * 
+     * @return <code>true</code> if the floor is included.
+     */
+    public boolean isFloorInclusive() {
+        return this.floorInclusive;
+    }
+
+    /**
+     * The highest version in the range.
+     * 
+     * @return the ceiling version, or <code>null</code> if the range has no
+     *         upper bound.
+     */
+    public VersionNumber getCeiling() {
+        return this.ceiling;
+    }
+
+    /**
+     * Whether the ceiling version is itself in the range.
+     * 
+     * @return <code>true</code> if the ceiling is included.
+     */
+    public boolean isCeilingInclusive() {
+        return this.ceilingInclusive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int hash = this.floor.hashCode();
+        hash = 31 * hash + (this.floorInclusive ? 1 : 0);
+        hash = 31 * hash
+                + (this.ceiling == null ? 0 : this.ceiling.hashCode());
+        hash = 31 * hash + (this.ceilingInclusive ? 1 : 0);
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (obj.getClass() != this.getClass())) {
+            return false;
+        }
+        final VersionRange other = (VersionRange) obj;
+        return this.floor.equals(other.floor)
+                && this.floorInclusive == other.floorInclusive
+                && (this.ceiling == null ? other.ceiling == null
+                        : this.ceiling.equals(other.ceiling))
+                && this.ceilingInclusive == other.ceilingInclusive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        if (this.ceiling == null && this.floorInclusive) {
+            return this.floor.toString();
+        }
+        final StringBuilder result = new StringBuilder();
+        result.append(this.floorInclusive ? INCLUDE_FLOOR : EXCLUDE_FLOOR);
+        result.append(this.floor);
+        result.append(SEPARATOR);
+        if (this.ceiling != null) {
+            result.append(this.ceiling);
+            result.append(this.ceilingInclusive ? INCLUDE_CEILING
+                    : EXCLUDE_CEILING);
+        } else {
+            result.append(EXCLUDE_CEILING);
+        }
+        return result.toString();
+    }
+}
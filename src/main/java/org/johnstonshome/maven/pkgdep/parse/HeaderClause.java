@@ -0,0 +1,129 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class models one clause of an OSGi manifest header such as
+ * Export-Package or Import-Package, as parsed by {@link HeaderParser}: one or
+ * more package names, followed by the attributes (<code>key=value</code>)
+ * and directives (<code>key:=value</code>) that apply to all of them. Values
+ * are held with any quotes removed, and attribute keys without any type, so
+ * <code>version:Version="1.0"</code> is the attribute <code>version</code>.
+ *
+ * Note that this is an immutable object once constructed, there are no mutators
+ * and all fields are final.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class HeaderClause {
+
+    private final List<String>        names;
+    private final Map<String, String> attributes;
+    private final Map<String, String> directives;
+
+    /**
+     * Construct a new clause, the collections given are not copied and must
+     * not be changed afterwards.
+     *
+     * @param names
+     *            the names in the clause, in the order given.
+     * @param attributes
+     *            the attributes of the clause, by key.
+     * @param directives
+     *            the directives of the clause, by key.
+     */
+    HeaderClause(final List<String> names,
+            final Map<String, String> attributes,
+            final Map<String, String> directives) {
+        this.names = Collections.unmodifiableList(names);
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.directives = Collections.unmodifiableMap(directives);
+    }
+
+    /**
+     * Return the names in this clause, in the order given.
+     *
+     * @return a read-only list of the names, never empty.
+     */
+    public List<String> getNames() {
+        return this.names;
+    }
+
+    /**
+     * Return the value of an attribute of this clause.
+     *
+     * @param key
+     *            the key of the attribute.
+     * @return the value, with any quotes removed, or <code>null</code> if the
+     *         clause does not have the attribute.
+     */
+    public String getAttribute(final String key) {
+        return this.attributes.get(key);
+    }
+
+    /**
+     * Return the attributes of this clause.
+     *
+     * @return a read-only map of attribute key to value.
+     */
+    public Map<String, String> getAttributes() {
+        return this.attributes;
+    }
+
+    /**
+     * Return the value of a directive of this clause.
+     *
+     * @param key
+     *            the key of the directive, without the <code>:=</code>.
+     * @return the value, with any quotes removed, or <code>null</code> if the
+     *         clause does not have the directive.
+     */
+    public String getDirective(final String key) {
+        return this.directives.get(key);
+    }
+
+    /**
+     * Return the directives of this clause.
+     *
+     * @return a read-only map of directive key to value.
+     */
+    public Map<String, String> getDirectives() {
+        return this.directives;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder clause = new StringBuilder();
+        for (final String name : this.names) {
+            if (clause.length() > 0) {
+                clause.append(';');
+            }
+            clause.append(name);
+        }
+        for (final Map.Entry<String, String> attribute : this.attributes
+                .entrySet()) {
+            clause.append(';').append(attribute.getKey()).append("=\"")
+                    .append(attribute.getValue()).append('"');
+        }
+        for (final Map.Entry<String, String> directive : this.directives
+                .entrySet()) {
+            clause.append(';').append(directive.getKey()).append(":=\"")
+                    .append(directive.getValue()).append('"');
+        }
+        return clause.toString();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parse the value of an OSGi manifest header, such as Export-Package or
+ * Import-Package, into its clauses. The header is read in a single pass, with
+ * no regular expressions and no splitting, so the only strings made are the
+ * names, keys and values themselves.
+ * <p>
+ * Syntax:
+ *
+ * <pre>
+ * header:    clause [',' clause]*
+ * clause:    name [';' name]* [';' parameter]*
+ * parameter: key '=' value | key ':=' value
+ * value:     token | '"' quoted '"'
+ * </pre>
+ *
+ * White space is allowed around every name, key, value and separator, and is
+ * not part of any of them. A quoted value may hold separators and white
+ * space, as in <code>version="[1.0, 2.0)"</code> or
+ * <code>uses:="a,b"</code>, and a backslash within it escapes the character
+ * that follows. Empty clauses and empty parts of a clause are ignored, as
+ * bnd ignores them.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class HeaderParser {
+
+    private static final char CLAUSE_SEPARATOR = ',';
+    private static final char PART_SEPARATOR   = ';';
+    private static final char ASSIGN           = '=';
+    private static final char DIRECTIVE        = ':';
+    private static final char QUOTE            = '"';
+    private static final char ESCAPE           = '\\';
+
+    private final CharSequence header;
+    private final int          end;
+    private int                position;
+
+    /*
+     * Construct a parser over the whole of a header value.
+     */
+    private HeaderParser(final CharSequence header) {
+        this.header = header;
+        this.end = header.length();
+    }
+
+    /**
+     * Parse a header value into its clauses.
+     *
+     * @param header
+     *            the value of the header, with any continuation lines
+     *            already joined.
+     * @return the clauses of the header, in the order given.
+     * @throws IllegalArgumentException
+     *             if the header is <code>null</code> or badly formatted.
+     */
+    public static List<HeaderClause> parse(final CharSequence header) {
+        if (header == null) {
+            throw new IllegalArgumentException(
+                    "Invalid header, may not be null");
+        }
+        return new HeaderParser(header).parseClauses();
+    }
+
+    /*
+     * header: clause [',' clause]*
+     */
+    private List<HeaderClause> parseClauses() {
+        final List<HeaderClause> clauses = new ArrayList<HeaderClause>();
+        while (true) {
+            skipWhiteSpace();
+            if (this.position == this.end) {
+                return clauses;
+            }
+            if (this.header.charAt(this.position) == CLAUSE_SEPARATOR) {
+                this.position++;
+                continue;
+            }
+            clauses.add(parseClause());
+        }
+    }
+
+    /*
+     * clause: name [';' name]* [';' parameter]*, up to and including the
+     * separator that ends it.
+     */
+    private HeaderClause parseClause() {
+        final int start = this.position;
+        final List<String> names = new ArrayList<String>(1);
+        Map<String, String> attributes = Collections.emptyMap();
+        Map<String, String> directives = Collections.emptyMap();
+        while (true) {
+            skipWhiteSpace();
+            if (this.position == this.end) {
+                break;
+            }
+            final char next = this.header.charAt(this.position);
+            if (next == CLAUSE_SEPARATOR) {
+                this.position++;
+                break;
+            }
+            if (next == PART_SEPARATOR) {
+                this.position++;
+                continue;
+            }
+            final String token = readToken();
+            skipWhiteSpace();
+            if (at(ASSIGN)) {
+                this.position++;
+                if (attributes.isEmpty()) {
+                    attributes = new LinkedHashMap<String, String>();
+                }
+                final int type = token.indexOf(DIRECTIVE);
+                attributes.put(type < 0 ? token : token.substring(0, type),
+                        readValue());
+            } else if (at(DIRECTIVE)) {
+                this.position += 2;
+                if (directives.isEmpty()) {
+                    directives = new LinkedHashMap<String, String>();
+                }
+                directives.put(token, readValue());
+            } else {
+                names.add(token);
+            }
+            skipWhiteSpace();
+            if (this.position < this.end
+                    && this.header.charAt(this.position) != PART_SEPARATOR
+                    && this.header.charAt(this.position) != CLAUSE_SEPARATOR) {
+                throw invalid("expected ';' or ','");
+            }
+        }
+        if (names.isEmpty()) {
+            this.position = start;
+            throw invalid("clause has no names");
+        }
+        return new HeaderClause(names, attributes, directives);
+    }
+
+    /*
+     * A name or key, quoted or not; an unquoted token ends at white space, a
+     * separator, an '=' or a ':='.
+     */
+    private String readToken() {
+        if (this.header.charAt(this.position) == QUOTE) {
+            return readQuoted();
+        }
+        final int start = this.position;
+        while (this.position < this.end) {
+            final char c = this.header.charAt(this.position);
+            if (isWhiteSpace(c) || c == PART_SEPARATOR
+                    || c == CLAUSE_SEPARATOR || c == ASSIGN || at(DIRECTIVE)) {
+                break;
+            }
+            this.position++;
+        }
+        if (this.position == start) {
+            throw invalid("expected a name");
+        }
+        return this.header.subSequence(start, this.position).toString();
+    }
+
+    /*
+     * The value of a parameter, quoted or not; an unquoted value ends at
+     * white space or a separator.
+     */
+    private String readValue() {
+        skipWhiteSpace();
+        if (this.position < this.end
+                && this.header.charAt(this.position) == QUOTE) {
+            return readQuoted();
+        }
+        final int start = this.position;
+        while (this.position < this.end) {
+            final char c = this.header.charAt(this.position);
+            if (isWhiteSpace(c) || c == PART_SEPARATOR
+                    || c == CLAUSE_SEPARATOR) {
+                break;
+            }
+            this.position++;
+        }
+        if (this.position == start) {
+            throw invalid("expected a value");
+        }
+        return this.header.subSequence(start, this.position).toString();
+    }
+
+    /*
+     * A quoted string, less its quotes and with any escapes replaced; only a
+     * string with escapes is copied through a buffer.
+     */
+    private String readQuoted() {
+        final int open = this.position++;
+        final int start = this.position;
+        StringBuilder escaped = null;
+        int copied = start;
+        while (this.position < this.end) {
+            final char c = this.header.charAt(this.position);
+            if (c == QUOTE) {
+                final String value;
+                if (escaped == null) {
+                    value = this.header.subSequence(start, this.position)
+                            .toString();
+                } else {
+                    value = escaped.append(this.header, copied,
+                            this.position).toString();
+                }
+                this.position++;
+                return value;
+            }
+            if (c == ESCAPE && this.position + 1 < this.end) {
+                if (escaped == null) {
+                    escaped = new StringBuilder();
+                }
+                escaped.append(this.header, copied, this.position);
+                copied = ++this.position;
+            }
+            this.position++;
+        }
+        this.position = open;
+        throw invalid("unterminated quoted string");
+    }
+
+    /*
+     * True if the header at the current position starts with the given
+     * separator, for DIRECTIVE that is ':='.
+     */
+    private boolean at(final char separator) {
+        if (this.position >= this.end
+                || this.header.charAt(this.position) != separator) {
+            return false;
+        }
+        return separator != DIRECTIVE
+                || (this.position + 1 < this.end && this.header
+                        .charAt(this.position + 1) == ASSIGN);
+    }
+
+    private void skipWhiteSpace() {
+        while (this.position < this.end
+                && isWhiteSpace(this.header.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    private static boolean isWhiteSpace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private IllegalArgumentException invalid(final String problem) {
+        return new IllegalArgumentException(String.format(
+                "Invalid header, %s at offset %d", problem, Integer
+                        .valueOf(this.position)));
+    }
+}
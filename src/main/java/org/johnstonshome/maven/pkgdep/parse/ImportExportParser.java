@@ -9,19 +9,30 @@
 package org.johnstonshome.maven.pkgdep.parse;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.maven.model.Plugin;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.johnstonshome.maven.pkgdep.model.Artifact;
 import org.johnstonshome.maven.pkgdep.model.Package;
+import org.johnstonshome.maven.pkgdep.model.PackageImport;
+import org.johnstonshome.maven.pkgdep.model.Pools;
 import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+import org.johnstonshome.maven.pkgdep.model.VersionRange;
 
 /**
  * Parse OSGi resources for import and export package declarations and return a
@@ -36,17 +47,23 @@ public class ImportExportParser {
     public static final String  PLUGIN_ARTIFACT          = "maven-bundle-plugin"; //$NON-NLS-1$
 
     private static final String PLUGIN_ELEM_INSTRUCTIONS = "instructions";       //$NON-NLS-1$
+    private static final String GENERATED_SOURCES        = "generated-sources";  //$NON-NLS-1$
+    private static final String CACHE_DIR                = "pkgdep";             //$NON-NLS-1$
+    private static final String CACHE_FILE               = "sources.cache";      //$NON-NLS-1$
 
     private static final String EXPORT_PACKAGE_DECL      = "Export-Package";     //$NON-NLS-1$
     private static final String IMPORT_PACKAGE_DECL      = "Import-Package";     //$NON-NLS-1$
     private static final String BUNDLE_VERSION_DECL      = "Bundle-Version";     //$NON-NLS-1$
 
     private static final String WILDCARD                 = "*";                  //$NON-NLS-1$
+    private static final String SUB_PACKAGES             = ".*";                 //$NON-NLS-1$
     private static final String EXCLUDE                  = "!";                  //$NON-NLS-1$
-    private static final String DECL_SEPARATOR           = ",";                  //$NON-NLS-1$
-    private static final String ATTR_SEPARATOR           = ";";                  //$NON-NLS-1$
-    private static final String ATTR_ASSIGN              = "=";                  //$NON-NLS-1$
     private static final String ATTR_VERSION             = "version";            //$NON-NLS-1$
+    private static final String DIRECTIVE_RESOLUTION     = "resolution";         //$NON-NLS-1$
+    private static final String RESOLUTION_OPTIONAL      = "optional";           //$NON-NLS-1$
+    private static final String CONTINUATION             = " ";                  //$NON-NLS-1$
+    private static final char   HEADER_SEPARATOR         = ':';
+    private static final String MANIFEST_ENCODING        = "UTF-8";              //$NON-NLS-1$
 
     /**
      * Parse an OSGi MANIFEST.MF file for any Export-Package declarations.
@@ -62,26 +79,65 @@ public class ImportExportParser {
      */
     public List<Package> parseManifestExports(final File manifest,
             final String srcDirectory, final Artifact defaultArtifact) {
-        return parseManifestDependencies(manifest, EXPORT_PACKAGE_DECL,
-                srcDirectory, defaultArtifact);
+        return parseManifestExports(manifest, newFinder(srcDirectory),
+                defaultArtifact);
     }
 
     /**
-     * Parse an OSGi MANIFEST.MF file for any Import-Package declarations.
+     * Parse an OSGi MANIFEST.MF file for any Export-Package declarations.
      * 
      * @param manifest
      *            the manifest file
-     * @param srcDirectory
-     *            the directory containing source files, to read packages
-     *            from if a wildcard is specified.
+     * @param sources
+     *            the packages in the project's source roots, to read
+     *            packages from if a wildcard is specified.
+     * @param defaultArtifact
+     *            the default target artifact
+     * @return a list of all exported packages
+     */
+    public List<Package> parseManifestExports(final File manifest,
+            final SourcePackageFinder sources, final Artifact defaultArtifact) {
+        return parseExportHeaders(readManifestHeaders(manifest), sources,
+                defaultArtifact);
+    }
+
+    /**
+     * Parse the content of an OSGi MANIFEST.MF file, such as one read from
+     * a JAR by {@link ZipManifestReader}, for any Export-Package
+     * declarations.
+     * 
+     * @param manifest
+     *            the bytes of the manifest, in UTF-8
+     * @param sources
+     *            the packages in the project's source roots, to read
+     *            packages from if a wildcard is specified.
      * @param defaultArtifact
      *            the default target artifact
+     * @return a list of all exported packages
+     */
+    public List<Package> parseManifestExports(final byte[] manifest,
+            final SourcePackageFinder sources, final Artifact defaultArtifact) {
+        try {
+            return parseExportHeaders(readManifestHeaders(new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(manifest),
+                            MANIFEST_ENCODING))), sources, defaultArtifact);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    /**
+     * Parse an OSGi MANIFEST.MF file for any Import-Package declarations.
+     * 
+     * @param manifest
+     *            the manifest file
      * @return a list of all imported packages
      */
-    public List<Package> parseManifestImports(final File manifest,
-            final String srcDirectory, final Artifact defaultArtifact) {
-        return parseManifestDependencies(manifest, IMPORT_PACKAGE_DECL,
-                srcDirectory, defaultArtifact);
+    public List<PackageImport> parseManifestImports(final File manifest) {
+        final String imports = readManifestHeaders(manifest).get(
+                IMPORT_PACKAGE_DECL);
+        return imports == null ? new LinkedList<PackageImport>()
+                : parseImport(imports);
     }
 
     /**
@@ -96,39 +152,127 @@ public class ImportExportParser {
      */
     public List<Package> parsePomExports(final MavenProject project,
             final Artifact defaultArtifact) {
-        return parsePomDependencies(project, EXPORT_PACKAGE_DECL,
+        return parsePomExports(project, newSourceFinder(project),
                 defaultArtifact);
     }
 
     /**
-     * Parse the Maven pom.xml file for any Import-Package declarations.
+     * Parse the Maven pom.xml file for any Export-Package declarations.
      * 
      * @param project 
      *            the Maven project model, to resolve the Felix
      *            OSGi plugin content.
+     * @param sources
+     *            the packages in the project's source roots, to read
+     *            packages from if a wildcard is specified.
      * @param defaultArtifact
      *            the default target artifact
+     * @return a list of all exported packages
+     */
+    public List<Package> parsePomExports(final MavenProject project,
+            final SourcePackageFinder sources, final Artifact defaultArtifact) {
+        final List<Package> packages = new LinkedList<Package>();
+        for (final String instruction : getPomInstructions(project,
+                EXPORT_PACKAGE_DECL)) {
+            packages.addAll(parseExport(instruction, sources,
+                    defaultArtifact));
+        }
+        return packages;
+    }
+
+    /**
+     * Return a finder over a project's source roots, see
+     * {@link #getSourceRoots(MavenProject)}, that keeps the directories it
+     * finds in a cache in the project's build directory, so that only the
+     * directories changed since the last build are listed.
+     * 
+     * @param project
+     *            the Maven project model.
+     * @return the finder, which walks the source roots when first asked
+     *         for packages.
+     */
+    public static SourcePackageFinder newSourceFinder(
+            final MavenProject project) {
+        final String build = project.getBuild().getDirectory();
+        return new SourcePackageFinder(getSourceRoots(project),
+                build == null ? null : new File(new File(build, CACHE_DIR),
+                        CACHE_FILE));
+    }
+
+    /**
+     * Return the directories a project's packages may be found in, its
+     * compile source roots and each directory of generated sources in its
+     * build directory, whether or not a plugin has yet added it as a source
+     * root. Directories that do not exist are included.
+     * 
+     * @param project
+     *            the Maven project model.
+     * @return the source roots, without duplicates.
+     */
+    public static List<File> getSourceRoots(final MavenProject project) {
+        final Set<File> roots = new LinkedHashSet<File>();
+        if (project.getCompileSourceRoots() != null) {
+            for (final Object root : project.getCompileSourceRoots()) {
+                roots.add(new File((String) root).getAbsoluteFile());
+            }
+        } else if (project.getBuild().getSourceDirectory() != null) {
+            roots.add(new File(project.getBuild().getSourceDirectory())
+                    .getAbsoluteFile());
+        }
+        if (project.getBuild().getDirectory() != null) {
+            final File[] generated = new File(project.getBuild()
+                    .getDirectory(), GENERATED_SOURCES).listFiles();
+            if (generated != null) {
+                Arrays.sort(generated);
+                for (final File root : generated) {
+                    if (root.isDirectory()) {
+                        roots.add(root.getAbsoluteFile());
+                    }
+                }
+            }
+        }
+        return new ArrayList<File>(roots);
+    }
+
+    /**
+     * Parse the Maven pom.xml file for any Import-Package declarations.
+     * Instructions that are patterns for the bundle plugin rather than
+     * packages, those with wildcards or exclusions, are skipped.
+     * 
+     * @param project 
+     *            the Maven project model, to resolve the Felix
+     *            OSGi plugin content.
      * @return a list of all imported packages
      */
-    public List<Package> parsePomImports(final MavenProject project,
-            final Artifact defaultArtifact) {
-        return parsePomDependencies(project, EXPORT_PACKAGE_DECL,
-                defaultArtifact);
+    public List<PackageImport> parsePomImports(final MavenProject project) {
+        final List<PackageImport> imports = new LinkedList<PackageImport>();
+        for (final String instruction : getPomInstructions(project,
+                IMPORT_PACKAGE_DECL)) {
+            imports.addAll(parseImport(instruction));
+        }
+        return imports;
     }
 
     /**
      * Parse Export-Package declarations, each of which is a comma separated
-     * list of packages with additional attributes that may include a version
-     * specification.
+     * list of clauses, each clause naming one or more packages followed by
+     * attributes and directives that apply to all of them, which may include
+     * a version specification. The header is parsed by {@link HeaderParser}.
      * 
      * Syntax:
      * 
      * <pre>
-     * export-string: export-directive [',' export-directive]*
-     * export-directive: package-decl [';' attribute]*
-     * attribute: key '=' value
+     * export-string: export-clause [',' export-clause]*
+     * export-clause: package-decl [';' package-decl]* [';' parameter]*
+     * parameter: key '=' value | key ':=' value
      * </pre>
      * 
+     * As with the bundle plugin, each package declaration is an instruction
+     * that may end in a wildcard, matched against the packages found in the
+     * source directory, or begin with <code>!</code> to exclude the packages
+     * it matches. The first instruction to match a package decides whether,
+     * and at what version, it is exported, see {@link PackageFilter}.
+     * 
      * @param exportString
      *            the string to parse
      * @param srcDirectory
@@ -139,106 +283,168 @@ public class ImportExportParser {
      */
     public List<Package> parseExport(final String exportString,
             final String srcDirectory, final Artifact defaultArtifact) {
-        final List<String> excludes = new LinkedList<String>();
-        final List<Package> packages = new LinkedList<Package>();
-        final String[] exports = exportString.replaceAll("[\\n\\r \\t]+", "")
-                .split(DECL_SEPARATOR);
-        for (final String export : exports) {
-            String packageName = export;
-            String version = defaultArtifact.getVersion().toCanonicalString();
-            boolean exclude = packageName.startsWith(EXCLUDE);
-            if (exclude) {
-                packageName = packageName.substring(1);
+        return parseExport(exportString, newFinder(srcDirectory),
+                defaultArtifact);
+    }
+
+    /**
+     * Parse Export-Package declarations, as
+     * {@link #parseExport(String, String, Artifact)}, resolving wildcards
+     * against the packages in any number of source roots.
+     * 
+     * @param exportString
+     *            the string to parse
+     * @param sources
+     *            the packages in the source roots (to resolve wildcard
+     *            packages)
+     * @param defaultArtifact
+     *            the default target artifact
+     * @return
+     */
+    public List<Package> parseExport(final String exportString,
+            final SourcePackageFinder sources, final Artifact defaultArtifact) {
+        final List<String> instructions = new ArrayList<String>();
+        final List<VersionNumber> versions = new ArrayList<VersionNumber>();
+        /*
+         * A package without a version takes that of the artifact, in full
+         * so that 1.0-SNAPSHOT exports 1.0.0-SNAPSHOT.
+         */
+        final VersionNumber defaultVersion = new VersionNumber(defaultArtifact
+                .getVersion().toCanonicalString());
+        for (final HeaderClause clause : HeaderParser.parse(exportString)) {
+            final String version = clause.getAttribute(ATTR_VERSION);
+            final VersionNumber exportVersion = Pools
+                    .version(version == null ? defaultVersion
+                            : new VersionNumber(version.trim()));
+            for (final String name : clause.getNames()) {
+                instructions.add(name);
+                versions.add(exportVersion);
             }
-            if (export.contains(";")) {
-                packageName = export.substring(0,
-                        export.indexOf(ATTR_SEPARATOR));
-                final String[] attributes = export.split(ATTR_SEPARATOR);
-                for (final String attribute : attributes) {
-                    final String[] kvPair = attribute.split(ATTR_ASSIGN);
-                    if (kvPair[0].trim().equals(ATTR_VERSION)) {
-                        version = kvPair[1].trim();
-                        if (version.startsWith("\"") && version.endsWith("\"")) {
-                            version = version
-                                    .substring(1, version.length() - 1);
-                        }
-                    }
-                }
+        }
+        /*
+         * A package is exported by the first instruction that matches it,
+         * unless that instruction is an exclusion.
+         */
+        final PackageFilter filter = new PackageFilter(instructions);
+        final List<Package> packages = new LinkedList<Package>();
+        for (int index = 0; index < instructions.size(); index++) {
+            if (filter.isExclusion(index)) {
+                continue;
             }
-            if (packageName.endsWith(WILDCARD)) {
-                // NOTE: do not handle wildcards except at end
-                packageName = packageName
-                        .substring(0, packageName.length() - 1);
-                final String packageFolder = packageName.replaceAll("\\.",
-                        System.getProperty("file.separator"));
-                final File folder = new File(srcDirectory, packageFolder);
-                if (folder.exists() && folder.isDirectory()) {
-                    final File[] contents = folder.listFiles();
-                    for (final File file : contents) {
-                        if (file.exists() && file.isDirectory()) {
-                            String newPackageName = packageName
-                                    + file.getName();
-                            if (exclude) {
-                                excludes.add(newPackageName);
-                            } else {
-                                final Package actual = new Package(
-                                        newPackageName);
-                                actual.addArtifact(new VersionNumber(version),
-                                        defaultArtifact);
-                                packages.add(actual);
-                            }
-                        }
-                    }
-                }
-            } else {
-                if (exclude) {
-                    excludes.add(packageName);
-                } else {
-                    final Package actual = new Package(packageName);
-                    actual.addArtifact(new VersionNumber(version),
-                            defaultArtifact);
+            final String instruction = instructions.get(index);
+            final List<String> names = instruction.endsWith(WILDCARD)
+                    ? expandWildcard(instruction, sources)
+                    : Collections.singletonList(instruction);
+            for (final String name : names) {
+                if (filter.firstMatch(name) == index) {
+                    final Package actual = new Package(name);
+                    actual.addArtifact(versions.get(index), defaultArtifact);
                     packages.add(actual);
                 }
             }
         }
-        final Iterator<Package> iterator = packages.iterator();
-        while (iterator.hasNext()) {
-            if (excludes.contains(iterator.next().getName())) {
-                iterator.remove();
+        return packages;
+    }
+
+    /*
+     * The packages in the source roots that may be matched by a wildcard,
+     * that is every package at or below the last whole package name before
+     * the wildcard; those the wildcard does not match are left to the
+     * filter.
+     */
+    private static List<String> expandWildcard(final String instruction,
+            final SourcePackageFinder sources) {
+        // NOTE: do not handle wildcards except at end
+        final String base;
+        if (instruction.endsWith(SUB_PACKAGES)) {
+            base = instruction.substring(0, instruction.length()
+                    - SUB_PACKAGES.length());
+        } else {
+            final int last = instruction.lastIndexOf('.');
+            base = last < 0 ? "" : instruction.substring(0, last); //$NON-NLS-1$
+        }
+        try {
+            return sources.findPackages(base);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    /*
+     * A finder over a single source directory, or none.
+     */
+    private static SourcePackageFinder newFinder(final String srcDirectory) {
+        return new SourcePackageFinder(srcDirectory == null ? Collections
+                .<File> emptyList() : Collections.singletonList(new File(
+                srcDirectory)));
+    }
+
+    /**
+     * Parse Import-Package declarations, each of which is a comma separated
+     * list of clauses, each clause naming one or more packages followed by
+     * attributes and directives that apply to all of them. The version
+     * attribute is an OSGi version range, which must be quoted if it holds a
+     * comma. The header is parsed by {@link HeaderParser}.
+     * 
+     * Syntax:
+     * 
+     * <pre>
+     * import-string: import-clause [',' import-clause]*
+     * import-clause: package-name [';' package-name]* [';' parameter]*
+     * parameter: key '=' value | key ':=' value
+     * </pre>
+     * 
+     * @param importString
+     *            the string to parse
+     * @return the imported packages, in the order declared.
+     */
+    public List<PackageImport> parseImport(final String importString) {
+        final List<PackageImport> imports = new LinkedList<PackageImport>();
+        for (final HeaderClause clause : HeaderParser.parse(importString)) {
+            final String version = clause.getAttribute(ATTR_VERSION);
+            final VersionRange range = version == null
+                    ? PackageImport.ANY_VERSION : new VersionRange(version);
+            final boolean optional = RESOLUTION_OPTIONAL.equals(clause
+                    .getDirective(DIRECTIVE_RESOLUTION));
+            for (final String name : clause.getNames()) {
+                if (!name.contains(WILDCARD) && !name.startsWith(EXCLUDE)) {
+                    imports.add(new PackageImport(name, range, optional));
+                }
             }
         }
-        return packages;
+        return imports;
     }
 
     /*
-     * Parse a MANIFEST.MF file
+     * Parse the exports from the headers of a MANIFEST.MF file
      */
-    private List<Package> parseManifestDependencies(final File manifest,
-            final String declaration, final String srcDirectory,
-            final Artifact defaultArtifact) {
-        final StringBuilder packages = new StringBuilder();
-        final String declarationFinal = declaration + ":";
-        String bundleVersion = null;
+    private List<Package> parseExportHeaders(
+            final Map<String, String> headers,
+            final SourcePackageFinder sources, final Artifact defaultArtifact) {
+        final String packages = headers.get(EXPORT_PACKAGE_DECL);
+        final String bundleVersion = headers.get(BUNDLE_VERSION_DECL);
+        /*
+         * Use the bundle version as the default, if no specific version
+         * specified for any package declaration.
+         */
+        final Artifact artifact = bundleVersion == null ? defaultArtifact
+                : new Artifact(defaultArtifact.getGroupId(),
+                        defaultArtifact.getArtifactId(), new VersionNumber(
+                                bundleVersion.trim()));
+        return parseExport(packages == null ? "" : packages, sources,
+                artifact);
+    }
 
+    /*
+     * Read the main headers of a MANIFEST.MF file, which is always UTF-8
+     * whatever the platform's encoding.
+     */
+    private Map<String, String> readManifestHeaders(final File manifest) {
         BufferedReader input = null;
         try {
-            input = new BufferedReader(new FileReader(manifest));
-            String line = null;
-            boolean found = false;
-            while ((line = input.readLine()) != null) {
-                if (found) {
-                    if (line.startsWith(" ")) {
-                        packages.append(line);
-                    } else {
-                        found = false;
-                    }
-                } else if (line.startsWith(declarationFinal)) {
-                    found = true;
-                    packages.append(line.substring(declarationFinal.length()));
-                } else if (line.startsWith(BUNDLE_VERSION_DECL)) {
-                    bundleVersion = line.substring(line.indexOf(" ")).trim();
-                }
-            }
+            input = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(manifest), MANIFEST_ENCODING));
+            return readManifestHeaders(input);
         } catch (IOException ex) {
             throw new IllegalArgumentException(ex);
         } finally {
@@ -250,23 +456,65 @@ public class ImportExportParser {
                 }
             }
         }
-        /*
-         * Use the bundle version as the default, if no specific version
-         * specified for any package declaration.
-         */
-        final Artifact artifact = bundleVersion == null ? defaultArtifact
-                : new Artifact(defaultArtifact.getGroupId(),
-                        defaultArtifact.getArtifactId(), new VersionNumber(
-                                bundleVersion));
-        return parseExport(packages.toString(), srcDirectory, artifact);
     }
 
     /*
-     * Parse the POM
+     * Read the main headers of a manifest, those before the first blank
+     * line, joining continuation lines; a header repeated is joined into one
+     * value.
      */
-    private List<Package> parsePomDependencies(final MavenProject project,
-            final String declaration, final Artifact defaultArtifact) {
-        final List<Package> packages = new LinkedList<Package>();
+    private static Map<String, String> readManifestHeaders(
+            final BufferedReader input) throws IOException {
+        final Map<String, StringBuilder> headers =
+            new LinkedHashMap<String, StringBuilder>();
+        String line = null;
+        StringBuilder current = null;
+        while ((line = input.readLine()) != null && line.length() > 0) {
+            if (line.startsWith(CONTINUATION)) {
+                if (current != null) {
+                    current.append(line.substring(1));
+                }
+            } else if (line.indexOf(HEADER_SEPARATOR) > 0) {
+                final int colon = line.indexOf(HEADER_SEPARATOR);
+                final String name = line.substring(0, colon);
+                current = headers.get(name);
+                if (current == null) {
+                    current = new StringBuilder();
+                    headers.put(name, current);
+                }
+                current.append(line.substring(colon + 1));
+            } else {
+                current = null;
+            }
+        }
+        final Map<String, String> values = new LinkedHashMap<String, String>();
+        for (final Map.Entry<String, StringBuilder> header : headers
+                .entrySet()) {
+            values.put(header.getKey(), header.getValue().toString());
+        }
+        return values;
+    }
+
+    /**
+     * Return the Export-Package instructions given to the Felix bundle plugin
+     * in the Maven pom.xml file, exactly as written.
+     * 
+     * @param project
+     *            the Maven project model, to resolve the Felix OSGi plugin
+     *            content.
+     * @return a list of the instruction strings, in the order they appear.
+     */
+    public List<String> getPomExportInstructions(final MavenProject project) {
+        return getPomInstructions(project, EXPORT_PACKAGE_DECL);
+    }
+
+    /*
+     * Find the values of the named instruction in the bundle plugin
+     * configuration.
+     */
+    private List<String> getPomInstructions(final MavenProject project,
+            final String declaration) {
+        final List<String> values = new LinkedList<String>();
         if (project.getBuildPlugins() != null) {
             for (final Object plugin : project.getBuildPlugins()) {
                 final Plugin realPlugin = (Plugin) plugin;
@@ -282,10 +530,7 @@ public class ImportExportParser {
                                     .getChildren(declaration);
                             if (exports != null) {
                                 for (final Xpp3Dom export : exports) {
-                                    packages.addAll(parseExport(export
-                                            .getValue(), project.getBuild()
-                                            .getSourceDirectory(),
-                                            defaultArtifact));
+                                    values.add(export.getValue());
                                 }
                             }
                         }
@@ -293,6 +538,6 @@ public class ImportExportParser {
                 }
             }
         }
-        return packages;
+        return values;
     }
 }
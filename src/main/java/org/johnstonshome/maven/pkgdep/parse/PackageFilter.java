@@ -0,0 +1,176 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered list of package instructions, as given to Export-Package by the
+ * bundle plugin, compiled for matching package names against. As in bnd the
+ * first instruction that matches a name decides it, so in
+ * <code>!com.acme.internal.*, com.acme.*</code> the internal packages are
+ * excluded while in <code>com.acme.*, !com.acme.internal.*</code> they are
+ * not.
+ * <p>
+ * An instruction is a package name, optionally preceded by <code>!</code> to
+ * exclude rather than include, and optionally ending in a wildcard:
+ * <code>com.acme.*</code> matches <code>com.acme</code> and every package
+ * below it, <code>com.acme*</code> every name starting
+ * <code>com.acme</code>, and <code>*</code> every name. Exact names are held
+ * in a hash map and wildcard prefixes in a character trie, so finding the
+ * first match for a name is one lookup and one walk along it, however many
+ * instructions there are.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class PackageFilter {
+
+    /**
+     * The index returned when no instruction matches.
+     */
+    static final int            NO_MATCH     = Integer.MAX_VALUE;
+
+    private static final String EXCLUDE      = "!";  //$NON-NLS-1$
+    private static final String WILDCARD     = "*";  //$NON-NLS-1$
+    private static final String SUB_PACKAGES = ".*"; //$NON-NLS-1$
+    private static final char   SEPARATOR    = '.';
+
+    private final boolean[]            excluded;
+    private final Map<String, Integer> exact = new HashMap<String, Integer>();
+    private final Node                 root  = new Node();
+
+    /**
+     * Compile a list of instructions.
+     *
+     * @param instructions
+     *            the instructions, in order.
+     */
+    PackageFilter(final List<String> instructions) {
+        this.excluded = new boolean[instructions.size()];
+        for (int index = 0; index < this.excluded.length; index++) {
+            String pattern = instructions.get(index);
+            if (pattern.startsWith(EXCLUDE)) {
+                this.excluded[index] = true;
+                pattern = pattern.substring(1);
+            }
+            if (pattern.endsWith(SUB_PACKAGES)) {
+                final Node node = this.root.insert(pattern, pattern.length()
+                        - SUB_PACKAGES.length());
+                node.packageAndBelow = Math.min(node.packageAndBelow, index);
+            } else if (pattern.endsWith(WILDCARD)) {
+                final Node node = this.root.insert(pattern, pattern.length()
+                        - WILDCARD.length());
+                node.anyName = Math.min(node.anyName, index);
+            } else if (!this.exact.containsKey(pattern)) {
+                this.exact.put(pattern, Integer.valueOf(index));
+            }
+        }
+    }
+
+    /**
+     * Return the index of the first instruction that matches a package name.
+     *
+     * @param name
+     *            the package name.
+     * @return the index, or {@link #NO_MATCH}.
+     */
+    int firstMatch(final String name) {
+        final Integer found = this.exact.get(name);
+        int first = found == null ? NO_MATCH : found.intValue();
+        Node node = this.root;
+        final int length = name.length();
+        for (int i = 0; node != null && first > 0; i++) {
+            first = Math.min(first, node.anyName);
+            if (i == length || name.charAt(i) == SEPARATOR) {
+                first = Math.min(first, node.packageAndBelow);
+            }
+            if (i == length) {
+                break;
+            }
+            node = node.child(name.charAt(i));
+        }
+        return first;
+    }
+
+    /**
+     * Return <code>true</code> if the first instruction to match a package
+     * name includes it.
+     *
+     * @param name
+     *            the package name.
+     * @return whether the name is included, <code>false</code> if it is
+     *         excluded or not matched at all.
+     */
+    boolean includes(final String name) {
+        final int first = firstMatch(name);
+        return first != NO_MATCH && !this.excluded[first];
+    }
+
+    /**
+     * Return <code>true</code> if an instruction excludes rather than
+     * includes the names it matches.
+     *
+     * @param index
+     *            the index of the instruction.
+     * @return whether the instruction is an exclusion.
+     */
+    boolean isExclusion(final int index) {
+        return this.excluded[index];
+    }
+
+    /*
+     * A node of the trie of wildcard prefixes, reached by the characters of
+     * the prefix; the few children of each node are kept in small parallel
+     * arrays and searched in turn.
+     */
+    private static final class Node {
+
+        private static final char[] NO_KEYS     = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys            = NO_KEYS;
+        private Node[] children        = NO_CHILDREN;
+        /*
+         * The first instruction ending here in '.*', and in '*'.
+         */
+        private int    packageAndBelow = NO_MATCH;
+        private int    anyName         = NO_MATCH;
+
+        Node child(final char key) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == key) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        Node insert(final String prefix, final int length) {
+            Node node = this;
+            for (int i = 0; i < length; i++) {
+                final char key = prefix.charAt(i);
+                Node next = node.child(key);
+                if (next == null) {
+                    next = new Node();
+                    final int count = node.keys.length;
+                    node.keys = Arrays.copyOf(node.keys, count + 1);
+                    node.children = Arrays.copyOf(node.children, count + 1);
+                    node.keys[count] = key;
+                    node.children[count] = next;
+                }
+                node = next;
+            }
+            return node;
+        }
+    }
+}
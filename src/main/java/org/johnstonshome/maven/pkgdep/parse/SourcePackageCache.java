@@ -0,0 +1,257 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The directories found by the last walk of a project's source roots, saved
+ * in the build directory so that the next walk need only list the
+ * directories that have changed. Each directory is recorded with its
+ * modification time, whether it is a package and the names of its
+ * subdirectories; as adding, removing or renaming an entry changes the time
+ * of the directory holding it, a directory whose time is unchanged has the
+ * same entries as when it was listed.
+ * <p>
+ * The cache is saved as a plain text file: a format line, then for each root
+ * a <code>root</code> line followed by one line per directory, the time, a
+ * <code>P</code> for a package or <code>-</code>, the package name and the
+ * subdirectory names, separated by tabs and commas. Neither can appear in a
+ * package name. The file is written beside the cache and renamed over it, so
+ * a build that dies while saving leaves the previous cache intact.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+final class SourcePackageCache {
+
+    /**
+     * The time recorded for a directory that must be listed again.
+     */
+    static final long            UNKNOWN     = -1L;
+
+    private static final Charset UTF8        = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private static final String  FORMAT      = "pkgdep-sources 1";       //$NON-NLS-1$
+    private static final String  ROOT        = "root";                   //$NON-NLS-1$
+    private static final String  PACKAGE     = "P";                      //$NON-NLS-1$
+    private static final String  NOT_PACKAGE = "-";                      //$NON-NLS-1$
+    private static final char    FIELD       = '\t';
+    private static final char    CHILD       = ',';
+    private static final String  NO_CHILDREN = "";                       //$NON-NLS-1$
+    private static final String  TEMP_SUFFIX = ".tmp";                   //$NON-NLS-1$
+
+    private final Map<String, Map<String, Entry>> roots =
+        new LinkedHashMap<String, Map<String, Entry>>();
+
+    /**
+     * Return the directories recorded below a root.
+     *
+     * @param root
+     *            the root directory.
+     * @return a read-only map of package name, the empty string for the root
+     *         itself, to directory; empty if the root is not cached.
+     */
+    Map<String, Entry> getRoot(final File root) {
+        final Map<String, Entry> found = this.roots.get(root.getPath());
+        return found == null ? Collections.<String, Entry> emptyMap()
+                : Collections.unmodifiableMap(found);
+    }
+
+    /**
+     * Record the directories below a root, replacing any recorded before.
+     *
+     * @param root
+     *            the root directory.
+     * @param entries
+     *            the directories, by package name.
+     */
+    void putRoot(final File root, final Map<String, Entry> entries) {
+        this.roots.put(root.getPath(), entries);
+    }
+
+    /**
+     * Load a saved cache. A cache that is missing, corrupt or was saved in
+     * another format is loaded empty, so every directory is listed again.
+     *
+     * @param file
+     *            the saved cache.
+     * @return the cache.
+     * @throws IOException
+     *             if the file exists but could not be read.
+     */
+    static SourcePackageCache load(final File file) throws IOException {
+        final SourcePackageCache cache = new SourcePackageCache();
+        final BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), UTF8));
+        } catch (FileNotFoundException ex) {
+            return cache;
+        }
+        try {
+            if (!FORMAT.equals(reader.readLine())) {
+                return cache;
+            }
+            Map<String, Entry> entries = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int first = line.indexOf(FIELD);
+                if (first < 0) {
+                    return new SourcePackageCache();
+                }
+                final String time = line.substring(0, first);
+                if (time.equals(ROOT)) {
+                    entries = new HashMap<String, Entry>();
+                    cache.roots.put(line.substring(first + 1), entries);
+                    continue;
+                }
+                final int second = line.indexOf(FIELD, first + 1);
+                final int third = second < 0 ? -1 : line.indexOf(FIELD,
+                        second + 1);
+                if (entries == null || third < 0) {
+                    return new SourcePackageCache();
+                }
+                final String children = line.substring(third + 1);
+                try {
+                    entries.put(line.substring(second + 1, third), new Entry(
+                            Long.parseLong(time), PACKAGE.equals(line
+                                    .substring(first + 1, second)), children
+                                    .length() == 0 ? Entry.NO_CHILDREN
+                                    : split(children)));
+                } catch (NumberFormatException ex) {
+                    return new SourcePackageCache();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return cache;
+    }
+
+    /**
+     * Save this cache to the given file, atomically replacing any saved
+     * before.
+     *
+     * @param file
+     *            the file to save to.
+     * @throws IOException
+     *             if the file could not be written.
+     */
+    void save(final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        final File temp = new File(file.getParentFile(), file.getName()
+                + TEMP_SUFFIX);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(
+                temp), UTF8);
+        try {
+            writer.write(FORMAT);
+            writer.write('\n');
+            for (final Map.Entry<String, Map<String, Entry>> root : this.roots
+                    .entrySet()) {
+                writer.write(ROOT);
+                writer.write(FIELD);
+                writer.write(root.getKey());
+                writer.write('\n');
+                for (final Map.Entry<String, Entry> directory : root
+                        .getValue().entrySet()) {
+                    final Entry entry = directory.getValue();
+                    writer.write(Long.toString(entry.modified));
+                    writer.write(FIELD);
+                    writer.write(entry.isPackage ? PACKAGE : NOT_PACKAGE);
+                    writer.write(FIELD);
+                    writer.write(directory.getKey());
+                    writer.write(FIELD);
+                    writer.write(join(entry.children));
+                    writer.write('\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String[] split(final String children) {
+        int count = 1;
+        for (int i = 0; i < children.length(); i++) {
+            if (children.charAt(i) == CHILD) {
+                count++;
+            }
+        }
+        final String[] names = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = children.indexOf(CHILD, start);
+            if (end < 0) {
+                end = children.length();
+            }
+            names[i] = children.substring(start, end);
+            start = end + 1;
+        }
+        return names;
+    }
+
+    private static String join(final String[] children) {
+        if (children.length == 0) {
+            return NO_CHILDREN;
+        }
+        final StringBuilder joined = new StringBuilder(children[0]);
+        for (int i = 1; i < children.length; i++) {
+            joined.append(CHILD).append(children[i]);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * One directory as it was when last listed.
+     */
+    static final class Entry {
+
+        static final String[] NO_CHILDREN = new String[0];
+
+        final long            modified;
+        final boolean         isPackage;
+        final String[]        children;
+
+        /**
+         * Construct a new entry.
+         *
+         * @param modified
+         *            the modification time of the directory when it was
+         *            listed, or {@link SourcePackageCache#UNKNOWN}.
+         * @param isPackage
+         *            whether the directory holds a Java file.
+         * @param children
+         *            the names of the subdirectories that may be packages.
+         */
+        Entry(final long modified, final boolean isPackage,
+                final String[] children) {
+            this.modified = modified;
+            this.isPackage = isPackage;
+            this.children = children;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.johnstonshome.maven.pkgdep.parse.SourcePackageCache.Entry;
+
+/**
+ * Find the Java packages in a set of source trees, such as a project's
+ * compile source roots and generated sources, so that wildcard export
+ * instructions can be expanded. Every directory below each root is visited,
+ * and a directory is a package only if it directly holds a
+ * <code>.java</code> or <code>.class</code> file.
+ * <p>
+ * The trees are walked once, the first time packages are asked for, by a
+ * fork-join pool in which each directory is a task, so a large tree is
+ * listed by several threads at once. Entries are classified on their name
+ * alone where possible: names ending in <code>.java</code> or
+ * <code>.class</code> are taken to be files and names that cannot be part of
+ * a package name are skipped, so only possible package directories are
+ * stat'ed.
+ * <p>
+ * Given a cache file, such as one in the project's build directory, the
+ * directories found are saved in it, see {@link SourcePackageCache}, and the
+ * next walk lists only the directories whose modification time has changed;
+ * the rest are taken from the cache, so a tree that has not changed is walked
+ * with one stat per directory and no listing at all. A directory modified
+ * within {@link #TIME_RESOLUTION} of the walk is listed again next time,
+ * since a later change might not move its time on. This class is not safe
+ * for use by more than one thread.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class SourcePackageFinder {
+
+    private static final String JAVA_SUFFIX  = ".java";  //$NON-NLS-1$
+    private static final String CLASS_SUFFIX = ".class"; //$NON-NLS-1$
+    private static final char   SEPARATOR    = '.';
+
+    /**
+     * The coarsest resolution of directory times, in milliseconds, among
+     * the file systems in common use.
+     */
+    static final long               TIME_RESOLUTION = 2000L;
+
+    private final List<File>        roots;
+    private final File              cacheFile;
+    private final int               parallelism;
+    private final AtomicInteger     listed          = new AtomicInteger();
+    private final AtomicInteger     reused          = new AtomicInteger();
+    private SortedSet<String>       packages        = null;
+
+    /**
+     * Construct a finder over a set of source roots, walking them with one
+     * thread per available processor.
+     *
+     * @param roots
+     *            the source root directories, those that do not exist are
+     *            ignored.
+     */
+    public SourcePackageFinder(final List<File> roots) {
+        this(roots, null);
+    }
+
+    /**
+     * Construct a finder over a set of source roots, walking them with one
+     * thread per available processor and keeping the directories found in
+     * a cache file.
+     *
+     * @param roots
+     *            the source root directories, those that do not exist are
+     *            ignored.
+     * @param cacheFile
+     *            the file to keep the directories found in, or
+     *            <code>null</code> for no cache.
+     */
+    public SourcePackageFinder(final List<File> roots, final File cacheFile) {
+        this(roots, cacheFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a finder over a set of source roots.
+     *
+     * @param roots
+     *            the source root directories, those that do not exist are
+     *            ignored.
+     * @param parallelism
+     *            the number of threads used to walk the trees.
+     */
+    public SourcePackageFinder(final List<File> roots, final int parallelism) {
+        this(roots, null, parallelism);
+    }
+
+    /**
+     * Construct a finder over a set of source roots.
+     *
+     * @param roots
+     *            the source root directories, those that do not exist are
+     *            ignored.
+     * @param cacheFile
+     *            the file to keep the directories found in, or
+     *            <code>null</code> for no cache.
+     * @param parallelism
+     *            the number of threads used to walk the trees.
+     */
+    public SourcePackageFinder(final List<File> roots, final File cacheFile,
+            final int parallelism) {
+        if (roots == null) {
+            throw new IllegalArgumentException(
+                    "Invalid source roots, may not be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid parallelism, must be at least 1");
+        }
+        this.roots = new ArrayList<File>(roots);
+        this.cacheFile = cacheFile;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Return the source roots this finder walks.
+     *
+     * @return a read-only list of the source roots.
+     */
+    public List<File> getRoots() {
+        return Collections.unmodifiableList(this.roots);
+    }
+
+    /**
+     * Return the number of directories listed by the walk.
+     *
+     * @return the count, zero if the trees have not been walked or all
+     *         directories were found unchanged in the cache.
+     */
+    public int getDirectoriesListed() {
+        return this.listed.get();
+    }
+
+    /**
+     * Return the number of directories taken from the cache by the walk.
+     *
+     * @return the count, zero if the trees have not been walked.
+     */
+    public int getDirectoriesReused() {
+        return this.reused.get();
+    }
+
+    /**
+     * Return all the packages found in the source roots.
+     *
+     * @return a read-only set of package names, in order.
+     * @throws IOException
+     *             if a directory could not be listed.
+     */
+    public SortedSet<String> getPackages() throws IOException {
+        if (this.packages == null) {
+            this.packages = Collections.unmodifiableSortedSet(walk());
+        }
+        return this.packages;
+    }
+
+    /**
+     * Return the packages found in the source roots that are either a given
+     * package or below it.
+     *
+     * @param base
+     *            the name of the package, the empty string for all
+     *            packages.
+     * @return the package names, in order.
+     * @throws IOException
+     *             if a directory could not be listed.
+     */
+    public List<String> findPackages(final String base) throws IOException {
+        if (base == null) {
+            throw new IllegalArgumentException(
+                    "Invalid package name, may not be null");
+        }
+        final List<String> found = new ArrayList<String>();
+        for (final String name : getPackages().tailSet(base)) {
+            if (!name.startsWith(base)) {
+                break;
+            }
+            if (base.length() == 0 || name.length() == base.length()
+                    || name.charAt(base.length()) == SEPARATOR) {
+                found.add(name);
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Walk every root in a fork-join pool, then save the directories found
+     * if any were listed.
+     */
+    private SortedSet<String> walk() throws IOException {
+        final SourcePackageCache cache = loadCache();
+        final SourcePackageCache updated = new SourcePackageCache();
+        final long trusted = System.currentTimeMillis() - TIME_RESOLUTION;
+        final Queue<String> found = new ConcurrentLinkedQueue<String>();
+        final AtomicReference<IOException> failure =
+            new AtomicReference<IOException>();
+        final List<Directory> tasks = new ArrayList<Directory>();
+        for (final File root : this.roots) {
+            if (root.isDirectory()) {
+                final Map<String, Entry> entries =
+                    new ConcurrentHashMap<String, Entry>();
+                updated.putRoot(root, entries);
+                tasks.add(new Directory(new Tree(cache.getRoot(root),
+                        entries, trusted, found, failure), root.toPath(), "")); //$NON-NLS-1$
+            }
+        }
+        if (!tasks.isEmpty()) {
+            final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+            try {
+                pool.invoke(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (this.cacheFile != null
+                && (this.listed.get() > 0 || !sameRoots(cache, updated))) {
+            try {
+                updated.save(this.cacheFile);
+            } catch (IOException ex) {
+                /*
+                 * The cache only saves time, the next walk lists everything.
+                 */
+                this.cacheFile.delete();
+            }
+        }
+        return new TreeSet<String>(found);
+    }
+
+    /*
+     * The saved cache, or an empty one if there is none or it cannot be
+     * read; in that case every directory is listed and the cache rewritten.
+     */
+    private SourcePackageCache loadCache() {
+        if (this.cacheFile != null) {
+            try {
+                return SourcePackageCache.load(this.cacheFile);
+            } catch (IOException ex) {
+                // fall through
+            }
+        }
+        return new SourcePackageCache();
+    }
+
+    /*
+     * True if every root walked was cached with the same directories, as it
+     * is when none was listed, unless one has been removed.
+     */
+    private boolean sameRoots(final SourcePackageCache cache,
+            final SourcePackageCache updated) {
+        for (final File root : this.roots) {
+            if (cache.getRoot(root).size() != updated.getRoot(root).size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * True if a directory name may be one segment of a package name.
+     */
+    private static boolean isSegment(final String name) {
+        if (name.length() == 0
+                || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The state shared by the walk of one root: the directories cached and
+     * those found, by package name, and the packages found.
+     */
+    private final class Tree {
+
+        private final Map<String, Entry>           cached;
+        private final Map<String, Entry>           entries;
+        private final long                         trusted;
+        private final Queue<String>                found;
+        private final AtomicReference<IOException> failure;
+
+        Tree(final Map<String, Entry> cached,
+                final Map<String, Entry> entries, final long trusted,
+                final Queue<String> found,
+                final AtomicReference<IOException> failure) {
+            this.cached = cached;
+            this.entries = entries;
+            this.trusted = trusted;
+            this.found = found;
+            this.failure = failure;
+        }
+    }
+
+    /*
+     * The task for one directory, recording it if it is a package and
+     * forking a task for each subdirectory; the directory is listed only if
+     * its time does not match the cache.
+     */
+    private final class Directory extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Tree        tree;
+        private final Path        path;
+        private final String      name;
+
+        Directory(final Tree tree, final Path path, final String name) {
+            this.tree = tree;
+            this.path = path;
+            this.name = name;
+        }
+
+        @Override
+        protected void compute() {
+            final Entry entry;
+            try {
+                final long time = Files.getLastModifiedTime(this.path)
+                        .toMillis();
+                final Entry cached = this.tree.cached.get(this.name);
+                if (cached != null && cached.modified == time) {
+                    SourcePackageFinder.this.reused.incrementAndGet();
+                    entry = cached;
+                } else {
+                    SourcePackageFinder.this.listed.incrementAndGet();
+                    entry = list(time < this.tree.trusted ? time
+                            : SourcePackageCache.UNKNOWN);
+                }
+            } catch (NoSuchFileException ex) {
+                /*
+                 * Removed since its parent was listed.
+                 */
+                return;
+            } catch (IOException ex) {
+                this.tree.failure.compareAndSet(null, ex);
+                return;
+            } catch (DirectoryIteratorException ex) {
+                this.tree.failure.compareAndSet(null, ex.getCause());
+                return;
+            }
+            this.tree.entries.put(this.name, entry);
+            /*
+             * Files in a root directory are in the unnamed package.
+             */
+            if (entry.isPackage && this.name.length() > 0) {
+                this.tree.found.add(this.name);
+            }
+            final List<Directory> children = new ArrayList<Directory>(
+                    entry.children.length);
+            for (final String child : entry.children) {
+                children.add(new Directory(this.tree, this.path
+                        .resolve(child), this.name.length() == 0 ? child
+                        : this.name + SEPARATOR + child));
+            }
+            invokeAll(children);
+        }
+
+        /*
+         * List the directory, the time recorded is that read before listing
+         * so any later change is seen next time.
+         */
+        private Entry list(final long time) throws IOException {
+            final List<String> children = new ArrayList<String>();
+            boolean isPackage = false;
+            final DirectoryStream<Path> entries = Files
+                    .newDirectoryStream(this.path);
+            try {
+                for (final Path entry : entries) {
+                    final String entryName = entry.getFileName().toString();
+                    if (entryName.endsWith(JAVA_SUFFIX)
+                            || entryName.endsWith(CLASS_SUFFIX)) {
+                        isPackage = true;
+                    } else if (isSegment(entryName)
+                            && Files.isDirectory(entry)) {
+                        children.add(entryName);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+            return new Entry(time, isPackage, children.isEmpty()
+                    ? Entry.NO_CHILDREN : children
+                            .toArray(new String[children.size()]));
+        }
+    }
+}
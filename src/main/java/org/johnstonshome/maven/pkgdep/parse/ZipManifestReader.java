@@ -0,0 +1,247 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read the manifest of a JAR file without opening it as a JAR. The end of
+ * the file is read to find the zip central directory, the central directory
+ * is read and searched for <code>META-INF/MANIFEST.MF</code>, comparing the
+ * bytes of each name with no decoding, and then only that entry is read and,
+ * if need be, inflated. No other entry is read, so the cost is the same
+ * however many classes the JAR holds. Nothing is memory mapped, so the JAR
+ * is released as soon as it has been read and may be replaced by the next
+ * build straight away, even where a mapped file may not be.
+ * <p>
+ * Zip64 archives, those over 4GB or with more than 65,535 entries, are not
+ * supported.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class ZipManifestReader {
+
+    private static final String MANIFEST_NAME     = "META-INF/MANIFEST.MF"; //$NON-NLS-1$
+
+    private static final int    END_SIGNATURE     = 0x06054b50;
+    private static final int    END_SIZE          = 22;
+    private static final int    MAX_COMMENT       = 0xFFFF;
+    private static final int    CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int    CENTRAL_SIZE      = 46;
+    private static final int    LOCAL_SIGNATURE   = 0x04034b50;
+    private static final int    LOCAL_SIZE        = 30;
+    private static final long   ZIP64_MARKER      = 0xFFFFFFFFL;
+
+    private static final int    STORED            = 0;
+    private static final int    DEFLATED          = 8;
+
+    private ZipManifestReader() {
+        // not constructed
+    }
+
+    /**
+     * Read the manifest of a JAR file.
+     *
+     * @param jar
+     *            the JAR file.
+     * @return the bytes of the manifest, or <code>null</code> if the JAR
+     *         has none.
+     * @throws IOException
+     *             if the file could not be read, or is not a zip file.
+     */
+    public static byte[] readManifest(final File jar) throws IOException {
+        if (jar == null) {
+            throw new IllegalArgumentException(
+                    "Invalid JAR file, may not be null");
+        }
+        final FileChannel channel = FileChannel.open(jar.toPath(),
+                StandardOpenOption.READ);
+        try {
+            return readManifest(jar, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static byte[] readManifest(final File jar,
+            final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < END_SIZE) {
+            throw invalid(jar, "too short");
+        }
+        /*
+         * The end of central directory record is the last thing in the
+         * file, followed only by a comment of up to 64K.
+         */
+        final long tailStart = Math.max(0, size - END_SIZE - MAX_COMMENT);
+        final ByteBuffer tail = read(channel, tailStart, size - tailStart);
+        int end = tail.limit() - END_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+            end--;
+        }
+        if (end < 0) {
+            throw invalid(jar, "no end of central directory");
+        }
+        final int entries = tail.getShort(end + 10) & 0xFFFF;
+        final long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        final long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (directorySize == ZIP64_MARKER || directoryOffset == ZIP64_MARKER) {
+            throw invalid(jar, "Zip64 is not supported");
+        }
+        if (directoryOffset + directorySize > tailStart + end) {
+            throw invalid(jar, "central directory out of bounds");
+        }
+
+        final ByteBuffer directory = read(channel, directoryOffset,
+                directorySize);
+        int position = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            if (position + CENTRAL_SIZE > directory.limit()
+                    || directory.getInt(position) != CENTRAL_SIGNATURE) {
+                throw invalid(jar, "bad central directory entry");
+            }
+            final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            final int extraLength = directory.getShort(position + 30)
+                    & 0xFFFF;
+            final int commentLength = directory.getShort(position + 32)
+                    & 0xFFFF;
+            if (isManifest(directory, position + CENTRAL_SIZE, nameLength)) {
+                return readEntry(jar, channel, directory
+                        .getShort(position + 10) & 0xFFFF, directory
+                        .getInt(position + 20) & 0xFFFFFFFFL, directory
+                        .getInt(position + 24) & 0xFFFFFFFFL, directory
+                        .getInt(position + 42) & 0xFFFFFFFFL);
+            }
+            position += CENTRAL_SIZE + nameLength + extraLength
+                    + commentLength;
+        }
+        return null;
+    }
+
+    /*
+     * Read one entry given its details from the central directory; the sizes
+     * in the local header may be left as zero when a data descriptor follows
+     * the data, so only its name and extra lengths are used.
+     */
+    private static byte[] readEntry(final File jar,
+            final FileChannel channel, final int method,
+            final long compressedSize, final long size, final long offset)
+            throws IOException {
+        if (compressedSize == ZIP64_MARKER || size == ZIP64_MARKER
+                || offset == ZIP64_MARKER) {
+            throw invalid(jar, "Zip64 is not supported");
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw invalid(jar, "manifest too large");
+        }
+        final ByteBuffer local = read(channel, offset, LOCAL_SIZE);
+        if (local.getInt(0) != LOCAL_SIGNATURE) {
+            throw invalid(jar, "bad local header");
+        }
+        final long dataOffset = offset + LOCAL_SIZE
+                + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+        final ByteBuffer data = read(channel, dataOffset, compressedSize);
+        final byte[] content = new byte[(int) size];
+        if (method == STORED) {
+            if (compressedSize != size) {
+                throw invalid(jar, "stored manifest has the wrong size");
+            }
+            data.get(content);
+        } else if (method == DEFLATED) {
+            final byte[] compressed = new byte[(int) compressedSize];
+            data.get(compressed);
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int read = 0;
+                while (read < content.length && !inflater.finished()) {
+                    final int inflated = inflater.inflate(content, read,
+                            content.length - read);
+                    if (inflated == 0
+                            && (inflater.needsInput() || inflater
+                                    .needsDictionary())) {
+                        break;
+                    }
+                    read += inflated;
+                }
+                if (read != content.length) {
+                    throw invalid(jar, "manifest has the wrong size");
+                }
+            } catch (DataFormatException ex) {
+                throw invalid(jar, ex.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw invalid(jar, String.format(
+                    "unsupported compression method %d", Integer
+                            .valueOf(method)));
+        }
+        return content;
+    }
+
+    /*
+     * True if the name at the given position is that of the manifest,
+     * ignoring the case of ASCII letters as the JDK does.
+     */
+    private static boolean isManifest(final ByteBuffer directory,
+            final int position, final int length) {
+        if (length != MANIFEST_NAME.length()
+                || position + length > directory.limit()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final int c = directory.get(position + i);
+            final int expected = MANIFEST_NAME.charAt(i);
+            if (c != expected
+                    && !(expected >= 'A' && expected <= 'Z' && c == expected
+                            + ('a' - 'A'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Read a region of the file into a little endian buffer on the heap.
+     */
+    private static ByteBuffer read(final FileChannel channel,
+            final long offset, final long length) throws IOException {
+        if (offset < 0 || length < 0 || length > Integer.MAX_VALUE
+                || offset + length > channel.size()) {
+            throw new IOException(String.format(
+                    "Invalid zip file, %d bytes at offset %d are out of bounds",
+                    Long.valueOf(length), Long.valueOf(offset)));
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException(String.format(
+                        "Invalid zip file, ended before offset %d", Long
+                                .valueOf(offset + buffer.position())));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static IOException invalid(final File jar, final String problem) {
+        return new IOException(String.format("Invalid zip file %s, %s", jar,
+                problem));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.goal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+import org.johnstonshome.maven.pkgdep.parse.SourcePackageFinder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link ExportFingerprint}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class ExportFingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File           manifest;
+    private File           sources;
+    private File           saved;
+
+    @Before
+    public void setUp() throws Exception {
+        this.manifest = this.folder.newFile("MANIFEST.MF");
+        write(this.manifest, "Export-Package: com.example.api\n");
+        this.sources = this.folder.newFolder("src");
+        new File(this.sources, "com/example/api").mkdirs();
+        new File(this.sources, "com/example/api/Api.java").createNewFile();
+        this.saved = new File(this.folder.getRoot(),
+                "target/pkgdep/export.fingerprint");
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        Assert.assertFalse(make("com.example.*").matches(this.saved));
+        make("com.example.*").save(this.saved);
+        Assert.assertTrue(make("com.example.*").matches(this.saved));
+    }
+
+    @Test
+    public void testInstructionChanged() throws Exception {
+        make("com.example.*").save(this.saved);
+        Assert.assertFalse(make("com.example.api").matches(this.saved));
+    }
+
+    @Test
+    public void testManifestChanged() throws Exception {
+        make("com.example.*").save(this.saved);
+        write(this.manifest, "Export-Package: com.example.impl\n");
+        Assert.assertFalse(make("com.example.*").matches(this.saved));
+    }
+
+    @Test
+    public void testPackageAdded() throws Exception {
+        make("com.example.*").save(this.saved);
+        new File(this.sources, "com/example/impl").mkdirs();
+        new File(this.sources, "com/example/impl/Impl.java").createNewFile();
+        Assert.assertFalse(make("com.example.*").matches(this.saved));
+    }
+
+    @Test
+    public void testMultiLineValue() throws Exception {
+        make("com.example.api,\ncom.example.model").save(this.saved);
+        Assert.assertTrue(make("com.example.api,\ncom.example.model").matches(
+                this.saved));
+        Assert.assertFalse(make("com.example.api,\ncom.example.impl").matches(
+                this.saved));
+    }
+
+    @Test
+    public void testExportsChanged() throws Exception {
+        final SortedMap<String, SortedSet<VersionNumber>> exports =
+            new TreeMap<String, SortedSet<VersionNumber>>();
+        exports.put("com.example.api", new TreeSet<VersionNumber>(Arrays
+                .asList(new VersionNumber("1.0"))));
+        final ExportFingerprint inputs = make("com.example.*");
+        final ExportFingerprint fingerprint = new ExportFingerprint(inputs);
+        fingerprint.addExports("exports", exports);
+        fingerprint.save(this.saved);
+        Assert.assertFalse(inputs.matches(this.saved));
+
+        final ExportFingerprint same = new ExportFingerprint(inputs);
+        same.addExports("exports", exports);
+        Assert.assertTrue(same.matches(this.saved));
+
+        /*
+         * The repository has lost the export, or holds another version.
+         */
+        final ExportFingerprint lost = new ExportFingerprint(inputs);
+        lost.addExports("exports",
+                new TreeMap<String, SortedSet<VersionNumber>>());
+        Assert.assertFalse(lost.matches(this.saved));
+        exports.get("com.example.api").add(new VersionNumber("1.1"));
+        final ExportFingerprint added = new ExportFingerprint(inputs);
+        added.addExports("exports", exports);
+        Assert.assertFalse(added.matches(this.saved));
+    }
+
+    private ExportFingerprint make(final String instruction)
+            throws IOException {
+        final ExportFingerprint fingerprint = new ExportFingerprint();
+        fingerprint.addValue("project", "org.example:example-jar:1.0");
+        fingerprint.addFile("manifest", this.manifest);
+        fingerprint.addValue("instruction", instruction);
+        fingerprint.addPackages("packages", new SourcePackageFinder(
+                Collections.singletonList(this.sources)).getPackages());
+        return fingerprint;
+    }
+
+    private static void write(final File file, final String content)
+            throws IOException {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
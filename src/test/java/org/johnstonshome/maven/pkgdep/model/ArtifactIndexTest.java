@@ -0,0 +1,225 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the reverse index maintained by {@link ArtifactIndex}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class ArtifactIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Artifact first  = new Artifact("org.example",
+                                          "example-jar",
+                                          new VersionNumber("2.1"));
+    private final Artifact second = new Artifact("org.example",
+                                          "example-impl",
+                                          new VersionNumber("2.1.1"));
+
+    @Test
+    public void testPropertiesUpdates() throws Exception {
+        testUpdates(StorageMode.PROPERTIES);
+    }
+
+    @Test
+    public void testIndexUpdates() throws Exception {
+        testUpdates(StorageMode.INDEX);
+    }
+
+    @Test
+    public void testBuiltFromExistingPackages() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.api", this.first,
+                "1.0"));
+        repository.writePackage(makePackage("com.example.model", this.first,
+                "1.1"));
+        indexFile().delete();
+
+        final SortedMap<String, SortedSet<VersionNumber>> found =
+            new Repository(this.folder.getRoot()).findPackages(this.first);
+        Assert.assertEquals(Arrays.asList("com.example.api",
+                "com.example.model"), Arrays.asList(found.keySet().toArray()));
+        Assert.assertTrue(found.get("com.example.model").contains(
+                new VersionNumber("1.1")));
+    }
+
+    @Test
+    public void testTornLineIgnored() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.api", this.first,
+                "1.0"));
+
+        /*
+         * The next writer appends to the log for its package, where an
+         * interrupted writer left part of a line.
+         */
+        final File log = logFile("com.example.util");
+        final boolean started = log.isFile();
+        final String header = Files.readAllLines(indexFile().toPath(),
+                Charset.forName("UTF-8")).get(0);
+        final FileOutputStream out = new FileOutputStream(log, true);
+        if (!started) {
+            out.write((header + "\n").getBytes("UTF-8"));
+        }
+        out.write("+ org.example:example-jar:2.1\tcom.exa".getBytes("UTF-8"));
+        out.close();
+        Assert.assertEquals(1, new Repository(this.folder.getRoot())
+                .findPackages(this.first).size());
+
+        repository.writePackage(makePackage("com.example.util", this.first,
+                "1.0"));
+        Assert.assertEquals(2, new Repository(this.folder.getRoot())
+                .findPackages(this.first).size());
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.api", this.first,
+                "1.0"));
+        Assert.assertEquals(1, repository.findPackages(this.first).size());
+
+        /*
+         * Written behind the repository's back, so not indexed until rebuilt.
+         */
+        final FileOutputStream out = new FileOutputStream(new File(
+                this.folder.getRoot(), "com.example.model"));
+        makePackage("com.example.model", this.first, "1.0").toProperties()
+                .store(out, null);
+        out.close();
+        Assert.assertEquals(1, repository.findPackages(this.first).size());
+
+        repository.rebuildArtifactIndex();
+        Assert.assertEquals(2, repository.findPackages(this.first).size());
+    }
+
+    @Test
+    public void testCompacted() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.model", this.first,
+                "1.0"));
+        for (int i = 0; i < 3 * ArtifactIndex.COMPACTION_LINES; i++) {
+            repository.writePackage(makePackage("com.example.api",
+                    i % 2 == 0 ? this.first : this.second, "1." + i));
+        }
+
+        /*
+         * Every overwrite adds two lines, without compaction there would be
+         * six times as many as the limit.
+         */
+        Assert.assertTrue(countLines() <= 2
+                * ArtifactIndex.COMPACTION_LINES + 2);
+        final Repository reader = new Repository(this.folder.getRoot());
+        SortedMap<String, SortedSet<VersionNumber>> found = reader
+                .findPackages(this.second);
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(new VersionNumber("1."
+                + (3 * ArtifactIndex.COMPACTION_LINES - 1)), found.get(
+                "com.example.api").first());
+        found = reader.findPackages(this.first);
+        Assert.assertEquals(Arrays.asList("com.example.model"), Arrays
+                .asList(found.keySet().toArray()));
+    }
+
+    private int countLines() throws Exception {
+        int count = 0;
+        for (final File file : this.folder.getRoot().listFiles()) {
+            if (file.getName().startsWith(ArtifactIndex.INDEX_FILE)) {
+                for (final byte b : Files.readAllBytes(file.toPath())) {
+                    if (b == '\n') {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void testUpdates(final StorageMode mode) {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                mode);
+        Assert.assertTrue(repository.findPackages(this.first).isEmpty());
+
+        final Package api = makePackage("com.example.api", this.first, "1.0");
+        api.addArtifact(new VersionNumber("1.1"), this.first);
+        api.addArtifact(new VersionNumber("1.1"), this.second);
+        repository.writePackage(api);
+        repository.updatePackage(makePackage("com.example.model", this.first,
+                "2.0"));
+
+        /*
+         * A reader that has already loaded the index sees later writes.
+         */
+        final Repository reader = new Repository(this.folder.getRoot(), mode);
+        SortedMap<String, SortedSet<VersionNumber>> found = reader
+                .findPackages(this.first);
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(2, found.get("com.example.api").size());
+        Assert.assertEquals(1, reader.findPackages(this.second).size());
+
+        /*
+         * Overwriting a package removes the artifacts it no longer lists.
+         */
+        repository.writePackage(makePackage("com.example.api", this.second,
+                "1.2"));
+        found = reader.findPackages(this.first);
+        Assert.assertEquals(1, found.size());
+        Assert.assertTrue(found.containsKey("com.example.model"));
+        found = reader.findPackages(this.second);
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(new VersionNumber("1.2"), found.get(
+                "com.example.api").first());
+
+        final RepositoryBatch batch = repository.beginBatch();
+        batch.merge(makePackage("com.example.util", this.second, "1.0"));
+        batch.merge(makePackage("com.example.api", this.second, "1.3"));
+        batch.commit();
+        found = reader.findPackages(this.second);
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(2, found.get("com.example.api").size());
+    }
+
+    private File indexFile() {
+        return new File(this.folder.getRoot(), ArtifactIndex.INDEX_FILE);
+    }
+
+    private File logFile(final String name) {
+        return new File(this.folder.getRoot(), ArtifactIndex.INDEX_FILE + "-"
+                + RepositoryLocks.log(name));
+    }
+
+    private Package makePackage(final String name, final Artifact artifact,
+            final String version) {
+        final Package thePackage = new Package(name);
+        thePackage.addArtifact(new VersionNumber(version), artifact);
+        return thePackage;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the log handling of {@link IndexPackageStore}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class IndexPackageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesAppendToLog() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 1));
+        final long indexLength = indexFile().length();
+        final long logLength = logFile().length();
+        Assert.assertTrue(logLength > 0);
+
+        store.writePackage(makePackage("com.example.api", 2));
+        Assert.assertEquals(indexLength, indexFile().length());
+        Assert.assertTrue(logFile().length() > logLength);
+
+        /*
+         * Writing the same content again appends nothing.
+         */
+        final long unchanged = logFile().length();
+        store.writePackage(makePackage("com.example.api", 2));
+        Assert.assertEquals(unchanged, logFile().length());
+
+        final IndexPackageStore reader = store(Long.MAX_VALUE);
+        Assert.assertEquals(2, reader.readPackage("com.example.api")
+                .getVersions().size());
+    }
+
+    @Test
+    public void testReplaceClearsPackage() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 3));
+        store.writePackage(makePackage("com.example.api", 1));
+        Assert.assertEquals(1, store.readPackage("com.example.api")
+                .getVersions().size());
+        Assert.assertEquals(1, store(Long.MAX_VALUE).readPackage(
+                "com.example.api").getVersions().size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final IndexPackageStore store = store(512);
+        for (int i = 0; i < 50; i++) {
+            store.writePackage(makePackage("com.example.p" + i, 2));
+        }
+        Assert.assertTrue(logFile().length() < 512);
+        Assert.assertEquals(50, store.getPackageNames().size());
+
+        store.compact();
+        Assert.assertEquals(0, logFile().length());
+        final IndexPackageStore reader = store(512);
+        Assert.assertEquals(50, reader.getPackageNames().size());
+        Assert.assertEquals(2, reader.readPackage("com.example.p17")
+                .getVersions().size());
+    }
+
+    @Test
+    public void testCompactionWritesNewGeneration() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 1));
+        store.compact();
+        final File[] before = generations();
+        Assert.assertEquals(1, before.length);
+
+        /*
+         * A reader holding the old generation mapped keeps reading it.
+         */
+        final IndexPackageStore reader = store(Long.MAX_VALUE);
+        Assert.assertEquals(1, reader.getPackageNames().size());
+
+        store.writePackage(makePackage("com.example.model", 1));
+        store.compact();
+        final File[] after = generations();
+        Assert.assertEquals(1, after.length);
+        Assert.assertFalse(before[0].equals(after[0]));
+        Assert.assertEquals(2, reader.getPackageNames().size());
+        Assert.assertEquals(2, store(Long.MAX_VALUE).getPackageNames().size());
+    }
+
+    @Test
+    public void testGenerationReplacedWithinTimeResolution() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 1));
+        store.compact();
+        final IndexPackageStore reader = store(Long.MAX_VALUE);
+        Assert.assertEquals(1, reader.getPackageNames().size());
+        final long modified = indexFile().lastModified();
+
+        /*
+         * The index file naming the new generation is the same length, and
+         * is given the same time as if written in the same tick.
+         */
+        store.writePackage(makePackage("com.example.model", 1));
+        store.compact();
+        store.writePackage(makePackage("com.example.impl", 1));
+        Assert.assertTrue(indexFile().setLastModified(modified));
+        Assert.assertEquals(3, reader.getPackageNames().size());
+        Assert.assertNotNull(reader.readPackage("com.example.model"));
+    }
+
+    @Test
+    public void testReadsIndexInPlace() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 2));
+        store.compact();
+
+        /*
+         * An index written by earlier versions is held in the index file.
+         */
+        final File generation = generations()[0];
+        Assert.assertTrue(indexFile().delete());
+        Assert.assertTrue(generation.renameTo(indexFile()));
+        final IndexPackageStore reader = store(Long.MAX_VALUE);
+        Assert.assertEquals(2, reader.readPackage("com.example.api")
+                .getVersions().size());
+
+        reader.writePackage(makePackage("com.example.model", 1));
+        reader.compact();
+        Assert.assertEquals(1, generations().length);
+        Assert.assertEquals(2, store(Long.MAX_VALUE).getPackageNames().size());
+    }
+
+    @Test
+    public void testTornFrameIgnored() throws Exception {
+        final IndexPackageStore store = store(Long.MAX_VALUE);
+        store.writePackage(makePackage("com.example.api", 1));
+        final long valid = logFile().length();
+
+        final FileOutputStream out = new FileOutputStream(logFile(), true);
+        out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 5 });
+        out.close();
+
+        final IndexPackageStore reader = store(Long.MAX_VALUE);
+        Assert.assertEquals(1, reader.readPackage("com.example.api")
+                .getVersions().size());
+
+        reader.writePackage(makePackage("com.example.model", 1));
+        Assert.assertTrue(logFile().length() > valid);
+        final IndexPackageStore after = store(Long.MAX_VALUE);
+        Assert.assertEquals(2, after.getPackageNames().size());
+        Assert.assertNotNull(after.readPackage("com.example.model"));
+    }
+
+    private IndexPackageStore store(final long compactionThreshold) {
+        return new IndexPackageStore(this.folder.getRoot(),
+                compactionThreshold,
+                RepositoryLocks.forRoot(this.folder.getRoot()));
+    }
+
+    private File indexFile() {
+        return new File(this.folder.getRoot(), IndexPackageStore.INDEX_FILE);
+    }
+
+    private File[] generations() {
+        return this.folder.getRoot().listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(IndexPackageStore.GENERATION_PREFIX);
+            }
+        });
+    }
+
+    private File logFile() {
+        return new File(this.folder.getRoot(), IndexPackageStore.LOG_FILE);
+    }
+
+    private Package makePackage(final String name, final int versions) {
+        final Package thePackage = new Package(name);
+        for (int i = 1; i <= versions; i++) {
+            thePackage.addArtifact(new VersionNumber(i, 0),
+                    new Artifact("org.example", "example-jar",
+                            new VersionNumber(i, 0, 0)));
+        }
+        return thePackage;
+    }
+}
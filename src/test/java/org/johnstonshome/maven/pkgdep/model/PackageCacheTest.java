@@ -0,0 +1,181 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link PackageCache} and its use by {@link Repository}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class PackageCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoBounds() {
+        new PackageCache(0, 0);
+    }
+
+    @Test
+    public void testEvictByCount() {
+        final PackageCache cache = new PackageCache(2, 0);
+        final PackageCache.Stamp stamp = new PackageCache.Stamp(1, 1);
+        cache.put(makePackage("com.example.a", 1), stamp);
+        cache.put(makePackage("com.example.b", 1), stamp);
+        Assert.assertNotNull(cache.get("com.example.a", stamp));
+        cache.put(makePackage("com.example.c", 1), stamp);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.get("com.example.b", stamp));
+        Assert.assertNotNull(cache.get("com.example.a", stamp));
+        Assert.assertNotNull(cache.get("com.example.c", stamp));
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictByBytes() {
+        final PackageCache.Stamp stamp = new PackageCache.Stamp(1, 1);
+        final PackageCache probe = new PackageCache(1, 0);
+        probe.put(makePackage("com.example.a", 4), stamp);
+        final long each = probe.getEstimatedBytes();
+
+        final PackageCache cache = new PackageCache(0, 3 * each);
+        for (int i = 0; i < 10; i++) {
+            cache.put(makePackage("com.example." + (char) ('a' + i), 4), stamp);
+        }
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(7, cache.getEvictions());
+        Assert.assertTrue(cache.getEstimatedBytes() <= 3 * each);
+
+        /*
+         * A single package larger than the bound is still cached.
+         */
+        cache.put(makePackage("com.example.big", 40), stamp);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testStaleStamp() {
+        final PackageCache cache = new PackageCache(10, 0);
+        cache.put(makePackage("com.example.a", 1),
+                new PackageCache.Stamp(1, 10));
+        Assert.assertNull(cache.get("com.example.a",
+                new PackageCache.Stamp(2, 10)));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testReturnsCopies() {
+        final PackageCache cache = new PackageCache(10, 0);
+        final PackageCache.Stamp stamp = new PackageCache.Stamp(1, 1);
+        cache.put(makePackage("com.example.a", 1), stamp);
+        cache.get("com.example.a", stamp).addArtifact(new VersionNumber(9, 0),
+                new Artifact("org.example", "other", new VersionNumber(1, 0)));
+        Assert.assertEquals(1, cache.get("com.example.a", stamp)
+                .getVersions().size());
+    }
+
+    @Test
+    public void testPropertiesRepository() throws Exception {
+        testRepository(StorageMode.PROPERTIES);
+    }
+
+    @Test
+    public void testIndexRepository() throws Exception {
+        testRepository(StorageMode.INDEX);
+    }
+
+    @Test
+    public void testSharedByRoot() throws Exception {
+        final File root = this.folder.getRoot();
+        final PackageCache cache = PackageCache.forRoot(root, 10, 0);
+        Assert.assertSame(cache, PackageCache.forRoot(new File(root, "."), 5,
+                0));
+        Assert.assertNotSame(cache, PackageCache.forRoot(this.folder
+                .newFolder("other"), 10, 0));
+    }
+
+    @Test
+    public void testIndexWriteKeepsOtherPackages() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.INDEX);
+        final PackageCache cache = new PackageCache(10, 0);
+        repository.setCache(cache);
+        repository.writePackage(makePackage("com.example.a", 1));
+        repository.writePackage(makePackage("com.example.b", 1));
+        repository.readPackage("com.example.a");
+
+        /*
+         * Writing one package, through another repository object, leaves the
+         * cached copy of another in use.
+         */
+        new Repository(this.folder.getRoot(), StorageMode.INDEX)
+                .writePackage(makePackage("com.example.b", 2));
+        Assert.assertEquals(1, repository.readPackage("com.example.a")
+                .getVersions().size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, repository.readPackage("com.example.b")
+                .getVersions().size());
+    }
+
+    private void testRepository(final StorageMode mode) {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                mode);
+        final PackageCache cache = new PackageCache(10, 0);
+        repository.setCache(cache);
+        repository.writePackage(makePackage("com.example.a", 1));
+
+        Assert.assertEquals(1, repository.readPackage("com.example.a")
+                .getVersions().size());
+        Assert.assertEquals(1, repository.readPackage("com.example.a")
+                .getVersions().size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        /*
+         * A change made through another repository object is seen.
+         */
+        final Repository other = new Repository(this.folder.getRoot(), mode);
+        other.writePackage(makePackage("com.example.a", 3));
+        Assert.assertEquals(3, repository.readPackage("com.example.a")
+                .getVersions().size());
+        Assert.assertEquals(2, cache.getMisses());
+
+        /*
+         * As is a change made through this one.
+         */
+        repository.updatePackage(makePackage("com.example.b", 1));
+        repository.writePackage(makePackage("com.example.a", 2));
+        Assert.assertEquals(2, repository.readPackage("com.example.a")
+                .getVersions().size());
+        Assert.assertNull(repository.readPackage("com.example.none"));
+    }
+
+    private Package makePackage(final String name, final int versions) {
+        final Package thePackage = new Package(name);
+        for (int i = 1; i <= versions; i++) {
+            thePackage.addArtifact(new VersionNumber(i, 0), new Artifact(
+                    "org.example", "example-jar", new VersionNumber(i, 0, 0)));
+        }
+        return thePackage;
+    }
+}
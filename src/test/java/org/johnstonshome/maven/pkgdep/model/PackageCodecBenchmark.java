@@ -0,0 +1,90 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * Compares the size of, and the time taken to load, package files written as
+ * properties and in the binary encoding of {@link PackageCodec}. This is not
+ * a test, run it by hand with the test classpath:
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.johnstonshome.maven.pkgdep.model.PackageCodecBenchmark [versions]
+ * </pre>
+ * 
+ * The files are held in memory, so only the encoding is measured.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public final class PackageCodecBenchmark {
+
+    private static final String NAME   = "com.example.api"; //$NON-NLS-1$
+    private static final int    LOADS  = 2000;
+    private static final int    ROUNDS = 5;
+
+    private PackageCodecBenchmark() {
+        // not constructed
+    }
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            optionally, the number of versions in the package.
+     * @throws IOException
+     *             never, the files are in memory.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int versions = args.length > 0 ? Integer.parseInt(args[0])
+                : 100;
+        final Package thePackage = PackageCodecTest.makeNightlyPackage(NAME,
+                versions);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes);
+        thePackage.toProperties().store(writer, null);
+        writer.flush();
+        final byte[] properties = bytes.toByteArray();
+        final byte[] binary = PackageCodec.encode(thePackage);
+        System.out.println(String.format(
+                "%d versions: properties %,d bytes, binary %,d bytes",
+                Integer.valueOf(versions), Integer.valueOf(properties.length),
+                Integer.valueOf(binary.length)));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                final Properties loaded = new Properties();
+                loaded.load(new InputStreamReader(new ByteArrayInputStream(
+                        properties)));
+                found += new Package(NAME, loaded).getVersions().size();
+            }
+            final long legacy = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                found += PackageCodec.decode(NAME, binary).getVersions()
+                        .size();
+            }
+            final long encoded = System.nanoTime() - start;
+            System.out.println(String.format(
+                    "load: properties %,7d ns, binary %,7d ns (%d)", Long
+                            .valueOf(legacy / LOADS), Long.valueOf(encoded
+                            / LOADS), Long.valueOf(found)));
+        }
+    }
+}
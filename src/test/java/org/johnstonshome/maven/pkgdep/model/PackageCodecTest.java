@@ -0,0 +1,163 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link PackageCodec} and {@link StorageMode#BINARY}.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public class PackageCodecTest {
+
+    @Rule
+    public TemporaryFolder      folder = new TemporaryFolder();
+
+    private static final String NAME   = "com.example.api";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Package test = new Package(NAME);
+        for (final VersionNumber version : Arrays.asList(new VersionNumber(
+                "1"), new VersionNumber("1.0"), new VersionNumber("1.0.0"),
+                new VersionNumber("1.0.0.0"), new VersionNumber("1.0.0-BETA"),
+                new VersionNumber(1, 0, 0, ""), new VersionNumber(
+                        Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 7),
+                new VersionNumber(-3, Integer.MIN_VALUE), new VersionNumber(
+                        "2.10.3-20100101.120000-1"))) {
+            test.addArtifact(version, new Artifact("org.example",
+                    "example-jar", version));
+            test.addArtifact(version, new Artifact("org.example",
+                    "example-impl", new VersionNumber(0, 9, 1, "SNAPSHOT")));
+        }
+        final Package copy = PackageCodec.decode(NAME, PackageCodec
+                .encode(test));
+        Assert.assertEquals(NAME, copy.getName());
+        assertSamePackage(test, copy);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final Package copy = PackageCodec.decode(NAME, PackageCodec
+                .encode(new Package(NAME)));
+        Assert.assertTrue(copy.getVersions().isEmpty());
+    }
+
+    @Test
+    public void testSmallerThanProperties() throws Exception {
+        final Package test = makeNightlyPackage(500);
+        final ByteArrayOutputStream properties = new ByteArrayOutputStream();
+        test.toProperties().store(properties, null);
+        final byte[] binary = PackageCodec.encode(test);
+        Assert.assertTrue(binary.length * 3 < properties.size());
+        assertSamePackage(test, PackageCodec.decode(NAME, binary));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        final byte[] content = PackageCodec.encode(makeNightlyPackage(10));
+        for (int length = 0; length < content.length; length++) {
+            try {
+                PackageCodec.decode(NAME, Arrays.copyOf(content, length));
+                Assert.fail("Should not decode a truncated package");
+            } catch (IOException ex) {
+                // ignore, success
+            }
+        }
+        final byte[] longer = Arrays.copyOf(content, content.length + 1);
+        try {
+            PackageCodec.decode(NAME, longer);
+            Assert.fail("Should not decode trailing bytes");
+        } catch (IOException ex) {
+            // ignore, success
+        }
+    }
+
+    @Test
+    public void testBinaryRepository() throws Exception {
+        final Repository legacy = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        legacy.writePackage(makeNightlyPackage(5));
+        legacy.writePackage(makeNightlyPackage("com.example.model", 3));
+
+        /*
+         * Properties files are read, and rewritten as binary when written.
+         */
+        final Repository binary = new Repository(this.folder.getRoot(),
+                StorageMode.BINARY);
+        assertSamePackage(makeNightlyPackage(5), binary.readPackage(NAME));
+        binary.writePackage(makeNightlyPackage(6));
+        Assert.assertTrue(PackageCodec.isEncoded(content(NAME)));
+        Assert.assertFalse(PackageCodec
+                .isEncoded(content("com.example.model")));
+        assertSamePackage(makeNightlyPackage(6), legacy.readPackage(NAME));
+
+        Assert.assertEquals(1, binary.migrate());
+        Assert.assertTrue(PackageCodec.isEncoded(content("com.example.model")));
+        Assert.assertEquals(0, binary.migrate());
+        assertSamePackage(makeNightlyPackage("com.example.model", 3), legacy
+                .readPackage("com.example.model"));
+
+        /*
+         * And back again.
+         */
+        Assert.assertEquals(2, legacy.migrate());
+        Assert.assertFalse(PackageCodec.isEncoded(content(NAME)));
+    }
+
+    private byte[] content(final String name) throws IOException {
+        return Files.readAllBytes(new File(this.folder.getRoot(), name)
+                .toPath());
+    }
+
+    private static void assertSamePackage(final Package expected,
+            final Package actual) {
+        Assert.assertEquals(new ArrayList<VersionNumber>(expected
+                .getVersions()), new ArrayList<VersionNumber>(actual
+                .getVersions()));
+        for (final VersionNumber version : expected.getVersions()) {
+            Assert.assertEquals(expected.resolve(version), actual
+                    .resolve(version));
+        }
+    }
+
+    static Package makeNightlyPackage(final int versions) {
+        return makeNightlyPackage(NAME, versions);
+    }
+
+    /*
+     * A package with one version for each nightly build, each provided by
+     * the build of that night.
+     */
+    static Package makeNightlyPackage(final String name, final int versions) {
+        final Package thePackage = new Package(name);
+        for (int i = 0; i < versions; i++) {
+            final String qualifier = String.format("%08d.%06d-%d", Integer
+                    .valueOf(20100101 + i), Integer.valueOf(1200 + i % 60),
+                    Integer.valueOf(i % 3 + 1));
+            thePackage.addArtifact(new VersionNumber(1, 2, i / 7, qualifier),
+                    new Artifact("org.example.nightly", "example-core",
+                            new VersionNumber(1, 2, i / 7, qualifier)));
+        }
+        return thePackage;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the package name queries answered by
+ * {@link PackageNameIndex}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class PackageNameIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] NAMES = { "com.acme", "com.acme.api",
+            "com.acme.api.spi", "com.acme.impl", "com.acmex.api",
+            "org.acme.api", "org.example.model" };
+
+    @Test
+    public void testPropertiesQueries() throws Exception {
+        testQueries(StorageMode.PROPERTIES);
+    }
+
+    @Test
+    public void testIndexQueries() throws Exception {
+        testQueries(StorageMode.INDEX);
+    }
+
+    @Test
+    public void testBuiltFromExistingPackages() throws Exception {
+        populate(new Repository(this.folder.getRoot()));
+        new File(this.folder.getRoot(), PackageNameIndex.INDEX_FILE).delete();
+        Assert.assertEquals(Arrays.asList("com.acme.api", "com.acme.api.spi",
+                "com.acme.impl"), new Repository(this.folder.getRoot())
+                .findPackageNames("com.acme.*"));
+    }
+
+    @Test
+    public void testSeesOtherWriter() throws Exception {
+        final Repository reader = new Repository(this.folder.getRoot());
+        Assert.assertTrue(reader.findPackageNames("*").isEmpty());
+
+        populate(new Repository(this.folder.getRoot()));
+        Assert.assertEquals(NAMES.length, reader.findPackageNames("*").size());
+        Assert.assertEquals(Arrays.asList("com.acme.api", "com.acme.api.spi",
+                "com.acme.impl"), reader.findPackageNames("com.acme.*"));
+
+        /*
+         * Rewriting an existing package adds nothing.
+         */
+        new Repository(this.folder.getRoot()).writePackage(makePackage(
+                "com.acme.impl"));
+        Assert.assertEquals(NAMES.length, reader.findPackageNames("*").size());
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot());
+        populate(repository);
+
+        final FileOutputStream out = new FileOutputStream(new File(
+                this.folder.getRoot(), "com.acme.util"));
+        makePackage("com.acme.util").toProperties().store(out, null);
+        out.close();
+        Assert.assertEquals(3, repository.findPackageNames("com.acme.*")
+                .size());
+
+        repository.rebuildPackageNameIndex();
+        Assert.assertEquals(4, repository.findPackageNames("com.acme.*")
+                .size());
+    }
+
+    private void testQueries(final StorageMode mode) {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                mode);
+        populate(repository);
+
+        Assert.assertEquals(Arrays.asList(NAMES), repository
+                .findPackageNames("*"));
+        Assert.assertEquals(Arrays.asList("com.acme.api", "com.acme.api.spi",
+                "com.acme.impl"), repository.findPackageNames("com.acme.*"));
+        Assert.assertEquals(Arrays.asList("com.acme", "com.acme.api",
+                "com.acme.api.spi", "com.acme.impl", "com.acmex.api"),
+                repository.findPackageNames("com.acme*"));
+        Assert.assertEquals(Arrays.asList("com.acme.api", "com.acmex.api",
+                "org.acme.api"), repository.findPackageNames("*.api"));
+        Assert.assertEquals(Arrays.asList("com.acme.api", "com.acme.api.spi",
+                "com.acmex.api"), repository.findPackageNames("com.*.api*"));
+        Assert.assertEquals(Arrays.asList("com.acme.api.spi"), repository
+                .findPackageNames("com.*.spi"));
+        Assert.assertEquals(Arrays.asList("com.acme"), repository
+                .findPackageNames("com.acme"));
+        Assert.assertTrue(repository.findPackageNames("com.acme.none")
+                .isEmpty());
+        Assert.assertTrue(repository.findPackageNames("net.*").isEmpty());
+    }
+
+    private void populate(final Repository repository) {
+        final RepositoryBatch batch = repository.beginBatch();
+        for (int i = NAMES.length - 1; i >= 0; i--) {
+            batch.merge(makePackage(NAMES[i]));
+        }
+        batch.commit();
+    }
+
+    private Package makePackage(final String name) {
+        final Package thePackage = new Package(name);
+        thePackage.addArtifact(new VersionNumber("1.0"), new Artifact(
+                "org.example", "example-jar", new VersionNumber("1.0")));
+        return thePackage;
+    }
+}
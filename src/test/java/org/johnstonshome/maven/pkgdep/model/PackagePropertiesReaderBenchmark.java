@@ -0,0 +1,86 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * Compares the time taken to load a package file written as properties
+ * through {@link Properties} and through {@link PackagePropertiesReader}.
+ * This is not a test, run it by hand with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.johnstonshome.maven.pkgdep.model.PackagePropertiesReaderBenchmark [versions]
+ * </pre>
+ *
+ * The file is held in memory, so only the parsing is measured.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class PackagePropertiesReaderBenchmark {
+
+    private static final String NAME   = "com.example.api"; //$NON-NLS-1$
+    private static final int    LOADS  = 2000;
+    private static final int    ROUNDS = 5;
+
+    private PackagePropertiesReaderBenchmark() {
+        // not constructed
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args
+     *            optionally, the number of versions in the package.
+     * @throws IOException
+     *             never, the file is in memory.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int versions = args.length > 0 ? Integer.parseInt(args[0])
+                : 100;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes);
+        PackageCodecTest.makeNightlyPackage(NAME, versions).toProperties()
+                .store(writer, null);
+        writer.flush();
+        final byte[] content = bytes.toByteArray();
+        System.out.println(String.format("%d versions: %,d bytes", Integer
+                .valueOf(versions), Integer.valueOf(content.length)));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                final Properties loaded = new Properties();
+                loaded.load(new InputStreamReader(new ByteArrayInputStream(
+                        content)));
+                found += new Package(NAME, loaded).getVersions().size();
+            }
+            final long legacy = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                found += PackagePropertiesReader.read(NAME, content)
+                        .getVersions().size();
+            }
+            final long streamed = System.nanoTime() - start;
+            System.out.println(String.format(
+                    "load: properties %,7d ns, streamed %,7d ns (%d)", Long
+                            .valueOf(legacy / LOADS), Long.valueOf(streamed
+                            / LOADS), Long.valueOf(found)));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link PackagePropertiesReader}, each file is also loaded
+ * into {@link Properties} to check both read the same package.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class PackagePropertiesReaderTest {
+
+    private static final String NAME = "com.example.api";
+
+    @Test
+    public void testWrittenFile() throws Exception {
+        final Package test = PackageCodecTest.makeNightlyPackage(50);
+        test.addArtifact(new VersionNumber("1.0"), new Artifact("org.example",
+                "example-jar", new VersionNumber("1.0")));
+        test.addArtifact(new VersionNumber("1.0"), new Artifact("org.example",
+                "example-impl", new VersionNumber("2.0.1-SNAPSHOT")));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes);
+        test.toProperties().store(writer, "Internal file, do not edit");
+        writer.flush();
+
+        final Package read = PackagePropertiesReader.read(NAME, bytes
+                .toByteArray());
+        Assert.assertEquals(NAME, read.getName());
+        assertSamePackage(test, read);
+        assertSameAsProperties(bytes.toString());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Assert.assertTrue(read("").getVersions().isEmpty());
+        Assert.assertTrue(read("#comment\n\n   \n!another\n").getVersions()
+                .isEmpty());
+    }
+
+    @Test
+    public void testSeparatorsAndWhiteSpace() throws Exception {
+        assertSameAsProperties("1.0=org.example\\:example-jar\\:1.0\n");
+        assertSameAsProperties("1.0:org.example:example-jar:1.0\r\n"
+                + "  2.0 = org.example:example-jar:2.0\r"
+                + "\t3.0 org.example:example-jar:3.0\n"
+                + "4.0\f:\f org.example:example-jar:4.0");
+        assertSameAsProperties("1.0=org.example:example-jar:1.0,,,\n"
+                + "2.0=org.example:example-jar:2.0::,"
+                + "org.example:example-impl:2.0\n");
+    }
+
+    @Test
+    public void testContinuationsAndComments() throws Exception {
+        assertSameAsProperties("# a comment\\\n"
+                + "1.0=org.example:example-jar:1.0,\\\n"
+                + "    org.example:example-impl:1.0\n"
+                + "! another\n"
+                + "2.0=org.example:example-jar:2.0,\\\r\n"
+                + "   #org.example:example-impl:2.0\n");
+        assertSameAsProperties("2.0=org.example:example-jar:2.0\\");
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        assertSameAsProperties("1.0=org.\\u0065xample:example\\-jar:1.0\n"
+                + "\\u0032.0=org.example:example-jar:2.0\n");
+        try {
+            read("1.0=org.example:example-jar:1.0\\u00");
+            Assert.fail("Should not read a short unicode escape");
+        } catch (IllegalArgumentException ex) {
+            // ignore, success
+        }
+        try {
+            read("1.0=org.example:example-jar:1.0\\u00g0");
+            Assert.fail("Should not read a bad unicode escape");
+        } catch (IllegalArgumentException ex) {
+            // ignore, success
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        for (final String content : new String[] { "1.0=\n",
+                "1.0=org.example:example-jar\n",
+                "1.0=org.example:example-jar:1.0:1\n",
+                "one=org.example:example-jar:1.0\n" }) {
+            try {
+                read(content);
+                Assert.fail("Should not read " + content);
+            } catch (IllegalArgumentException ex) {
+                // ignore, success
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedVersion() throws Exception {
+        final String content = "1.0=org.example:example-jar:1.0\n"
+                + "1.0=org.example:example-impl:1.0\n";
+        Assert.assertNull(PackagePropertiesReader.read(NAME,
+                new StringReader(content)));
+        /*
+         * The last value wins, as it does for properties.
+         */
+        final Package read = PackagePropertiesReader.read(NAME, content
+                .getBytes());
+        Assert.assertEquals("[org.example:example-impl:1.0]", read.resolve(
+                new VersionNumber("1.0")).toString());
+        assertSameAsProperties(content);
+    }
+
+    private static Package read(final String content) throws IOException {
+        return PackagePropertiesReader.read(NAME, new StringReader(content));
+    }
+
+    private static void assertSameAsProperties(final String content)
+            throws IOException {
+        final Properties properties = new Properties();
+        properties.load(new InputStreamReader(new ByteArrayInputStream(
+                content.getBytes())));
+        assertSamePackage(new Package(NAME, properties),
+                PackagePropertiesReader.read(NAME, content.getBytes()));
+    }
+
+    private static void assertSamePackage(final Package expected,
+            final Package actual) {
+        Assert.assertEquals(new ArrayList<VersionNumber>(expected
+                .getVersions()), new ArrayList<VersionNumber>(actual
+                .getVersions()));
+        for (final VersionNumber version : expected.getVersions()) {
+            Assert.assertEquals(expected.resolve(version), actual
+                    .resolve(version));
+        }
+    }
+}
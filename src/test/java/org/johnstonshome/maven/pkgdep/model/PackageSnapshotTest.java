@@ -0,0 +1,152 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link PackageSnapshot}.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public class PackageSnapshotTest {
+
+    @Rule
+    public TemporaryFolder      folder = new TemporaryFolder();
+
+    private static final String NAME   = "com.example.api";
+
+    @Test
+    public void testAddLeavesOriginal() {
+        final PackageSnapshot empty = new PackageSnapshot(NAME);
+        final PackageSnapshot first = empty.addArtifact(version("1.0"),
+                artifact("1.0"));
+        final PackageSnapshot second = first.addArtifact(version("2.0"),
+                artifact("2.0"));
+        try {
+            empty.getLatestVersion();
+            Assert.fail("Should not have a latest version");
+        } catch (NoSuchElementException ex) {
+            // ignore, success
+        }
+        Assert.assertEquals("[1.0]", first.getVersions().toString());
+        Assert.assertEquals("[1.0, 2.0]", second.getVersions().toString());
+        Assert.assertEquals("2.0", second.getLatestVersion().toString());
+
+        /*
+         * The unchanged version shares its artifacts, and adding an artifact
+         * already present changes nothing.
+         */
+        Assert.assertSame(first.resolve(version("1.0")), second
+                .resolve(version("1.0")));
+        Assert.assertSame(second, second.addArtifact(version("2.0"),
+                artifact("2.0")));
+    }
+
+    @Test
+    public void testReadOnly() {
+        final PackageSnapshot test = new PackageSnapshot(NAME).addArtifact(
+                version("1.0"), artifact("1.0"));
+        try {
+            test.resolve(version("1.0")).add(artifact("2.0"));
+            Assert.fail("Should not allow changes to the artifacts");
+        } catch (UnsupportedOperationException ex) {
+            // ignore, success
+        }
+        try {
+            test.getVersions().add(version("2.0"));
+            Assert.fail("Should not allow changes to the versions");
+        } catch (UnsupportedOperationException ex) {
+            // ignore, success
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final Package test = new Package(NAME);
+        test.addArtifact(version("1.0"), artifact("1.0"));
+        test.addArtifact(version("2.0"), artifact("2.0"));
+        final Package other = new Package(NAME);
+        other.addArtifact(version("1.5"), artifact("1.5"));
+        other.addArtifact(version("2.0"), artifact("2.1"));
+
+        final PackageSnapshot snapshot = test.snapshot();
+        final PackageSnapshot merged = snapshot.merge(other.snapshot());
+        Assert.assertEquals("[1.0, 1.5, 2.0]", merged.getVersions()
+                .toString());
+        Assert.assertEquals(2, merged.resolve(version("2.0")).size());
+        Assert.assertSame(snapshot.resolve(version("1.0")), merged
+                .resolve(version("1.0")));
+        Assert.assertEquals(1, snapshot.resolve(version("2.0")).size());
+
+        /*
+         * Merging what is already there returns the same snapshot.
+         */
+        Assert.assertSame(merged, merged.merge(snapshot));
+        Assert.assertSame(merged, merged.merge(new PackageSnapshot(NAME)));
+
+        test.merge(other);
+        Assert.assertEquals(test.getVersions(), merged.toPackage()
+                .getVersions());
+        Assert.assertEquals(test.resolve(new VersionRange("[1.0,2.0)")),
+                merged.resolve(new VersionRange("[1.0,2.0)")));
+        Assert.assertEquals(test.resolve(new VersionRange("(1.0,2.0]")),
+                merged.resolve(new VersionRange("(1.0,2.0]")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeOtherPackage() {
+        new PackageSnapshot(NAME).merge(new PackageSnapshot("com.example"));
+    }
+
+    @Test
+    public void testSnapshotIsCopy() {
+        final Package test = new Package(NAME);
+        test.addArtifact(version("1.0"), artifact("1.0"));
+        final PackageSnapshot snapshot = test.snapshot();
+        test.addArtifact(version("1.0"), artifact("1.1"));
+        test.addArtifact(version("2.0"), artifact("2.0"));
+        Assert.assertEquals(1, snapshot.getVersions().size());
+        Assert.assertEquals(1, snapshot.resolve(version("1.0")).size());
+    }
+
+    @Test
+    public void testSharedByCache() {
+        final Repository repository = new Repository(this.folder.getRoot());
+        repository.setCache(new PackageCache(10, 0));
+        final Package test = new Package(NAME);
+        test.addArtifact(version("1.0"), artifact("1.0"));
+        repository.writePackage(test);
+
+        final PackageSnapshot snapshot = repository.readSnapshot(NAME);
+        Assert.assertSame(snapshot, repository.readSnapshot(NAME));
+
+        test.addArtifact(version("2.0"), artifact("2.0"));
+        repository.writePackage(test);
+        Assert.assertEquals(1, snapshot.getVersions().size());
+        Assert.assertEquals(2, repository.readSnapshot(NAME).getVersions()
+                .size());
+    }
+
+    private VersionNumber version(final String version) {
+        return new VersionNumber(version);
+    }
+
+    private Artifact artifact(final String version) {
+        return new Artifact("org.example", "example-jar", new VersionNumber(
+                version));
+    }
+}
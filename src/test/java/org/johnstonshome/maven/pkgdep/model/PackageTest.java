@@ -0,0 +1,155 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.SortedSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link Package}.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public class PackageTest {
+
+    @Test
+    public void testVersionsSorted() {
+        final Package test = makePackage("2.0", "1.0", "1.10", "1.2-BETA",
+                "1.2");
+        final SortedSet<VersionNumber> versions = test.getVersions();
+        Assert.assertEquals("[1.0, 1.2, 1.2-BETA, 1.10, 2.0]", versions
+                .toString());
+        Assert.assertEquals("2.0", test.getLatestVersion().toString());
+
+        /*
+         * A read-only view, that sees later additions.
+         */
+        try {
+            versions.add(new VersionNumber("3.0"));
+            Assert.fail("Should not allow changes through the view");
+        } catch (UnsupportedOperationException ex) {
+            // ignore, success
+        }
+        add(test, "3.0");
+        Assert.assertEquals(6, versions.size());
+        Assert.assertEquals("3.0", test.getLatestVersion().toString());
+        add(test, "2.5");
+        Assert.assertEquals("3.0", test.getLatestVersion().toString());
+    }
+
+    @Test
+    public void testLatestVersionEmpty() {
+        try {
+            new Package("com.example.api").getLatestVersion();
+            Assert.fail("Should not have a latest version");
+        } catch (NoSuchElementException ex) {
+            // ignore, success
+        }
+    }
+
+    @Test
+    public void testEqualButDistinctVersions() {
+        /*
+         * 1.0.0 and 1.0.0.0 compare the same but are not equal.
+         */
+        final Package test = makePackage("1.0.0", "1.0.0.0", "0.9", "1.1");
+        Assert.assertEquals(4, test.getVersions().size());
+        Assert.assertEquals(3, test.resolve(new VersionRange("[1.0,1.1]"))
+                .size());
+        Assert.assertEquals(2, test.resolve(new VersionRange("[1.0.0.0,1.1)"))
+                .size());
+        Assert.assertEquals(1, test.resolve(new VersionRange("[0.9,1.0.0.0)"))
+                .size());
+        Assert.assertEquals(1, test.resolve(new VersionRange("(1.0.0.0,1.1]"))
+                .size());
+        Assert.assertEquals(Arrays.asList(artifact("0.9")), Arrays
+                .asList(test.resolve(new VersionRange("[0.1,1.0)")).toArray()));
+    }
+
+    @Test
+    public void testProperties() {
+        final Package test = makePackage("1.0", "1.1", "2.0");
+        final Properties properties = test.toProperties();
+        final Package copy = new Package(test.getName(), properties);
+        Assert.assertEquals(test.getVersions(), copy.getVersions());
+        Assert.assertEquals(test.resolve(new VersionNumber("1.1")), copy
+                .resolve(new VersionNumber("1.1")));
+        Assert.assertEquals("2.0", copy.getLatestVersion().toString());
+    }
+
+    @Test
+    public void testMerge() {
+        final Package test = makePackage("1.0", "2.0");
+        final Package other = makePackage("1.5", "3.0");
+        other.addArtifact(new VersionNumber("1.0"), new Artifact(
+                "org.example", "other-jar", new VersionNumber("1.0")));
+        Assert.assertTrue(test.merge(other));
+        Assert.assertEquals(4, test.getVersions().size());
+        Assert.assertEquals(2, test.resolve(new VersionNumber("1.0")).size());
+        Assert.assertEquals("3.0", test.getLatestVersion().toString());
+        Assert.assertFalse(test.merge(other));
+        Assert.assertFalse(test.merge(makePackage("1.0", "2.0")));
+    }
+
+    @Test
+    public void testChanged() {
+        final Package test = makePackage("1.0");
+        Assert.assertFalse(test.addArtifact(new VersionNumber("1.0"),
+                artifact("1.0")));
+        Assert.assertTrue(test.addArtifact(new VersionNumber("1.0"),
+                artifact("1.1")));
+        Assert.assertTrue(test.addArtifact(new VersionNumber("1.0.0.0"),
+                artifact("1.0")));
+
+        final Package compact = new Package("com.example.api", 0);
+        Assert.assertTrue(compact.addArtifact(new VersionNumber("1.0"),
+                artifact("1.0")));
+        Assert.assertFalse(compact.addArtifact(new VersionNumber("1.0"),
+                artifact("1.0")));
+        Assert.assertTrue(compact.addArtifact(new VersionNumber("1.0"),
+                artifact("1.1")));
+        Assert.assertFalse(compact.addArtifact(new VersionNumber("1.0"),
+                artifact("1.1")));
+    }
+
+    @Test
+    public void testSameContent() {
+        final Package test = makePackage("1.0", "2.0");
+        Assert.assertTrue(test.hasSameContent(makePackage("2.0", "1.0")));
+        Assert.assertFalse(test.hasSameContent(makePackage("1.0")));
+        Assert.assertFalse(test.hasSameContent(makePackage("1.0", "2.0.0")));
+        final Package other = makePackage("1.0", "2.0");
+        other.addArtifact(new VersionNumber("2.0"), artifact("1.0"));
+        Assert.assertFalse(test.hasSameContent(other));
+    }
+
+    private Package makePackage(final String... versions) {
+        final Package thePackage = new Package("com.example.api");
+        for (final String version : versions) {
+            add(thePackage, version);
+        }
+        return thePackage;
+    }
+
+    private void add(final Package thePackage, final String version) {
+        thePackage.addArtifact(new VersionNumber(version), artifact(version));
+    }
+
+    private Artifact artifact(final String version) {
+        return new Artifact("org.example", "example-jar", new VersionNumber(
+                version));
+    }
+}
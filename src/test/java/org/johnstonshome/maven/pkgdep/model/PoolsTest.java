@@ -0,0 +1,150 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the value pools in {@link Pools}, including the memory
+ * saved when loading a large repository.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class PoolsTest {
+
+    private static final int PACKAGES  = 50000;
+    private static final int BUNDLES   = 250;
+
+    /*
+     * Rough shallow sizes, in bytes, of the pooled objects.
+     */
+    private static final int VERSION_BYTES  = 40;
+    private static final int ARTIFACT_BYTES = 32;
+    private static final int STRING_BYTES   = 56;
+
+    @Before
+    public void empty() {
+        Pools.clear();
+    }
+
+    @After
+    public void restore() {
+        Pools.setEnabled(true);
+    }
+
+    @Test
+    public void testIdenticalOnly() {
+        final VersionNumber first = Pools.version(new VersionNumber("1.0"));
+        Assert.assertSame(first, Pools.version(new VersionNumber("1.0")));
+
+        /*
+         * Equal, but prints differently, so must not be shared.
+         */
+        final VersionNumber longer = new VersionNumber("1.0.0");
+        Assert.assertSame(longer, Pools.version(longer));
+        Assert.assertEquals("1.0.0", Pools.version(new VersionNumber("1.0.0"))
+                .toString());
+
+        final Artifact artifact = Pools.artifact("org.example", "example-jar",
+                new VersionNumber("2.1"));
+        Assert.assertSame(artifact, Pools.artifact(new String("org.example"),
+                new String("example-jar"), new VersionNumber("2.1")));
+        Assert.assertEquals("org.example:example-jar:2.1.0", Pools.artifact(
+                "org.example", "example-jar", new VersionNumber("2.1.0"))
+                .toString());
+    }
+
+    @Test
+    public void testDisabled() {
+        Pools.setEnabled(false);
+        Assert.assertNotSame(Pools.version(new VersionNumber("1.0")), Pools
+                .version(new VersionNumber("1.0")));
+        Assert.assertNotSame(Pools.artifact("g", "a", new VersionNumber("1")),
+                Pools.artifact("g", "a", new VersionNumber("1")));
+    }
+
+    @Test
+    public void testRepositoryFootprint() {
+        final List<Properties> files = makeRepository();
+
+        Pools.setEnabled(false);
+        final long unpooled = footprint(load(files));
+        Pools.setEnabled(true);
+        final long pooled = footprint(load(files));
+
+        Assert.assertTrue(String.format(
+                "Footprint of %d packages: %d bytes unpooled, %d pooled",
+                Integer.valueOf(PACKAGES), Long.valueOf(unpooled), Long
+                        .valueOf(pooled)), pooled * 100 < unpooled);
+    }
+
+    /*
+     * Each of a number of bundles exports the same number of packages, every
+     * package in two versions.
+     */
+    private List<Properties> makeRepository() {
+        final List<Properties> files = new ArrayList<Properties>();
+        for (int i = 0; i < PACKAGES; i++) {
+            final int bundle = i % BUNDLES;
+            final Properties properties = new Properties();
+            properties.setProperty("1.0.0", String.format(
+                    "org.example:bundle-%d:2.1.0", Integer.valueOf(bundle)));
+            properties.setProperty("1.1.0", String.format(
+                    "org.example:bundle-%d:2.2.0,org.example:bundle-%d:2.2.1",
+                    Integer.valueOf(bundle), Integer.valueOf(bundle)));
+            files.add(properties);
+        }
+        return files;
+    }
+
+    private List<Package> load(final List<Properties> files) {
+        final List<Package> packages = new ArrayList<Package>();
+        for (int i = 0; i < files.size(); i++) {
+            packages.add(new Package("com.example.p" + i, files.get(i)));
+        }
+        return packages;
+    }
+
+    /*
+     * Estimate the memory held by the distinct versions, artifacts and IDs
+     * reachable from the packages.
+     */
+    private long footprint(final List<Package> packages) {
+        final Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        long bytes = 0;
+        for (final Package thePackage : packages) {
+            for (final VersionNumber version : thePackage.getVersions()) {
+                bytes += add(seen, version, VERSION_BYTES);
+                for (final Artifact artifact : thePackage.resolve(version)) {
+                    bytes += add(seen, artifact, ARTIFACT_BYTES);
+                    bytes += add(seen, artifact.getGroupId(), STRING_BYTES);
+                    bytes += add(seen, artifact.getArtifactId(), STRING_BYTES);
+                    bytes += add(seen, artifact.getVersion(), VERSION_BYTES);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private long add(final Map<Object, Object> seen, final Object value,
+            final int bytes) {
+        return seen.put(value, value) == null ? bytes : 0;
+    }
+}
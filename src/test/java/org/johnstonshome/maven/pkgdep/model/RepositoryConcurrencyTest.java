@@ -0,0 +1,275 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Stress tests for concurrent updates to a {@link Repository}, from many
+ * threads in this JVM and from several separate processes, one package at a
+ * time and in batches.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class RepositoryConcurrencyTest {
+
+    private static final String SHARED    = "com.example.shared";
+    private static final String OWN       = "com.example.writer";
+    private static final int    THREADS   = 8;
+    private static final int    PROCESSES = 3;
+    private static final int    UPDATES   = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPropertiesThreads() throws Exception {
+        testThreads(StorageMode.PROPERTIES, false);
+    }
+
+    @Test
+    public void testIndexThreads() throws Exception {
+        testThreads(StorageMode.INDEX, false);
+    }
+
+    @Test
+    public void testPropertiesProcesses() throws Exception {
+        testProcesses(StorageMode.PROPERTIES, false);
+    }
+
+    @Test
+    public void testIndexProcesses() throws Exception {
+        testProcesses(StorageMode.INDEX, false);
+    }
+
+    @Test
+    public void testPropertiesBatchThreads() throws Exception {
+        testThreads(StorageMode.PROPERTIES, true);
+    }
+
+    @Test
+    public void testIndexBatchThreads() throws Exception {
+        testThreads(StorageMode.INDEX, true);
+    }
+
+    @Test
+    public void testPropertiesBatchProcesses() throws Exception {
+        testProcesses(StorageMode.PROPERTIES, true);
+    }
+
+    @Test
+    public void testIndexBatchProcesses() throws Exception {
+        testProcesses(StorageMode.INDEX, true);
+    }
+
+    @Test
+    public void testPropertiesDisjointWriters() throws Exception {
+        testDisjointWriters(StorageMode.PROPERTIES);
+    }
+
+    @Test
+    public void testBinaryDisjointWriters() throws Exception {
+        testDisjointWriters(StorageMode.BINARY);
+    }
+
+    /**
+     * Entry point for each writer process.
+     *
+     * @param args
+     *            the repository root, storage mode, writer id, number of
+     *            updates and whether to update in batches.
+     */
+    public static void main(final String[] args) {
+        update(new File(args[0]), StorageMode.valueOf(args[1]), Integer
+                .parseInt(args[2]), Integer.parseInt(args[3]), Boolean
+                .parseBoolean(args[4]));
+    }
+
+    private void testThreads(final StorageMode mode, final boolean batch)
+            throws Exception {
+        final File root = this.folder.getRoot();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < THREADS; i++) {
+                final int writer = i;
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        update(root, mode, writer, UPDATES, batch);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        assertUpdates(mode, THREADS);
+    }
+
+    private void testProcesses(final StorageMode mode, final boolean batch)
+            throws Exception {
+        final String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        final List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < PROCESSES; i++) {
+            final ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"), getClass()
+                            .getName(), this.folder.getRoot().getPath(), mode
+                            .name(), Integer.toString(i), Integer
+                            .toString(UPDATES), Boolean.toString(batch));
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            processes.add(builder.start());
+        }
+        for (final Process process : processes) {
+            Assert.assertEquals(0, process.waitFor());
+        }
+        assertUpdates(mode, PROCESSES);
+    }
+
+    /*
+     * A writer of one package, part way through its commit, holds the locks
+     * for that package, its log and the store; a batch of other packages
+     * must still commit while a batch including that package waits.
+     */
+    private void testDisjointWriters(final StorageMode mode) throws Exception {
+        final File root = this.folder.getRoot();
+        final Repository first = new Repository(root, mode);
+        final Repository second = new Repository(root, mode);
+        first.writePackage(makePackage(SHARED, 0, 0));
+        final String other = disjoint(SHARED);
+
+        final RepositoryLocks locks = RepositoryLocks.forRoot(root);
+        final RepositoryLocks.Held packages = locks.lockPackages(Collections
+                .singleton(SHARED));
+        final RepositoryLocks.Held store = locks.lockStore();
+        final RepositoryLocks.Held logs = locks.lockLogs(Collections
+                .singleton(Integer.valueOf(RepositoryLocks.log(SHARED))));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Boolean> blocked = executor.submit(commit(first,
+                    SHARED, 1));
+            final Future<Boolean> disjoint = executor.submit(commit(second,
+                    other, 1));
+            Assert.assertTrue(disjoint.get(1, TimeUnit.MINUTES)
+                    .booleanValue());
+            Assert.assertFalse(blocked.isDone());
+
+            logs.release();
+            store.release();
+            packages.release();
+            Assert.assertTrue(blocked.get(1, TimeUnit.MINUTES)
+                    .booleanValue());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        final Repository reader = new Repository(root, mode);
+        Assert.assertEquals(2, reader.readPackage(SHARED).resolve(
+                new VersionNumber("1.0")).size());
+        Assert.assertEquals(1, reader.readPackage(other).resolve(
+                new VersionNumber("1.0")).size());
+        Assert.assertEquals(Collections.singletonList(other), reader
+                .findPackageNames(other));
+        Assert.assertTrue(reader.findPackages(
+                new Artifact("org.example", "writer-1", new VersionNumber(1,
+                        0, 0))).containsKey(other));
+    }
+
+    /*
+     * Return a package name that shares neither a stripe nor a log with the
+     * given one.
+     */
+    private static String disjoint(final String name) {
+        for (int i = 0;; i++) {
+            final String other = OWN + i;
+            if (RepositoryLocks.stripe(other) != RepositoryLocks.stripe(name)
+                    && RepositoryLocks.log(other) != RepositoryLocks.log(name)) {
+                return other;
+            }
+        }
+    }
+
+    private static Callable<Boolean> commit(final Repository repository,
+            final String name, final int writer) {
+        return new Callable<Boolean>() {
+            public Boolean call() {
+                final RepositoryBatch batch = repository.beginBatch();
+                batch.merge(makePackage(name, writer, 0));
+                return Boolean.valueOf(batch.commit());
+            }
+        };
+    }
+
+    /*
+     * Each writer adds one artifact per update to the shared package and to
+     * its own package, a lost update shows up as a missing artifact.
+     */
+    private static void update(final File root, final StorageMode mode,
+            final int writer, final int updates, final boolean batch) {
+        final Repository repository = new Repository(root, mode);
+        for (int i = 0; i < updates; i++) {
+            if (batch) {
+                final RepositoryBatch changes = repository.beginBatch();
+                changes.merge(makePackage(SHARED, writer, i));
+                changes.merge(makePackage(OWN + writer, writer, i));
+                Assert.assertTrue(changes.commit());
+            } else {
+                repository.updatePackage(makePackage(SHARED, writer, i));
+                repository.updatePackage(makePackage(OWN + writer, writer, i));
+            }
+        }
+    }
+
+    private void assertUpdates(final StorageMode mode, final int writers) {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                mode);
+        Assert.assertEquals(writers + 1, repository.getPackageNames().size());
+        final Package shared = repository.readPackage(SHARED);
+        Assert.assertEquals(writers * UPDATES, shared.resolve(
+                new VersionNumber("1.0")).size());
+        for (int i = 0; i < writers; i++) {
+            Assert.assertEquals(UPDATES, repository.readPackage(OWN + i)
+                    .resolve(new VersionNumber("1.0")).size());
+        }
+        for (final String name : this.folder.getRoot().list()) {
+            Assert.assertFalse(name
+                    .startsWith(FilePackageStore.JOURNAL_PREFIX));
+        }
+    }
+
+    private static Package makePackage(final String name, final int writer,
+            final int update) {
+        final Package thePackage = new Package(name);
+        thePackage.addArtifact(new VersionNumber("1.0"), new Artifact(
+                "org.example", "writer-" + writer, new VersionNumber(1, 0,
+                        update)));
+        return thePackage;
+    }
+}
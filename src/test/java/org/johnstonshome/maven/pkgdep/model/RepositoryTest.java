@@ -0,0 +1,393 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link Repository}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class RepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Artifact first  = new Artifact("org.example",
+                                          "example-jar",
+                                          new VersionNumber("2.1"));
+    private final Artifact second = new Artifact("org.example",
+                                          "example-impl",
+                                          new VersionNumber("2.1.1-SNAPSHOT"));
+
+    @Test
+    public void testPropertiesRoundTrip() throws Exception {
+        testRoundTrip(new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES));
+    }
+
+    @Test
+    public void testIndexRoundTrip() throws Exception {
+        testRoundTrip(new Repository(this.folder.getRoot(), StorageMode.INDEX));
+        Assert.assertTrue(new File(this.folder.getRoot(),
+                IndexPackageStore.INDEX_FILE).isFile());
+    }
+
+    @Test
+    public void testIndexImportsProperties() throws Exception {
+        final Repository files = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        files.writePackage(makePackage("com.example.api"));
+        files.writePackage(makePackage("com.example.model"));
+
+        final Repository index = new Repository(this.folder.getRoot(),
+                StorageMode.INDEX);
+        Assert.assertEquals(2, index.getPackageNames().size());
+        assertPackage(index.readPackage("com.example.model"));
+        Assert.assertNull(index.readPackage("com.example.none"));
+    }
+
+    @Test
+    public void testIndexNotOpenedAsFiles() throws Exception {
+        final Repository index = new Repository(this.folder.getRoot(),
+                StorageMode.INDEX);
+        index.writePackage(makePackage("com.example.api"));
+        try {
+            new Repository(this.folder.getRoot(), StorageMode.PROPERTIES);
+            Assert.fail("Opened an index with storage mode PROPERTIES");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        new Repository(this.folder.getRoot(), StorageMode.INDEX);
+    }
+
+    @Test
+    public void testFilesOpenedInEitherMode() throws Exception {
+        final Repository files = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        files.writePackage(makePackage("com.example.api"));
+        assertPackage(new Repository(this.folder.getRoot(),
+                StorageMode.BINARY).readPackage("com.example.api"));
+        assertPackage(new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES).readPackage("com.example.api"));
+    }
+
+    @Test
+    public void testIndexSeesOtherWriter() throws Exception {
+        final Repository reader = new Repository(this.folder.getRoot(),
+                StorageMode.INDEX);
+        Assert.assertTrue(reader.getPackageNames().isEmpty());
+
+        final Repository writer = new Repository(this.folder.getRoot(),
+                StorageMode.INDEX);
+        writer.writePackage(makePackage("com.example.api"));
+
+        Assert.assertEquals(1, reader.getPackageNames().size());
+        assertPackage(reader.readPackage("com.example.api"));
+    }
+
+    @Test
+    public void testPropertiesBatch() throws Exception {
+        testBatch(new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES));
+        for (final String name : this.folder.getRoot().list()) {
+            Assert.assertFalse(name
+                    .startsWith(FilePackageStore.JOURNAL_PREFIX));
+        }
+    }
+
+    @Test
+    public void testIndexBatch() throws Exception {
+        testBatch(new Repository(this.folder.getRoot(), StorageMode.INDEX));
+    }
+
+    @Test
+    public void testUnchangedNotWritten() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.api"));
+        final File file = new File(this.folder.getRoot(), "com.example.api");
+        Assert.assertTrue(file.setLastModified(1000L));
+
+        final RepositoryBatch batch = repository.beginBatch();
+        batch.merge(makePackage("com.example.api"));
+        batch.merge(makePackage("com.example.model"));
+        Assert.assertTrue(batch.commit());
+        repository.writePackage(makePackage("com.example.api"));
+        Assert.assertEquals(1000L, file.lastModified());
+        Assert.assertEquals(2, repository.getPackagesWritten());
+        Assert.assertEquals(2, repository.getPackagesSkipped());
+
+        final Package added = new Package("com.example.api");
+        added.addArtifact(new VersionNumber("3.0"), this.first);
+        repository.updatePackage(added);
+        Assert.assertTrue(file.lastModified() != 1000L);
+        Assert.assertEquals(3, repository.getPackagesWritten());
+        Assert.assertEquals(2, repository.getPackagesSkipped());
+        Assert.assertEquals("[1.0, 3.0]", repository.findPackages(this.first)
+                .get("com.example.api").toString());
+    }
+
+    @Test
+    public void testPropertiesJournalRecovery() throws Exception {
+        final Properties properties = makePackage("com.example.api")
+                .toProperties();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        properties.store(content, null);
+
+        writeJournal("com.example.api", new byte[0], content.toByteArray());
+
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        Assert.assertEquals(1, repository.getPackageNames().size());
+        assertPackage(repository.readPackage("com.example.api"));
+        Assert.assertFalse(new File(this.folder.getRoot(),
+                FilePackageStore.JOURNAL_PREFIX + "1").exists());
+    }
+
+    @Test
+    public void testJournalRecoveryKeepsNewer() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        repository.writePackage(makePackage("com.example.api"));
+        final File packageFile = new File(this.folder.getRoot(),
+                "com.example.api");
+        final byte[] before = Files.readAllBytes(packageFile.toPath());
+        final Package newer = makePackage("com.example.api");
+        newer.addArtifact(new VersionNumber("3.0"), this.first);
+        repository.writePackage(newer);
+
+        /*
+         * A journal replacing the package as it was before it was written
+         * again, whatever the times of the files.
+         */
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        makePackage("com.example.api").toProperties().store(content, null);
+        writeJournal("com.example.api", before, content.toByteArray());
+        Assert.assertTrue(packageFile.setLastModified(0));
+
+        final Repository recovered = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        Assert.assertEquals(3, recovered.readPackage("com.example.api")
+                .getVersions().size());
+        Assert.assertFalse(new File(this.folder.getRoot(),
+                FilePackageStore.JOURNAL_PREFIX + "1").exists());
+    }
+
+    @Test
+    public void testRecoveryRemovesOrphans() throws Exception {
+        final File orphan = this.folder.newFile(".com.example.api123.tmp");
+        final File journal = this.folder.newFile(
+                FilePackageStore.JOURNAL_PREFIX + "456.tmp");
+        final File live = this.folder.newFile(".com.example.model789.tmp");
+        final long old = System.currentTimeMillis()
+                - 2 * FilePackageStore.ORPHAN_AGE;
+        Assert.assertTrue(orphan.setLastModified(old));
+        Assert.assertTrue(journal.setLastModified(old));
+
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        Assert.assertTrue(repository.getPackageNames().isEmpty());
+        Assert.assertFalse(orphan.exists());
+        Assert.assertFalse(journal.exists());
+        Assert.assertTrue(live.exists());
+    }
+
+    @Test
+    public void testPropertiesWalk() throws Exception {
+        testWalk(new Repository(this.folder.getRoot(), StorageMode.PROPERTIES));
+    }
+
+    @Test
+    public void testIndexWalk() throws Exception {
+        testWalk(new Repository(this.folder.getRoot(), StorageMode.INDEX));
+    }
+
+    @Test
+    public void testParallelWalk() throws Exception {
+        final Repository repository = new Repository(this.folder.getRoot(),
+                StorageMode.PROPERTIES);
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            final String name = "com.example.p" + (i * 7919 % 1009);
+            repository.writePackage(makePackage(name));
+            expected.add(name);
+        }
+        Collections.sort(expected);
+        expected.add("end");
+
+        final Thread caller = Thread.currentThread();
+        final List<String> events = new ArrayList<String>();
+        repository.walkRepository(new RepositoryWalker() {
+            public void startRepository(final String location) {
+            }
+
+            public void endRepository() {
+                events.add("end");
+            }
+
+            public void startPackage(final String name) {
+                Assert.assertSame(caller, Thread.currentThread());
+                events.add(name);
+            }
+
+            public void endPackage(final String name) {
+            }
+
+            public void startPackageVersion(final VersionNumber version) {
+            }
+
+            public void endPackageVersion(final VersionNumber version) {
+            }
+
+            public void artifact(final String groupId,
+                    final String artifactId, final VersionNumber version) {
+                Assert.assertSame(caller, Thread.currentThread());
+            }
+        }, 4);
+        Assert.assertEquals(expected, events);
+    }
+
+    private void testWalk(final Repository repository) {
+        repository.writePackage(makePackage("com.example.util"));
+        repository.writePackage(makePackage("com.example.api"));
+        repository.writePackage(makePackage("com.example.model"));
+
+        final List<String> events = new ArrayList<String>();
+        final Set<String> artifacts = new HashSet<String>();
+        repository.walkRepository(new RepositoryWalker() {
+            public void startRepository(final String location) {
+            }
+
+            public void endRepository() {
+                events.add("end");
+            }
+
+            public void startPackage(final String name) {
+                events.add(name);
+            }
+
+            public void endPackage(final String name) {
+            }
+
+            public void startPackageVersion(final VersionNumber version) {
+            }
+
+            public void endPackageVersion(final VersionNumber version) {
+            }
+
+            public void artifact(final String groupId,
+                    final String artifactId, final VersionNumber version) {
+                artifacts.add(groupId + ":" + artifactId);
+            }
+        }, true);
+        Assert.assertEquals(Arrays.asList("com.example.api",
+                "com.example.model", "com.example.util", "end"), events);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(
+                "org.example:example-jar", "org.example:example-impl")),
+                artifacts);
+    }
+
+    private void testBatch(final Repository repository) {
+        repository.writePackage(makePackage("com.example.api"));
+
+        final RepositoryBatch batch = repository.beginBatch();
+        final Package added = new Package("com.example.api");
+        added.addArtifact(new VersionNumber("3.0"), this.first);
+        batch.merge(added);
+        batch.merge(makePackage("com.example.model"));
+        batch.merge(makePackage("com.example.util"));
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals(1, repository.getPackageNames().size());
+
+        batch.commit();
+        Assert.assertEquals(0, batch.size());
+        Assert.assertEquals(3, repository.getPackageNames().size());
+        Assert.assertEquals(3, repository.readPackage("com.example.api")
+                .getVersions().size());
+        assertPackage(repository.readPackage("com.example.util"));
+
+        batch.merge(makePackage("com.example.impl"));
+        batch.rollback();
+        batch.commit();
+        Assert.assertNull(repository.readPackage("com.example.impl"));
+    }
+
+    private void testRoundTrip(final Repository repository) {
+        Assert.assertTrue(repository.getPackageNames().isEmpty());
+        Assert.assertNull(repository.readPackage("com.example.api"));
+
+        repository.writePackage(makePackage("com.example.api"));
+        repository.writePackage(makePackage("com.example.model"));
+        Assert.assertEquals(2, repository.getPackageNames().size());
+        Assert.assertTrue(repository.getPackageNames().contains(
+                "com.example.api"));
+        assertPackage(repository.readPackage("com.example.api"));
+
+        final Package updated = repository.readPackage("com.example.api");
+        updated.addArtifact(new VersionNumber("1.1"), this.first);
+        repository.writePackage(updated);
+        Assert.assertEquals(3, repository.readPackage("com.example.api")
+                .getVersions().size());
+        assertPackage(repository.readPackage("com.example.model"));
+    }
+
+    /*
+     * Write a journal, as left by a crash, replacing one package file.
+     */
+    private void writeJournal(final String name, final byte[] before,
+            final byte[] content) throws Exception {
+        final DataOutputStream journal = new DataOutputStream(
+                new FileOutputStream(new File(this.folder.getRoot(),
+                        FilePackageStore.JOURNAL_PREFIX + "1")));
+        journal.writeInt(1);
+        journal.writeUTF(name);
+        journal.write(MessageDigest.getInstance("SHA-1").digest(before));
+        journal.writeInt(content.length);
+        journal.write(content);
+        journal.close();
+    }
+
+    private Package makePackage(final String name) {
+        final Package thePackage = new Package(name);
+        thePackage.addArtifact(new VersionNumber("1.0"), this.first);
+        thePackage.addArtifact(new VersionNumber("1.0"), this.second);
+        thePackage.addArtifact(new VersionNumber("2.0"), this.second);
+        return thePackage;
+    }
+
+    private void assertPackage(final Package thePackage) {
+        Assert.assertNotNull(thePackage);
+        Assert.assertEquals(2, thePackage.getVersions().size());
+        Assert.assertEquals(2, thePackage.resolve(new VersionNumber("1.0"))
+                .size());
+        Assert.assertTrue(thePackage.resolve(new VersionNumber("2.0"))
+                .contains(this.second));
+    }
+}
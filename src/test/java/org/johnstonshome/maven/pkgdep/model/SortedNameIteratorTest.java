@@ -0,0 +1,93 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for {@link SortedNameIterator} and {@link DirectoryNameIterator}.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public class SortedNameIteratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testInMemory() throws Exception {
+        final List<String> names = makeNames(10);
+        assertSorted(names, new SortedNameIterator(new NameCollectionIterator(
+                names), 100));
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        final List<String> names = makeNames(100);
+        assertSorted(names, new SortedNameIterator(new NameCollectionIterator(
+                names), 7));
+    }
+
+    @Test
+    public void testExactChunks() throws Exception {
+        final List<String> names = makeNames(12);
+        assertSorted(names, new SortedNameIterator(new NameCollectionIterator(
+                names), 4));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertSorted(new ArrayList<String>(), new SortedNameIterator(
+                new NameCollectionIterator(new ArrayList<String>()), 4));
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        final List<String> names = makeNames(20);
+        for (final String name : names) {
+            this.folder.newFile(name);
+        }
+        this.folder.newFile(".index");
+        this.folder.newFolder(".locks");
+        assertSorted(names, new SortedNameIterator(new DirectoryNameIterator(
+                this.folder.getRoot()), 6));
+    }
+
+    private void assertSorted(final List<String> names,
+            final PackageNameIterator iterator) throws Exception {
+        final List<String> expected = new ArrayList<String>(names);
+        Collections.sort(expected);
+        final List<String> actual = new ArrayList<String>();
+        try {
+            while (iterator.hasNext()) {
+                actual.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    private List<String> makeNames(final int count) {
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            names.add("com.example.p" + (i * 7919 % 1009));
+        }
+        return names;
+    }
+}
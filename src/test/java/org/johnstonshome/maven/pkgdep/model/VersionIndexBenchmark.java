@@ -0,0 +1,152 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Random;
+
+/**
+ * Compares the memory used by, and the speed of queries on, packages with
+ * many versions held in a {@link TreeVersionIndex} and in an
+ * {@link ArrayVersionIndex}. This is not a test, run it by hand with the test
+ * classpath:
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.johnstonshome.maven.pkgdep.model.VersionIndexBenchmark [versions]
+ * </pre>
+ * 
+ * Each package models a project publishing a nightly build, so each version
+ * is a numbered release with a date-stamped qualifier.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public final class VersionIndexBenchmark {
+
+    private static final int    PACKAGES = 50;
+    private static final int    QUERIES  = 200000;
+    private static final int    ROUNDS   = 5;
+    private static final String NAME     = "com.example.nightly"; //$NON-NLS-1$
+
+    private VersionIndexBenchmark() {
+        // not constructed
+    }
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            optionally, the number of versions in each package.
+     */
+    public static void main(final String[] args) {
+        final int versions = args.length > 0 ? Integer.parseInt(args[0])
+                : 5000;
+        final VersionNumber[] all = makeVersions(versions);
+        final Artifact[] artifacts = makeArtifacts(versions);
+        final VersionRange[] ranges = makeRanges(all);
+        System.out.println(String.format(
+                "%d packages of %d versions, %d queries per round",
+                Integer.valueOf(PACKAGES), Integer.valueOf(versions), Integer
+                        .valueOf(QUERIES)));
+        for (int round = 0; round < ROUNDS; round++) {
+            run("tree   ", Integer.MAX_VALUE, all, artifacts, ranges);
+            run("compact", 0, all, artifacts, ranges);
+        }
+    }
+
+    private static void run(final String label, final int threshold,
+            final VersionNumber[] all, final Artifact[] artifacts,
+            final VersionRange[] ranges) {
+        final long before = usedMemory();
+        long start = System.nanoTime();
+        final Package[] packages = new Package[PACKAGES];
+        for (int i = 0; i < PACKAGES; i++) {
+            packages[i] = new Package(NAME, threshold);
+            for (int j = 0; j < all.length; j++) {
+                packages[i].addArtifact(new VersionNumber(all[j].toString()),
+                        artifacts[j]);
+            }
+        }
+        final long build = System.nanoTime() - start;
+        final long memory = usedMemory() - before;
+
+        long found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            found += packages[i % PACKAGES].resolve(ranges[i % ranges.length])
+                    .size();
+        }
+        final long range = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            found += packages[i % PACKAGES].resolve(all[i % all.length])
+                    .size();
+            found += packages[i % PACKAGES].getLatestVersion().hashCode() & 1;
+        }
+        final long exact = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "%s: %,6d KB/package, build %,5d ms, range %,5d ns/query, "
+                        + "exact %,4d ns/query (%d)", label, Long
+                        .valueOf(memory / PACKAGES / 1024), Long
+                        .valueOf(build / 1000000), Long.valueOf(range
+                        / QUERIES), Long.valueOf(exact / QUERIES), Long
+                        .valueOf(found)));
+    }
+
+    private static VersionNumber[] makeVersions(final int count) {
+        final VersionNumber[] versions = new VersionNumber[count];
+        for (int i = 0; i < count; i++) {
+            versions[i] = new VersionNumber(1 + i / 1000, (i / 100) % 10,
+                    i % 100, String.format("%08d", Integer
+                            .valueOf(20100101 + i)));
+        }
+        return versions;
+    }
+
+    /*
+     * The artifacts are shared by all packages, as one artifact provides many
+     * packages, so that only the cost of the packages themselves is measured.
+     */
+    private static Artifact[] makeArtifacts(final int count) {
+        final Artifact[] artifacts = new Artifact[count];
+        for (int i = 0; i < count; i++) {
+            artifacts[i] = new Artifact("org.example", "example-jar",
+                    new VersionNumber(1, 0, 0, String.format("%08d", Integer
+                            .valueOf(20100101 + i))));
+        }
+        return artifacts;
+    }
+
+    /*
+     * Narrow ranges, as used to pick a few nightly builds, ordered at random
+     * so that the queries do not follow the layout in memory.
+     */
+    private static VersionRange[] makeRanges(final VersionNumber[] all) {
+        final Random random = new Random(42);
+        final VersionRange[] ranges = new VersionRange[1024];
+        for (int i = 0; i < ranges.length; i++) {
+            final int floor = random.nextInt(all.length);
+            final int ceiling = Math.min(all.length - 1, floor
+                    + random.nextInt(8));
+            ranges[i] = new VersionRange(all[floor], true, all[ceiling],
+                    random.nextBoolean());
+        }
+        return ranges;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
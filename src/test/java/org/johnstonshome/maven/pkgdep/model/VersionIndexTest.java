@@ -0,0 +1,160 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test cases checking that a {@link Package} behaves the same with its
+ * versions held in a {@link TreeVersionIndex} or an {@link ArrayVersionIndex}.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public class VersionIndexTest {
+
+    private static final String   NAME       = "com.example.api";
+
+    private static final String[] QUALIFIERS = { null, "", "BETA", "RC1",
+            "SNAPSHOT"                      };
+
+    @Test
+    public void testSameAsTree() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            final Package tree = new Package(NAME, Integer.MAX_VALUE);
+            final Package compact = new Package(NAME, 0);
+            final List<VersionNumber> added = new ArrayList<VersionNumber>();
+            for (int i = 0; i < 200; i++) {
+                final VersionNumber version = randomVersion(random);
+                final Artifact artifact = new Artifact("org.example",
+                        "example-jar", new VersionNumber(random.nextInt(4),
+                                random.nextInt(4)));
+                tree.addArtifact(version, artifact);
+                compact.addArtifact(version, artifact);
+                added.add(version);
+            }
+            assertSame(tree, compact);
+
+            for (final VersionNumber version : added) {
+                Assert.assertEquals(tree.resolve(version), compact
+                        .resolve(version));
+            }
+            Assert.assertNull(compact.resolve(new VersionNumber(9, 9)));
+            for (int i = 0; i < 200; i++) {
+                final VersionRange range = randomRange(random);
+                Assert.assertEquals(range.toString(), tree.resolve(range),
+                        compact.resolve(range));
+            }
+        }
+    }
+
+    @Test
+    public void testEqualButDistinctVersions() {
+        final Package test = new Package(NAME, 0);
+        for (final String version : Arrays.asList("1.0.0", "1.0.0.0", "0.9",
+                "1.1")) {
+            test.addArtifact(new VersionNumber(version), new Artifact(
+                    "org.example", "example-jar", new VersionNumber(version)));
+        }
+        Assert.assertEquals("[0.9, 1.0.0, 1.0.0.0, 1.1]", test.getVersions()
+                .toString());
+        Assert.assertEquals(3, test.resolve(new VersionRange("[1.0,1.1]"))
+                .size());
+        Assert.assertEquals(1, test.resolve(new VersionRange("[0.9,1.0.0.0)"))
+                .size());
+        Assert.assertEquals(1, test.resolve(new VersionRange("(1.0.0.0,1.1]"))
+                .size());
+    }
+
+    @Test
+    public void testBecomesCompact() {
+        final Package test = new Package(NAME);
+        final SortedSet<VersionNumber> versions = test.getVersions();
+        final Package expected = new Package(NAME, Integer.MAX_VALUE);
+        for (int i = Package.COMPACT_THRESHOLD * 2; i > 0; i--) {
+            final VersionNumber version = new VersionNumber(1, 0, i);
+            final Artifact artifact = new Artifact("org.example",
+                    "example-jar", version);
+            test.addArtifact(version, artifact);
+            expected.addArtifact(version, artifact);
+        }
+        /*
+         * A view taken before the move follows the package.
+         */
+        Assert.assertEquals(Package.COMPACT_THRESHOLD * 2, versions.size());
+        assertSame(expected, test);
+        Assert.assertEquals(new VersionNumber(1, 0, 1), versions.first());
+    }
+
+    private void assertSame(final Package expected, final Package actual) {
+        Assert.assertEquals(new ArrayList<VersionNumber>(expected
+                .getVersions()), new ArrayList<VersionNumber>(actual
+                .getVersions()));
+        Assert.assertEquals(expected.getVersions().size(), actual
+                .getVersions().size());
+        Assert.assertEquals(expected.getLatestVersion(), actual
+                .getLatestVersion());
+        Assert.assertEquals(expected.getVersions().first(), actual
+                .getVersions().first());
+        Assert.assertEquals(expected.getVersions().last(), actual
+                .getVersions().last());
+        final VersionNumber middle = new VersionNumber(1, 1);
+        Assert.assertEquals(new ArrayList<VersionNumber>(expected
+                .getVersions().headSet(middle)), new ArrayList<VersionNumber>(
+                actual.getVersions().headSet(middle)));
+        Assert.assertEquals(new ArrayList<VersionNumber>(expected
+                .getVersions().tailSet(middle)), new ArrayList<VersionNumber>(
+                actual.getVersions().tailSet(middle)));
+        for (final VersionNumber version : expected.getVersions()) {
+            Assert.assertTrue(actual.getVersions().contains(version));
+        }
+    }
+
+    private VersionNumber randomVersion(final Random random) {
+        final String qualifier = QUALIFIERS[random.nextInt(QUALIFIERS.length)];
+        final int major = random.nextInt(3);
+        final int minor = random.nextInt(3);
+        switch (random.nextInt(4)) {
+        case 0:
+            return new VersionNumber(major, minor);
+        case 1:
+            return new VersionNumber(major, minor, random.nextInt(3));
+        case 2:
+            return qualifier == null ? new VersionNumber(major, minor, random
+                    .nextInt(3), random.nextInt(3)) : new VersionNumber(major,
+                    minor, random.nextInt(3), qualifier);
+        default:
+            return new VersionNumber(major + "." + minor + "."
+                    + random.nextInt(3) + "." + random.nextInt(3)
+                    + (qualifier == null || qualifier.length() == 0 ? ""
+                            : "-" + qualifier));
+        }
+    }
+
+    private VersionRange randomRange(final Random random) {
+        final VersionNumber floor = randomVersion(random);
+        if (random.nextInt(4) == 0) {
+            return new VersionRange(floor, random.nextBoolean(), null, false);
+        }
+        final VersionNumber ceiling = randomVersion(random);
+        return floor.compareTo(ceiling) <= 0 ? new VersionRange(floor, random
+                .nextBoolean(), ceiling, random.nextBoolean())
+                : new VersionRange(ceiling, random.nextBoolean(), floor,
+                        random.nextBoolean());
+    }
+}
@@ -96,6 +96,54 @@ public class VersionNumberTest {
         testBadString("1.1.1-SOME	QUALIFIER"); // preserve TAB in string
     }
 
+    @Test
+    public void testParseSequence() {
+        final String buffer = "1.0=org.example:example-jar:2.1.3-TEST,";
+        VersionNumber test = new VersionNumber(buffer, 0, 3);
+        Assert.assertEquals("1.0", test.toString());
+        test = new VersionNumber(buffer, 28, 10);
+        Assert.assertEquals("2.1.3-TEST", test.toString());
+        Assert.assertEquals(new VersionNumber("2.1.3-TEST"), test);
+
+        test = new VersionNumber(new StringBuilder("x1.2.3.4x"), 1, 7);
+        Assert.assertEquals("1.2.3.4", test.toString());
+
+        try {
+            @SuppressWarnings("unused")
+            final VersionNumber number = new VersionNumber(buffer, 30, 10);
+            Assert.fail("Should not allow bounds outside the sequence");
+        } catch (IllegalArgumentException ex) {
+            // ignore, success
+        }
+    }
+
+    @Test
+    public void testParseAsSplit() {
+        /*
+         * Trailing empty components are dropped, as String.split does.
+         */
+        Assert.assertEquals("1", new VersionNumber("1.").toString());
+        Assert.assertEquals("1.2.3.4", new VersionNumber("1.2.3.4.")
+                .toString());
+        Assert.assertEquals("1.2-A", new VersionNumber("1.2.-A").toString());
+        Assert.assertEquals("1.2", new VersionNumber("+1.+2").toString());
+        Assert.assertEquals("2147483647", new VersionNumber("2147483647")
+                .toString());
+
+        testBadString("", "For input string: \"\"");
+        testBadString("1..2", "For input string: \"\"");
+        testBadString(".1", "For input string: \"\"");
+        testBadString("1.+", "For input string: \"+\"");
+        testBadString("2147483648", "For input string: \"2147483648\"");
+        testBadString("1.2x", "For input string: \"2x\"");
+        testBadString("...", "Invalid version specifier: ...");
+        testBadString("1.2.3.4.5-A", "Invalid version specifier: 1.2.3.4.5");
+        testBadString("1.0-A B",
+                "Invalid version string, badly formatted qualifier: A B");
+        testBadString("1.0-",
+                "Invalid version string, badly formatted qualifier: ");
+    }
+
     @Test
     public void testToString() {
         VersionNumber test = new VersionNumber(1);
@@ -202,6 +250,31 @@ public class VersionNumberTest {
         Assert.assertEquals(1, compare("2.0.0-TEST", "1.0.0-TEST"));
     }
 
+    @Test
+    public void testCompareComponentRange() {
+        Assert.assertEquals(-1, compare("1.2147483647", "2.0"));
+        Assert.assertEquals(-1, compare("1.0.2147483647", "1.1"));
+        Assert.assertEquals(-1, compare("1.0.0.2147483647", "1.0.1"));
+        Assert.assertEquals(1, compare("1.0.0.1", "1.0.0"));
+        Assert.assertEquals(-1, new VersionNumber(1, -1).compareTo(
+                new VersionNumber(1)));
+        Assert.assertEquals(0, compare("1.0.0.0", "1"));
+        Assert.assertTrue(compare("1.0.0-ALPHA", "1.0.0-BETA") < 0);
+        Assert.assertTrue(compare("1.0.0-ALPHA", "1.0.0") > 0);
+    }
+
+    @Test
+    public void testHashCode() {
+        Assert.assertEquals(new VersionNumber("1").hashCode(),
+                new VersionNumber("1.0.0").hashCode());
+        Assert.assertEquals(new VersionNumber("1.2.3-TEST").hashCode(),
+                new VersionNumber(1, 2, 3, new String("TEST")).hashCode());
+        Assert.assertEquals(new VersionNumber("1.2.3-TEST"),
+                new VersionNumber(1, 2, 3, new String("TEST")));
+        Assert.assertEquals("1.2.3-TEST", new VersionNumber(1, 2, 3, "TEST")
+                .toString());
+    }
+
     private boolean equals(final String lhs, final String rhs) {
         return new VersionNumber(lhs).equals(new VersionNumber(rhs));
     }
@@ -210,6 +283,19 @@ public class VersionNumberTest {
         return new VersionNumber(lhs).compareTo(new VersionNumber(rhs));
     }
 
+    private void testBadString(final String versionString,
+            final String message) {
+        try {
+            @SuppressWarnings("unused")
+            final VersionNumber number = new VersionNumber(versionString);
+            Assert.fail(String.format(
+                    "Version string '%s' should have thrown an exception.",
+                    versionString));
+        } catch (IllegalArgumentException ex) {
+            Assert.assertEquals(message, ex.getMessage());
+        }
+    }
+
     private void testBadString(final String versionString) {
         try {
             @SuppressWarnings("unused")
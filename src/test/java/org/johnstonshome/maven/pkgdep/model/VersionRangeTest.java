@@ -0,0 +1,112 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.model;
+
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link VersionRange}.
+ * 
+ * @author simonjo (simon@johnstonshome.org)
+ * 
+ */
+public class VersionRangeTest {
+
+    @Test
+    public void testParse() {
+        VersionRange test = new VersionRange("[1.2,2.0)");
+        Assert.assertEquals("1.2", test.getFloor().toString());
+        Assert.assertTrue(test.isFloorInclusive());
+        Assert.assertEquals("2.0", test.getCeiling().toString());
+        Assert.assertFalse(test.isCeilingInclusive());
+        Assert.assertEquals("[1.2,2.0)", test.toString());
+
+        test = new VersionRange(" ( 1.2 , 2.0 ] ");
+        Assert.assertFalse(test.isFloorInclusive());
+        Assert.assertTrue(test.isCeilingInclusive());
+        Assert.assertEquals("(1.2,2.0]", test.toString());
+
+        test = new VersionRange("1.3.0");
+        Assert.assertTrue(test.isFloorInclusive());
+        Assert.assertNull(test.getCeiling());
+        Assert.assertEquals("1.3.0", test.toString());
+
+        test = new VersionRange("(1.3,)");
+        Assert.assertNull(test.getCeiling());
+        Assert.assertEquals(test, new VersionRange(test.toString()));
+    }
+
+    @Test
+    public void testParseBadStrings() {
+        testBadString(null);
+        testBadString("");
+        testBadString("[1.0]");
+        testBadString("[1.0,2.0");
+        testBadString("[1.0,A)");
+        testBadString("BAD");
+    }
+
+    @Test
+    public void testIncludes() {
+        Assert.assertTrue(includes("[1.2,2.0)", "1.2"));
+        Assert.assertTrue(includes("[1.2,2.0)", "1.2.0"));
+        Assert.assertTrue(includes("[1.2,2.0)", "1.9.99"));
+        Assert.assertFalse(includes("[1.2,2.0)", "2.0"));
+        Assert.assertFalse(includes("[1.2,2.0)", "1.1"));
+        Assert.assertFalse(includes("(1.2,2.0]", "1.2"));
+        Assert.assertTrue(includes("(1.2,2.0]", "1.2.1"));
+        Assert.assertTrue(includes("(1.2,2.0]", "2.0.0"));
+        Assert.assertTrue(includes("(1.2,2.0]", "1.2.0-SNAPSHOT"));
+        Assert.assertTrue(includes("1.2", "99"));
+        Assert.assertFalse(includes("1.2", "1.1.9"));
+        Assert.assertFalse(includes("[2.0,1.0]", "1.5"));
+    }
+
+    @Test
+    public void testPackageResolve() {
+        final Package thePackage = new Package("com.example.api");
+        for (final String version : new String[] { "1.0", "1.2", "1.5",
+                "2.0", "2.1" }) {
+            thePackage.addArtifact(new VersionNumber(version), new Artifact(
+                    "org.example", "example-jar", new VersionNumber(version)));
+        }
+        Set<Artifact> found = thePackage.resolve(new VersionRange(
+                "[1.2,2.0)"));
+        Assert.assertEquals(2, found.size());
+        Assert.assertTrue(found.contains(new Artifact("org.example",
+                "example-jar", new VersionNumber("1.5"))));
+        found = thePackage.resolve(new VersionRange("1.5"));
+        Assert.assertEquals(3, found.size());
+        found = thePackage.resolve(new VersionNumber("1.5"), false,
+                new VersionNumber("2.1"), true);
+        Assert.assertEquals(2, found.size());
+        found = thePackage.resolve(new VersionNumber("1.5"), false);
+        Assert.assertEquals(2, found.size());
+    }
+
+    private boolean includes(final String range, final String version) {
+        return new VersionRange(range).includes(new VersionNumber(version));
+    }
+
+    private void testBadString(final String rangeString) {
+        try {
+            @SuppressWarnings("unused")
+            final VersionRange range = new VersionRange(rangeString);
+            Assert.fail(String.format(
+                    "Range string '%s' should have thrown an exception.",
+                    rangeString));
+        } catch (IllegalArgumentException ex) {
+            // ignore, this is success
+        }
+    }
+}
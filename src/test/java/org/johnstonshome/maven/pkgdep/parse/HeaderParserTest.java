@@ -0,0 +1,93 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org) (c)
+ * Copyright Simon Johnston 2009-2010. All rights reserved. For full license
+ * details, see the file LICENSE inncluded in the distribution of this code.
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the HeaderParser class
+ * 
+ * @author simonjo
+ * 
+ */
+public class HeaderParserTest {
+
+    @Test
+    public void testNamesAndParameters() {
+        final List<HeaderClause> clauses = HeaderParser
+                .parse("com.example.api;com.example.spi;version=1.5;"
+                        + "resolution:=optional,com.example.model");
+        Assert.assertEquals(2, clauses.size());
+        Assert.assertEquals(Arrays.asList("com.example.api",
+                "com.example.spi"), clauses.get(0).getNames());
+        Assert.assertEquals("1.5", clauses.get(0).getAttribute("version"));
+        Assert.assertEquals("optional", clauses.get(0).getDirective(
+                "resolution"));
+        Assert.assertNull(clauses.get(0).getAttribute("resolution"));
+        Assert.assertEquals(Arrays.asList("com.example.model"), clauses.get(1)
+                .getNames());
+        Assert.assertTrue(clauses.get(1).getAttributes().isEmpty());
+        Assert.assertTrue(clauses.get(1).getDirectives().isEmpty());
+    }
+
+    @Test
+    public void testQuotedSeparators() {
+        final List<HeaderClause> clauses = HeaderParser
+                .parse("com.example.api;version=\"[1.0, 2.0)\";"
+                        + "uses:=\"com.example.model,com.example.util\","
+                        + "com.example.model;x-note=\"a;b\\\"c\\\\\"");
+        Assert.assertEquals(2, clauses.size());
+        Assert.assertEquals("[1.0, 2.0)", clauses.get(0).getAttribute(
+                "version"));
+        Assert.assertEquals("com.example.model,com.example.util", clauses
+                .get(0).getDirective("uses"));
+        Assert.assertEquals("a;b\"c\\", clauses.get(1).getAttribute(
+                "x-note"));
+    }
+
+    @Test
+    public void testWhiteSpaceAndEmptyParts() {
+        final List<HeaderClause> clauses = HeaderParser
+                .parse(" ,com.example.api ;\n version = 1.5 ;;\r\n"
+                        + "\tmandatory := \"a\" ,, com.example.model , ");
+        Assert.assertEquals(2, clauses.size());
+        Assert.assertEquals("com.example.api", clauses.get(0).getNames().get(
+                0));
+        Assert.assertEquals("1.5", clauses.get(0).getAttribute("version"));
+        Assert.assertEquals("a", clauses.get(0).getDirective("mandatory"));
+        Assert.assertEquals("com.example.model", clauses.get(1).getNames()
+                .get(0));
+        Assert.assertTrue(HeaderParser.parse(" \n ").isEmpty());
+    }
+
+    @Test
+    public void testTypedAttribute() {
+        final HeaderClause clause = HeaderParser.parse(
+                "com.example.api;version:Version=\"1.5\"").get(0);
+        Assert.assertEquals("1.5", clause.getAttribute("version"));
+        Assert.assertEquals("com.example.api;version=\"1.5\"", clause
+                .toString());
+    }
+
+    @Test
+    public void testInvalid() {
+        for (final String header : new String[] { "version=1.0",
+                "com.example.api;version=", "com.example.api;version=\"1.0",
+                "com.example.api version=1.0", "com.example.api;=1.0" }) {
+            try {
+                HeaderParser.parse(header);
+                Assert.fail("Should not parse " + header);
+            } catch (IllegalArgumentException ex) {
+                // ignore, success
+            }
+        }
+    }
+}
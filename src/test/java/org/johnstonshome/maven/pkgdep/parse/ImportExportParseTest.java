@@ -6,14 +6,19 @@
 package org.johnstonshome.maven.pkgdep.parse;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.List;
 
 import junit.framework.Assert;
 
 import org.johnstonshome.maven.pkgdep.model.Artifact;
 import org.johnstonshome.maven.pkgdep.model.Package;
+import org.johnstonshome.maven.pkgdep.model.PackageImport;
 import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+import org.johnstonshome.maven.pkgdep.model.VersionRange;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test the ImportExportParser class
@@ -23,6 +28,9 @@ import org.junit.Test;
  */
 public class ImportExportParseTest {
 
+    @Rule
+    public TemporaryFolder folder          = new TemporaryFolder();
+
     private final String   srcDir          = "src/test/resources/root";
 
     private final Artifact defaultArtifact = new Artifact("example", "test",
@@ -60,6 +68,21 @@ public class ImportExportParseTest {
                 .toString());
     }
 
+    @Test
+    public void testExportPackageStringDefaultCanonical() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        final String test = "com.example.api, com.example.model; version=1.5";
+        final List<Package> packages = parser.parseExport(test, srcDir,
+                new Artifact("example", "test", new VersionNumber(
+                        "1.0-SNAPSHOT")));
+        Assert.assertEquals(2, packages.size());
+        Assert.assertEquals("1.0.0-SNAPSHOT", packages.get(0).getVersions()
+                .first().toString());
+        Assert.assertEquals("1.5", packages.get(1).getVersions().first()
+                .toString());
+    }
+
     @Test
     public void testExportPackageStringVersioned() {
         final ImportExportParser parser = new ImportExportParser();
@@ -78,6 +101,25 @@ public class ImportExportParseTest {
                 .toString());
     }
 
+    @Test
+    public void testExportPackageStringQuoted() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        final String test = "com.example.api;com.example.spi;"
+                + "uses:=\"com.example.model,com.example.util\";"
+                + "version=\"1.5\",\n com.example.model";
+        final List<Package> packages = parser.parseExport(test, srcDir,
+                defaultArtifact);
+        Assert.assertEquals(3, packages.size());
+        Assert.assertEquals("com.example.api", packages.get(0).getName());
+        Assert.assertEquals("com.example.spi", packages.get(1).getName());
+        Assert.assertEquals("com.example.model", packages.get(2).getName());
+        Assert.assertEquals("1.5", packages.get(1).getVersions().first()
+                .toString());
+        Assert.assertEquals("1.0.1", packages.get(2).getVersions().first()
+                .toString());
+    }
+
     @Test
     public void testExportPackageStringWild() {
         final ImportExportParser parser = new ImportExportParser();
@@ -85,7 +127,25 @@ public class ImportExportParseTest {
         final String test = "com.example.*";
         final List<Package> packages = parser.parseExport(test, srcDir,
                 defaultArtifact);
-        Assert.assertEquals(4, packages.size());
+        Assert.assertEquals(5, packages.size());
+        Assert.assertEquals("com.example.impl", packages.get(0).getName());
+        Assert.assertEquals("com.example.model.xml", packages.get(3)
+                .getName());
+    }
+
+    @Test
+    public void testExportPackageStringWildPrefix() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        List<Package> packages = parser.parseExport("com.example.m*",
+                srcDir, defaultArtifact);
+        Assert.assertEquals(2, packages.size());
+        Assert.assertEquals("com.example.model", packages.get(0).getName());
+        Assert.assertEquals("com.example.model.xml", packages.get(1)
+                .getName());
+
+        packages = parser.parseExport("*", srcDir, defaultArtifact);
+        Assert.assertEquals(5, packages.size());
     }
 
     @Test
@@ -95,7 +155,30 @@ public class ImportExportParseTest {
         final String test = "!com.example.impl, com.example.*";
         final List<Package> packages = parser.parseExport(test, srcDir,
                 defaultArtifact);
+        Assert.assertEquals(4, packages.size());
+    }
+
+    @Test
+    public void testExportPackageStringExcludeOrder() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        List<Package> packages = parser.parseExport(
+                "com.example.*, !com.example.impl", srcDir, defaultArtifact);
+        Assert.assertEquals(5, packages.size());
+
+        packages = parser.parseExport("!com.example.m*, com.example.*;"
+                + "version=2.0, com.example.util;version=3.0", srcDir,
+                defaultArtifact);
         Assert.assertEquals(3, packages.size());
+        for (final Package found : packages) {
+            Assert.assertFalse(found.getName().equals("com.example.model"));
+            Assert.assertEquals("2.0", found.getVersions().first()
+                    .toString());
+        }
+
+        packages = parser.parseExport("!com.example.*, com.example.api",
+                srcDir, defaultArtifact);
+        Assert.assertTrue(packages.isEmpty());
     }
 
     @Test
@@ -118,4 +201,56 @@ public class ImportExportParseTest {
         Assert.assertEquals("1.5.0", packages.get(1).getVersions().first()
                 .toString());
     }
+
+    @Test
+    public void testManifestFileIsUtf8() throws Exception {
+        final File manifest = this.folder.newFile("MANIFEST.MF");
+        Files.write(manifest.toPath(), ("Manifest-Version: 1.0\n"
+                + "Import-Package: org.example.caf\u00e9;version=1.0\n")
+                .getBytes("UTF-8"));
+        final List<PackageImport> imports = new ImportExportParser()
+                .parseManifestImports(manifest);
+        Assert.assertEquals(1, imports.size());
+        Assert.assertEquals("org.example.caf\u00e9", imports.get(0)
+                .getName());
+    }
+
+    @Test
+    public void testImportPackageString() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        final String test = "com.example.api;com.example.spi;"
+                + "version=\"[1.2, 2.0)\", com.example.model;version=1.5;"
+                + "resolution:=optional, !com.example.impl, com.example.*";
+        final List<PackageImport> imports = parser.parseImport(test);
+        Assert.assertEquals(3, imports.size());
+        Assert.assertEquals("com.example.api", imports.get(0).getName());
+        Assert.assertEquals("com.example.spi", imports.get(1).getName());
+        Assert.assertEquals(new VersionRange("[1.2,2.0)"), imports.get(0)
+                .getRange());
+        Assert.assertEquals(imports.get(0).getRange(), imports.get(1)
+                .getRange());
+        Assert.assertFalse(imports.get(0).isOptional());
+        Assert.assertEquals("com.example.model", imports.get(2).getName());
+        Assert.assertEquals(new VersionRange("1.5"), imports.get(2)
+                .getRange());
+        Assert.assertTrue(imports.get(2).isOptional());
+    }
+
+    @Test
+    public void testManifestImports() {
+        final ImportExportParser parser = new ImportExportParser();
+
+        final List<PackageImport> imports = parser
+                .parseManifestImports(new File(
+                        "src/test/resources/TEST_MANIFEST.MF"));
+        Assert.assertEquals(2, imports.size());
+        Assert.assertEquals("org.osgi.framework", imports.get(0).getName());
+        Assert.assertEquals(new VersionRange("1.3.0"), imports.get(0)
+                .getRange());
+        Assert.assertEquals("org.osgi.util.tracker", imports.get(1).getName());
+        Assert.assertEquals(new VersionRange("[1.3,2.0)"), imports.get(1)
+                .getRange());
+        Assert.assertTrue(imports.get(1).isOptional());
+    }
 }
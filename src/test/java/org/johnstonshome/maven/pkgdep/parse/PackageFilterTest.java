@@ -0,0 +1,80 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org) (c)
+ * Copyright Simon Johnston 2009-2010. All rights reserved. For full license
+ * details, see the file LICENSE inncluded in the distribution of this code.
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the PackageFilter class
+ * 
+ * @author simonjo
+ * 
+ */
+public class PackageFilterTest {
+
+    @Test
+    public void testFirstMatchWins() {
+        final PackageFilter filter = new PackageFilter(Arrays.asList(
+                "!org.acme.internal.*", "org.acme.*", "!org.acme.api",
+                "org.acme.internal.spi"));
+        Assert.assertTrue(filter.includes("org.acme"));
+        Assert.assertTrue(filter.includes("org.acme.api"));
+        Assert.assertTrue(filter.includes("org.acme.api.model"));
+        Assert.assertFalse(filter.includes("org.acme.internal"));
+        Assert.assertFalse(filter.includes("org.acme.internal.spi"));
+        Assert.assertFalse(filter.includes("org.acmex"));
+        Assert.assertFalse(filter.includes("com.acme"));
+        Assert.assertEquals(1, filter.firstMatch("org.acme.api"));
+        Assert.assertEquals(0, filter.firstMatch("org.acme.internal.spi"));
+        Assert.assertEquals(PackageFilter.NO_MATCH, filter
+                .firstMatch("org.acm"));
+        Assert.assertTrue(filter.isExclusion(0));
+        Assert.assertFalse(filter.isExclusion(1));
+    }
+
+    @Test
+    public void testExactBeforeWildcard() {
+        final PackageFilter filter = new PackageFilter(Arrays.asList(
+                "!org.acme.impl", "org.acme.*"));
+        Assert.assertFalse(filter.includes("org.acme.impl"));
+        Assert.assertTrue(filter.includes("org.acme.impl.util"));
+        Assert.assertTrue(filter.includes("org.acme.model"));
+    }
+
+    @Test
+    public void testNameWildcards() {
+        final PackageFilter filter = new PackageFilter(Arrays.asList(
+                "!org.acme.test*", "org.acme*", "*"));
+        Assert.assertFalse(filter.includes("org.acme.test"));
+        Assert.assertFalse(filter.includes("org.acme.tests.util"));
+        Assert.assertTrue(filter.includes("org.acme.tes"));
+        Assert.assertTrue(filter.includes("org.acmex"));
+        Assert.assertEquals(2, filter.firstMatch("com.other"));
+        Assert.assertEquals(2, filter.firstMatch(""));
+    }
+
+    @Test
+    public void testManyInstructions() {
+        final List<String> instructions = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            instructions.add("!org.acme.p" + i);
+            instructions.add("!org.acme.w" + i + ".*");
+        }
+        instructions.add("org.acme.*");
+        final PackageFilter filter = new PackageFilter(instructions);
+        Assert.assertFalse(filter.includes("org.acme.p999"));
+        Assert.assertFalse(filter.includes("org.acme.w999.impl"));
+        Assert.assertTrue(filter.includes("org.acme.p1000"));
+        Assert.assertTrue(filter.includes("org.acme.w1000.impl"));
+        Assert.assertEquals(2000, filter.firstMatch("org.acme.p9991"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org)
+ * (c) Copyright Simon Johnston 2009-2010. All rights reserved.
+ *
+ * For full license details, see the file LICENSE inncluded in the
+ * distribution of this code.
+ *
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+/**
+ * Times the walk of a generated source tree by {@link SourcePackageFinder},
+ * with one thread, with one per processor and with a cache that is up to
+ * date. This is not a test, run it by hand with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.johnstonshome.maven.pkgdep.parse.SourcePackageFinderBenchmark [packages]
+ * </pre>
+ *
+ * The tree, of 20,000 packages unless given, is made in a temporary
+ * directory and removed afterwards; each package is three levels below the
+ * root and holds one source file, and its directory times are moved back so
+ * the cache trusts them. After the first round the tree is likely to be in
+ * the operating system's cache.
+ *
+ * @author simonjo (simon@johnstonshome.org)
+ *
+ */
+public final class SourcePackageFinderBenchmark {
+
+    private static final int FAN_OUT = 20;
+    private static final int ROUNDS  = 5;
+
+    private SourcePackageFinderBenchmark() {
+        // not constructed
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args
+     *            optionally, the number of packages in the tree.
+     * @throws IOException
+     *             if the tree could not be made.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final Path root = Files.createTempDirectory("pkgdep-sources"); //$NON-NLS-1$
+        try {
+            for (int i = 0; i < size; i++) {
+                final Path dir = root.resolve(String.format(
+                        "com/p%d/q%d/r%d", Integer.valueOf(i / (FAN_OUT //$NON-NLS-1$
+                                * FAN_OUT)), Integer.valueOf(i / FAN_OUT
+                                % FAN_OUT), Integer.valueOf(i % FAN_OUT)));
+                Files.createDirectories(dir);
+                Files.createFile(dir.resolve("Type.java")); //$NON-NLS-1$
+            }
+            age(root);
+            final File cache = File.createTempFile("pkgdep-sources", //$NON-NLS-1$
+                    ".cache"); //$NON-NLS-1$
+            cache.deleteOnExit();
+            time(root.toFile(), null, 1);
+            final int processors = Runtime.getRuntime().availableProcessors();
+            for (int round = 0; round < ROUNDS; round++) {
+                final long serial = time(root.toFile(), null, 1);
+                final long parallel = time(root.toFile(), null, processors);
+                time(root.toFile(), cache, processors);
+                final long cached = time(root.toFile(), cache, processors);
+                System.out.println(String.format(
+                        "%,d packages: 1 thread %,6d ms, %d threads %,6d ms,"
+                                + " cached %,6d ms", Integer.valueOf(size),
+                        Long.valueOf(serial), Integer.valueOf(processors),
+                        Long.valueOf(parallel), Long.valueOf(cached)));
+                cache.delete();
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static long time(final File root, final File cache,
+            final int parallelism) throws IOException {
+        final long start = System.nanoTime();
+        final int found = new SourcePackageFinder(Collections
+                .singletonList(root), cache, parallelism).getPackages().size();
+        if (found == 0) {
+            throw new IllegalStateException("No packages found");
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void age(final Path root) throws IOException {
+        final FileTime old = FileTime.fromMillis(System.currentTimeMillis()
+                - 10 * SourcePackageFinder.TIME_RESOLUTION);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException ex) throws IOException {
+                Files.setLastModifiedTime(dir, old);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void delete(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org) (c)
+ * Copyright Simon Johnston 2009-2010. All rights reserved. For full license
+ * details, see the file LICENSE inncluded in the distribution of this code.
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the SourcePackageFinder class
+ *
+ * @author simonjo
+ *
+ */
+public class SourcePackageFinderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void touch(final File root, final String path)
+            throws IOException {
+        final File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Assert.assertTrue(file.createNewFile());
+    }
+
+    /*
+     * Move the time of every directory in a tree back, so the cache trusts
+     * it.
+     */
+    private static void age(final File directory, final long age) {
+        for (final File child : directory.listFiles()) {
+            if (child.isDirectory()) {
+                age(child, age);
+            }
+        }
+        Assert.assertTrue(directory.setLastModified(System
+                .currentTimeMillis() - age));
+    }
+
+    @Test
+    public void testFindRecursive() throws IOException {
+        final File src = this.folder.newFolder("src");
+        touch(src, "com/acme/Api.java");
+        touch(src, "com/acme/impl/Impl.java");
+        touch(src, "com/acme/impl/xml/deep/Reader.java");
+        touch(src, "com/acme/doc/readme.txt");
+        touch(src, "com/acme/META-INF/Ignored.java");
+        touch(src, "Default.java");
+
+        final SourcePackageFinder finder = new SourcePackageFinder(
+                Collections.singletonList(src), 2);
+        Assert.assertEquals(Arrays.asList("com.acme", "com.acme.impl",
+                "com.acme.impl.xml.deep"), Arrays.asList(finder.getPackages()
+                .toArray()));
+        Assert.assertEquals(Arrays.asList("com.acme.impl",
+                "com.acme.impl.xml.deep"), finder
+                .findPackages("com.acme.impl"));
+        Assert.assertTrue(finder.findPackages("com.acm").isEmpty());
+        Assert.assertEquals(3, finder.findPackages("").size());
+    }
+
+    @Test
+    public void testFindClasses() throws IOException {
+        final File classes = this.folder.newFolder("classes");
+        touch(classes, "com/acme/Api.class");
+        touch(classes, "com/acme/Api$Inner.class");
+
+        final SourcePackageFinder finder = new SourcePackageFinder(
+                Collections.singletonList(classes));
+        Assert.assertEquals(Collections.singletonList("com.acme"), finder
+                .findPackages("com"));
+    }
+
+    @Test
+    public void testFindManyRoots() throws IOException {
+        final File src = this.folder.newFolder("src");
+        final File generated = this.folder.newFolder("generated");
+        touch(src, "com/acme/Api.java");
+        touch(generated, "com/acme/Api.java");
+        touch(generated, "com/acme/gen/Parser.java");
+
+        final SourcePackageFinder finder = new SourcePackageFinder(Arrays
+                .asList(src, generated, new File(src, "missing")), 1);
+        Assert.assertEquals(Arrays.asList("com.acme", "com.acme.gen"),
+                finder.findPackages("com.acme"));
+    }
+
+    @Test
+    public void testCacheUnchanged() throws IOException {
+        final File src = this.folder.newFolder("src");
+        final File cache = new File(this.folder.getRoot(),
+                "target/pkgdep/sources.cache");
+        touch(src, "com/acme/Api.java");
+        touch(src, "com/acme/impl/Impl.java");
+        age(src, 10 * SourcePackageFinder.TIME_RESOLUTION);
+
+        SourcePackageFinder finder = new SourcePackageFinder(Collections
+                .singletonList(src), cache, 2);
+        Assert.assertEquals(2, finder.getPackages().size());
+        Assert.assertEquals(4, finder.getDirectoriesListed());
+        Assert.assertTrue(cache.isFile());
+
+        finder = new SourcePackageFinder(Collections.singletonList(src),
+                cache, 2);
+        Assert.assertEquals(Arrays.asList("com.acme", "com.acme.impl"),
+                finder.findPackages("com"));
+        Assert.assertEquals(0, finder.getDirectoriesListed());
+        Assert.assertEquals(4, finder.getDirectoriesReused());
+    }
+
+    @Test
+    public void testCacheChanged() throws IOException {
+        final File src = this.folder.newFolder("src");
+        final File cache = new File(this.folder.getRoot(), "sources.cache");
+        touch(src, "com/acme/Api.java");
+        touch(src, "com/acme/impl/Impl.java");
+        touch(src, "org/acme/Api.java");
+        age(src, 10 * SourcePackageFinder.TIME_RESOLUTION);
+        new SourcePackageFinder(Collections.singletonList(src), cache)
+                .getPackages();
+
+        touch(src, "com/acme/impl/xml/Reader.java");
+        Assert.assertTrue(new File(src, "org/acme/Api.java").delete());
+        age(new File(src, "com/acme/impl"),
+                5 * SourcePackageFinder.TIME_RESOLUTION);
+        age(new File(src, "org/acme"), 5 * SourcePackageFinder.TIME_RESOLUTION);
+        final SourcePackageFinder finder = new SourcePackageFinder(
+                Collections.singletonList(src), cache);
+        Assert.assertEquals(Arrays.asList("com.acme", "com.acme.impl",
+                "com.acme.impl.xml"), Arrays.asList(finder.getPackages()
+                .toArray()));
+        Assert.assertEquals(3, finder.getDirectoriesListed());
+        Assert.assertEquals(4, finder.getDirectoriesReused());
+    }
+
+    @Test
+    public void testCacheRecent() throws IOException {
+        final File src = this.folder.newFolder("src");
+        final File cache = new File(this.folder.getRoot(), "sources.cache");
+        touch(src, "com/acme/Api.java");
+        new SourcePackageFinder(Collections.singletonList(src), cache)
+                .getPackages();
+
+        /*
+         * Changed within the resolution of the directory times.
+         */
+        touch(src, "com/acme/Impl.java");
+        touch(src, "com/acme/impl/Impl.java");
+        final SourcePackageFinder finder = new SourcePackageFinder(
+                Collections.singletonList(src), cache);
+        Assert.assertEquals(2, finder.getPackages().size());
+        Assert.assertEquals(0, finder.getDirectoriesReused());
+    }
+
+    @Test
+    public void testCacheCorrupt() throws IOException {
+        final File src = this.folder.newFolder("src");
+        final File cache = this.folder.newFile("sources.cache");
+        final FileWriter writer = new FileWriter(cache);
+        try {
+            writer.write("pkgdep-sources 1\n12\tP\n");
+        } finally {
+            writer.close();
+        }
+        Assert.assertTrue(SourcePackageCache.load(cache).getRoot(src)
+                .isEmpty());
+        touch(src, "com/acme/Api.java");
+        final SourcePackageFinder finder = new SourcePackageFinder(
+                Collections.singletonList(src), cache);
+        Assert.assertEquals(1, finder.getPackages().size());
+        Assert.assertEquals(3, finder.getDirectoriesListed());
+
+        /*
+         * The corrupt cache is replaced, with nothing left beside it.
+         */
+        Assert.assertEquals(3, SourcePackageCache.load(cache).getRoot(src)
+                .size());
+        Assert.assertEquals(Collections.singletonList("sources.cache"),
+                Arrays.asList(this.folder.getRoot().list(
+                        new FilenameFilter() {
+                            public boolean accept(final File dir,
+                                    final String name) {
+                                return name.startsWith("sources.cache");
+                            }
+                        })));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructNull() {
+        new SourcePackageFinder(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructParallelism() {
+        new SourcePackageFinder(Collections.<File> emptyList(), 0);
+    }
+}
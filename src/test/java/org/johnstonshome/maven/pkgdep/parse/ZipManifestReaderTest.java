@@ -0,0 +1,138 @@
+/*
+ * Licensed Materials - Property of Simon Johnston (simon@johnstonshome.org) (c)
+ * Copyright Simon Johnston 2009-2010. All rights reserved. For full license
+ * details, see the file LICENSE inncluded in the distribution of this code.
+ */
+package org.johnstonshome.maven.pkgdep.parse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import org.johnstonshome.maven.pkgdep.model.Artifact;
+import org.johnstonshome.maven.pkgdep.model.Package;
+import org.johnstonshome.maven.pkgdep.model.VersionNumber;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the ZipManifestReader class
+ *
+ * @author simonjo
+ *
+ */
+public class ZipManifestReaderTest {
+
+    private static final String MANIFEST = "Manifest-Version: 1.0\r\n"
+            + "Bundle-Version: 2.1\r\n"
+            + "Export-Package: com.exa\r\n"
+            + " mple.api;version=\"2.0\",com.example.impl\r\n\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File makeJar(final String name, final String manifestName,
+            final int method, final String comment) throws IOException {
+        final File jar = this.folder.newFile(name);
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+                jar));
+        try {
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            out.closeEntry();
+            if (manifestName != null) {
+                final byte[] content = MANIFEST.getBytes("UTF-8");
+                final ZipEntry entry = new ZipEntry(manifestName);
+                entry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+            for (int i = 0; i < 100; i++) {
+                out.putNextEntry(new ZipEntry("com/example/impl/Type" + i
+                        + ".class"));
+                out.write(new byte[i]);
+                out.closeEntry();
+            }
+            if (comment != null) {
+                out.setComment(comment);
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    @Test
+    public void testDeflated() throws IOException {
+        final File jar = makeJar("deflated.jar", "META-INF/MANIFEST.MF",
+                ZipEntry.DEFLATED, null);
+        Assert.assertEquals(MANIFEST, new String(ZipManifestReader
+                .readManifest(jar), "UTF-8"));
+    }
+
+    @Test
+    public void testStored() throws IOException {
+        final File jar = makeJar("stored.jar", "META-INF/MANIFEST.MF",
+                ZipEntry.STORED, "a comment at the end of the file");
+        Assert.assertEquals(MANIFEST, new String(ZipManifestReader
+                .readManifest(jar), "UTF-8"));
+    }
+
+    @Test
+    public void testCaseInsensitive() throws IOException {
+        final File jar = makeJar("lower.jar", "META-INF/manifest.mf",
+                ZipEntry.DEFLATED, null);
+        Assert.assertEquals(MANIFEST, new String(ZipManifestReader
+                .readManifest(jar), "UTF-8"));
+    }
+
+    @Test
+    public void testNoManifest() throws IOException {
+        final File jar = makeJar("none.jar", null, ZipEntry.DEFLATED, null);
+        Assert.assertNull(ZipManifestReader.readManifest(jar));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotZip() throws IOException {
+        final File file = this.folder.newFile("not.jar");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(MANIFEST.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        ZipManifestReader.readManifest(file);
+    }
+
+    @Test
+    public void testParseExports() throws IOException {
+        final File jar = makeJar("bundle.jar", "META-INF/MANIFEST.MF",
+                ZipEntry.DEFLATED, null);
+        final List<Package> packages = new ImportExportParser()
+                .parseManifestExports(ZipManifestReader.readManifest(jar),
+                        new SourcePackageFinder(Collections
+                                .<File> emptyList()), new Artifact(
+                                "example", "test", new VersionNumber("1.0")));
+        Assert.assertEquals(2, packages.size());
+        Assert.assertEquals("com.example.api", packages.get(0).getName());
+        Assert.assertEquals("2.0", packages.get(0).getVersions().first()
+                .toString());
+        Assert.assertEquals("com.example.impl", packages.get(1).getName());
+        Assert.assertEquals("2.1.0", packages.get(1).getVersions().first()
+                .toString());
+    }
+}